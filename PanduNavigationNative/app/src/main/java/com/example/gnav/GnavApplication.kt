@@ -1,7 +1,14 @@
 package com.example.gnav
 
 import android.app.Application
+import com.example.gnav.service.MaintenanceJobService
 import dagger.hilt.android.HiltAndroidApp
 
 @HiltAndroidApp
-class GnavApplication : Application()
+class GnavApplication : Application() {
+    override fun onCreate() {
+        super.onCreate()
+        // Rolls up finished sessions and expires old breadcrumbs while idle and charging
+        MaintenanceJobService.schedule(this)
+    }
+}
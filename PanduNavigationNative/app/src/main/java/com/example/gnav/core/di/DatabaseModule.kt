@@ -22,7 +22,12 @@ object DatabaseModule {
             context,
             AppDatabase::class.java,
             "gnav_native_db"
-        ).build()
+        )
+            .addMigrations(
+                AppDatabase.MIGRATION_1_2, AppDatabase.MIGRATION_2_3, AppDatabase.MIGRATION_3_4,
+                AppDatabase.MIGRATION_4_5
+            )
+            .build()
     }
 
     @Provides
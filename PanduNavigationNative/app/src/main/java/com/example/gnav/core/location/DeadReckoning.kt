@@ -0,0 +1,250 @@
+package com.example.gnav.core.location
+
+import com.example.gnav.core.math.KalmanFilter
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.hypot
+import kotlin.math.max
+import kotlin.math.sin
+
+/** Step and heading events, as far as [DeadReckoning] is concerned. */
+interface MotionSensors {
+    interface Listener {
+        fun onStep(timeMs: Long)
+
+        /** Degrees clockwise from north the phone points, with the sensor's own accuracy. */
+        fun onHeading(timeMs: Long, degrees: Double, accuracyDegrees: Double)
+    }
+
+    /** @return false when the device lacks a step detector or a heading */
+    fun start(listener: Listener): Boolean
+
+    fun stop()
+}
+
+/**
+ * Carries the [KalmanFilter] estimate between sparse GPS fixes on counted
+ * steps and a compass heading.
+ *
+ * Each step moves the estimate one stride along the heading, handed to the
+ * filter once per [WINDOW_MS]; a window without steps brings the velocity to
+ * zero. The stride is the walk ratio (stride over step rate, about constant
+ * for a walker) times the current cadence. The walk ratio and where the
+ * phone points relative to the walking direction are learned by comparing
+ * the chord two fixes at least [CALIBRATION_METERS] apart draw with the
+ * chord the steps drew; dead reckoning is trusted once two such chords in a
+ * row agree within [MAX_OFFSET_JUMP_DEGREES].
+ *
+ * The error sigma is the last fix's accuracy plus [DRIFT_FRACTION] of the
+ * distance walked since; the error bound held against the limit is
+ * [BOUND_SIGMAS] of it. [shouldRequestFix] says when it has outgrown the
+ * limit.
+ *
+ * Not thread safe.
+ */
+class DeadReckoning(
+    private val filter: KalmanFilter,
+    private val maxErrorMeters: Double = DEFAULT_MAX_ERROR_METERS
+) {
+
+    companion object {
+        /** Two sigma of a 5 m fix plus 5 m of drift; a 10 m limit would ask for a fix on every step. */
+        const val DEFAULT_MAX_ERROR_METERS = 20.0
+        const val DRIFT_FRACTION = 0.1
+        const val BOUND_SIGMAS = 2.0
+        const val WINDOW_MS = 2_000L
+        /** Meters per step/s; 0.7 m strides at 1.8 steps/s. */
+        const val INITIAL_WALK_RATIO = 0.39
+        const val INITIAL_CADENCE = 1.8
+        const val MIN_STEP_LENGTH = 0.3
+        const val MAX_STEP_LENGTH = 1.2
+        const val CALIBRATION_METERS = 40.0
+        const val MAX_OFFSET_JUMP_DEGREES = 30.0
+        // Steps further apart than this are a pause, not a cadence
+        private const val MAX_STEP_INTERVAL_MS = 2_000L
+        private const val CADENCE_WEIGHT = 0.3
+        private const val CALIBRATION_WEIGHT = 0.5
+        private const val STRIDE_SIGMA_FRACTION = 0.1
+        // Without a heading or step for this long the sensors are taken as gone
+        private const val STALE_SENSOR_MS = 10_000L
+        private const val METERS_PER_DEGREE = 6371000.0 * PI / 180.0
+
+        private fun wrap(radians: Double): Double {
+            var r = radians
+            while (r > PI) r -= 2 * PI
+            while (r < -PI) r += 2 * PI
+            return r
+        }
+    }
+
+    // Latest heading, radians as the phone reports it
+    private var heading = Double.NaN
+    private var headingSigma = 0.0
+    private var lastEventMs = 0L
+    private var lastStepMs = 0L
+
+    /** Stride over step rate, meters per step/s. */
+    var walkRatio = INITIAL_WALK_RATIO
+        private set
+    var cadence = INITIAL_CADENCE
+        private set
+    private var headingOffset = 0.0 // radians from the phone's heading to the walking direction
+    private var agreeingChords = 0
+
+    // Steps since the calibration fix, along the phone's heading
+    private var calibrationLat = Double.NaN
+    private var calibrationLng = 0.0
+    private var chordEast = 0.0
+    private var chordNorth = 0.0
+
+    // Steps not yet handed to the filter
+    private var windowStartMs = 0L
+    private var pendingSteps = 0
+    private var pendingEast = 0.0
+    private var pendingNorth = 0.0
+    private var pendingVariance = 0.0
+    private var moving = false
+
+    private var fixAccuracy = Double.POSITIVE_INFINITY
+    private var walkedSinceFix = 0.0
+    private var fixRequested = false
+
+    var stepCount = 0L
+        private set
+
+    /** Stride at the current cadence, meters. */
+    val stepLength: Double
+        get() = (walkRatio * cadence).coerceIn(MIN_STEP_LENGTH, MAX_STEP_LENGTH)
+
+    /** Degrees from where the phone points to where the hiker walks. */
+    val headingOffsetDegrees: Double
+        get() = Math.toDegrees(headingOffset)
+
+    /** One sigma of the estimate's error since the last fix, meters, as Location.accuracy has it; infinite before the first. */
+    val errorSigma: Double
+        get() = fixAccuracy + DRIFT_FRACTION * walkedSinceFix
+
+    /** How far off the estimate could be since the last fix, meters; infinite before the first. */
+    val errorBound: Double
+        get() = BOUND_SIGMAS * errorSigma
+
+    /** Forgets the track, not the walk ratio and phone offset; reset the filter alongside. */
+    fun reset() {
+        calibrationLat = Double.NaN
+        chordEast = 0.0; chordNorth = 0.0
+        pendingEast = 0.0; pendingNorth = 0.0; pendingVariance = 0.0
+        pendingSteps = 0
+        moving = false
+        fixAccuracy = Double.POSITIVE_INFINITY
+        walkedSinceFix = 0.0
+        fixRequested = false
+    }
+
+    /** @return whether the filter's estimate moved */
+    fun onStep(timeMs: Long): Boolean {
+        lastEventMs = max(lastEventMs, timeMs)
+        val interval = timeMs - lastStepMs
+        lastStepMs = timeMs
+        if (interval in 1..MAX_STEP_INTERVAL_MS) {
+            cadence += CADENCE_WEIGHT * (1000.0 / interval - cadence)
+        }
+        if (heading.isNaN()) return false
+        stepCount++
+        val length = stepLength
+        chordEast += length * sin(heading)
+        chordNorth += length * cos(heading)
+        walkedSinceFix += length
+
+        val walking = heading + headingOffset
+        pendingEast += length * sin(walking)
+        pendingNorth += length * cos(walking)
+        val along = length * STRIDE_SIGMA_FRACTION
+        val across = length * headingSigma
+        pendingVariance += (along * along + across * across) / 2
+        pendingSteps++
+        if (!moving) {
+            moving = true
+            windowStartMs = timeMs
+        }
+        return timeMs - windowStartMs >= WINDOW_MS && flush(timeMs)
+    }
+
+    /** @return whether the filter's estimate moved, when a pause brings it to a stop */
+    fun onHeading(timeMs: Long, degrees: Double, accuracyDegrees: Double): Boolean {
+        lastEventMs = max(lastEventMs, timeMs)
+        heading = Math.toRadians(degrees)
+        headingSigma = Math.toRadians(accuracyDegrees)
+        if (moving && timeMs - lastStepMs >= WINDOW_MS) {
+            moving = false
+            // The last steps end where they were taken, then the estimate stands still
+            if (pendingSteps > 0) flush(lastStepMs)
+            return flush(timeMs)
+        }
+        return false
+    }
+
+    /** Folds in a GPS fix: the steps up to it first, then the fix, then what it says about stride and offset. */
+    fun onFix(lat: Double, lng: Double, accuracy: Float, timeMs: Long) {
+        if (moving) flush(timeMs)
+        filter.process(lat, lng, accuracy, timeMs)
+        calibrate(lat, lng)
+        fixAccuracy = max(accuracy.toDouble(), filter.accuracy)
+        walkedSinceFix = 0.0
+        fixRequested = false
+    }
+
+    /** Calibrated, with sensors still delivering at [timeMs]. */
+    fun isActive(timeMs: Long): Boolean = agreeingChords >= 2 && timeMs - lastEventMs < STALE_SENSOR_MS
+
+    /** True once per fix, when the error bound has outgrown the limit while active; the next fix clears it. */
+    fun shouldRequestFix(timeMs: Long): Boolean {
+        if (fixRequested || !isActive(timeMs) || errorBound <= maxErrorMeters) return false
+        fixRequested = true
+        return true
+    }
+
+    // Hands the pending steps to the filter; only moves it once calibrated and past a fix
+    private fun flush(timeMs: Long): Boolean {
+        val advanced = agreeingChords >= 2 && !calibrationLat.isNaN()
+        if (advanced) filter.advance(pendingEast, pendingNorth, pendingVariance, timeMs)
+        pendingEast = 0.0; pendingNorth = 0.0; pendingVariance = 0.0
+        pendingSteps = 0
+        windowStartMs = timeMs
+        return advanced
+    }
+
+    private fun calibrate(lat: Double, lng: Double) {
+        if (calibrationLat.isNaN()) {
+            startChord(lat, lng)
+            return
+        }
+        val stepped = hypot(chordEast, chordNorth)
+        // Too short to tell direction and scale apart from GPS noise; keep stepping
+        if (stepped < CALIBRATION_METERS) return
+        val gpsEast = (lng - calibrationLng) * METERS_PER_DEGREE * cos(Math.toRadians(calibrationLat))
+        val gpsNorth = (lat - calibrationLat) * METERS_PER_DEGREE
+        val offset = atan2(gpsEast, gpsNorth) - atan2(chordEast, chordNorth)
+        val scale = hypot(gpsEast, gpsNorth) / stepped
+        val jump = wrap(offset - headingOffset)
+        if (agreeingChords == 0 || abs(jump) > Math.toRadians(MAX_OFFSET_JUMP_DEGREES)) {
+            // First chord, or the phone moved: take it as is and wait for the next to agree
+            headingOffset = wrap(offset)
+            walkRatio *= scale
+            agreeingChords = 1
+        } else {
+            headingOffset = wrap(headingOffset + CALIBRATION_WEIGHT * jump)
+            walkRatio *= 1 + CALIBRATION_WEIGHT * (scale - 1)
+            agreeingChords++
+        }
+        startChord(lat, lng)
+    }
+
+    private fun startChord(lat: Double, lng: Double) {
+        calibrationLat = lat
+        calibrationLng = lng
+        chordEast = 0.0
+        chordNorth = 0.0
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.gnav.core.location
+
+import com.example.gnav.core.math.DeviationEngine
+import com.example.gnav.core.math.GeoMath
+import kotlin.math.max
+import kotlin.math.min
+
+/** Where fixes come from, as far as [SamplingScheduler] is concerned. */
+interface LocationSource {
+    /** Replaces the current request, if any; fixes keep arriving on the same callback. */
+    fun request(request: SamplingScheduler.Request)
+
+    /** One fix as soon as possible, delivered like the others; the current request stays. */
+    fun requestFix()
+
+    /** Stops fixes until the next [request]. */
+    fun stop()
+}
+
+/**
+ * Picks how often, how accurately and how batched fixes are requested, from
+ * what the last fix said about the hiker: every second, unbatched, near or
+ * off the trail or within [NEAR_EDGE_MARGIN_METERS] of the warning distance;
+ * every few seconds while walking and less on a slow climb, batched no
+ * longer than one interval; a coarse fix every half minute at rest. A low battery (not charging) doubles
+ * every interval. While [DeadReckoning] carries the estimate on steps,
+ * every mode but the alert one only asks for a backstop fix each
+ * [DEAD_RECKONING_INTERVAL_MS].
+ *
+ * More frequent modes are taken at once; a less frequent one only after the
+ * current mode's [Mode.dwellMs] of fixes calling for less, so a noisy speed
+ * or one fix back on the trail doesn't flap the request. The filter's speed
+ * is capped by the net speed away from where the hiker last stopped.
+ *
+ * Not thread safe.
+ */
+class SamplingScheduler(private val source: LocationSource) {
+
+    companion object {
+        /** The alert mode starts this far short of the warning distance. */
+        const val NEAR_EDGE_MARGIN_METERS = 20.0
+        const val NEAR_EDGE_METERS = DeviationEngine.WARNING_THRESHOLD - NEAR_EDGE_MARGIN_METERS
+        const val MOVING_SPEED = 0.5
+        const val SLOW_SPEED = 0.25
+        const val REST_RADIUS_METERS = 20.0
+        const val LOW_BATTERY_PERCENT = 20
+        const val BATTERY_HYSTERESIS_PERCENT = 5
+        const val DEAD_RECKONING_INTERVAL_MS = 300_000L
+
+        // [battery saver][dead reckoning][mode]
+        private val REQUESTS = listOf(false, true).map { saver ->
+            listOf(false, true).map { reckoning -> Mode.values().map { Request(it, saver, reckoning) } }
+        }
+
+        internal fun wanted(speed: Double, deviationMeters: Double, status: DeviationEngine.SafetyStatus): Mode = when {
+            // A negative distance means no trail to measure against; that says nothing about danger
+            deviationMeters >= NEAR_EDGE_METERS -> Mode.ALERT
+            deviationMeters >= 0 && status != DeviationEngine.SafetyStatus.SAFE -> Mode.ALERT
+            speed >= MOVING_SPEED -> Mode.MOVING
+            speed >= SLOW_SPEED -> Mode.SLOW
+            else -> Mode.RESTING
+        }
+    }
+
+    enum class Accuracy { HIGH, BALANCED, LOW_POWER }
+
+    /** Most frequent first. */
+    enum class Mode(
+        val intervalMs: Long,
+        val accuracy: Accuracy,
+        val maxDelayMs: Long,
+        val minDistanceMeters: Float,
+        /** How long lower modes must be called for before leaving this one. */
+        val dwellMs: Long
+    ) {
+        ALERT(1_000, Accuracy.HIGH, 0, 0f, 30_000),
+        MOVING(4_000, Accuracy.HIGH, 4_000, 0f, 60_000),
+        SLOW(10_000, Accuracy.HIGH, 10_000, 0f, 120_000),
+        RESTING(30_000, Accuracy.BALANCED, 60_000, 5f, 0)
+    }
+
+    class Request internal constructor(val mode: Mode, val batterySaver: Boolean, deadReckoning: Boolean) {
+        private val factor = if (batterySaver) 2 else 1
+        // The alert mode checks every second against the trail; steps don't replace that
+        val deadReckoning = deadReckoning && mode != Mode.ALERT
+        // Sparse fixes correct the steps, so each should be good and come at once
+        val intervalMs =
+            (if (this.deadReckoning) max(mode.intervalMs, DEAD_RECKONING_INTERVAL_MS) else mode.intervalMs) * factor
+        /** Fixes other apps caused are taken up to this often. */
+        val minIntervalMs = intervalMs / 2
+        /** 0: deliver every fix at once. */
+        val maxDelayMs = if (this.deadReckoning) 0 else mode.maxDelayMs * factor
+        val accuracy = when {
+            this.deadReckoning -> Accuracy.HIGH
+            batterySaver && mode.accuracy == Accuracy.BALANCED -> Accuracy.LOW_POWER
+            else -> mode.accuracy
+        }
+        val minDistanceMeters = if (this.deadReckoning) 0f else mode.minDistanceMeters
+
+        override fun toString() = "$mode${if (batterySaver) " (battery saver)" else ""}" +
+            "${if (deadReckoning) " (dead reckoning)" else ""}: every $intervalMs ms, " +
+            "$accuracy, batched up to $maxDelayMs ms"
+    }
+
+    var mode = Mode.MOVING
+        private set
+    var batterySaver = false
+        private set
+    var deadReckoning = false
+        private set
+    /** Request changes since construction. */
+    var switchCount = 0
+        private set
+    val request: Request
+        get() = REQUESTS[if (batterySaver) 1 else 0][if (deadReckoning) 1 else 0][mode.ordinal]
+
+    private var running = false
+    // Stepping down: since when every fix called for less, and the most it called for
+    private var downSinceMs = -1L
+    private var downTarget = Mode.MOVING
+    // Where the hiker was when they last moved REST_RADIUS_METERS
+    private var anchorLat = Double.NaN
+    private var anchorLng = 0.0
+    private var anchorMs = 0L
+
+    /** Requests fixes at walking pace until the first ones say otherwise. */
+    fun start() {
+        mode = Mode.MOVING
+        downSinceMs = -1
+        anchorLat = Double.NaN
+        running = true
+        source.request(request)
+    }
+
+    fun stop() {
+        running = false
+        source.stop()
+    }
+
+    /**
+     * Feeds one processed fix: filtered position, estimated speed (m/s),
+     * distance to the trail (negative when unknown) and status.
+     *
+     * @return whether the request changed
+     */
+    fun update(
+        timeMs: Long,
+        lat: Double,
+        lng: Double,
+        speed: Double,
+        deviationMeters: Double,
+        status: DeviationEngine.SafetyStatus
+    ): Boolean {
+        var netSpeed = speed
+        if (anchorLat.isNaN() || GeoMath.distanceMeters(anchorLat, anchorLng, lat, lng) >= REST_RADIUS_METERS) {
+            anchorLat = lat
+            anchorLng = lng
+            anchorMs = timeMs
+        } else if (timeMs > anchorMs) {
+            netSpeed = min(speed, REST_RADIUS_METERS * 1000 / (timeMs - anchorMs))
+        }
+        val wanted = wanted(netSpeed, deviationMeters, status)
+        if (wanted.ordinal <= mode.ordinal) {
+            downSinceMs = -1
+            return wanted != mode && switchTo(wanted)
+        }
+        if (downSinceMs < 0) {
+            downSinceMs = timeMs
+            downTarget = wanted
+        } else if (wanted.ordinal < downTarget.ordinal) {
+            downTarget = wanted
+        }
+        if (timeMs - downSinceMs < mode.dwellMs) {
+            return false
+        }
+        downSinceMs = -1
+        return switchTo(downTarget)
+    }
+
+    /** @return whether the request changed */
+    fun setBattery(percent: Int, charging: Boolean): Boolean {
+        val saver = if (batterySaver) {
+            !charging && percent < LOW_BATTERY_PERCENT + BATTERY_HYSTERESIS_PERCENT
+        } else {
+            !charging && percent <= LOW_BATTERY_PERCENT
+        }
+        if (saver == batterySaver) return false
+        batterySaver = saver
+        return request()
+    }
+
+    /** @return whether the request changed */
+    fun setDeadReckoning(active: Boolean): Boolean {
+        if (active == deadReckoning) return false
+        deadReckoning = active
+        return request()
+    }
+
+    private fun switchTo(next: Mode): Boolean {
+        mode = next
+        return request()
+    }
+
+    private fun request(): Boolean {
+        switchCount++
+        if (running) source.request(request)
+        return true
+    }
+}
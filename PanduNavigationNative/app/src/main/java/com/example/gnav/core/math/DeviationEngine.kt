@@ -4,7 +4,7 @@ import com.example.gnav.domain.model.Coord
 import kotlin.math.min
 
 object DeviationEngine {
-    private const val WARNING_THRESHOLD = 50.0
+    const val WARNING_THRESHOLD = 50.0
     private const val DANGER_THRESHOLD = 150.0
 
     enum class SafetyStatus {
@@ -39,6 +39,25 @@ object DeviationEngine {
             }
         }
 
+        return classify(minDistance)
+    }
+
+    /**
+     * Same check, but consecutive fixes only search around the segment the
+     * [cursor] matched last time. The cursor also exposes the matched segment
+     * index and along-track position.
+     */
+    fun calculateDeviation(
+        current: Coord,
+        path: List<Coord>,
+        cursor: TrailCursor
+    ): DeviationResult {
+        val match = cursor.match(current, path)
+            ?: return DeviationResult.OffTrail(-1.0, SafetyStatus.DANGER)
+        return classify(match.distance)
+    }
+
+    private fun classify(minDistance: Double): DeviationResult {
         return if (minDistance <= WARNING_THRESHOLD) {
             DeviationResult.OnTrail
         } else {
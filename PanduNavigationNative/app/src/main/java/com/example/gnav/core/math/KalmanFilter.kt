@@ -1,54 +1,181 @@
 package com.example.gnav.core.math
 
-class KalmanFilter(initialVariance: Float) {
-    var timestamp: Long = System.currentTimeMillis()
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.sqrt
+
+/**
+ * Constant-velocity Kalman filter for GPS fixes.
+ *
+ * State is [east, north, vEast, vNorth] in meters in a local frame anchored
+ * at the first fix, driven by white-noise acceleration of [accelerationNoise]
+ * m/s^2; each fix measures position with its accuracy as the sigma. Predicting
+ * with the velocity keeps the estimate on a walking hiker instead of behind
+ * them. The axes never correlate under an isotropic measurement, so the 4x4
+ * covariance is kept as two 2x2 blocks of plain doubles and a step allocates
+ * nothing. The frame follows the hiker every [REANCHOR_METERS].
+ *
+ * Not thread safe.
+ */
+class KalmanFilter(accelerationNoise: Double = DEFAULT_ACCELERATION_NOISE) {
+
+    companion object {
+        /** Tuned on replays of the Merbabu tracks at 1-10 s fix intervals. */
+        const val DEFAULT_ACCELERATION_NOISE = 0.1
+        const val REANCHOR_METERS = 5_000.0
+        private const val INITIAL_VELOCITY_SIGMA = 2.0
+        private const val MIN_ACCURACY = 1f
+        private const val METERS_PER_DEGREE = 6371000.0 * Math.PI / 180.0
+    }
+
+    private val q = accelerationNoise * accelerationNoise
+    private var initialized = false
+
+    var timestamp: Long = 0
         private set
     var lat: Double = 0.0
         private set
     var lng: Double = 0.0
         private set
-    private var variance: Float = initialVariance // P matrix
 
-    fun setState(lat: Double, lng: Double, timestamp: Long, accuracy: Float) {
-        this.lat = lat
-        this.lng = lng
-        this.timestamp = timestamp
-        this.variance = accuracy * accuracy
+    // Frame: equirectangular around the origin, same scale both ways
+    private var originLat = 0.0
+    private var originLng = 0.0
+    private var metersPerDegLng = METERS_PER_DEGREE
+
+    private var e = 0.0
+    private var n = 0.0
+    /** Estimated velocity towards east, m/s. */
+    var velocityEast = 0.0
+        private set
+    /** Estimated velocity towards north, m/s. */
+    var velocityNorth = 0.0
+        private set
+
+    private var ePP = 0.0
+    private var ePV = 0.0
+    private var eVV = 0.0
+    private var nPP = 0.0
+    private var nPV = 0.0
+    private var nVV = 0.0
+
+    val speed: Double
+        get() = sqrt(velocityEast * velocityEast + velocityNorth * velocityNorth)
+
+    /** Degrees clockwise from north, 0..360; meaningless while standing still. */
+    val bearing: Double
+        get() = Math.toDegrees(atan2(velocityEast, velocityNorth)).let { if (it < 0) it + 360 else it }
+
+    /** One-sigma position uncertainty of the estimate, meters. */
+    val accuracy: Double
+        get() = sqrt((ePP + nPP) / 2)
+
+    /** Forgets the track; the next fix starts a new one. */
+    fun reset() {
+        initialized = false
     }
 
-    /**
-     * Kalman filter processing for latitude and longitude (simplified).
-     */
+    /** Folds in one fix; fixes must arrive oldest first. */
     fun process(latMeasurement: Double, lngMeasurement: Double, accuracy: Float, timestampMillis: Long) {
-        var acc = accuracy
-        if (acc < 1) acc = 1f
-        
-        if (variance < 0) {
-            // Uninitialized (though we init with constructor, explicit reset check)
-            setState(latMeasurement, lngMeasurement, timestampMillis, acc)
+        val acc = accuracy.coerceAtLeast(MIN_ACCURACY).toDouble()
+        val r = acc * acc
+        if (!initialized) {
+            anchor(latMeasurement, lngMeasurement)
+            e = 0.0; n = 0.0; velocityEast = 0.0; velocityNorth = 0.0
+            ePP = r; nPP = r; ePV = 0.0; nPV = 0.0
+            eVV = INITIAL_VELOCITY_SIGMA * INITIAL_VELOCITY_SIGMA; nVV = eVV
+            timestamp = timestampMillis
+            lat = latMeasurement
+            lng = lngMeasurement
+            initialized = true
             return
         }
 
-        val timeInc = timestampMillis - this.timestamp
-        if (timeInc > 0) {
-            // Apply process noise. Q_METERS_PER_SECOND assumed 1m/s error growth? 
-            // Original used 0.001f factor? 
-            // variance += timeInc * 0.001f * timeInc * 0.001f;
-            // Let's match the Java implementation exactly.
-            val factor = timeInc * 0.001f
-            variance += factor * factor
-            this.timestamp = timestampMillis
+        if (timestampMillis > timestamp) {
+            predict((timestampMillis - timestamp) / 1000.0)
+            timestamp = timestampMillis
         }
 
-        // Kalman gain K = P / (P + R)
-        val k = variance / (variance + acc * acc)
+        var s = ePP + r
+        var k0 = ePP / s
+        var k1 = ePV / s
+        var y = (lngMeasurement - originLng) * metersPerDegLng - e
+        e += k0 * y
+        velocityEast += k1 * y
+        eVV -= k1 * ePV
+        ePV *= 1 - k0
+        ePP *= 1 - k0
+
+        s = nPP + r
+        k0 = nPP / s
+        k1 = nPV / s
+        y = (latMeasurement - originLat) * METERS_PER_DEGREE - n
+        n += k0 * y
+        velocityNorth += k1 * y
+        nVV -= k1 * nPV
+        nPV *= 1 - k0
+        nPP *= 1 - k0
 
-        // Update state
-        lat += k * (latMeasurement - lat)
-        lng += k * (lngMeasurement - lng)
+        lat = originLat + n / METERS_PER_DEGREE
+        lng = originLng + e / metersPerDegLng
+        if (e * e + n * n > REANCHOR_METERS * REANCHOR_METERS) {
+            anchor(lat, lng)
+            e = 0.0
+            n = 0.0
+        }
+    }
+
+    /**
+     * Moves the estimate by a measured displacement, meters, such as counted
+     * steps along a compass heading, instead of predicting it from the
+     * velocity. Position variance grows by [variance] per axis, and the
+     * velocity becomes the displacement over the time since the last step,
+     * which also decouples it from the position. Ignored before the first fix.
+     */
+    fun advance(east: Double, north: Double, variance: Double, timestampMillis: Long) {
+        if (!initialized) return
+        val dt = (timestampMillis - timestamp).coerceAtLeast(1) / 1000.0
+        e += east
+        n += north
+        velocityEast = east / dt
+        velocityNorth = north / dt
+        ePP += variance
+        nPP += variance
+        ePV = 0.0
+        nPV = 0.0
+        eVV = variance / (dt * dt) + q * dt
+        nVV = eVV
+        timestamp = maxOf(timestamp, timestampMillis)
+        lat = originLat + n / METERS_PER_DEGREE
+        lng = originLng + e / metersPerDegLng
+        if (e * e + n * n > REANCHOR_METERS * REANCHOR_METERS) {
+            anchor(lat, lng)
+            e = 0.0
+            n = 0.0
+        }
+    }
+
+    // x' = F x with F = [1 dt; 0 1], P' = F P F^T + Q for white-noise acceleration
+    private fun predict(dt: Double) {
+        val dt2 = dt * dt
+        val qPP = q * dt2 * dt / 3
+        val qPV = q * dt2 / 2
+        val qVV = q * dt
+
+        e += velocityEast * dt
+        ePP += 2 * dt * ePV + dt2 * eVV + qPP
+        ePV += dt * eVV + qPV
+        eVV += qVV
+
+        n += velocityNorth * dt
+        nPP += 2 * dt * nPV + dt2 * nVV + qPP
+        nPV += dt * nVV + qPV
+        nVV += qVV
+    }
 
-        // Update covariance
-        // P = (1 - K) * P
-        variance = (1 - k) * variance
+    private fun anchor(lat: Double, lng: Double) {
+        originLat = lat
+        originLng = lng
+        metersPerDegLng = METERS_PER_DEGREE * cos(Math.toRadians(lat))
     }
 }
@@ -0,0 +1,120 @@
+package com.example.gnav.core.math
+
+import com.example.gnav.domain.model.Coord
+import kotlin.math.cos
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Incremental matcher for one trail polyline.
+ *
+ * Consecutive fixes are a few meters apart, so the cursor remembers the last
+ * matched segment and searches a window around it, doubling the window while
+ * the best hit sits on its edge. The whole polyline is only rescanned when the
+ * window's best distance exceeds [reacquireDistance] (kept below the WARNING
+ * band so the safety status never depends on the window).
+ */
+class TrailCursor(
+    private val reacquireDistance: Double = 30.0
+) {
+    data class Match(
+        val segmentIndex: Int,
+        val alongTrack: Double, // meters from the trail start
+        val distance: Double
+    )
+
+    private var path: List<Coord> = emptyList()
+    private var cumulative = DoubleArray(0)
+    private var segment = -1
+
+    var lastMatch: Match? = null
+        private set
+
+    fun match(current: Coord, path: List<Coord>): Match? {
+        if (path.size < 2) {
+            reset()
+            return null
+        }
+        if (path !== this.path) attach(path)
+
+        val windowed = if (segment >= 0) searchWindow(current) else -1
+        val best = if (windowed >= 0 && distanceTo(current, windowed) <= reacquireDistance) {
+            windowed
+        } else {
+            searchRange(current, 0, path.size - 2)
+        }
+
+        segment = best
+        val match = Match(best, alongTrack(current, best), distanceTo(current, best))
+        lastMatch = match
+        return match
+    }
+
+    fun reset() {
+        path = emptyList()
+        cumulative = DoubleArray(0)
+        segment = -1
+        lastMatch = null
+    }
+
+    private fun attach(path: List<Coord>) {
+        this.path = path
+        segment = -1
+        cumulative = DoubleArray(path.size)
+        for (i in 1 until path.size) {
+            val a = path[i - 1]
+            val b = path[i]
+            cumulative[i] = cumulative[i - 1] + GeoMath.distanceMeters(a.lat, a.lng, b.lat, b.lng)
+        }
+    }
+
+    private fun searchWindow(current: Coord): Int {
+        val last = path.size - 2
+        var window = INITIAL_WINDOW
+        while (true) {
+            val from = max(0, segment - window)
+            val to = min(last, segment + window)
+            val best = searchRange(current, from, to)
+            val atEdge = (best == from && from > 0) || (best == to && to < last)
+            if (!atEdge || window >= MAX_WINDOW) return best
+            window *= 2
+        }
+    }
+
+    private fun searchRange(current: Coord, from: Int, to: Int): Int {
+        var best = from
+        var minDistance = Double.MAX_VALUE
+        for (i in from..to) {
+            val dist = distanceTo(current, i)
+            if (dist < minDistance) {
+                minDistance = dist
+                best = i
+            }
+        }
+        return best
+    }
+
+    private fun distanceTo(current: Coord, i: Int): Double {
+        val p1 = path[i]
+        val p2 = path[i + 1]
+        return GeoMath.distanceToSegment(current.lat, current.lng, p1.lat, p1.lng, p2.lat, p2.lng)
+    }
+
+    // Projection of the fix onto segment i in a local meter frame
+    private fun alongTrack(current: Coord, i: Int): Double {
+        val p1 = path[i]
+        val p2 = path[i + 1]
+        val lngScale = cos(Math.toRadians(current.lat))
+        val dx = (p2.lng - p1.lng) * lngScale
+        val dy = p2.lat - p1.lat
+        val lenSq = dx * dx + dy * dy
+        val t = if (lenSq == 0.0) 0.0 else
+            (((current.lng - p1.lng) * lngScale * dx + (current.lat - p1.lat) * dy) / lenSq).coerceIn(0.0, 1.0)
+        return cumulative[i] + t * (cumulative[i + 1] - cumulative[i])
+    }
+
+    private companion object {
+        const val INITIAL_WINDOW = 8
+        const val MAX_WINDOW = 512
+    }
+}
@@ -3,13 +3,96 @@ package com.example.gnav.data.db
 import androidx.room.Database
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.example.gnav.domain.model.Coord
+import kotlinx.serialization.json.Json
 
 @Database(
-    entities = [MountainEntity::class, TrailEntity::class, BreadcrumbEntity::class],
-    version = 1,
+    entities = [
+        MountainEntity::class, TrailEntity::class, BreadcrumbEntity::class, SessionEntity::class,
+        AssetManifestEntity::class
+    ],
+    version = 5,
     exportSchema = false
 )
 @TypeConverters(Converters::class)
 abstract class AppDatabase : RoomDatabase() {
     abstract fun navigationDao(): NavigationDao
+
+    companion object {
+        /**
+         * 1 -> 2: trails.geometry goes from kotlinx JSON text to a CoordCodec BLOB.
+         * SQLite can't change a column type in place, so the table is rebuilt.
+         */
+        val MIGRATION_1_2 = object : Migration(1, 2) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `trails_new` (`id` TEXT NOT NULL, `mountainId` TEXT NOT NULL, " +
+                        "`name` TEXT NOT NULL, `geometry` BLOB NOT NULL, PRIMARY KEY(`id`))"
+                )
+                db.query("SELECT id, mountainId, name, geometry FROM trails").use { cursor ->
+                    while (cursor.moveToNext()) {
+                        val json = cursor.getString(3)
+                        val coords: List<Coord> =
+                            if (json.isNullOrEmpty()) emptyList() else Json.decodeFromString(json)
+                        db.execSQL(
+                            "INSERT INTO trails_new (id, mountainId, name, geometry) VALUES (?, ?, ?, ?)",
+                            arrayOf(cursor.getString(0), cursor.getString(1), cursor.getString(2), CoordCodec.encode(coords))
+                        )
+                    }
+                }
+                db.execSQL("DROP TABLE trails")
+                db.execSQL("ALTER TABLE trails_new RENAME TO trails")
+            }
+        }
+
+        /** 2 -> 3: asset_manifest. Starts empty, so the next start reseeds every mountain once. */
+        val MIGRATION_2_3 = object : Migration(2, 3) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `asset_manifest` (`path` TEXT NOT NULL, " +
+                        "`mountainId` TEXT NOT NULL, `hash` TEXT NOT NULL, PRIMARY KEY(`path`))"
+                )
+            }
+        }
+
+        /**
+         * 3 -> 4: sessions and index (sessionId, timestamp) on breadcrumbs. Existing
+         * breadcrumbs (all "current_session") get a session row; distance is unknown.
+         */
+        val MIGRATION_3_4 = object : Migration(3, 4) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `sessions` (`id` TEXT NOT NULL, `trailId` TEXT, " +
+                        "`startTime` INTEGER NOT NULL, `endTime` INTEGER, `pointCount` INTEGER NOT NULL, " +
+                        "`distanceMeters` REAL NOT NULL, `offTrailCount` INTEGER NOT NULL, " +
+                        "`lastTimestamp` INTEGER, PRIMARY KEY(`id`))"
+                )
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_sessions_startTime` ON `sessions` (`startTime`)")
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_breadcrumbs_sessionId_timestamp` " +
+                        "ON `breadcrumbs` (`sessionId`, `timestamp`)"
+                )
+                db.execSQL(
+                    "INSERT INTO sessions (id, trailId, startTime, endTime, pointCount, distanceMeters, " +
+                        "offTrailCount, lastTimestamp) SELECT sessionId, NULL, MIN(timestamp), MAX(timestamp), " +
+                        "COUNT(*), 0, SUM(isOffTrail), MAX(timestamp) FROM breadcrumbs GROUP BY sessionId"
+                )
+            }
+        }
+
+        /**
+         * 4 -> 5: session roll-up columns for BreadcrumbMaintenance. An empty
+         * BLOB decodes as an empty geometry. The switch to
+         * auto_vacuum=INCREMENTAL needs a VACUUM, which can't run inside a
+         * migration; the first maintenance run does it.
+         */
+        val MIGRATION_4_5 = object : Migration(4, 5) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE `sessions` ADD COLUMN `geometry` BLOB NOT NULL DEFAULT x''")
+                db.execSQL("ALTER TABLE `sessions` ADD COLUMN `compactedAt` INTEGER NOT NULL DEFAULT 0")
+            }
+        }
+    }
 }
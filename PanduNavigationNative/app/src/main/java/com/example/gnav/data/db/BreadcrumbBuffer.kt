@@ -0,0 +1,81 @@
+package com.example.gnav.data.db
+
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * Write-behind buffer for breadcrumbs: fixes are kept in memory and written as
+ * one batch (one transaction) once [maxBatch] are buffered or they span
+ * [maxDelayMs] of fix time. Owners must [flush] on stop, destroy and memory
+ * trim; at most [maxDelayMs] of track is lost if the process dies without it.
+ */
+class BreadcrumbBuffer(
+    private val maxBatch: Int = DEFAULT_MAX_BATCH,
+    private val maxDelayMs: Long = DEFAULT_MAX_DELAY_MS,
+    private val write: suspend (List<BreadcrumbEntity>) -> Unit
+) {
+    companion object {
+        const val DEFAULT_MAX_BATCH = 64
+        const val DEFAULT_MAX_DELAY_MS = 30_000L
+    }
+
+    private val lock = Any()
+    private val flushMutex = Mutex()
+    private var pending = ArrayList<BreadcrumbEntity>(maxBatch)
+
+    // Counters for diagnostics
+    @Volatile var queueDepth = 0
+        private set
+    @Volatile var writtenCount = 0L
+        private set
+    @Volatile var flushCount = 0L
+        private set
+    @Volatile var lastFlushMs = 0L
+        private set
+    @Volatile var maxFlushMs = 0L
+        private set
+
+    /** Buffers a fix; returns true when a [flush] is due. Never touches the database. */
+    fun add(breadcrumb: BreadcrumbEntity): Boolean = synchronized(lock) {
+        pending.add(breadcrumb)
+        queueDepth = pending.size
+        pending.size >= maxBatch || breadcrumb.timestamp - pending[0].timestamp >= maxDelayMs
+    }
+
+    /**
+     * Writes everything buffered as one batch. On failure the batch is put
+     * back in front of anything buffered since and the exception rethrown;
+     * callers log it and leave the retry to the next due flush.
+     */
+    suspend fun flush() {
+        // The mutex keeps batches in order when a due flush races a stop/trim flush
+        flushMutex.withLock {
+            val batch = synchronized(lock) {
+                if (pending.isEmpty()) return
+                pending.also {
+                    pending = ArrayList(maxBatch)
+                    queueDepth = 0
+                }
+            }
+
+            val start = System.currentTimeMillis()
+            try {
+                write(batch)
+            } catch (e: Exception) {
+                // Keep the batch (in order) so a transient failure doesn't drop track
+                synchronized(lock) {
+                    batch.addAll(pending)
+                    pending = batch
+                    queueDepth = pending.size
+                }
+                throw e
+            }
+            val elapsed = System.currentTimeMillis() - start
+
+            writtenCount += batch.size
+            flushCount++
+            lastFlushMs = elapsed
+            if (elapsed > maxFlushMs) maxFlushMs = elapsed
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.gnav.data.db
+
+import kotlin.math.cos
+
+/**
+ * Online line simplification between the Kalman filter and [BreadcrumbBuffer].
+ *
+ * Opening-window Douglas-Peucker: fixes after the last kept one (the anchor)
+ * are held back while every one of them lies within [toleranceMeters] of the
+ * chord from the anchor to the newest fix; once a new fix breaks that, the
+ * fix before it is kept. Dropping a point never moves the recorded path by
+ * more than the tolerance. A fix is also kept every [maxGapMs], on both sides
+ * of a gap in the fixes, and whenever the off-trail flag flips.
+ *
+ * Not thread-safe; feed it from one thread, oldest fix first.
+ */
+class BreadcrumbDecimator(
+    toleranceMeters: Double = DEFAULT_TOLERANCE_METERS,
+    private val maxGapMs: Long = DEFAULT_MAX_GAP_MS,
+    private val maxWindow: Int = DEFAULT_MAX_WINDOW
+) {
+    companion object {
+        const val DEFAULT_TOLERANCE_METERS = 2.0
+        const val DEFAULT_MAX_GAP_MS = 120_000L
+        private const val DEFAULT_MAX_WINDOW = 256
+        private const val METERS_PER_DEG = 111_195.0 // mean Earth radius, as GeoMath
+    }
+
+    private val toleranceSq = toleranceMeters * toleranceMeters
+
+    // Window of undecided fixes, in meters relative to the anchor
+    private val windowX = DoubleArray(maxWindow)
+    private val windowY = DoubleArray(maxWindow)
+    private var windowSize = 0
+    private var metersPerDegLng = METERS_PER_DEG
+
+    private var anchor: BreadcrumbEntity? = null
+    private var last: BreadcrumbEntity? = null
+
+    var seenCount = 0L
+        private set
+    var keptCount = 0L
+        private set
+
+    /** Fixes decided against; held-back ones aren't counted yet. */
+    val droppedCount: Long
+        get() = seenCount - keptCount - windowSize
+
+    /** Takes the next fix and appends any fixes that are now final to [out]. */
+    fun add(fix: BreadcrumbEntity, out: MutableList<BreadcrumbEntity>) {
+        seenCount++
+        val anchor = anchor
+        val last = last
+        if (anchor == null || last == null) {
+            keep(fix, out)
+            return
+        }
+        if (fix.timestamp - last.timestamp > maxGapMs || fix.isOffTrail != last.isOffTrail) {
+            // Lost signal or left/rejoined the trail: close the path here and restart
+            if (last !== anchor) keep(last, out)
+            keep(fix, out)
+            return
+        }
+
+        if (exceedsTolerance(x(fix), y(fix))) {
+            keep(last, out)
+        }
+
+        if (fix.timestamp - this.anchor!!.timestamp >= maxGapMs || windowSize == maxWindow - 1) {
+            keep(fix, out)
+            return
+        }
+        windowX[windowSize] = x(fix)
+        windowY[windowSize] = y(fix)
+        windowSize++
+        this.last = fix
+    }
+
+    /** Emits the newest held-back fix, e.g. when tracking stops. */
+    fun finish(out: MutableList<BreadcrumbEntity>) {
+        val last = last ?: return
+        if (last !== anchor) keep(last, out)
+    }
+
+    /** Forgets the anchor, so the next fix starts a new path. */
+    fun reset() {
+        anchor = null
+        last = null
+        windowSize = 0
+    }
+
+    private fun x(fix: BreadcrumbEntity) = (fix.lng - anchor!!.lng) * metersPerDegLng
+    private fun y(fix: BreadcrumbEntity) = (fix.lat - anchor!!.lat) * METERS_PER_DEG
+
+    /** Whether some held-back fix is farther than the tolerance from the chord anchor -> (x, y). */
+    private fun exceedsTolerance(x: Double, y: Double): Boolean {
+        val lenSq = x * x + y * y
+        for (i in 0 until windowSize) {
+            val px = windowX[i]
+            val py = windowY[i]
+            val t = if (lenSq == 0.0) 0.0 else ((px * x + py * y) / lenSq).coerceIn(0.0, 1.0)
+            val dx = px - t * x
+            val dy = py - t * y
+            if (dx * dx + dy * dy > toleranceSq) return true
+        }
+        return false
+    }
+
+    private fun keep(fix: BreadcrumbEntity, out: MutableList<BreadcrumbEntity>) {
+        out.add(fix)
+        keptCount++
+        anchor = fix
+        last = fix
+        windowSize = 0
+        metersPerDegLng = METERS_PER_DEG * cos(Math.toRadians(fix.lat))
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.gnav.data.db
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.example.gnav.core.math.GeoMath
+import com.example.gnav.domain.model.Coord
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.withContext
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Keeps the breadcrumbs table from growing without bound. Run by
+ * MaintenanceJobService while the device is idle and charging:
+ *
+ * 1. Sessions left open by a killed process are closed at their last fix.
+ * 2. Every ended session is rolled up: its breadcrumbs are simplified to
+ *    [ROLLUP_TOLERANCE_METERS] into [SessionEntity.geometry] and its distance
+ *    is recomputed from them.
+ * 3. Breadcrumbs of rolled-up sessions that ended more than the retention
+ *    period ago are deleted, [DELETE_BATCH] rows per transaction.
+ * 4. The freed pages go back to the file system with incremental_vacuum.
+ *
+ * Progress lives in the rows themselves (compactedAt, the rows that are
+ * gone), so a run cancelled part way, e.g. because the phone was unplugged,
+ * continues where it left off next time.
+ */
+@Singleton
+class BreadcrumbMaintenance @Inject constructor(
+    private val db: AppDatabase
+) {
+    companion object {
+        const val DEFAULT_RETENTION_MS = 30L * 24 * 60 * 60 * 1000
+        /** Retention that never deletes raw breadcrumbs; sessions are still rolled up. */
+        const val KEEP_FOREVER = 0L
+
+        private const val ROLLUP_TOLERANCE_METERS = 5.0
+        private const val ROLLUP_MAX_GAP_MS = 10 * 60_000L
+        // Long enough that a session still recording always has a newer fix
+        private const val STALE_SESSION_MS = 24L * 60 * 60 * 1000
+        private const val DELETE_BATCH = 1000
+        private const val VACUUM_PAGES = 256
+    }
+
+    data class Report(
+        val sessionsClosed: Int,
+        val sessionsRolledUp: Int,
+        val breadcrumbsDeleted: Int,
+        val bytesReclaimed: Long
+    )
+
+    private val dao = db.navigationDao()
+
+    /**
+     * Runs all steps to the end. Cancellation is checked between units of
+     * work; everything committed before it stays.
+     */
+    suspend fun run(retentionMs: Long = DEFAULT_RETENTION_MS): Report = withContext(Dispatchers.IO) {
+        val sql = db.openHelper.writableDatabase
+        val now = System.currentTimeMillis()
+        val pagesBefore = sql.pragma("page_count")
+
+        sql.enableIncrementalVacuum()
+        val closed = dao.closeStaleSessions(now - STALE_SESSION_MS)
+
+        var rolledUp = 0
+        while (true) {
+            ensureActive()
+            val sessionId = dao.getSessionsToRollUp(1).firstOrNull() ?: break
+            rollUp(sessionId, now)
+            rolledUp++
+        }
+
+        var deleted = 0
+        if (retentionMs > KEEP_FOREVER) {
+            do {
+                ensureActive()
+                val count = dao.deleteExpiredBreadcrumbs(now - retentionMs, DELETE_BATCH)
+                deleted += count
+            } while (count == DELETE_BATCH)
+        }
+
+        var free = sql.pragma("freelist_count")
+        while (free > 0) {
+            ensureActive()
+            sql.drain("PRAGMA incremental_vacuum($VACUUM_PAGES)")
+            val left = sql.pragma("freelist_count")
+            if (left >= free) break // nothing more SQLite can give back now
+            free = left
+        }
+        // Truncated pages only leave the file once the WAL is checkpointed
+        sql.drain("PRAGMA wal_checkpoint(TRUNCATE)")
+
+        Report(
+            sessionsClosed = closed,
+            sessionsRolledUp = rolledUp,
+            breadcrumbsDeleted = deleted,
+            bytesReclaimed = (pagesBefore - sql.pragma("page_count")) * sql.pragma("page_size")
+        )
+    }
+
+    private suspend fun rollUp(sessionId: String, now: Long) {
+        val breadcrumbs = dao.getBreadcrumbsBetween(sessionId, Long.MIN_VALUE, Long.MAX_VALUE)
+        val decimator = BreadcrumbDecimator(ROLLUP_TOLERANCE_METERS, ROLLUP_MAX_GAP_MS)
+        val kept = ArrayList<BreadcrumbEntity>()
+        var distance = 0.0
+        var prev: BreadcrumbEntity? = null
+        for (b in breadcrumbs) {
+            decimator.add(b, kept)
+            prev?.let { distance += GeoMath.distanceMeters(it.lat, it.lng, b.lat, b.lng) }
+            prev = b
+        }
+        decimator.finish(kept)
+
+        val geometry = CoordCodec.encode(kept.map { Coord(it.lat, it.lng, 0.0) })
+        dao.rollUpSession(sessionId, distance, geometry, now)
+    }
+
+    /**
+     * Databases created before version 5 have auto_vacuum off, and SQLite
+     * only switches an existing file over with a full VACUUM; done once.
+     */
+    private fun SupportSQLiteDatabase.enableIncrementalVacuum() {
+        if (pragma("auto_vacuum") != 2L) {
+            execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+            execSQL("VACUUM")
+        }
+    }
+
+    private fun SupportSQLiteDatabase.pragma(name: String): Long =
+        query("PRAGMA $name").use { if (it.moveToFirst()) it.getLong(0) else 0L }
+
+    /** Steps a statement that may return rows (most PRAGMAs) to completion. */
+    private fun SupportSQLiteDatabase.drain(statement: String) {
+        query(statement).use { while (it.moveToNext()) Unit }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.gnav.data.db
+
+import com.example.gnav.domain.model.Coord
+import java.io.ByteArrayOutputStream
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import kotlin.math.roundToLong
+
+/**
+ * Binary geometry for the trails.geometry BLOB column.
+ *
+ * Same layout (version 1) as the Flutter host's GeometryCodec:
+ *   byte    version
+ *   byte    flags (bit 0: elevation present)
+ *   varint  point count
+ *   per point, zigzag varint deltas from the previous point:
+ *     lat in 1e-7 degrees, lng in 1e-7 degrees, [ele in decimeters]
+ */
+object CoordCodec {
+    const val VERSION = 1
+    private const val FLAG_ELEVATION = 1
+    private const val COORD_SCALE = 1e7
+    private const val ELE_SCALE = 10.0
+
+    /** Primitive view of a decoded polyline; index i of each array is one point. */
+    class Packed(
+        val lat: DoubleArray,
+        val lng: DoubleArray,
+        val ele: DoubleArray
+    ) {
+        val size: Int get() = lat.size
+
+        fun toCoords(): List<Coord> = List(size) { Coord(lat[it], lng[it], ele[it]) }
+    }
+
+    private val EMPTY = Packed(DoubleArray(0), DoubleArray(0), DoubleArray(0))
+
+    fun encode(coords: List<Coord>): ByteArray {
+        val hasEle = coords.any { it.ele != 0.0 }
+        val out = ByteArrayOutputStream(8 + coords.size * if (hasEle) 7 else 5)
+        out.write(VERSION)
+        out.write(if (hasEle) FLAG_ELEVATION else 0)
+        writeVarint(out, coords.size.toLong())
+
+        var prevLat = 0L
+        var prevLng = 0L
+        var prevEle = 0L
+        for (c in coords) {
+            val qLat = (c.lat * COORD_SCALE).roundToLong()
+            val qLng = (c.lng * COORD_SCALE).roundToLong()
+            writeVarint(out, zigzag(qLat - prevLat))
+            writeVarint(out, zigzag(qLng - prevLng))
+            prevLat = qLat
+            prevLng = qLng
+            if (hasEle) {
+                val qEle = (c.ele * ELE_SCALE).roundToLong()
+                writeVarint(out, zigzag(qEle - prevEle))
+                prevEle = qEle
+            }
+        }
+        return out.toByteArray()
+    }
+
+    fun decode(blob: ByteArray?): List<Coord> = decodePacked(blob).toCoords()
+
+    fun decodePacked(blob: ByteArray?): Packed {
+        if (blob == null || blob.isEmpty()) return EMPTY
+        return decodePacked(ByteBuffer.wrap(blob))
+    }
+
+    /**
+     * Decodes straight from the buffer into primitive arrays. Unknown versions
+     * and truncated data decode as an empty polyline.
+     */
+    fun decodePacked(buffer: ByteBuffer): Packed {
+        return try {
+            val version = buffer.get().toInt() and 0xFF
+            if (version != VERSION) return EMPTY
+            val hasEle = (buffer.get().toInt() and FLAG_ELEVATION) != 0
+            val size = readVarint(buffer).toInt()
+
+            val lat = DoubleArray(size)
+            val lng = DoubleArray(size)
+            val ele = DoubleArray(size)
+            var qLat = 0L
+            var qLng = 0L
+            var qEle = 0L
+            for (i in 0 until size) {
+                qLat += unzigzag(readVarint(buffer))
+                qLng += unzigzag(readVarint(buffer))
+                lat[i] = qLat / COORD_SCALE
+                lng[i] = qLng / COORD_SCALE
+                if (hasEle) {
+                    qEle += unzigzag(readVarint(buffer))
+                    ele[i] = qEle / ELE_SCALE
+                }
+            }
+            Packed(lat, lng, ele)
+        } catch (e: BufferUnderflowException) {
+            EMPTY
+        } catch (e: NegativeArraySizeException) {
+            EMPTY
+        }
+    }
+
+    private fun zigzag(v: Long): Long = (v shl 1) xor (v shr 63)
+
+    private fun unzigzag(v: Long): Long = (v ushr 1) xor -(v and 1)
+
+    private fun writeVarint(out: ByteArrayOutputStream, value: Long) {
+        var v = value
+        while (v and 0x7FL.inv() != 0L) {
+            out.write(((v and 0x7F) or 0x80).toInt())
+            v = v ushr 7
+        }
+        out.write(v.toInt())
+    }
+
+    private fun readVarint(buffer: ByteBuffer): Long {
+        var result = 0L
+        var shift = 0
+        while (shift < 64) {
+            val b = buffer.get().toInt()
+            result = result or ((b and 0x7F).toLong() shl shift)
+            if (b and 0x80 == 0) return result
+            shift += 7
+        }
+        throw BufferUnderflowException()
+    }
+}
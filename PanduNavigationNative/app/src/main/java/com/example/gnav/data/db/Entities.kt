@@ -1,11 +1,10 @@
 package com.example.gnav.data.db
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import androidx.room.TypeConverter
 import com.example.gnav.domain.model.Coord
-import kotlinx.serialization.encodeToString
-import kotlinx.serialization.json.Json
 
 @Entity(tableName = "mountains")
 data class MountainEntity(
@@ -27,25 +26,60 @@ data class TrailEntity(
     val geometry: List<Coord> // Requires TypeConverter
 )
 
-@Entity(tableName = "breadcrumbs")
+@Entity(
+    tableName = "breadcrumbs",
+    indices = [Index(value = ["sessionId", "timestamp"])]
+)
 data class BreadcrumbEntity(
     @PrimaryKey(autoGenerate = true) val id: Int = 0,
     val timestamp: Long,
     val lat: Double,
     val lng: Double,
     val accuracy: Float,
-    val sessionId: String, // For grouping sessions
+    val sessionId: String, // SessionEntity.id
     val isOffTrail: Boolean
 )
 
+/**
+ * One tracking run. The summary columns are updated in the same transaction
+ * as each breadcrumb batch, so session lists never scan breadcrumbs. After
+ * the run ends, BreadcrumbMaintenance rolls it up into [geometry], which
+ * outlives the raw breadcrumbs.
+ */
+@Entity(tableName = "sessions", indices = [Index("startTime")])
+data class SessionEntity(
+    @PrimaryKey val id: String,
+    val trailId: String?,
+    val startTime: Long,
+    val endTime: Long? = null, // null while recording
+    val pointCount: Int = 0,
+    val distanceMeters: Double = 0.0,
+    val offTrailCount: Int = 0,
+    val lastTimestamp: Long? = null,
+    val geometry: List<Coord> = emptyList(), // simplified path, CoordCodec BLOB
+    val compactedAt: Long = 0 // 0 until rolled up
+)
+
+/**
+ * Content hash of one seeded asset: a track file, or "mountain:<id>" for a
+ * mountain's config entry. Lets initializeData reseed only what changed.
+ */
+@Entity(tableName = "asset_manifest")
+data class AssetManifestEntity(
+    @PrimaryKey val path: String,
+    val mountainId: String,
+    val hash: String // hex SHA-256
+)
+
 class Converters {
+    // Stored as a CoordCodec BLOB rather than JSON text
     @TypeConverter
-    fun fromCoordList(value: List<Coord>?): String {
-        return if (value == null) "[]" else Json.encodeToString(value)
+    fun fromCoordList(value: List<Coord>?): ByteArray {
+        return CoordCodec.encode(value ?: emptyList())
     }
 
     @TypeConverter
-    fun toCoordList(value: String?): List<Coord> {
-        return if (value.isNullOrEmpty()) emptyList() else Json.decodeFromString(value)
+    fun toCoordList(value: ByteArray?): List<Coord> {
+        return CoordCodec.decode(value)
     }
 }
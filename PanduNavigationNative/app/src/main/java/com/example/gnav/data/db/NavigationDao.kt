@@ -18,6 +18,29 @@ interface NavigationDao {
     @Query("SELECT COUNT(*) FROM mountains")
     suspend fun getMountainCount(): Int
 
+    // Incremental reseeding
+    @Query("SELECT * FROM asset_manifest")
+    suspend fun getAssetManifest(): List<AssetManifestEntity>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun upsertAssetManifest(entries: List<AssetManifestEntity>)
+
+    @Query("DELETE FROM asset_manifest WHERE mountainId = :mountainId")
+    suspend fun deleteAssetManifestByMountain(mountainId: String)
+
+    @Query("DELETE FROM trails WHERE mountainId = :mountainId")
+    suspend fun deleteTrailsByMountain(mountainId: String)
+
+    @Query("DELETE FROM trails WHERE mountainId = :mountainId AND id NOT IN (:keepIds)")
+    suspend fun deleteTrailsByMountainExcept(mountainId: String, keepIds: List<String>): Int
+
+    // Manifest or not: mountains seeded before the manifest existed have none
+    @Query("SELECT id FROM mountains UNION SELECT mountainId FROM trails")
+    suspend fun getSeededMountainIds(): List<String>
+
+    @Query("DELETE FROM mountains WHERE id = :mountainId")
+    suspend fun deleteMountain(mountainId: String)
+
     // Queries
     @Query("SELECT * FROM mountains")
     fun getMountains(): Flow<List<MountainEntity>>
@@ -30,8 +53,69 @@ interface NavigationDao {
 
     // Tracking
     @Insert
-    suspend fun insertBreadcrumb(breadcrumb: BreadcrumbEntity)
+    suspend fun insertSession(session: SessionEntity)
+
+    @Query("UPDATE sessions SET endTime = :endTime WHERE id = :sessionId")
+    suspend fun endSession(sessionId: String, endTime: Long)
+
+    @Query(
+        "UPDATE sessions SET pointCount = pointCount + :points, distanceMeters = distanceMeters + :distance, " +
+            "offTrailCount = offTrailCount + :offTrail, lastTimestamp = :lastTimestamp WHERE id = :sessionId"
+    )
+    suspend fun addToSession(sessionId: String, points: Int, distance: Double, offTrail: Int, lastTimestamp: Long)
+
+    @Query("SELECT * FROM sessions ORDER BY startTime DESC")
+    fun getSessions(): Flow<List<SessionEntity>>
+
+    // Maintenance, see BreadcrumbMaintenance
+    // Sessions the app never closed (killed mid-hike) end at their last fix
+    @Query(
+        "UPDATE sessions SET endTime = COALESCE(lastTimestamp, startTime) " +
+            "WHERE endTime IS NULL AND COALESCE(lastTimestamp, startTime) < :before"
+    )
+    suspend fun closeStaleSessions(before: Long): Int
+
+    @Query("SELECT id FROM sessions WHERE endTime IS NOT NULL AND compactedAt = 0 ORDER BY startTime LIMIT :limit")
+    suspend fun getSessionsToRollUp(limit: Int): List<String>
+
+    // geometry is CoordCodec-encoded by the caller; a List parameter would expand to an IN list
+    @Query(
+        "UPDATE sessions SET distanceMeters = :distance, geometry = :geometry, compactedAt = :compactedAt " +
+            "WHERE id = :sessionId"
+    )
+    suspend fun rollUpSession(sessionId: String, distance: Double, geometry: ByteArray, compactedAt: Long)
+
+    // Raw breadcrumbs of rolled-up sessions that ended before :before, up to :limit per call
+    @Query(
+        "DELETE FROM breadcrumbs WHERE id IN (SELECT b.id FROM breadcrumbs b JOIN sessions s " +
+            "ON s.id = b.sessionId WHERE s.compactedAt > 0 AND s.endTime < :before LIMIT :limit)"
+    )
+    suspend fun deleteExpiredBreadcrumbs(before: Long, limit: Int): Int
+
+    // One transaction for a whole BreadcrumbBuffer batch
+    @Insert
+    suspend fun insertBreadcrumbs(breadcrumbs: List<BreadcrumbEntity>)
+
+    // Breadcrumb reads below seek on index (sessionId, timestamp)
+    @Query("SELECT * FROM breadcrumbs WHERE sessionId = :sessionId ORDER BY timestamp DESC LIMIT 1")
+    suspend fun getLatestBreadcrumb(sessionId: String): BreadcrumbEntity?
+
+    @Query(
+        "SELECT * FROM breadcrumbs WHERE sessionId = " +
+            "(SELECT id FROM sessions ORDER BY startTime DESC LIMIT 1) ORDER BY timestamp DESC LIMIT 1"
+    )
+    fun observeLatestBreadcrumb(): Flow<BreadcrumbEntity?>
+
+    @Query(
+        "SELECT * FROM breadcrumbs WHERE sessionId = :sessionId AND timestamp BETWEEN :from AND :to " +
+            "ORDER BY timestamp"
+    )
+    suspend fun getBreadcrumbsBetween(sessionId: String, from: Long, to: Long): List<BreadcrumbEntity>
 
-    @Query("SELECT * FROM breadcrumbs ORDER BY timestamp DESC LIMIT 1")
-    fun getLastBreadcrumb(): Flow<BreadcrumbEntity?>
+    // Keyset paging: pass the last timestamp of the previous page
+    @Query(
+        "SELECT * FROM breadcrumbs WHERE sessionId = :sessionId AND timestamp > :afterTimestamp " +
+            "ORDER BY timestamp LIMIT :limit"
+    )
+    suspend fun getBreadcrumbPage(sessionId: String, afterTimestamp: Long, limit: Int): List<BreadcrumbEntity>
 }
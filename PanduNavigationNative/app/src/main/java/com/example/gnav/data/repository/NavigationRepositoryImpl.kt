@@ -1,30 +1,62 @@
 package com.example.gnav.data.repository
 
+import androidx.room.withTransaction
+import com.example.gnav.core.math.GeoMath
+import com.example.gnav.data.db.AppDatabase
+import com.example.gnav.data.db.AssetManifestEntity
 import com.example.gnav.data.db.BreadcrumbEntity
 import com.example.gnav.data.db.MountainEntity
 import com.example.gnav.data.db.NavigationDao
+import com.example.gnav.data.db.SessionEntity
 import com.example.gnav.data.db.TrailEntity
 import com.example.gnav.data.source.AssetDataSource
 import com.example.gnav.domain.model.Trail
 import com.example.gnav.domain.repository.NavigationRepository
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.withContext
 import java.util.UUID
 import javax.inject.Inject
+import javax.inject.Singleton
 
+// Singleton: TrackingService and the view models share the live breadcrumb
+@Singleton
 class NavigationRepositoryImpl @Inject constructor(
+    private val database: AppDatabase,
     private val dao: NavigationDao,
     private val assetDataSource: AssetDataSource
 ) : NavigationRepository {
 
+    private val liveBreadcrumb = MutableStateFlow<BreadcrumbEntity?>(null)
+
+    /**
+     * Diffs the bundled config and track files against asset_manifest by content
+     * hash, then re-parses only the changed ones. A mountain whose config entry
+     * changed (or is new) is reseeded whole; one that left the config is deleted,
+     * manifest rows or not, and so is any trail its config no longer names.
+     */
     override suspend fun initializeData() = withContext(Dispatchers.IO) {
-        if (dao.getMountainCount() == 0) {
-            val config = assetDataSource.loadMountainsConfig()
-            val mountainEntities = mutableListOf<MountainEntity>()
-            val trailEntities = mutableListOf<TrailEntity>()
+        val config = assetDataSource.loadMountainsConfig()
+        val stored = dao.getAssetManifest().associateBy { it.path }
+        val staleMountainIds = dao.getSeededMountainIds().toMutableSet()
+        stored.values.mapTo(staleMountainIds) { it.mountainId }
+        val resetMountainIds = mutableListOf<String>()
+        // Trail ids come from the config, so each changed mountain's full set is known unparsed
+        val keptTrailIds = mutableMapOf<String, List<String>>()
+        val mountainEntities = mutableListOf<MountainEntity>()
+        val trailEntities = mutableListOf<TrailEntity>()
+        val manifest = mutableListOf<AssetManifestEntity>()
 
-            for (mDto in config.mountains) {
+        for (mDto in config.mountains) {
+            staleMountainIds.remove(mDto.id)
+            val configKey = "mountain:${mDto.id}"
+            val configHash = assetDataSource.hashMountainConfig(mDto)
+            val whole = stored[configKey]?.hash != configHash
+            if (whole) {
+                resetMountainIds.add(mDto.id)
+                manifest.add(AssetManifestEntity(configKey, mDto.id, configHash))
                 mountainEntities.add(
                     MountainEntity(
                         id = mDto.id,
@@ -36,26 +68,61 @@ class NavigationRepositoryImpl @Inject constructor(
                         altitude = mDto.altitude
                     )
                 )
+            }
 
-                for (trackDto in mDto.tracks) {
-                    val coords = assetDataSource.parseGpx(trackDto.file)
-                    // Create a deterministic ID or use filename
-                    val trailId = "${mDto.id}_${trackDto.name.filter { it.isLetterOrDigit() }}"
-                    trailEntities.add(
-                        TrailEntity(
-                            id = trailId,
-                            mountainId = mDto.id,
-                            name = trackDto.name,
-                            geometry = coords
-                        )
+            var changed = false
+            for (trackDto in mDto.tracks) {
+                // Unreadable files get no manifest row, so they are retried next start
+                val hash = assetDataSource.hashTrack(trackDto.file) ?: continue
+                if (!whole && stored[trackDto.file]?.hash == hash) continue
+                changed = true
+
+                // Nor do files that don't parse: no trail and no manifest row
+                val coords = assetDataSource.parseGpx(trackDto.file) ?: continue
+                val trailId = trailId(mDto.id, trackDto.name)
+                trailEntities.add(
+                    TrailEntity(
+                        id = trailId,
+                        mountainId = mDto.id,
+                        name = trackDto.name,
+                        geometry = coords
                     )
-                }
+                )
+                manifest.add(AssetManifestEntity(trackDto.file, mDto.id, hash))
+            }
+            if (changed && !whole) {
+                keptTrailIds[mDto.id] = mDto.tracks.map { trailId(mDto.id, it.name) }
+            }
+        }
+
+        if (staleMountainIds.isEmpty() && mountainEntities.isEmpty() && trailEntities.isEmpty() &&
+            keptTrailIds.isEmpty()
+        ) {
+            return@withContext
+        }
+        database.withTransaction {
+            for (mountainId in staleMountainIds) {
+                dao.deleteTrailsByMountain(mountainId)
+                dao.deleteMountain(mountainId)
+                dao.deleteAssetManifestByMountain(mountainId)
+            }
+            for (mountainId in resetMountainIds) {
+                dao.deleteTrailsByMountain(mountainId)
+                dao.deleteAssetManifestByMountain(mountainId)
+            }
+            for ((mountainId, trailIds) in keptTrailIds) {
+                dao.deleteTrailsByMountainExcept(mountainId, trailIds)
             }
             dao.insertMountains(mountainEntities)
             dao.insertTrails(trailEntities)
+            dao.upsertAssetManifest(manifest)
         }
     }
 
+    // Deterministic, from the config's track name
+    private fun trailId(mountainId: String, trackName: String) =
+        "${mountainId}_${trackName.filter { it.isLetterOrDigit() }}"
+
     override fun getMountains(): Flow<List<MountainEntity>> = dao.getMountains()
 
     override suspend fun getTrail(trailId: String): Trail? {
@@ -67,17 +134,60 @@ class NavigationRepositoryImpl @Inject constructor(
         )
     }
 
-    override suspend fun insertBreadcrumb(lat: Double, lng: Double, accuracy: Float, isOffTrail: Boolean) {
-        val entity = BreadcrumbEntity(
-            timestamp = System.currentTimeMillis(),
-            lat = lat,
-            lng = lng,
-            accuracy = accuracy,
-            sessionId = "current_session", // Logic for sessions can generally be expanded
-            isOffTrail = isOffTrail
+    override suspend fun startSession(trailId: String): String {
+        val session = SessionEntity(
+            id = UUID.randomUUID().toString(),
+            trailId = trailId,
+            startTime = System.currentTimeMillis()
         )
-        dao.insertBreadcrumb(entity)
+        dao.insertSession(session)
+        return session.id
     }
 
-    override fun observeLastBreadcrumb(): Flow<BreadcrumbEntity?> = dao.getLastBreadcrumb()
+    override suspend fun endSession(sessionId: String) {
+        dao.endSession(sessionId, System.currentTimeMillis())
+        // The service has stopped; observers go back to the newest stored fix
+        liveBreadcrumb.value = null
+    }
+
+    override fun getSessions(): Flow<List<SessionEntity>> = dao.getSessions()
+
+    /** Inserts the batch and rolls it into its session's summary in one transaction. */
+    override suspend fun insertBreadcrumbs(breadcrumbs: List<BreadcrumbEntity>) {
+        if (breadcrumbs.isEmpty()) return
+        database.withTransaction {
+            for ((sessionId, batch) in breadcrumbs.groupBy { it.sessionId }) {
+                var prev = dao.getLatestBreadcrumb(sessionId)
+                var distance = 0.0
+                for (breadcrumb in batch) {
+                    prev?.let { distance += GeoMath.distanceMeters(it.lat, it.lng, breadcrumb.lat, breadcrumb.lng) }
+                    prev = breadcrumb
+                }
+                dao.insertBreadcrumbs(batch)
+                dao.addToSession(
+                    sessionId, batch.size, distance, batch.count { it.isOffTrail }, batch.last().timestamp
+                )
+            }
+        }
+    }
+
+    override fun publishLiveBreadcrumb(breadcrumb: BreadcrumbEntity) {
+        liveBreadcrumb.value = breadcrumb
+    }
+
+    /**
+     * The live fix while the service runs; otherwise the newest stored one, an
+     * index seek that costs the same however long the history gets.
+     */
+    override fun observeLastBreadcrumb(): Flow<BreadcrumbEntity?> =
+        combine(liveBreadcrumb, dao.observeLatestBreadcrumb()) { live, stored -> live ?: stored }
+
+    override suspend fun getBreadcrumbs(sessionId: String, from: Long, to: Long): List<BreadcrumbEntity> =
+        dao.getBreadcrumbsBetween(sessionId, from, to)
+
+    override suspend fun getBreadcrumbPage(
+        sessionId: String,
+        afterTimestamp: Long,
+        limit: Int
+    ): List<BreadcrumbEntity> = dao.getBreadcrumbPage(sessionId, afterTimestamp, limit)
 }
@@ -5,8 +5,11 @@ import com.example.gnav.domain.model.Coord
 import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.serialization.json.Json
 import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
 import org.xmlpull.v1.XmlPullParserFactory
+import java.io.IOException
 import java.io.InputStream
+import java.security.MessageDigest
 import javax.inject.Inject
 
 class AssetDataSource @Inject constructor(
@@ -20,35 +23,68 @@ class AssetDataSource @Inject constructor(
         return json.decodeFromString(jsonString)
     }
 
-    fun parseGpx(filename: String): List<Coord> {
+    /** Hex SHA-256 of a track file, or null when it can't be read. */
+    fun hashTrack(filename: String): String? {
+        return try {
+            context.assets.open("tracks/$filename").use { input ->
+                val digest = MessageDigest.getInstance("SHA-256")
+                val buffer = ByteArray(8192)
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+                digest.digest().toHex()
+            }
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    /** Hash of one mountain's entry in mountains.json (name, tracks, position...). */
+    fun hashMountainConfig(mountain: MountainDto): String {
+        val bytes = json.encodeToString(MountainDto.serializer(), mountain).toByteArray()
+        return MessageDigest.getInstance("SHA-256").digest(bytes).toHex()
+    }
+
+    private fun ByteArray.toHex(): String = joinToString("") { "%02x".format(it) }
+
+    /**
+     * Track points of a GPX file in order, or null when it can't be read or
+     * parsed: a half-read track must not be stored as if it were the trail.
+     */
+    fun parseGpx(filename: String): List<Coord>? {
         val path = "tracks/$filename"
         val coords = mutableListOf<Coord>()
         try {
-            val inputStream = context.assets.open(path)
-            val ipf = XmlPullParserFactory.newInstance()
-            ipf.isNamespaceAware = false
-            val parser = ipf.newPullParser()
-            parser.setInput(inputStream, null)
-
-            var eventType = parser.eventType
-            var lat = 0.0
-            var lon = 0.0
-            var ele = 0.0
-
-            while (eventType != XmlPullParser.END_DOCUMENT) {
-                if (eventType == XmlPullParser.START_TAG && parser.name == "trkpt") {
-                    lat = parser.getAttributeValue(null, "lat")?.toDoubleOrNull() ?: 0.0
-                    lon = parser.getAttributeValue(null, "lon")?.toDoubleOrNull() ?: 0.0
-                } else if (eventType == XmlPullParser.START_TAG && parser.name == "ele") {
-                    parser.next()
-                    ele = parser.text?.toDoubleOrNull() ?: 0.0
-                } else if (eventType == XmlPullParser.END_TAG && parser.name == "trkpt") {
-                    coords.add(Coord(lat, lon, ele))
+            context.assets.open(path).use { inputStream ->
+                val ipf = XmlPullParserFactory.newInstance()
+                ipf.isNamespaceAware = false
+                val parser = ipf.newPullParser()
+                parser.setInput(inputStream, null)
+
+                var eventType = parser.eventType
+                var lat = 0.0
+                var lon = 0.0
+                var ele = 0.0
+
+                while (eventType != XmlPullParser.END_DOCUMENT) {
+                    if (eventType == XmlPullParser.START_TAG && parser.name == "trkpt") {
+                        lat = parser.getAttributeValue(null, "lat")?.toDoubleOrNull() ?: 0.0
+                        lon = parser.getAttributeValue(null, "lon")?.toDoubleOrNull() ?: 0.0
+                    } else if (eventType == XmlPullParser.START_TAG && parser.name == "ele") {
+                        parser.next()
+                        ele = parser.text?.toDoubleOrNull() ?: 0.0
+                    } else if (eventType == XmlPullParser.END_TAG && parser.name == "trkpt") {
+                        coords.add(Coord(lat, lon, ele))
+                    }
+                    eventType = parser.next()
                 }
-                eventType = parser.next()
             }
-        } catch (e: Exception) {
-            e.printStackTrace()
+        } catch (e: IOException) {
+            return null
+        } catch (e: XmlPullParserException) {
+            return null
         }
         return coords
     }
@@ -2,6 +2,7 @@ package com.example.gnav.domain.repository
 
 import com.example.gnav.data.db.BreadcrumbEntity
 import com.example.gnav.data.db.MountainEntity
+import com.example.gnav.data.db.SessionEntity
 import com.example.gnav.domain.model.Coord
 import com.example.gnav.domain.model.Trail
 import kotlinx.coroutines.flow.Flow
@@ -11,6 +12,15 @@ interface NavigationRepository {
     fun getMountains(): Flow<List<MountainEntity>>
     suspend fun getTrail(trailId: String): Trail?
     
-    suspend fun insertBreadcrumb(lat: Double, lng: Double, accuracy: Float, isOffTrail: Boolean)
+    // Tracking sessions
+    suspend fun startSession(trailId: String): String
+    suspend fun endSession(sessionId: String)
+    fun getSessions(): Flow<List<SessionEntity>>
+
+    suspend fun insertBreadcrumbs(breadcrumbs: List<BreadcrumbEntity>)
+    /** Latest fix for observers, before the write-behind buffer persists it. No database work. */
+    fun publishLiveBreadcrumb(breadcrumb: BreadcrumbEntity)
     fun observeLastBreadcrumb(): Flow<BreadcrumbEntity?>
+    suspend fun getBreadcrumbs(sessionId: String, from: Long, to: Long): List<BreadcrumbEntity>
+    suspend fun getBreadcrumbPage(sessionId: String, afterTimestamp: Long, limit: Int): List<BreadcrumbEntity>
 }
@@ -0,0 +1,68 @@
+package com.example.gnav.service
+
+import android.content.Context
+import android.hardware.Sensor
+import android.hardware.SensorEvent
+import android.hardware.SensorEventListener
+import android.hardware.SensorManager
+import android.os.SystemClock
+import com.example.gnav.core.location.MotionSensors
+
+/**
+ * [MotionSensors] over the step detector and the rotation vector. Events
+ * arrive on the main thread with sensor timestamps, which are moved onto
+ * the wall clock the fixes use.
+ */
+internal class AndroidMotionSensors(context: Context) : MotionSensors, SensorEventListener {
+
+    private companion object {
+        // Heading five times a second is plenty at walking pace
+        const val HEADING_PERIOD_US = 200_000
+        const val DEFAULT_HEADING_ACCURACY = 15.0
+    }
+
+    private val sensorManager = context.getSystemService(Context.SENSOR_SERVICE) as SensorManager?
+    // Some devices report five values and reject them in getRotationMatrixFromVector
+    private val vector = FloatArray(4)
+    private val rotation = FloatArray(9)
+    private val orientation = FloatArray(3)
+    private var listener: MotionSensors.Listener? = null
+
+    override fun start(listener: MotionSensors.Listener): Boolean {
+        val manager = sensorManager ?: return false
+        val steps = manager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR) ?: return false
+        val heading = manager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR) ?: return false
+        this.listener = listener
+        // Fails without the activity recognition permission
+        val started = manager.registerListener(this, steps, SensorManager.SENSOR_DELAY_NORMAL) &&
+            manager.registerListener(this, heading, HEADING_PERIOD_US)
+        if (!started) stop()
+        return started
+    }
+
+    override fun stop() {
+        sensorManager?.unregisterListener(this)
+    }
+
+    override fun onSensorChanged(event: SensorEvent) {
+        val listener = listener ?: return
+        val timeMs = System.currentTimeMillis() - (SystemClock.elapsedRealtimeNanos() - event.timestamp) / 1_000_000
+        if (event.sensor.type == Sensor.TYPE_STEP_DETECTOR) {
+            listener.onStep(timeMs)
+            return
+        }
+        System.arraycopy(event.values, 0, vector, 0, vector.size)
+        SensorManager.getRotationMatrixFromVector(rotation, vector)
+        SensorManager.getOrientation(rotation, orientation)
+        val degrees = Math.toDegrees(orientation[0].toDouble())
+        // values[4], where present, is the estimated heading accuracy in radians
+        val accuracy = if (event.values.size > 4 && event.values[4] > 0) {
+            Math.toDegrees(event.values[4].toDouble())
+        } else {
+            DEFAULT_HEADING_ACCURACY
+        }
+        listener.onHeading(timeMs, if (degrees < 0) degrees + 360 else degrees, accuracy)
+    }
+
+    override fun onAccuracyChanged(sensor: Sensor, accuracy: Int) {}
+}
@@ -0,0 +1,73 @@
+package com.example.gnav.service
+
+import android.annotation.SuppressLint
+import android.os.Looper
+import android.util.Log
+import com.example.gnav.core.location.LocationSource
+import com.example.gnav.core.location.SamplingScheduler
+import com.google.android.gms.location.FusedLocationProviderClient
+import com.google.android.gms.location.LocationCallback
+import com.google.android.gms.location.LocationRequest
+import com.google.android.gms.location.LocationResult
+import com.google.android.gms.location.Priority
+
+/**
+ * [LocationSource] over the fused provider. Requesting again with the same
+ * callback replaces the previous request, so a mode change never drops the
+ * stream. Nothing is requested between [stop] and the next [activate]. A
+ * one-off fix is handed to the same callback.
+ */
+internal class FusedLocationSource(
+    private val client: FusedLocationProviderClient,
+    private val callback: LocationCallback
+) : LocationSource {
+
+    private var active = false
+
+    @Synchronized
+    fun activate() {
+        active = true
+    }
+
+    @SuppressLint("MissingPermission") // checked by TrackingService before activating
+    @Synchronized
+    override fun request(request: SamplingScheduler.Request) {
+        if (!active) return
+        val priority = when (request.accuracy) {
+            SamplingScheduler.Accuracy.HIGH -> Priority.PRIORITY_HIGH_ACCURACY
+            SamplingScheduler.Accuracy.BALANCED -> Priority.PRIORITY_BALANCED_POWER_ACCURACY
+            SamplingScheduler.Accuracy.LOW_POWER -> Priority.PRIORITY_LOW_POWER
+        }
+        val locationRequest = LocationRequest.Builder(priority, request.intervalMs)
+            .setMinUpdateIntervalMillis(request.minIntervalMs)
+            .setMaxUpdateDelayMillis(request.maxDelayMs)
+            .setMinUpdateDistanceMeters(request.minDistanceMeters)
+            .build()
+        client.requestLocationUpdates(locationRequest, callback, Looper.getMainLooper())
+        Log.i("FusedLocationSource", "Location request $request")
+    }
+
+    @SuppressLint("MissingPermission")
+    @Synchronized
+    override fun requestFix() {
+        if (!active) return
+        // Delivered through the same callback, so it is processed like any other fix
+        client.getCurrentLocation(Priority.PRIORITY_HIGH_ACCURACY, null)
+            .addOnSuccessListener { location ->
+                if (location != null && isActive()) {
+                    callback.onLocationResult(LocationResult.create(listOf(location)))
+                }
+            }
+    }
+
+    @Synchronized
+    private fun isActive() = active
+
+    @Synchronized
+    override fun stop() {
+        if (active) {
+            active = false
+            client.removeLocationUpdates(callback)
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.gnav.service
+
+import android.app.job.JobInfo
+import android.app.job.JobParameters
+import android.app.job.JobScheduler
+import android.app.job.JobService
+import android.content.ComponentName
+import android.content.Context
+import android.util.Log
+import com.example.gnav.data.db.BreadcrumbMaintenance
+import dagger.hilt.android.AndroidEntryPoint
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import javax.inject.Inject
+
+/**
+ * Runs [BreadcrumbMaintenance] once a day, only while the device is idle and
+ * charging. When the system takes the constraints away the run is cancelled
+ * and the job retried; whatever it committed so far stays done.
+ */
+@AndroidEntryPoint
+class MaintenanceJobService : JobService() {
+
+    @Inject
+    lateinit var maintenance: BreadcrumbMaintenance
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private var running: Job? = null
+
+    companion object {
+        private const val TAG = "MaintenanceJob"
+        private const val JOB_ID = 1001
+        private const val PERIOD_MS = 24L * 60 * 60 * 1000
+
+        /** Schedules the daily job unless it is already pending; cheap enough for every app start. */
+        fun schedule(context: Context) {
+            val scheduler = context.getSystemService(JobScheduler::class.java) ?: return
+            if (scheduler.getPendingJob(JOB_ID) != null) return
+            val job = JobInfo.Builder(JOB_ID, ComponentName(context, MaintenanceJobService::class.java))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MS)
+                .build()
+            if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+                Log.w(TAG, "Could not schedule breadcrumb maintenance")
+            }
+        }
+    }
+
+    override fun onStartJob(params: JobParameters): Boolean {
+        running = scope.launch {
+            try {
+                val report = maintenance.run()
+                Log.i(TAG, "Breadcrumb maintenance: $report")
+                jobFinished(params, false)
+            } catch (e: CancellationException) {
+                throw e // onStopJob already asked for a retry
+            } catch (e: Exception) {
+                Log.e(TAG, "Breadcrumb maintenance failed", e)
+                jobFinished(params, false)
+            }
+        }
+        return true // still running in scope
+    }
+
+    override fun onStopJob(params: JobParameters): Boolean {
+        running?.cancel()
+        return true // retry; the next run resumes
+    }
+
+    override fun onDestroy() {
+        scope.cancel()
+        super.onDestroy()
+    }
+}
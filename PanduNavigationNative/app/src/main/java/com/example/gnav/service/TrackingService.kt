@@ -9,27 +9,36 @@ import android.app.PendingIntent
 import android.app.Service
 import android.content.Context
 import android.content.Intent
+import android.content.IntentFilter
 import android.content.pm.PackageManager
 import android.location.Location
+import android.os.BatteryManager
 import android.os.Build
 import android.os.IBinder
-import android.os.Looper
+import android.util.Log
 import androidx.core.app.ActivityCompat
 import androidx.core.app.NotificationCompat
 import com.example.gnav.MainActivity
+import com.example.gnav.core.location.DeadReckoning
+import com.example.gnav.core.location.MotionSensors
+import com.example.gnav.core.location.SamplingScheduler
 import com.example.gnav.core.math.DeviationEngine
 import com.example.gnav.core.math.KalmanFilter
+import com.example.gnav.core.math.TrailCursor
+import com.example.gnav.data.db.BreadcrumbBuffer
+import com.example.gnav.data.db.BreadcrumbDecimator
+import com.example.gnav.data.db.BreadcrumbEntity
 import com.example.gnav.domain.model.Coord
 import com.example.gnav.domain.repository.NavigationRepository
 import com.google.android.gms.location.FusedLocationProviderClient
 import com.google.android.gms.location.LocationCallback
-import com.google.android.gms.location.LocationRequest
 import com.google.android.gms.location.LocationResult
 import com.google.android.gms.location.LocationServices
-import com.google.android.gms.location.Priority
 import dagger.hilt.android.AndroidEntryPoint
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
@@ -43,11 +52,23 @@ class TrackingService : Service() {
 
     private lateinit var fusedLocationClient: FusedLocationProviderClient
     private lateinit var locationCallback: LocationCallback
+    private lateinit var locationSource: FusedLocationSource
+    // Used on the main thread, where fixes are processed
+    private lateinit var samplingScheduler: SamplingScheduler
+    private var lastBatteryCheckMs = 0L
+    // Steps and heading between fixes, also on the main thread
+    private lateinit var motionSensors: AndroidMotionSensors
     private val serviceScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
 
     // State
     private var activePath: List<Coord> = emptyList()
-    private val kalmanFilter = KalmanFilter(3f) // Initial variance 3m?
+    private val kalmanFilter = KalmanFilter()
+    private val deadReckoning = DeadReckoning(kalmanFilter)
+    private val trailCursor = TrailCursor()
+    private val breadcrumbBuffer = BreadcrumbBuffer { repository.insertBreadcrumbs(it) }
+    private val breadcrumbDecimator = BreadcrumbDecimator()
+    private val keptBreadcrumbs = ArrayList<BreadcrumbEntity>(2)
+    @Volatile private var sessionId: String? = null
     
     companion object {
         const val ACTION_START_TRACKING = "START_TRACKING"
@@ -55,6 +76,7 @@ class TrackingService : Service() {
         const val EXTRA_TRAIL_ID = "TRAIL_ID"
         const val NOTIFICATION_ID = 123
         const val CHANNEL_ID = "tracking_channel"
+        private const val BATTERY_CHECK_MS = 60_000L
     }
 
     override fun onCreate() {
@@ -69,6 +91,19 @@ class TrackingService : Service() {
                 }
             }
         }
+        locationSource = FusedLocationSource(fusedLocationClient, locationCallback)
+        samplingScheduler = SamplingScheduler(locationSource)
+        motionSensors = AndroidMotionSensors(this)
+    }
+
+    private val motionListener = object : MotionSensors.Listener {
+        override fun onStep(timeMs: Long) {
+            if (deadReckoning.onStep(timeMs)) processEstimate(timeMs)
+        }
+
+        override fun onHeading(timeMs: Long, degrees: Double, accuracyDegrees: Double) {
+            if (deadReckoning.onHeading(timeMs, degrees, accuracyDegrees)) processEstimate(timeMs)
+        }
     }
 
     override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
@@ -94,6 +129,11 @@ class TrackingService : Service() {
             val trail = repository.getTrail(trailId)
             if (trail != null) {
                 activePath = trail.geometry
+                trailCursor.reset()
+                kalmanFilter.reset()
+                deadReckoning.reset()
+                breadcrumbDecimator.reset()
+                sessionId = repository.startSession(trailId)
                 requestLocationUpdates()
                 updateNotification("Tracking on ${trail.name}")
             }
@@ -105,46 +145,155 @@ class TrackingService : Service() {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             return
         }
-        val request = LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, 1000)
-            .setMinUpdateDistanceMeters(2f)
-            .build()
-        fusedLocationClient.requestLocationUpdates(request, locationCallback, Looper.getMainLooper())
+        locationSource.activate()
+        // Walking pace until the first fixes say otherwise; processLocation
+        // re-requests from here on as the hiker rests, climbs or strays
+        serviceScope.launch(Dispatchers.Main) {
+            lastBatteryCheckMs = 0
+            samplingScheduler.start()
+            if (!motionSensors.start(motionListener)) {
+                Log.i("TrackingService", "No step or heading sensor; fixes only")
+            }
+        }
     }
 
     private fun processLocation(location: Location) {
-        // 1. Kalman Filter
-        kalmanFilter.process(
+        // 1. Kalman Filter, after the steps taken before the fix
+        deadReckoning.onFix(
             location.latitude,
             location.longitude,
             location.accuracy,
             location.time
         )
         
+        evaluate(location.time, location.accuracy, persist = true)
+    }
+
+    /** A step window moved the filter: check the dead-reckoned position like a fix, without storing it. */
+    private fun processEstimate(timeMs: Long) {
+        evaluate(timeMs, deadReckoning.errorSigma.toFloat(), persist = false)
+    }
+
+    private fun evaluate(timeMs: Long, accuracy: Float, persist: Boolean) {
         val refinedLat = kalmanFilter.lat
         val refinedLng = kalmanFilter.lng
         val refinedCoord = Coord(refinedLat, refinedLng)
 
         // 2. Deviation Engine
-        val result = DeviationEngine.calculateDeviation(refinedCoord, activePath)
+        val result = DeviationEngine.calculateDeviation(refinedCoord, activePath, trailCursor)
         
         val isOffTrail = result is DeviationEngine.DeviationResult.OffTrail
         
-        // 3. Persist
-        serviceScope.launch {
-            repository.insertBreadcrumb(refinedLat, refinedLng, location.accuracy, isOffTrail)
+        // 3. Persist: only fixes that change the path beyond the decimator's tolerance,
+        // written behind in one transaction per buffered batch. Observers get every fix.
+        val breadcrumb = BreadcrumbEntity(
+            timestamp = timeMs,
+            lat = refinedLat,
+            lng = refinedLng,
+            accuracy = accuracy,
+            sessionId = sessionId ?: return,
+            isOffTrail = isOffTrail
+        )
+        repository.publishLiveBreadcrumb(breadcrumb)
+        if (persist) {
+            breadcrumbDecimator.add(breadcrumb, keptBreadcrumbs)
+            bufferKeptBreadcrumbs()
         }
         
-        // 4. Alert (Simple Log/Audio hook for now)
+        // 4. Adapt interval, priority and batching to what this fix says; while the steps
+        // carry the estimate fixes only bound its error, and one is asked for when it grows
+        checkBattery(timeMs)
+        samplingScheduler.setDeadReckoning(deadReckoning.isActive(timeMs))
+        samplingScheduler.update(
+            timeMs,
+            refinedLat,
+            refinedLng,
+            kalmanFilter.speed,
+            trailCursor.lastMatch?.distance ?: -1.0,
+            (result as? DeviationEngine.DeviationResult.OffTrail)?.status ?: DeviationEngine.SafetyStatus.SAFE
+        )
+        if (deadReckoning.shouldRequestFix(timeMs)) locationSource.requestFix()
+
+        // 5. Alert (Simple Log/Audio hook for now)
         if (result is DeviationEngine.DeviationResult.OffTrail && result.status == DeviationEngine.SafetyStatus.DANGER) {
            // Should trigger audio/vibration here
         }
     }
 
+    /** Feeds the battery level to the scheduler at most every [BATTERY_CHECK_MS] of fix time. */
+    private fun checkBattery(timeMs: Long) {
+        if (timeMs - lastBatteryCheckMs < BATTERY_CHECK_MS) return
+        lastBatteryCheckMs = timeMs
+        // Sticky broadcast: no receiver is registered
+        val battery = registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED)) ?: return
+        val level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1)
+        val scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1)
+        if (level < 0 || scale <= 0) return
+        val charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0
+        samplingScheduler.setBattery(level * 100 / scale, charging)
+    }
+
     private fun stopTracking() {
-        fusedLocationClient.removeLocationUpdates(locationCallback)
+        locationSource.stop()
+        motionSensors.stop()
+        flushBreadcrumbs(endSession = true)
         serviceScope.cancel()
     }
 
+    private fun bufferKeptBreadcrumbs() {
+        var due = false
+        for (breadcrumb in keptBreadcrumbs) {
+            due = breadcrumbBuffer.add(breadcrumb) || due
+        }
+        keptBreadcrumbs.clear()
+        if (due) {
+            serviceScope.launch { flushBuffer() }
+        }
+    }
+
+    /** Writes whatever is buffered; survives the serviceScope cancellation that follows. */
+    private fun flushBreadcrumbs(endSession: Boolean = false) {
+        val closing = if (endSession) sessionId.also { sessionId = null } else null
+        // The newest held-back fix ends the recorded path (decimator stays on this thread)
+        breadcrumbDecimator.finish(keptBreadcrumbs)
+        for (breadcrumb in keptBreadcrumbs) {
+            breadcrumbBuffer.add(breadcrumb)
+        }
+        keptBreadcrumbs.clear()
+        serviceScope.launch(Dispatchers.IO + NonCancellable) {
+            flushBuffer()
+            closing?.let { repository.endSession(it) }
+            Log.d(
+                "TrackingService",
+                "Breadcrumbs: ${breadcrumbDecimator.keptCount} of ${breadcrumbDecimator.seenCount} fixes kept " +
+                    "(${breadcrumbDecimator.droppedCount} dropped); " +
+                    "${breadcrumbBuffer.writtenCount} written in ${breadcrumbBuffer.flushCount} flushes " +
+                    "(last ${breadcrumbBuffer.lastFlushMs} ms, max ${breadcrumbBuffer.maxFlushMs} ms), " +
+                    "${breadcrumbBuffer.queueDepth} queued"
+            )
+        }
+    }
+
+    /**
+     * A failed write (disk full, database locked) must not take the tracking
+     * process down: the buffer keeps the batch and the next due flush retries.
+     */
+    private suspend fun flushBuffer() {
+        try {
+            breadcrumbBuffer.flush()
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.w("TrackingService", "Breadcrumb write failed; ${breadcrumbBuffer.queueDepth} queued for retry", e)
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        // The process may be killed next; don't keep track only in memory
+        flushBreadcrumbs()
+    }
+
     private fun createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             val channel = NotificationChannel(
@@ -181,6 +330,8 @@ class TrackingService : Service() {
     
     override fun onDestroy() {
         super.onDestroy()
+        motionSensors.stop()
+        flushBreadcrumbs(endSession = true)
         serviceScope.cancel()
     }
 }
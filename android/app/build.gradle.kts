@@ -14,6 +14,8 @@ if (keystorePropertiesFile.exists()) {
     keystoreProperties.load(FileInputStream(keystorePropertiesFile))
 }
 
+val legacySqlite: Configuration by configurations.creating
+
 android {
     namespace = "com.example.pandu_navigation"
     compileSdk = 36
@@ -60,6 +62,17 @@ android {
             }
         }
     }
+
+    sourceSets {
+        getByName("main") {
+            // Prebuilt navigation database, opened by AppDatabase via createFromAsset
+            assets.srcDir(project(":prebuilt-db").layout.buildDirectory.dir("generated/assets"))
+        }
+    }
+}
+
+tasks.named("preBuild") {
+    dependsOn(":prebuilt-db:buildPrebuiltDatabase")
 }
 
 flutter {
@@ -77,7 +90,26 @@ dependencies {
     annotationProcessor("androidx.room:room-compiler:$room_version")
     implementation("com.google.android.gms:play-services-location:21.0.1")
     implementation("androidx.concurrent:concurrent-futures:1.1.0")
-    implementation("androidx.localbroadcastmanager:localbroadcastmanager:1.1.0")
     implementation("com.google.code.gson:gson:2.10.1")
+
+    testImplementation("junit:junit:4.13.2")
+    // XmlPullParser implementation for GpxReader tests (android.jar only ships stubs)
+    testImplementation("net.sf.kxml:kxml2:2.3.0")
+    // Real SQLite for breadcrumb write benchmarks
+    testImplementation("org.xerial:sqlite-jdbc:3.45.1.0")
+    // SQLite 3.28 (Android 11) for migration tests, loaded in its own class loader
+    legacySqlite("org.xerial:sqlite-jdbc:3.28.0")
+}
+
+tasks.withType<Test>().configureEach {
+    jvmArgumentProviders.add(CommandLineArgumentProvider {
+        listOf("-DlegacySqlite.classpath=" + legacySqlite.asPath)
+    })
+    // ./gradlew test -Pbenchmark also runs the timing benchmarks and shows their output
+    if (project.hasProperty("benchmark")) {
+        systemProperty("benchmark", "true")
+        testLogging.showStandardStreams = true
+        outputs.upToDateWhen { false }
+    }
 }
 
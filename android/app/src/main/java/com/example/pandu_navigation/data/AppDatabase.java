@@ -1,27 +1,175 @@
 package com.example.pandu_navigation.data;
 
 import android.content.Context;
+import android.database.Cursor;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-@Database(entities = { TrailEntity.class, BreadcrumbEntity.class, PoiEntity.class,
-        MountainEntity.class }, version = 3, exportSchema = false)
+import java.util.ArrayList;
+import java.util.List;
+
+@Database(entities = { TrailEntity.class, BreadcrumbChunkEntity.class, SessionEntity.class, PoiEntity.class,
+        MountainEntity.class, AssetManifestEntity.class }, version = 8, exportSchema = false)
 public abstract class AppDatabase extends RoomDatabase {
 
     private static volatile AppDatabase INSTANCE;
 
+    static final String DATABASE_NAME = "pandu_native_db";
+    // Built from the bundled GPX at compile time by :prebuilt-db (buildPrebuiltDatabase).
+    // Room copies it only when no database exists yet, i.e. on a fresh install.
+    static final String PREBUILT_ASSET = "databases/pandu_native_db.db";
+
     public abstract NavigationDao navigationDao();
 
+    /**
+     * 3 -> 4: trails.geometryJson (Gson text) becomes trails.geometry
+     * (GeometryCodec BLOB). SQLite can't change a column type in place, so the
+     * table is rebuilt and every row re-encoded.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `trails_new` (`id` TEXT NOT NULL, `mountainId` TEXT, "
+                    + "`name` TEXT, `geometry` BLOB, `difficulty` INTEGER NOT NULL, `distance` REAL NOT NULL, "
+                    + "`elevationGain` REAL NOT NULL, `minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, "
+                    + "`minLng` REAL NOT NULL, `maxLng` REAL NOT NULL, PRIMARY KEY(`id`))");
+
+            try (Cursor cursor = db.query("SELECT id, geometryJson FROM trails")) {
+                while (cursor.moveToNext()) {
+                    byte[] geometry = GeometryCodec.encode(TrailGeometry.fromJson(cursor.getString(1)));
+                    db.execSQL("INSERT INTO trails_new (id, mountainId, name, geometry, difficulty, distance, "
+                            + "elevationGain, minLat, maxLat, minLng, maxLng) "
+                            + "SELECT id, mountainId, name, ?, difficulty, distance, elevationGain, "
+                            + "minLat, maxLat, minLng, maxLng FROM trails WHERE id = ?",
+                            new Object[] { geometry, cursor.getString(0) });
+                }
+            }
+
+            db.execSQL("DROP TABLE trails");
+            db.execSQL("ALTER TABLE trails_new RENAME TO trails");
+        }
+    };
+
+    /**
+     * 4 -> 5: asset_manifest. It starts empty, so the first start after the
+     * upgrade reseeds every mountain once and records the hashes.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `asset_manifest` (`path` TEXT NOT NULL, `mountainId` TEXT, "
+                    + "`hash` TEXT, PRIMARY KEY(`path`))");
+        }
+    };
+
+    /**
+     * 5 -> 6: one breadcrumbs row per fix becomes breadcrumb_chunks
+     * (BreadcrumbCodec blocks). Existing fixes are packed in time order, then
+     * the old table is dropped.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `breadcrumb_chunks` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, `count` INTEGER NOT NULL, "
+                    + "`minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, `minLng` REAL NOT NULL, "
+                    + "`maxLng` REAL NOT NULL, `data` BLOB, `isSynced` INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_breadcrumb_chunks_startTime` "
+                    + "ON `breadcrumb_chunks` (`startTime`)");
+
+            List<BreadcrumbEntity> block = new ArrayList<>(BreadcrumbStore.CHUNK_SIZE);
+            try (Cursor cursor = db.query("SELECT lat, lng, altitude, accuracy, bearing, speed, timestamp "
+                    + "FROM breadcrumbs ORDER BY timestamp, id")) {
+                while (cursor.moveToNext()) {
+                    block.add(new BreadcrumbEntity(cursor.getDouble(0), cursor.getDouble(1), cursor.getDouble(2),
+                            cursor.getDouble(3), cursor.getDouble(4), cursor.getDouble(5), cursor.getLong(6)));
+                    if (block.size() == BreadcrumbStore.CHUNK_SIZE || cursor.isLast()) {
+                        for (BreadcrumbChunkEntity chunk : BreadcrumbStore.pack(null, block)) {
+                            db.execSQL("INSERT INTO breadcrumb_chunks (startTime, endTime, count, minLat, maxLat, "
+                                    + "minLng, maxLng, data, isSynced) VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)",
+                                    new Object[] { chunk.startTime, chunk.endTime, chunk.count, chunk.minLat,
+                                            chunk.maxLat, chunk.minLng, chunk.maxLng, chunk.data });
+                        }
+                        block.clear();
+                    }
+                }
+            }
+
+            db.execSQL("DROP TABLE breadcrumbs");
+        }
+    };
+
+    /**
+     * 6 -> 7: sessions, and breadcrumb_chunks.sessionId with an index on
+     * (sessionId, startTime). Fixes recorded before sessions existed become
+     * one "imported" session; its distance is unknown and left at 0.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            for (String sql : MIGRATION_6_7_SQL) {
+                db.execSQL(sql);
+            }
+        }
+    };
+
+    // Kept apart so the JVM tests can run it against an old SQLite. HAVING
+    // without GROUP BY only parses from SQLite 3.39 (API 34); GROUP BY NULL
+    // keeps the backfill to no row at all when there is no history.
+    static final String[] MIGRATION_6_7_SQL = {
+            "CREATE TABLE IF NOT EXISTS `sessions` (`id` TEXT NOT NULL, `trailId` TEXT, "
+                    + "`startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, `pointCount` INTEGER NOT NULL, "
+                    + "`distanceMeters` REAL NOT NULL, `lastTimestamp` INTEGER NOT NULL, PRIMARY KEY(`id`))",
+            "CREATE INDEX IF NOT EXISTS `index_sessions_startTime` ON `sessions` (`startTime`)",
+            "ALTER TABLE `breadcrumb_chunks` ADD COLUMN `sessionId` TEXT",
+            "CREATE INDEX IF NOT EXISTS `index_breadcrumb_chunks_sessionId_startTime` "
+                    + "ON `breadcrumb_chunks` (`sessionId`, `startTime`)",
+            "INSERT INTO sessions (id, trailId, startTime, endTime, pointCount, distanceMeters, "
+                    + "lastTimestamp) SELECT 'imported', NULL, MIN(startTime), MAX(endTime), SUM(count), 0, "
+                    + "MAX(endTime) FROM breadcrumb_chunks GROUP BY NULL HAVING COUNT(*) > 0",
+            "UPDATE breadcrumb_chunks SET sessionId = 'imported'"
+    };
+
+    /**
+     * 7 -> 8: session roll-up columns for BreadcrumbMaintenance. Switching
+     * the file to auto_vacuum=INCREMENTAL needs a VACUUM, which can't run in
+     * a migration; the first maintenance run does it.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `sessions` ADD COLUMN `elevationGain` REAL NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `sessions` ADD COLUMN `geometry` BLOB");
+            db.execSQL("ALTER TABLE `sessions` ADD COLUMN `compactedAt` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
     public static AppDatabase getDatabase(final Context context) {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
                 if (INSTANCE == null) {
+                    DatabaseAccess access = DatabaseAccess.get();
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
-                            AppDatabase.class, "pandu_native_db")
+                            AppDatabase.class, DATABASE_NAME)
+                            .createFromAsset(PREBUILT_ASSET)
+                            .addMigrations(MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7,
+                                    MIGRATION_7_8)
+                            .addCallback(new Callback() {
+                                @Override
+                                public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                                    SpatialIndex.install(db);
+                                }
+                            })
                             .fallbackToDestructiveMigration() // For development simplicity
-                            .allowMainThreadQueries() // Warn: Only for initialization if needed, prefer background
+                            // Readers don't wait for the writer; DAO calls on the main thread throw
+                            .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                            .setQueryExecutor(access.readExecutor())
+                            .setTransactionExecutor(access.writeExecutor())
                             .build();
                 }
             }
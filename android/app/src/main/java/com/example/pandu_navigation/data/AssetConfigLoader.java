@@ -3,230 +3,254 @@ package com.example.pandu_navigation.data;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.util.Log;
+import android.util.Xml;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import com.example.pandu_navigation.data.AssetSeed.AppConfig;
+import com.example.pandu_navigation.data.AssetSeed.MountainConfig;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AssetConfigLoader {
     private static final String TAG = "PanduConfig";
+    // MainActivity and PanduService both trigger seeding; only one may run per process
+    private static final Object SEED_LOCK = new Object();
+    private static final int MAX_PARSE_THREADS = 4;
+
+    /** Seeding progress, reported from a database reader thread. */
+    public interface ProgressListener {
+        void onProgress(int parsedFiles, int totalFiles);
+
+        void onComplete(boolean success, long elapsedMs);
+    }
+
     private final Context context;
-    private final Gson gson;
+    private final AppDatabase db;
     private final NavigationDao dao;
+    private final TrailGeometryStore geometryStore;
+    private final DatabaseAccess access;
 
-    public AssetConfigLoader(Context context, NavigationDao dao) {
+    public AssetConfigLoader(Context context, AppDatabase db) {
         this.context = context;
-        this.dao = dao;
-        this.gson = new Gson();
+        this.db = db;
+        this.dao = db.navigationDao();
+        this.geometryStore = TrailGeometryStore.getInstance();
+        this.access = DatabaseAccess.get();
     }
 
     public void loadInitialData() {
-        new Thread(() -> {
-            if (dao.getTrailCount() > 0) {
-                Log.d(TAG, "Database already seeded. Skipping asset load.");
-                return;
+        loadInitialData(null);
+    }
+
+    /**
+     * Diffs and parses on a reader thread; only the final transaction takes
+     * the writer queue, so breadcrumbs keep flowing while assets are parsed.
+     */
+    public void loadInitialData(ProgressListener listener) {
+        access.read("seed", () -> {
+            synchronized (SEED_LOCK) {
+                seedDatabase(listener);
             }
-            seedDatabase();
-        }).start();
+            return null;
+        });
     }
 
-    private void seedDatabase() {
+    /**
+     * Hashes the bundled config and GPX files and diffs them against the
+     * asset_manifest table, then parses only what changed, concurrently on a
+     * bounded pool, and applies it in one transaction. With the prebuilt
+     * database or an unchanged APK the diff is empty and nothing is parsed.
+     * A failed sync leaves the previous rows and manifest in place and is
+     * retried on the next launch.
+     */
+    private void seedDatabase(ProgressListener listener) {
+        long start = System.nanoTime();
+        boolean success = false;
+        ExecutorService pool = null;
         try {
-            Log.d(TAG, "Seeding database from assets...");
             AssetManager assets = context.getAssets();
             // Flutter assets are typically under "flutter_assets"
             String baseAssetPath = "flutter_assets/";
-            String configPath = baseAssetPath + "assets/config/mountains.json";
-
-            InputStream is = assets.open(configPath);
-            AppConfig config = gson.fromJson(new InputStreamReader(is), AppConfig.class);
-            is.close();
-
-            for (MountainConfig mountain : config.mountains) {
-                Log.d(TAG, "Processing mountain: " + mountain.name);
-
-                // 1. Process Tracks
-                if (mountain.tracks != null) {
-                    for (TrackConfig track : mountain.tracks) {
-                        String trackAssetPath = baseAssetPath + track.file;
-                        Log.d(TAG, "Parsing track: " + track.name + " from " + trackAssetPath);
-                        List<TrailEntity> trails = parseGpxTracks(trackAssetPath, mountain.id, track.name);
-                        for (TrailEntity trail : trails) {
-                            dao.insertTrail(trail);
-                        }
-                    }
+            String configPath = baseAssetPath + AssetSeed.CONFIG_PATH;
+
+            AppConfig config;
+            try (InputStream is = assets.open(configPath)) {
+                config = AssetSeed.readConfig(new InputStreamReader(is));
+            }
+
+            AssetSeed.SyncPlan plan = AssetSeed.plan(config, dao.getAssetManifest(), dao.getSeededMountainIds(), path -> {
+                try (InputStream is = assets.open(baseAssetPath + path)) {
+                    return AssetSeed.sha256(is);
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot read asset " + path + ": " + e.getMessage());
+                    return null;
                 }
+            });
+            long plannedAt = System.nanoTime();
+            if (plan.isEmpty()) {
+                success = true;
+                Log.d(TAG, "Assets unchanged, nothing to seed (" + (plannedAt - start) / 1_000_000 + " ms)");
+                return;
+            }
+            Log.d(TAG, "Seeding changed assets: " + plan.mountains.size() + " mountains, "
+                    + plan.tracks.size() + " tracks, " + plan.pois.size() + " POI files, "
+                    + plan.staleMountainIds.size() + " stale mountains");
+
+            List<MountainEntity> mountains = new ArrayList<>();
+            for (MountainConfig mountain : plan.mountains) {
+                mountains.add(AssetSeed.toEntity(mountain));
+            }
 
-                // 2. Process POIs
-                if (mountain.poi_file != null && !mountain.poi_file.isEmpty()) {
-                    String poiAssetPath = baseAssetPath + mountain.poi_file;
-                    Log.d(TAG, "Parsing POIs from " + poiAssetPath);
-                    List<PoiEntity> pois = parseGpxPois(poiAssetPath, mountain.id);
-                    for (PoiEntity poi : pois) {
-                        dao.insertPoi(poi);
+            int totalFiles = plan.tracks.size() + plan.pois.size();
+            int threads = Math.max(1, Math.min(totalFiles,
+                    Math.min(MAX_PARSE_THREADS, Runtime.getRuntime().availableProcessors())));
+            pool = Executors.newFixedThreadPool(threads);
+            AtomicInteger parsed = new AtomicInteger();
+            List<Future<List<TrailEntity>>> trackResults = new ArrayList<>();
+            List<Future<List<PoiEntity>>> poiResults = new ArrayList<>();
+            for (AssetSeed.TrackJob job : plan.tracks) {
+                String trackAssetPath = baseAssetPath + job.track.file;
+                trackResults.add(pool.submit(() -> reportProgress(
+                        parseGpxTracks(trackAssetPath, job.mountainId, job.track.name), parsed, totalFiles, listener)));
+            }
+            for (AssetSeed.PoiJob job : plan.pois) {
+                String poiAssetPath = baseAssetPath + job.path;
+                poiResults.add(pool.submit(() -> reportProgress(
+                        parseGpxPois(poiAssetPath, job.mountainId), parsed, totalFiles, listener)));
+            }
+
+            // Collect in config order so the seeded rows don't depend on thread timing.
+            // A file that failed to parse keeps its old rows and gets no manifest entry.
+            List<TrailEntity> trails = new ArrayList<>();
+            // Trail ids each reparsed mountain still has; one with a failed file keeps its old rows
+            Map<String, List<String>> keptTrailIds = new HashMap<>();
+            for (String mountainId : plan.trailSetMountainIds) {
+                keptTrailIds.put(mountainId, new ArrayList<>());
+            }
+            for (int i = 0; i < trackResults.size(); i++) {
+                List<TrailEntity> result = trackResults.get(i).get();
+                String mountainId = plan.tracks.get(i).mountainId;
+                if (result != null) {
+                    trails.addAll(result);
+                    List<String> kept = keptTrailIds.get(mountainId);
+                    if (kept != null) {
+                        for (TrailEntity trail : result) {
+                            kept.add(trail.id);
+                        }
                     }
+                } else {
+                    plan.manifest.remove(plan.tracks.get(i).track.file);
+                    keptTrailIds.remove(mountainId);
                 }
-                // 3. Insert Mountain
-                MountainEntity mEntity = new MountainEntity(
-                        mountain.id,
-                        mountain.name,
-                        mountain.description,
-                        mountain.region,
-                        mountain.lat,
-                        mountain.lng,
-                        mountain.altitude,
-                        false, // isDownloaded default
-                        false, // isOfflineAvailable default
-                        null, // localMapPath
-                        "{}" // boundaryJson
-                );
-                dao.insertMountain(mEntity);
             }
-
+            List<PoiEntity> pois = new ArrayList<>();
+            List<String> poiMountains = new ArrayList<>();
+            for (int i = 0; i < poiResults.size(); i++) {
+                List<PoiEntity> result = poiResults.get(i).get();
+                if (result != null) {
+                    pois.addAll(result);
+                    poiMountains.add(plan.pois.get(i).mountainId);
+                } else {
+                    plan.manifest.remove(plan.pois.get(i).path);
+                }
+            }
+            long parsedAt = System.nanoTime();
+
+            int[] dropped = new int[1];
+            access.write("seedApply", () -> db.runInTransaction(() -> {
+                for (String mountainId : plan.staleMountainIds) {
+                    dao.deleteTrailsByMountain(mountainId);
+                    dao.deletePoisByMountain(mountainId);
+                    dao.deleteMountain(mountainId);
+                    dao.deleteAssetManifestByMountain(mountainId);
+                }
+                for (String mountainId : plan.resetMountainIds) {
+                    dao.deleteTrailsByMountain(mountainId);
+                    dao.deletePoisByMountain(mountainId);
+                    dao.deleteAssetManifestByMountain(mountainId);
+                }
+                // Tracks dropped from a changed file, by the ids its mountain's files still yield
+                for (Map.Entry<String, List<String>> kept : keptTrailIds.entrySet()) {
+                    dropped[0] += dao.deleteTrailsByMountainExcept(kept.getKey(), kept.getValue());
+                }
+                // POI ids are positional, so a changed file replaces the whole set
+                for (String mountainId : poiMountains) {
+                    dao.deletePoisByMountain(mountainId);
+                }
+                dao.insertTrails(trails);
+                dao.insertPois(pois);
+                dao.insertMountains(mountains);
+                dao.upsertAssetManifest(new ArrayList<>(plan.manifest.values()));
+            })).get();
+            if (!plan.staleMountainIds.isEmpty() || !plan.resetMountainIds.isEmpty() || dropped[0] > 0) {
+                geometryStore.clear(); // Deleted trails must not linger in the decoded cache
+            } else {
+                for (TrailEntity trail : trails) {
+                    geometryStore.invalidate(trail.id);
+                }
+            }
+            success = true;
+
+            long end = System.nanoTime();
+            Log.d(TAG, String.format(Locale.US,
+                    "Seeded %d mountains, %d trails, %d POIs from %d files on %d threads: "
+                            + "hash %d ms, parse %d ms, write %d ms",
+                    mountains.size(), trails.size(), pois.size(), totalFiles, threads,
+                    (plannedAt - start) / 1_000_000, (parsedAt - plannedAt) / 1_000_000,
+                    (end - parsedAt) / 1_000_000));
         } catch (Exception e) {
             Log.e(TAG, "Error seeding database: ", e);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (listener != null) {
+                listener.onComplete(success, (System.nanoTime() - start) / 1_000_000);
+            }
         }
     }
 
-    private List<TrailEntity> parseGpxTracks(String assetPath, String mountainId, String trackName) {
-        List<TrailEntity> trails = new ArrayList<>();
-        try {
-            InputStream is = context.getAssets().open(assetPath);
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(is);
-            doc.getDocumentElement().normalize();
-
-            NodeList trkList = doc.getElementsByTagName("trk");
-            for (int i = 0; i < trkList.getLength(); i++) {
-                Element trk = (Element) trkList.item(i);
-                // Use trackName from JSON if provided, else fallback to GPX name
-                String name = trackName != null ? trackName : getTagValue("name", trk);
-
-                NodeList trkpts = trk.getElementsByTagName("trkpt");
-                List<List<Double>> coordinates = new ArrayList<>();
-
-                double minLat = 90, maxLat = -90, minLng = 180, maxLng = -180;
-
-                for (int j = 0; j < trkpts.getLength(); j++) {
-                    Element pt = (Element) trkpts.item(j);
-                    double lat = Double.parseDouble(pt.getAttribute("lat"));
-                    double lon = Double.parseDouble(pt.getAttribute("lon"));
-                    double ele = 0;
-                    if (pt.getElementsByTagName("ele").getLength() > 0) {
-                        try {
-                            ele = Double.parseDouble(getTagValue("ele", pt));
-                        } catch (NumberFormatException e) {
-                            ele = 0;
-                        }
-                    }
-
-                    List<Double> coord = new ArrayList<>();
-                    coord.add(lon);
-                    coord.add(lat);
-                    coord.add(ele);
-                    coordinates.add(coord);
-
-                    if (lat < minLat)
-                        minLat = lat;
-                    if (lat > maxLat)
-                        maxLat = lat;
-                    if (lon < minLng)
-                        minLng = lon;
-                    if (lon > maxLng)
-                        maxLng = lon;
-                }
-
-                String geometryJson = gson.toJson(coordinates);
-                // Create deterministic ID based on mountain + track name
-                String id = mountainId + "_" + name.toLowerCase().replaceAll("[^a-z0-9]", "_");
+    private static <T> T reportProgress(T result, AtomicInteger parsed, int totalFiles,
+            ProgressListener listener) {
+        int done = parsed.incrementAndGet();
+        if (listener != null) {
+            listener.onProgress(done, totalFiles);
+        }
+        return result;
+    }
 
-                TrailEntity entity = new TrailEntity(
-                        id, mountainId, name, geometryJson,
-                        3, 0, 0, minLat, maxLat, minLng, maxLng);
-                trails.add(entity);
-            }
-            is.close();
+    /** Returns null when the file can't be read or parsed. */
+    private List<TrailEntity> parseGpxTracks(String assetPath, String mountainId, String trackName) {
+        long start = System.nanoTime();
+        List<TrailEntity> trails = null;
+        try (InputStream is = context.getAssets().open(assetPath)) {
+            // One reader per file: parse jobs run concurrently and XmlPullParser isn't thread-safe
+            trails = AssetSeed.readTracks(new GpxReader(Xml.newPullParser()), is, mountainId, trackName);
         } catch (Exception e) {
             Log.e(TAG, "Error parsing Track GPX " + assetPath + ": ", e);
         }
+        Log.d(TAG, "Parsed track " + assetPath + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
         return trails;
     }
 
+    /** Returns null when the file can't be read or parsed. */
     private List<PoiEntity> parseGpxPois(String assetPath, String mountainId) {
-        List<PoiEntity> pois = new ArrayList<>();
-        try {
-            InputStream is = context.getAssets().open(assetPath);
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(is);
-            doc.getDocumentElement().normalize();
-
-            NodeList wptList = doc.getElementsByTagName("wpt");
-            for (int i = 0; i < wptList.getLength(); i++) {
-                Element wpt = (Element) wptList.item(i);
-                double lat = Double.parseDouble(wpt.getAttribute("lat"));
-                double lon = Double.parseDouble(wpt.getAttribute("lon"));
-
-                String name = getTagValue("name", wpt);
-                String type = getTagValue("type", wpt).toLowerCase(); // Normalize type
-                String eleStr = getTagValue("ele", wpt);
-                double ele = eleStr.isEmpty() ? 0 : Double.parseDouble(eleStr);
-
-                String id = mountainId + "_poi_" + i + "_" + System.currentTimeMillis(); // Simple unique ID
-
-                PoiEntity entity = new PoiEntity(id, mountainId, name, type, lat, lon, ele);
-                pois.add(entity);
-            }
-            is.close();
+        List<PoiEntity> pois = null;
+        try (InputStream is = context.getAssets().open(assetPath)) {
+            pois = AssetSeed.readPois(new GpxReader(Xml.newPullParser()), is, mountainId);
         } catch (Exception e) {
             Log.e(TAG, "Error parsing POI GPX " + assetPath + ": ", e);
         }
         return pois;
     }
-
-    private String getTagValue(String tag, Element element) {
-        NodeList nl = element.getElementsByTagName(tag);
-        if (nl != null && nl.getLength() > 0) {
-            NodeList childNodes = nl.item(0).getChildNodes();
-            if (childNodes.getLength() > 0) {
-                return childNodes.item(0).getNodeValue();
-            }
-        }
-        return "";
-    }
-
-    // Config POJOs
-    private static class AppConfig {
-        List<MountainConfig> mountains;
-    }
-
-    private static class MountainConfig {
-        String id;
-        String name;
-        String region;
-        String description;
-        double lat;
-        double lng;
-        double altitude;
-        List<TrackConfig> tracks;
-        String poi_file;
-    }
-
-    private static class TrackConfig {
-        String name;
-        String file;
-    }
 }
@@ -0,0 +1,26 @@
+package com.example.pandu_navigation.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Content hash of one seeded asset, so startup can tell which bundled files
+ * changed since the rows were written. {@code path} is the asset path from
+ * mountains.json, or {@code mountain:<id>} for a mountain's config entry.
+ */
+@Entity(tableName = "asset_manifest")
+public class AssetManifestEntity {
+    @PrimaryKey
+    @NonNull
+    public String path;
+
+    public String mountainId;
+    public String hash; // hex SHA-256
+
+    public AssetManifestEntity(@NonNull String path, String mountainId, String hash) {
+        this.path = path;
+        this.mountainId = mountainId;
+        this.hash = hash;
+    }
+}
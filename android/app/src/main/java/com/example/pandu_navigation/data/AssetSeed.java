@@ -0,0 +1,294 @@
+package com.example.pandu_navigation.data;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Android-free half of asset seeding: the mountains.json model, the
+ * GPX -> entity mapping and the content-hash diff against the asset
+ * manifest. Shared by {@link AssetConfigLoader} at runtime and by the
+ * :prebuilt-db build tool, so both produce identical rows.
+ */
+public final class AssetSeed {
+
+    /** Relative to the Flutter project root (or flutter_assets/ inside the APK). */
+    public static final String CONFIG_PATH = "assets/config/mountains.json";
+
+    private AssetSeed() {
+    }
+
+    public static AppConfig readConfig(Reader reader) {
+        return new Gson().fromJson(reader, AppConfig.class);
+    }
+
+    public static List<TrailEntity> readTracks(GpxReader gpx, InputStream in, String mountainId, String trackName)
+            throws XmlPullParserException, IOException {
+        List<TrailEntity> trails = new ArrayList<>();
+        gpx.read(in, track -> {
+            // Use trackName from JSON if provided, else fallback to GPX name
+            String name = trackName != null ? trackName : (track.name != null ? track.name : "");
+            byte[] geometry = GeometryCodec.encode(track.lat, track.lng, track.ele, track.size);
+            // Create deterministic ID based on mountain + track name
+            String id = mountainId + "_" + name.toLowerCase().replaceAll("[^a-z0-9]", "_");
+
+            trails.add(new TrailEntity(
+                    id, mountainId, name, geometry,
+                    3, track.distance, track.elevationGain,
+                    track.minLat, track.maxLat, track.minLng, track.maxLng));
+        }, null);
+        return trails;
+    }
+
+    public static List<PoiEntity> readPois(GpxReader gpx, InputStream in, String mountainId)
+            throws XmlPullParserException, IOException {
+        List<PoiEntity> pois = new ArrayList<>();
+        gpx.read(in, null, (index, name, type, lat, lon, ele) -> {
+            // Position in the file keeps ids stable, so a reseed replaces rather than duplicates
+            String id = mountainId + "_poi_" + index;
+            // Normalize type
+            pois.add(new PoiEntity(id, mountainId, name, type.toLowerCase(), lat, lon, ele));
+        });
+        return pois;
+    }
+
+    /** Resolves an asset path to its content hash, or null when it can't be read. */
+    public interface Hasher {
+        String hash(String path);
+    }
+
+    /**
+     * What differs between the bundled assets and the manifest stored with the
+     * seeded rows. Mountains whose config entry changed (or that are new) are
+     * reseeded whole. Otherwise a changed track file reparses all of the
+     * mountain's track files, since trail rows don't record which file they
+     * came from, and a changed POI file replaces the mountain's POIs.
+     */
+    public static final class SyncPlan {
+        /** Mountain rows to (re)write. */
+        public final List<MountainConfig> mountains = new ArrayList<>();
+        /** Mountains whose trails, POIs and manifest rows go before reseeding. */
+        public final Set<String> resetMountainIds = new LinkedHashSet<>();
+        /**
+         * Mountains whose track files are all reparsed; their trails that none
+         * of the files yields any more go, once every one of them parsed.
+         */
+        public final Set<String> trailSetMountainIds = new LinkedHashSet<>();
+        /**
+         * Mountains in the database or the manifest but no longer in the
+         * config, including ones seeded before the manifest existed; all of
+         * their rows go.
+         */
+        public final Set<String> staleMountainIds = new LinkedHashSet<>();
+        public final List<TrackJob> tracks = new ArrayList<>();
+        public final List<PoiJob> pois = new ArrayList<>();
+        /** Manifest rows to write once the jobs above succeed, keyed by path. */
+        public final Map<String, AssetManifestEntity> manifest = new LinkedHashMap<>();
+
+        public boolean isEmpty() {
+            return mountains.isEmpty() && staleMountainIds.isEmpty() && tracks.isEmpty() && pois.isEmpty();
+        }
+    }
+
+    public static final class TrackJob {
+        public final String mountainId;
+        public final TrackConfig track;
+
+        TrackJob(String mountainId, TrackConfig track) {
+            this.mountainId = mountainId;
+            this.track = track;
+        }
+    }
+
+    public static final class PoiJob {
+        public final String mountainId;
+        public final String path;
+
+        PoiJob(String mountainId, String path) {
+            this.mountainId = mountainId;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Diffs the config and asset hashes against the stored manifest.
+     * seededMountainIds are the mountains that have rows in the database,
+     * manifest or not.
+     */
+    public static SyncPlan plan(AppConfig config, List<AssetManifestEntity> stored,
+            Collection<String> seededMountainIds, Hasher hasher) {
+        Map<String, String> storedHashes = new HashMap<>();
+        Set<String> storedMountains = new LinkedHashSet<>(seededMountainIds);
+        for (AssetManifestEntity entry : stored) {
+            storedHashes.put(entry.path, entry.hash);
+            storedMountains.add(entry.mountainId);
+        }
+
+        SyncPlan plan = new SyncPlan();
+        for (MountainConfig mountain : config.mountains) {
+            storedMountains.remove(mountain.id);
+            String configKey = "mountain:" + mountain.id;
+            String configHash = sha256(canonicalForm(mountain).getBytes(StandardCharsets.UTF_8));
+            boolean whole = !configHash.equals(storedHashes.get(configKey));
+            if (whole) {
+                plan.mountains.add(mountain);
+                plan.resetMountainIds.add(mountain.id);
+                plan.manifest.put(configKey, new AssetManifestEntity(configKey, mountain.id, configHash));
+            }
+
+            if (mountain.tracks != null) {
+                List<TrackConfig> readable = new ArrayList<>();
+                List<String> hashes = new ArrayList<>();
+                boolean changed = whole;
+                for (TrackConfig track : mountain.tracks) {
+                    String hash = hasher.hash(track.file);
+                    // Unreadable files get no manifest row, so they are retried next start
+                    if (hash != null) {
+                        readable.add(track);
+                        hashes.add(hash);
+                        changed |= !hash.equals(storedHashes.get(track.file));
+                    }
+                }
+                if (changed) {
+                    for (int i = 0; i < readable.size(); i++) {
+                        TrackConfig track = readable.get(i);
+                        plan.tracks.add(new TrackJob(mountain.id, track));
+                        plan.manifest.put(track.file, new AssetManifestEntity(track.file, mountain.id, hashes.get(i)));
+                    }
+                    // An unreadable file's trails can't be told apart from dropped ones, so they stay
+                    if (!whole && readable.size() == mountain.tracks.size()) {
+                        plan.trailSetMountainIds.add(mountain.id);
+                    }
+                }
+            }
+            if (mountain.poi_file != null && !mountain.poi_file.isEmpty()) {
+                String hash = hasher.hash(mountain.poi_file);
+                if (hash != null && (whole || !hash.equals(storedHashes.get(mountain.poi_file)))) {
+                    plan.pois.add(new PoiJob(mountain.id, mountain.poi_file));
+                    plan.manifest.put(mountain.poi_file, new AssetManifestEntity(mountain.poi_file, mountain.id, hash));
+                }
+            }
+        }
+        plan.staleMountainIds.addAll(storedMountains);
+        return plan;
+    }
+
+    /**
+     * The mountain's config entry as JSON with its keys in a fixed order, for
+     * hashing. Gson's reflective output follows field order, which neither
+     * the JVM nor R8 promises to keep between builds.
+     */
+    static String canonicalForm(MountainConfig mountain) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject()
+                    .name("id").value(mountain.id)
+                    .name("name").value(mountain.name)
+                    .name("region").value(mountain.region)
+                    .name("description").value(mountain.description)
+                    .name("lat").value(mountain.lat)
+                    .name("lng").value(mountain.lng)
+                    .name("altitude").value(mountain.altitude)
+                    .name("poi_file").value(mountain.poi_file)
+                    .name("tracks");
+            if (mountain.tracks == null) {
+                json.nullValue();
+            } else {
+                json.beginArray();
+                for (TrackConfig track : mountain.tracks) {
+                    json.beginObject().name("name").value(track.name).name("file").value(track.file).endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // A StringWriter doesn't throw
+        }
+        return out.toString();
+    }
+
+    public static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return hex(digest.digest());
+    }
+
+    static String sha256(byte[] bytes) {
+        return hex(newSha256().digest(bytes));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Guaranteed on every JVM and Android
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder out = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            out.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return out.toString();
+    }
+
+    public static MountainEntity toEntity(MountainConfig mountain) {
+        return new MountainEntity(
+                mountain.id,
+                mountain.name,
+                mountain.description,
+                mountain.region,
+                mountain.lat,
+                mountain.lng,
+                mountain.altitude,
+                false, // isDownloaded default
+                false, // isOfflineAvailable default
+                null, // localMapPath
+                "{}" // boundaryJson
+        );
+    }
+
+    // Config POJOs
+    public static class AppConfig {
+        public List<MountainConfig> mountains;
+    }
+
+    public static class MountainConfig {
+        public String id;
+        public String name;
+        public String region;
+        public String description;
+        public double lat;
+        public double lng;
+        public double altitude;
+        public List<TrackConfig> tracks;
+        public String poi_file;
+    }
+
+    public static class TrackConfig {
+        public String name;
+        public String file;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.pandu_navigation.data;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Up to {@link BreadcrumbStore#CHUNK_SIZE} consecutive fixes packed into one
+ * BreadcrumbCodec BLOB. The time range and bounding box are kept as plain
+ * columns, so range and area queries pick chunks without decoding them.
+ */
+@Entity(tableName = "breadcrumb_chunks", indices = { @Index("startTime"),
+        @Index(value = { "sessionId", "startTime" }) })
+public class BreadcrumbChunkEntity {
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    public String sessionId;
+
+    // Fix times of the first and last fix (ms)
+    public long startTime;
+    public long endTime;
+    public int count;
+
+    public double minLat;
+    public double maxLat;
+    public double minLng;
+    public double maxLng;
+
+    public byte[] data;
+    public int isSynced; // 0 = false, 1 = true (for syncing back to Flutter/Cloud if needed)
+
+    public BreadcrumbChunkEntity(String sessionId, long startTime, long endTime, int count,
+            double minLat, double maxLat, double minLng, double maxLng, byte[] data) {
+        this.sessionId = sessionId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.count = count;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLng = minLng;
+        this.maxLng = maxLng;
+        this.data = data;
+        this.isSynced = 0;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.pandu_navigation.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary block of fixes stored in the breadcrumb_chunks.data BLOB column.
+ *
+ * Layout (version 1), column by column so each run of similar values
+ * delta-encodes well:
+ *   byte    version
+ *   byte    flags (reserved, 0)
+ *   varint  fix count
+ *   time      ms; first value as is, then zigzag delta-of-delta
+ *   lat, lng  1e-7 degrees, zigzag deltas
+ *   altitude  decimeters, zigzag deltas
+ *   accuracy  decimeters, zigzag deltas
+ *   bearing   0.1 degree, zigzag deltas wrapped to [-180, 180)
+ *   speed     cm/s, zigzag deltas
+ *
+ * At a steady 1 Hz the time column costs one byte per fix and a walking
+ * pace moves lat/lng by two-byte deltas, so a fix packs into ~10 bytes
+ * against ~80 for a row of seven doubles and a long.
+ */
+public final class BreadcrumbCodec {
+
+    public static final int VERSION = 1;
+
+    private static final double COORD_SCALE = 1e7;
+    private static final double METER_SCALE = 10;
+    private static final double BEARING_SCALE = 10;
+    private static final double SPEED_SCALE = 100;
+    private static final long FULL_TURN = 3600;
+
+    private BreadcrumbCodec() {
+    }
+
+    /** Encodes {@code count} fixes from {@code from}, oldest first. */
+    public static byte[] encode(List<BreadcrumbEntity> fixes, int from, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + count * 12);
+        out.write(VERSION);
+        out.write(0);
+        writeVarint(out, count);
+
+        long prevTime = 0, prevDelta = 0;
+        for (int i = from; i < from + count; i++) {
+            long time = fixes.get(i).timestamp;
+            if (i == from) {
+                writeVarint(out, zigzag(time));
+            } else {
+                long delta = time - prevTime;
+                writeVarint(out, zigzag(delta - prevDelta));
+                prevDelta = delta;
+            }
+            prevTime = time;
+        }
+        long prev = 0;
+        for (int i = from; i < from + count; i++) {
+            prev = writeDelta(out, Math.round(fixes.get(i).lat * COORD_SCALE), prev);
+        }
+        prev = 0;
+        for (int i = from; i < from + count; i++) {
+            prev = writeDelta(out, Math.round(fixes.get(i).lng * COORD_SCALE), prev);
+        }
+        prev = 0;
+        for (int i = from; i < from + count; i++) {
+            prev = writeDelta(out, Math.round(fixes.get(i).altitude * METER_SCALE), prev);
+        }
+        prev = 0;
+        for (int i = from; i < from + count; i++) {
+            prev = writeDelta(out, Math.round(fixes.get(i).accuracy * METER_SCALE), prev);
+        }
+        prev = 0;
+        for (int i = from; i < from + count; i++) {
+            long bearing = Math.floorMod(Math.round(fixes.get(i).bearing * BEARING_SCALE), FULL_TURN);
+            // Shortest way round, so 359.9 -> 0.1 is a +2 delta rather than -3598
+            long delta = Math.floorMod(bearing - prev + FULL_TURN / 2, FULL_TURN) - FULL_TURN / 2;
+            writeVarint(out, zigzag(delta));
+            prev = bearing;
+        }
+        prev = 0;
+        for (int i = from; i < from + count; i++) {
+            prev = writeDelta(out, Math.round(fixes.get(i).speed * SPEED_SCALE), prev);
+        }
+        return out.toByteArray();
+    }
+
+    public static List<BreadcrumbEntity> decode(byte[] blob) {
+        if (blob == null || blob.length == 0) {
+            return Collections.emptyList();
+        }
+        return decode(ByteBuffer.wrap(blob));
+    }
+
+    /** Unknown versions and truncated data decode as an empty list. */
+    public static List<BreadcrumbEntity> decode(ByteBuffer buffer) {
+        try {
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                return Collections.emptyList();
+            }
+            buffer.get(); // flags
+            int count = (int) readVarint(buffer);
+
+            long[] time = new long[count];
+            long t = 0, delta = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0) {
+                    t = unzigzag(readVarint(buffer));
+                } else {
+                    delta += unzigzag(readVarint(buffer));
+                    t += delta;
+                }
+                time[i] = t;
+            }
+            double[] lat = readDeltas(buffer, count, COORD_SCALE);
+            double[] lng = readDeltas(buffer, count, COORD_SCALE);
+            double[] altitude = readDeltas(buffer, count, METER_SCALE);
+            double[] accuracy = readDeltas(buffer, count, METER_SCALE);
+            double[] bearing = new double[count];
+            long q = 0;
+            for (int i = 0; i < count; i++) {
+                q = Math.floorMod(q + unzigzag(readVarint(buffer)), FULL_TURN);
+                bearing[i] = q / BEARING_SCALE;
+            }
+            double[] speed = readDeltas(buffer, count, SPEED_SCALE);
+
+            List<BreadcrumbEntity> fixes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                fixes.add(new BreadcrumbEntity(lat[i], lng[i], altitude[i], accuracy[i], bearing[i], speed[i],
+                        time[i]));
+            }
+            return fixes;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static long writeDelta(ByteArrayOutputStream out, long value, long prev) {
+        writeVarint(out, zigzag(value - prev));
+        return value;
+    }
+
+    private static double[] readDeltas(ByteBuffer buffer, int count, double scale) {
+        double[] values = new double[count];
+        long q = 0;
+        for (int i = 0; i < count; i++) {
+            q += unzigzag(readVarint(buffer));
+            values[i] = q / scale;
+        }
+        return values;
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+}
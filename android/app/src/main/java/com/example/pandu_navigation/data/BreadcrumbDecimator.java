@@ -0,0 +1,145 @@
+package com.example.pandu_navigation.data;
+
+import com.example.pandu_navigation.logic.GeoMath;
+
+import java.util.List;
+
+/**
+ * Online line simplification between the Kalman filter and persistence.
+ *
+ * Opening-window Douglas-Peucker: fixes after the last kept one (the anchor)
+ * are held back as long as every one of them lies within
+ * {@code toleranceMeters} of the straight line from the anchor to the newest
+ * fix. When a new fix breaks that, the fix before it is kept and becomes the
+ * anchor. Dropping a point therefore never moves the recorded path by more
+ * than the tolerance; standing still, walking straight and GPS jitter all
+ * collapse, while a change of heading shows up as distance from the chord
+ * and is kept.
+ *
+ * Time still matters for backtracking, so a fix is also kept once
+ * {@code maxGapMs} has passed since the anchor, and both sides of a gap in
+ * the fixes longer than that are kept.
+ *
+ * Not thread-safe; feed it from one thread, oldest fix first.
+ */
+public class BreadcrumbDecimator {
+
+    public static final double DEFAULT_TOLERANCE_METERS = 2.0;
+    public static final long DEFAULT_MAX_GAP_MS = 120_000;
+    private static final int DEFAULT_MAX_WINDOW = 256;
+
+    private final double toleranceSq;
+    private final long maxGapMs;
+    private final int maxWindow;
+
+    // Window of undecided fixes, in meters relative to the anchor
+    private final GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+    private final double[] windowX;
+    private final double[] windowY;
+    private int windowSize;
+
+    private BreadcrumbEntity anchor;
+    private BreadcrumbEntity last;
+
+    private long seen;
+    private long kept;
+
+    public BreadcrumbDecimator() {
+        this(DEFAULT_TOLERANCE_METERS, DEFAULT_MAX_GAP_MS, DEFAULT_MAX_WINDOW);
+    }
+
+    public BreadcrumbDecimator(double toleranceMeters, long maxGapMs, int maxWindow) {
+        this.toleranceSq = toleranceMeters * toleranceMeters;
+        this.maxGapMs = maxGapMs;
+        this.maxWindow = maxWindow;
+        this.windowX = new double[maxWindow];
+        this.windowY = new double[maxWindow];
+    }
+
+    /** Takes the next fix and appends any fixes that are now final to {@code out}. */
+    public void add(BreadcrumbEntity fix, List<BreadcrumbEntity> out) {
+        seen++;
+        if (anchor == null) {
+            keep(fix, out);
+            return;
+        }
+        if (fix.timestamp - last.timestamp > maxGapMs) {
+            // Lost signal: close the path before the gap and restart after it
+            if (last != anchor) {
+                keep(last, out);
+            }
+            keep(fix, out);
+            return;
+        }
+
+        double x = frame.x(fix.lat, fix.lng);
+        double y = frame.y(fix.lat);
+        if (exceedsTolerance(x, y)) {
+            keep(last, out);
+            x = frame.x(fix.lat, fix.lng);
+            y = frame.y(fix.lat);
+        }
+
+        if (fix.timestamp - anchor.timestamp >= maxGapMs || windowSize == maxWindow - 1) {
+            keep(fix, out);
+            return;
+        }
+        windowX[windowSize] = x;
+        windowY[windowSize] = y;
+        windowSize++;
+        last = fix;
+    }
+
+    /** Emits the newest held-back fix, e.g. when tracking stops. */
+    public void finish(List<BreadcrumbEntity> out) {
+        if (last != null && last != anchor) {
+            keep(last, out);
+        }
+    }
+
+    /** Forgets the anchor, so the next fix starts a new path. */
+    public void reset() {
+        anchor = null;
+        last = null;
+        windowSize = 0;
+    }
+
+    /** Whether some held-back fix is farther than the tolerance from the chord anchor -> (x, y). */
+    private boolean exceedsTolerance(double x, double y) {
+        double lenSq = x * x + y * y;
+        for (int i = 0; i < windowSize; i++) {
+            double px = windowX[i];
+            double py = windowY[i];
+            double t = lenSq == 0 ? 0 : (px * x + py * y) / lenSq;
+            t = t < 0 ? 0 : (t > 1 ? 1 : t);
+            double dx = px - t * x;
+            double dy = py - t * y;
+            if (dx * dx + dy * dy > toleranceSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void keep(BreadcrumbEntity fix, List<BreadcrumbEntity> out) {
+        out.add(fix);
+        kept++;
+        anchor = fix;
+        last = fix;
+        windowSize = 0;
+        frame.reset(fix.lat, fix.lng);
+    }
+
+    public long getSeenCount() {
+        return seen;
+    }
+
+    public long getKeptCount() {
+        return kept;
+    }
+
+    /** Fixes decided against; held-back ones aren't counted yet. */
+    public long getDroppedCount() {
+        return seen - kept - windowSize;
+    }
+}
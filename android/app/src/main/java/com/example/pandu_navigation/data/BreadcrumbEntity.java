@@ -1,13 +1,10 @@
 package com.example.pandu_navigation.data;
 
-import androidx.room.Entity;
-import androidx.room.PrimaryKey;
-
-@Entity(tableName = "breadcrumbs")
+/**
+ * One recorded fix. Not a table of its own: fixes are persisted in blocks
+ * as {@link BreadcrumbChunkEntity} rows through {@link BreadcrumbStore}.
+ */
 public class BreadcrumbEntity {
-    @PrimaryKey(autoGenerate = true)
-    public long id;
-
     public double lat;
     public double lng;
     public double altitude;
@@ -15,7 +12,6 @@ public class BreadcrumbEntity {
     public double bearing;
     public double speed;
     public long timestamp;
-    public int isSynced; // 0 = false, 1 = true (for syncing back to Flutter/Cloud if needed)
 
     public BreadcrumbEntity(double lat, double lng, double altitude, double accuracy, double bearing, double speed,
             long timestamp) {
@@ -26,6 +22,5 @@ public class BreadcrumbEntity {
         this.bearing = bearing;
         this.speed = speed;
         this.timestamp = timestamp;
-        this.isSynced = 0;
     }
 }
@@ -0,0 +1,226 @@
+package com.example.pandu_navigation.data;
+
+import android.database.Cursor;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import com.example.pandu_navigation.logic.GeoMath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the recorded-track tables from growing without bound. Run by
+ * MaintenanceJobService while the device is idle and charging:
+ *
+ * 1. Sessions left open by a killed process are closed at their last fix.
+ * 2. Every ended session is rolled up: its fixes are simplified to
+ *    {@link #ROLLUP_TOLERANCE_METERS} into SessionEntity.geometry, and its
+ *    distance and elevation gain are recomputed from them.
+ * 3. Raw chunks of rolled-up sessions that ended more than the retention
+ *    period ago are deleted.
+ * 4. The freed pages are handed back to the file system with
+ *    incremental_vacuum.
+ *
+ * Every step commits in small units and keeps its progress in the rows
+ * themselves (compactedAt, the chunks that are gone), so a run stopped part
+ * way, e.g. because the phone was unplugged, continues where it left off
+ * the next time.
+ */
+public class BreadcrumbMaintenance {
+
+    public static final long DEFAULT_RETENTION_MS = 30L * 24 * 60 * 60 * 1000;
+    /** Retention that never deletes raw fixes; sessions are still rolled up. */
+    public static final long KEEP_FOREVER = 0;
+
+    static final double ROLLUP_TOLERANCE_METERS = 5;
+    private static final long ROLLUP_MAX_GAP_MS = 10 * 60_000;
+    // GPS altitude is noisier than surveyed GPX elevation
+    private static final double ELEVATION_NOISE_METERS = 5;
+    // Long enough that a session still recording always has a newer fix
+    private static final long STALE_SESSION_MS = 24L * 60 * 60 * 1000;
+    static final int DELETE_BATCH = 256; // chunks per transaction
+    static final int VACUUM_PAGES = 256; // pages per incremental_vacuum step
+
+    /** What one run did. */
+    public static final class Report {
+        public int sessionsClosed;
+        public int sessionsRolledUp;
+        public int chunksDeleted;
+        public long bytesReclaimed;
+        /** False when the run was stopped early and left work for the next one. */
+        public boolean finished;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d sessions closed, %d rolled up, %d chunks deleted, %d bytes reclaimed%s",
+                    sessionsClosed, sessionsRolledUp, chunksDeleted, bytesReclaimed,
+                    finished ? "" : " (stopped early)");
+        }
+    }
+
+    /** A session's fixes reduced to what the session list and history map need. */
+    static final class Rollup {
+        final byte[] geometry;
+        final double distance;
+        final double elevationGain;
+
+        Rollup(byte[] geometry, double distance, double elevationGain) {
+            this.geometry = geometry;
+            this.distance = distance;
+            this.elevationGain = elevationGain;
+        }
+    }
+
+    private final AppDatabase db;
+    private final NavigationDao dao;
+    private final BreadcrumbStore store;
+    private final long retentionMs;
+
+    public BreadcrumbMaintenance(AppDatabase db, long retentionMs) {
+        this.db = db;
+        this.dao = db.navigationDao();
+        this.store = new BreadcrumbStore(db);
+        this.retentionMs = retentionMs;
+    }
+
+    /** Runs all steps until done or until {@code stop} is set; checked between units of work. */
+    public Report run(AtomicBoolean stop) {
+        Report report = new Report();
+        SupportSQLiteDatabase sql = db.getOpenHelper().getWritableDatabase();
+        long now = System.currentTimeMillis();
+        long pagesBefore = pragma(sql, "page_count");
+
+        enableIncrementalVacuum(sql);
+        report.sessionsClosed = dao.closeStaleSessions(now - STALE_SESSION_MS);
+
+        boolean done = false;
+        while (!stop.get()) {
+            List<String> ids = dao.getSessionsToRollUp(1);
+            if (ids.isEmpty()) {
+                done = true;
+                break;
+            }
+            String sessionId = ids.get(0);
+            Rollup rollup = rollUp(store.getBetween(sessionId, Long.MIN_VALUE, Long.MAX_VALUE));
+            dao.rollUpSession(sessionId, rollup.distance, rollup.elevationGain, rollup.geometry, now);
+            report.sessionsRolledUp++;
+        }
+
+        if (done && retentionMs > KEEP_FOREVER) {
+            done = false;
+            while (!stop.get()) {
+                int deleted = dao.deleteExpiredBreadcrumbChunks(now - retentionMs, DELETE_BATCH);
+                report.chunksDeleted += deleted;
+                if (deleted < DELETE_BATCH) {
+                    done = true;
+                    break;
+                }
+            }
+        }
+
+        if (done) {
+            done = false;
+            long free = pragma(sql, "freelist_count");
+            while (!stop.get()) {
+                if (free == 0) {
+                    done = true;
+                    break;
+                }
+                drain(sql, "PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")");
+                long left = pragma(sql, "freelist_count");
+                if (left >= free) {
+                    done = true; // nothing more SQLite can give back now
+                    break;
+                }
+                free = left;
+            }
+            // Truncated pages only leave the file once the WAL is checkpointed
+            drain(sql, "PRAGMA wal_checkpoint(TRUNCATE)");
+        }
+
+        report.bytesReclaimed = (pagesBefore - pragma(sql, "page_count")) * pragma(sql, "page_size");
+        report.finished = done;
+        return report;
+    }
+
+    /**
+     * Databases created before version 8 have auto_vacuum off, and SQLite
+     * only switches an existing file over with a full VACUUM. That can't run
+     * inside a migration's transaction, so it happens once here instead.
+     */
+    private static void enableIncrementalVacuum(SupportSQLiteDatabase sql) {
+        if (pragma(sql, "auto_vacuum") != 2) {
+            sql.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            sql.execSQL("VACUUM");
+            if (SpatialIndex.isAvailable()) {
+                SpatialIndex.rebuild(sql); // VACUUM may have renumbered trail and POI rowids
+            }
+        }
+    }
+
+    private static long pragma(SupportSQLiteDatabase sql, String name) {
+        try (Cursor cursor = sql.query("PRAGMA " + name)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /** Steps a statement that may return rows (most PRAGMAs) to completion. */
+    private static void drain(SupportSQLiteDatabase sql, String statement) {
+        try (Cursor cursor = sql.query(statement)) {
+            while (cursor.moveToNext()) {
+                // nothing to read
+            }
+        }
+    }
+
+    /**
+     * Simplified geometry, distance and elevation gain of one session's
+     * fixes (oldest first). Distance is summed over every stored fix, as
+     * BreadcrumbStore does while recording; a fix with altitude 0 has none
+     * and is left out of the gain.
+     */
+    static Rollup rollUp(List<BreadcrumbEntity> fixes) {
+        List<BreadcrumbEntity> kept = new ArrayList<>();
+        BreadcrumbDecimator decimator = new BreadcrumbDecimator(ROLLUP_TOLERANCE_METERS, ROLLUP_MAX_GAP_MS, 256);
+        double distance = 0;
+        double gain = 0;
+        double gainReference = 0;
+        boolean hasGainReference = false;
+        BreadcrumbEntity prev = null;
+        for (BreadcrumbEntity fix : fixes) {
+            decimator.add(fix, kept);
+            if (prev != null) {
+                distance += GeoMath.distanceMeters(prev.lat, prev.lng, fix.lat, fix.lng);
+            }
+            prev = fix;
+
+            if (fix.altitude != 0) {
+                // Same hysteresis as GpxReader: only climbs that clear the noise band count
+                if (!hasGainReference || fix.altitude < gainReference) {
+                    gainReference = fix.altitude;
+                    hasGainReference = true;
+                } else if (fix.altitude - gainReference >= ELEVATION_NOISE_METERS) {
+                    gain += fix.altitude - gainReference;
+                    gainReference = fix.altitude;
+                }
+            }
+        }
+        decimator.finish(kept);
+
+        int size = kept.size();
+        double[] lat = new double[size];
+        double[] lng = new double[size];
+        double[] ele = new double[size];
+        for (int i = 0; i < size; i++) {
+            BreadcrumbEntity fix = kept.get(i);
+            lat[i] = fix.lat;
+            lng[i] = fix.lng;
+            ele[i] = fix.altitude;
+        }
+        return new Rollup(GeometryCodec.encode(lat, lng, ele, size), distance, gain);
+    }
+}
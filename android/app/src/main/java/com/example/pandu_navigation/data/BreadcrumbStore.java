@@ -0,0 +1,206 @@
+package com.example.pandu_navigation.data;
+
+import com.example.pandu_navigation.logic.GeoMath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Time-series storage for recorded fixes on top of breadcrumb_chunks and
+ * sessions.
+ *
+ * Writes pack consecutive fixes of the open session into chunks of up to
+ * {@link #CHUNK_SIZE} and update the session summary in the same
+ * transaction; reads select chunks by session, time range or bounding box
+ * columns, decode them and drop the fixes outside the requested window.
+ *
+ * Session changes and appends must come from one thread, the
+ * {@link DatabaseAccess} writer that PanduService submits them to, so a
+ * batch never lands in the wrong session.
+ */
+public class BreadcrumbStore {
+
+    /** Matches BreadcrumbWriter.DEFAULT_MAX_BATCH, so a routine flush is one full chunk. */
+    public static final int CHUNK_SIZE = 64;
+    private static final int PAGE_CHUNKS = 16;
+
+    private final AppDatabase db;
+    private final NavigationDao dao;
+
+    private volatile String sessionId;
+    private BreadcrumbEntity lastFix; // newest stored fix of the open session
+
+    public BreadcrumbStore(AppDatabase db) {
+        this.db = db;
+        this.dao = db.navigationDao();
+    }
+
+    /** Opens a session; fixes appended from now on belong to it. */
+    public String startSession(String trailId) {
+        SessionEntity session = new SessionEntity(UUID.randomUUID().toString(), trailId, System.currentTimeMillis());
+        dao.insertSession(session);
+        sessionId = session.id;
+        lastFix = null;
+        return session.id;
+    }
+
+    /** Closes the open session. Flush the writer first. */
+    public void endSession() {
+        String session = sessionId;
+        if (session != null) {
+            dao.endSession(session, System.currentTimeMillis());
+            sessionId = null;
+        }
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Persists the fixes (oldest first) to the open session in one
+     * transaction, together with its point count and distance; a
+     * BreadcrumbWriter sink. Throws without an open session, which leaves
+     * the batch queued in the writer.
+     */
+    public void append(List<BreadcrumbEntity> fixes) {
+        String session = sessionId;
+        if (fixes.isEmpty()) {
+            return;
+        }
+        if (session == null) {
+            throw new IllegalStateException("No open tracking session");
+        }
+        double distance = 0;
+        BreadcrumbEntity prev = lastFix;
+        for (BreadcrumbEntity fix : fixes) {
+            if (prev != null) {
+                distance += GeoMath.distanceMeters(prev.lat, prev.lng, fix.lat, fix.lng);
+            }
+            prev = fix;
+        }
+        double batchDistance = distance;
+        BreadcrumbEntity newest = prev;
+        db.runInTransaction(() -> {
+            dao.insertBreadcrumbChunks(pack(session, fixes));
+            dao.addToSession(session, fixes.size(), batchDistance, newest.timestamp);
+        });
+        lastFix = newest;
+    }
+
+    /** The session's newest stored fix: one index seek and one chunk decode, whatever the session length. */
+    public BreadcrumbEntity getLatest(String sessionId) {
+        BreadcrumbChunkEntity chunk = dao.getBreadcrumbChunkAt(sessionId, Long.MAX_VALUE);
+        if (chunk == null) {
+            return null;
+        }
+        List<BreadcrumbEntity> fixes = BreadcrumbCodec.decode(chunk.data);
+        return fixes.isEmpty() ? null : fixes.get(fixes.size() - 1);
+    }
+
+    /** The session's fixes with {@code from <= timestamp <= to}, oldest first. */
+    public List<BreadcrumbEntity> getBetween(String sessionId, long from, long to) {
+        return unpackBetween(dao.getSessionBreadcrumbChunksBetween(sessionId, from, to), from, to);
+    }
+
+    /**
+     * Up to {@code limit} of the session's fixes after {@code afterTimestamp},
+     * oldest first. Pass the last timestamp of a page to get the next one.
+     */
+    public List<BreadcrumbEntity> getPage(String sessionId, long afterTimestamp, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<BreadcrumbEntity> page = new ArrayList<>(limit);
+        List<BreadcrumbChunkEntity> chunks = new ArrayList<>(1);
+        BreadcrumbChunkEntity first = dao.getBreadcrumbChunkAt(sessionId, afterTimestamp);
+        if (first != null) {
+            chunks.add(first);
+        }
+        long cursor = afterTimestamp;
+        while (true) {
+            for (BreadcrumbChunkEntity chunk : chunks) {
+                for (BreadcrumbEntity fix : BreadcrumbCodec.decode(chunk.data)) {
+                    if (fix.timestamp > afterTimestamp) {
+                        page.add(fix);
+                        if (page.size() == limit) {
+                            return page;
+                        }
+                    }
+                }
+                cursor = Math.max(cursor, chunk.startTime);
+            }
+            chunks = dao.getBreadcrumbChunksAfter(sessionId, cursor, PAGE_CHUNKS);
+            if (chunks.isEmpty()) {
+                return page;
+            }
+        }
+    }
+
+    /** Fixes of all sessions with {@code from <= timestamp <= to}, oldest first. */
+    public List<BreadcrumbEntity> getBetween(long from, long to) {
+        return unpackBetween(dao.getBreadcrumbChunksBetween(from, to), from, to);
+    }
+
+    /** Every stored fix, oldest first (backtrack, export). */
+    public List<BreadcrumbEntity> getAll() {
+        return getBetween(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /** Fixes inside the box, oldest first. */
+    public List<BreadcrumbEntity> getInBounds(double minLat, double maxLat, double minLng, double maxLng) {
+        return unpackInBounds(dao.getBreadcrumbChunksInBounds(minLat, maxLat, minLng, maxLng),
+                minLat, maxLat, minLng, maxLng);
+    }
+
+    static List<BreadcrumbChunkEntity> pack(String sessionId, List<BreadcrumbEntity> fixes) {
+        List<BreadcrumbChunkEntity> chunks = new ArrayList<>((fixes.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        for (int from = 0; from < fixes.size(); from += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, fixes.size() - from);
+            double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+            double minLng = Double.MAX_VALUE, maxLng = -Double.MAX_VALUE;
+            for (int i = from; i < from + count; i++) {
+                BreadcrumbEntity fix = fixes.get(i);
+                minLat = Math.min(minLat, fix.lat);
+                maxLat = Math.max(maxLat, fix.lat);
+                minLng = Math.min(minLng, fix.lng);
+                maxLng = Math.max(maxLng, fix.lng);
+            }
+            chunks.add(new BreadcrumbChunkEntity(sessionId, fixes.get(from).timestamp,
+                    fixes.get(from + count - 1).timestamp, count, minLat, maxLat, minLng, maxLng,
+                    BreadcrumbCodec.encode(fixes, from, count)));
+        }
+        return chunks;
+    }
+
+    static List<BreadcrumbEntity> unpackBetween(List<BreadcrumbChunkEntity> chunks, long from, long to) {
+        if (chunks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<BreadcrumbEntity> fixes = new ArrayList<>(chunks.size() * CHUNK_SIZE);
+        for (BreadcrumbChunkEntity chunk : chunks) {
+            boolean inside = chunk.startTime >= from && chunk.endTime <= to;
+            for (BreadcrumbEntity fix : BreadcrumbCodec.decode(chunk.data)) {
+                if (inside || (fix.timestamp >= from && fix.timestamp <= to)) {
+                    fixes.add(fix);
+                }
+            }
+        }
+        return fixes;
+    }
+
+    static List<BreadcrumbEntity> unpackInBounds(List<BreadcrumbChunkEntity> chunks,
+            double minLat, double maxLat, double minLng, double maxLng) {
+        List<BreadcrumbEntity> fixes = new ArrayList<>();
+        for (BreadcrumbChunkEntity chunk : chunks) {
+            for (BreadcrumbEntity fix : BreadcrumbCodec.decode(chunk.data)) {
+                if (fix.lat >= minLat && fix.lat <= maxLat && fix.lng >= minLng && fix.lng <= maxLng) {
+                    fixes.add(fix);
+                }
+            }
+        }
+        return fixes;
+    }
+}
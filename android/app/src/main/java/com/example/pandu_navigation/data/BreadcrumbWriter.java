@@ -0,0 +1,146 @@
+package com.example.pandu_navigation.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Write-behind buffer for breadcrumbs.
+ *
+ * Fixes are held in memory and handed to the sink as one list, i.e. one
+ * transaction, once {@code maxBatch} points are buffered or the buffered span
+ * reaches {@code maxDelayMs} of fix time. Owners must {@link #flush()} when
+ * tracking stops, the service is destroyed or memory is trimmed; at most
+ * {@code maxDelayMs} of track is lost if the process dies without that.
+ *
+ * Thread-safe. The sink is called outside the buffer lock, so other threads
+ * can keep adding while a batch is being written.
+ */
+public class BreadcrumbWriter {
+
+    public static final int DEFAULT_MAX_BATCH = 64;
+    public static final long DEFAULT_MAX_DELAY_MS = 30_000;
+
+    public interface Sink {
+        /** Persists the batch atomically, e.g. {@link BreadcrumbStore#append}. */
+        void write(List<BreadcrumbEntity> batch);
+    }
+
+    private final Sink sink;
+    private final int maxBatch;
+    private final long maxDelayMs;
+
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private List<BreadcrumbEntity> pending;
+
+    // Counters (read without locking; good enough for diagnostics)
+    private volatile int queueDepth;
+    private volatile long buffered;
+    private volatile long written;
+    private volatile long flushes;
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private volatile long totalFlushNanos;
+
+    public BreadcrumbWriter(Sink sink) {
+        this(sink, DEFAULT_MAX_BATCH, DEFAULT_MAX_DELAY_MS);
+    }
+
+    public BreadcrumbWriter(Sink sink, int maxBatch, long maxDelayMs) {
+        this.sink = sink;
+        this.maxBatch = maxBatch;
+        this.maxDelayMs = maxDelayMs;
+        this.pending = new ArrayList<>(maxBatch);
+    }
+
+    /** Buffers the fixes (oldest first) and flushes on the calling thread if a limit is hit. */
+    public void add(List<BreadcrumbEntity> breadcrumbs) {
+        if (breadcrumbs.isEmpty()) {
+            return;
+        }
+        boolean due;
+        synchronized (lock) {
+            pending.addAll(breadcrumbs);
+            queueDepth = pending.size();
+            buffered += breadcrumbs.size();
+            due = pending.size() >= maxBatch
+                    || pending.get(pending.size() - 1).timestamp - pending.get(0).timestamp >= maxDelayMs;
+        }
+        if (due) {
+            flush();
+        }
+    }
+
+    public void add(BreadcrumbEntity breadcrumb) {
+        add(Collections.singletonList(breadcrumb));
+    }
+
+    /** Writes everything buffered so far as one batch. Blocking; call off the main thread. */
+    public void flush() {
+        // flushLock keeps batches in order when a size-triggered flush races an explicit one
+        synchronized (flushLock) {
+            List<BreadcrumbEntity> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>(maxBatch);
+                queueDepth = 0;
+            }
+
+            long start = System.nanoTime();
+            try {
+                sink.write(batch);
+            } catch (RuntimeException e) {
+                // Put the batch back in front so a transient failure doesn't drop track
+                synchronized (lock) {
+                    batch.addAll(pending);
+                    pending = batch;
+                    queueDepth = pending.size();
+                }
+                throw e;
+            }
+            long elapsed = System.nanoTime() - start;
+
+            written += batch.size();
+            flushes++;
+            lastFlushNanos = elapsed;
+            totalFlushNanos += elapsed;
+            if (elapsed > maxFlushNanos) {
+                maxFlushNanos = elapsed;
+            }
+        }
+    }
+
+    /** Fixes buffered and not yet written. */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getBufferedCount() {
+        return buffered;
+    }
+
+    public long getWrittenCount() {
+        return written;
+    }
+
+    public long getFlushCount() {
+        return flushes;
+    }
+
+    public long getLastFlushNanos() {
+        return lastFlushNanos;
+    }
+
+    public long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    public long getAverageFlushNanos() {
+        long count = flushes;
+        return count == 0 ? 0 : totalFlushNanos / count;
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.pandu_navigation.data;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The threads database work runs on, shared by PanduService, the method
+ * channel, seeding and maintenance.
+ *
+ * Reads go to a small fixed pool; with the database in WAL mode they run
+ * alongside each other and alongside the writer. Every write goes through
+ * one serialized queue, so transactions never contend for the write lock and
+ * land in the order they were submitted. AppDatabase hands the same two
+ * executors to Room and no longer allows main-thread queries.
+ *
+ * Each task is timed by name, and one that takes longer than
+ * {@link #SLOW_TASK_MS} from submission to completion is reported. Callers
+ * that must not block on the database, like the location pipeline, wait
+ * with {@link #await} and a deadline instead of calling the DAO directly.
+ */
+public final class DatabaseAccess {
+    private static final String TAG = "DatabaseAccess";
+
+    // Android's WAL connection pool holds four connections, one of them the writer's
+    public static final int READER_THREADS = 3;
+    public static final long SLOW_TASK_MS = 50;
+
+    /** Told about every task slower than the threshold; logs by default. */
+    public interface SlowTaskListener {
+        void onSlowTask(String name, boolean write, long waitNanos, long runNanos);
+    }
+
+    /** Timings of one task name since startup. */
+    public static final class Stats {
+        public final String name;
+        public final long count;
+        public final long slowCount;
+        public final long totalNanos;
+        public final long maxNanos;
+
+        Stats(String name, long count, long slowCount, long totalNanos, long maxNanos) {
+            this.name = name;
+            this.count = count;
+            this.slowCount = slowCount;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d runs, avg %.1f ms, max %.1f ms, %d slow", name, count,
+                    count == 0 ? 0 : totalNanos / 1e6 / count, maxNanos / 1e6, slowCount);
+        }
+    }
+
+    private static final class Timing {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong slowCount = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean slow) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            if (slow) {
+                slowCount.incrementAndGet();
+            }
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // Lost a race with another reader; retry against the new max
+            }
+        }
+    }
+
+    private static volatile DatabaseAccess INSTANCE;
+
+    private final ExecutorService readers;
+    private final ExecutorService writer;
+    private final long slowNanos;
+    private final SlowTaskListener slowListener;
+    private final Map<String, Timing> timings = new ConcurrentHashMap<>();
+
+    public static DatabaseAccess get() {
+        if (INSTANCE == null) {
+            synchronized (DatabaseAccess.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DatabaseAccess(READER_THREADS, SLOW_TASK_MS, (name, write, waitNanos, runNanos) ->
+                            Log.w(TAG, String.format(Locale.US, "Slow %s %s: waited %.1f ms, ran %.1f ms",
+                                    write ? "write" : "read", name, waitNanos / 1e6, runNanos / 1e6)));
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    DatabaseAccess(int readerThreads, long slowMs, SlowTaskListener slowListener) {
+        this.readers = Executors.newFixedThreadPool(readerThreads, threads("pandu-db-read"));
+        this.writer = Executors.newSingleThreadExecutor(threads("pandu-db-write"));
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMs);
+        this.slowListener = slowListener;
+    }
+
+    private static ThreadFactory threads(String prefix) {
+        AtomicInteger next = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + "-" + next.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /** Runs a query on the reader pool. */
+    public <T> Future<T> read(String name, Callable<T> query) {
+        return readers.submit(timed(name, false, query));
+    }
+
+    /** Queues a write behind every write submitted before it. */
+    public <T> Future<T> write(String name, Callable<T> work) {
+        return writer.submit(timed(name, true, work));
+    }
+
+    public Future<?> write(String name, Runnable work) {
+        return write(name, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /** For Room's setQueryExecutor; untimed. */
+    public ExecutorService readExecutor() {
+        return readers;
+    }
+
+    /** For Room's setTransactionExecutor; untimed. */
+    public ExecutorService writeExecutor() {
+        return writer;
+    }
+
+    private <T> Callable<T> timed(String name, boolean write, Callable<T> task) {
+        long queuedAt = System.nanoTime();
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                return task.call();
+            } finally {
+                long end = System.nanoTime();
+                boolean slow = end - queuedAt > slowNanos;
+                timings.computeIfAbsent(name, key -> new Timing()).record(end - start, slow);
+                if (slow && slowListener != null) {
+                    slowListener.onSlowTask(name, write, start - queuedAt, end - start);
+                }
+            }
+        };
+    }
+
+    /** Per-name run times (queue wait excluded), in no particular order. */
+    public List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>(timings.size());
+        for (Map.Entry<String, Timing> entry : timings.entrySet()) {
+            Timing timing = entry.getValue();
+            stats.add(new Stats(entry.getKey(), timing.count.get(), timing.slowCount.get(),
+                    timing.totalNanos.get(), timing.maxNanos.get()));
+        }
+        return stats;
+    }
+
+    /**
+     * Waits at most {@code timeoutMs} for the result and returns
+     * {@code fallback} if it isn't there by then or the task failed. A late
+     * task keeps running; its result is simply not waited for.
+     */
+    public static <T> T await(Future<T> future, long timeoutMs, T fallback) {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return fallback;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Database task failed", e.getCause());
+            return fallback;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fallback;
+        }
+    }
+
+    /** Stops accepting work and waits for what is queued; for tests. */
+    void shutdown() throws InterruptedException {
+        readers.shutdown();
+        writer.shutdown();
+        readers.awaitTermination(10, TimeUnit.SECONDS);
+        writer.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
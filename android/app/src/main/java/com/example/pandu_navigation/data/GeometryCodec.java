@@ -0,0 +1,130 @@
+package com.example.pandu_navigation.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary trail geometry stored in the trails.geometry BLOB column.
+ *
+ * Layout (version 1), shared with the gnav module's CoordCodec:
+ *   byte    version
+ *   byte    flags (bit 0: elevation present)
+ *   varint  point count
+ *   per point, zigzag varint deltas from the previous point:
+ *     lat in 1e-7 degrees, lng in 1e-7 degrees, [ele in decimeters]
+ *
+ * Neighbouring track points are a few meters apart, so most deltas fit in
+ * two bytes: a point costs ~4-6 bytes against ~50 as JSON text.
+ */
+public final class GeometryCodec {
+
+    public static final int VERSION = 1;
+    private static final int FLAG_ELEVATION = 1;
+
+    private static final double COORD_SCALE = 1e7;
+    private static final double ELE_SCALE = 10;
+
+    private GeometryCodec() {
+    }
+
+    public static byte[] encode(TrailGeometry geometry) {
+        return encode(geometry.lat, geometry.lng, geometry.ele, geometry.size);
+    }
+
+    public static byte[] encode(double[] lat, double[] lng, double[] ele, int size) {
+        boolean hasEle = false;
+        for (int i = 0; i < size && !hasEle; i++) {
+            hasEle = ele != null && ele[i] != 0;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + size * (hasEle ? 7 : 5));
+        out.write(VERSION);
+        out.write(hasEle ? FLAG_ELEVATION : 0);
+        writeVarint(out, size);
+
+        long prevLat = 0, prevLng = 0, prevEle = 0;
+        for (int i = 0; i < size; i++) {
+            long qLat = Math.round(lat[i] * COORD_SCALE);
+            long qLng = Math.round(lng[i] * COORD_SCALE);
+            writeVarint(out, zigzag(qLat - prevLat));
+            writeVarint(out, zigzag(qLng - prevLng));
+            prevLat = qLat;
+            prevLng = qLng;
+            if (hasEle) {
+                long qEle = Math.round(ele[i] * ELE_SCALE);
+                writeVarint(out, zigzag(qEle - prevEle));
+                prevEle = qEle;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static TrailGeometry decode(byte[] blob) {
+        if (blob == null || blob.length == 0) {
+            return TrailGeometry.EMPTY;
+        }
+        return decode(ByteBuffer.wrap(blob));
+    }
+
+    /**
+     * Decodes straight from the buffer into primitive arrays.
+     * Unknown versions and truncated data decode as an empty geometry.
+     */
+    public static TrailGeometry decode(ByteBuffer buffer) {
+        try {
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                return TrailGeometry.EMPTY;
+            }
+            boolean hasEle = (buffer.get() & FLAG_ELEVATION) != 0;
+            int size = (int) readVarint(buffer);
+
+            double[] lat = new double[size];
+            double[] lng = new double[size];
+            double[] ele = new double[size];
+            long qLat = 0, qLng = 0, qEle = 0;
+            for (int i = 0; i < size; i++) {
+                qLat += unzigzag(readVarint(buffer));
+                qLng += unzigzag(readVarint(buffer));
+                lat[i] = qLat / COORD_SCALE;
+                lng[i] = qLng / COORD_SCALE;
+                if (hasEle) {
+                    qEle += unzigzag(readVarint(buffer));
+                    ele[i] = qEle / ELE_SCALE;
+                }
+            }
+            return new TrailGeometry(lat, lng, ele, size);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return TrailGeometry.EMPTY;
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+}
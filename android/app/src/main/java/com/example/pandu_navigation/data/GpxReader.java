@@ -0,0 +1,231 @@
+package com.example.pandu_navigation.data;
+
+import com.example.pandu_navigation.logic.GeoMath;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Single-pass streaming GPX reader.
+ *
+ * Track points are written straight into growable primitive buffers while
+ * bounds, distance and elevation gain are accumulated in the same pass, so no
+ * DOM or per-point objects are built. The buffers are reused for every track
+ * (and every file read through the same instance), which keeps memory flat no
+ * matter how large the GPX is; only the caller decides what to keep.
+ *
+ * Not thread-safe: use one instance per thread.
+ */
+public final class GpxReader {
+
+    /** Elevation changes smaller than this are treated as GPS/DEM noise. */
+    public static final double ELEVATION_NOISE_METERS = 2.0;
+
+    public interface TrackHandler {
+        /** The track and its arrays are only valid for the duration of the call. */
+        void onTrack(Track track);
+    }
+
+    public interface WaypointHandler {
+        void onWaypoint(int index, String name, String type, double lat, double lon, double ele);
+    }
+
+    /**
+     * One {@code <trk>}, with all of its {@code <trkseg>}s concatenated.
+     * Distance and elevation gain are not accumulated across segment gaps.
+     */
+    public static final class Track {
+        public String name;
+        public double[] lat = new double[256];
+        public double[] lng = new double[256];
+        public double[] ele = new double[256];
+        public int size;
+
+        public double minLat, maxLat, minLng, maxLng;
+        public double distance;
+        public double elevationGain;
+
+        private boolean segmentStart;
+        private double gainReference;
+        private boolean hasGainReference;
+
+        void reset() {
+            name = null;
+            size = 0;
+            minLat = 90;
+            maxLat = -90;
+            minLng = 180;
+            maxLng = -180;
+            distance = 0;
+            elevationGain = 0;
+            segmentStart = true;
+            hasGainReference = false;
+        }
+
+        void add(double pLat, double pLng, double pEle, boolean hasEle) {
+            if (size == lat.length) {
+                int grown = size * 2;
+                lat = Arrays.copyOf(lat, grown);
+                lng = Arrays.copyOf(lng, grown);
+                ele = Arrays.copyOf(ele, grown);
+            }
+            if (!segmentStart) {
+                distance += GeoMath.distanceMeters(lat[size - 1], lng[size - 1], pLat, pLng);
+            }
+            segmentStart = false;
+            lat[size] = pLat;
+            lng[size] = pLng;
+            ele[size] = pEle;
+            size++;
+
+            if (pLat < minLat)
+                minLat = pLat;
+            if (pLat > maxLat)
+                maxLat = pLat;
+            if (pLng < minLng)
+                minLng = pLng;
+            if (pLng > maxLng)
+                maxLng = pLng;
+
+            if (hasEle) {
+                // Hysteresis: only climbs that clear the noise band count, and
+                // any descent lowers the reference.
+                if (!hasGainReference || pEle < gainReference) {
+                    gainReference = pEle;
+                    hasGainReference = true;
+                } else if (pEle - gainReference >= ELEVATION_NOISE_METERS) {
+                    elevationGain += pEle - gainReference;
+                    gainReference = pEle;
+                }
+            }
+        }
+
+        /** Copies the points out, for callers that need them after {@code onTrack}. */
+        public TrailGeometry toGeometry() {
+            return new TrailGeometry(Arrays.copyOf(lat, size), Arrays.copyOf(lng, size),
+                    Arrays.copyOf(ele, size), size);
+        }
+    }
+
+    private final XmlPullParser parser;
+    private final Track track = new Track();
+
+    /** @param parser a non-validating parser, e.g. {@code android.util.Xml.newPullParser()} */
+    public GpxReader(XmlPullParser parser) {
+        this.parser = parser;
+    }
+
+    /** Streams {@code in} once; either handler may be null to skip that element type. */
+    public void read(InputStream in, TrackHandler tracks, WaypointHandler waypoints)
+            throws XmlPullParserException, IOException {
+        parser.setInput(in, null);
+        int waypointIndex = 0;
+        int event = parser.getEventType();
+        while (event != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.START_TAG) {
+                String tag = parser.getName();
+                if (tracks != null && "trk".equals(tag)) {
+                    readTrack();
+                    tracks.onTrack(track);
+                } else if (waypoints != null && "wpt".equals(tag)) {
+                    readWaypoint(waypointIndex++, waypoints);
+                }
+            }
+            event = parser.next();
+        }
+    }
+
+    private void readTrack() throws XmlPullParserException, IOException {
+        track.reset();
+        int depth = parser.getDepth();
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+                return;
+            }
+            if (event != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String tag = parser.getName();
+            if ("trkpt".equals(tag)) {
+                readTrackPoint();
+            } else if ("trkseg".equals(tag)) {
+                track.segmentStart = true;
+            } else if ("name".equals(tag) && parser.getDepth() == depth + 1) {
+                track.name = parser.nextText().trim();
+            }
+        }
+    }
+
+    private void readTrackPoint() throws XmlPullParserException, IOException {
+        double pLat = parseDouble(parser.getAttributeValue(null, "lat"));
+        double pLng = parseDouble(parser.getAttributeValue(null, "lon"));
+        double pEle = 0;
+        boolean hasEle = false;
+
+        int depth = parser.getDepth();
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+                break;
+            }
+            if (event == XmlPullParser.START_TAG && "ele".equals(parser.getName())) {
+                try {
+                    pEle = Double.parseDouble(parser.nextText().trim());
+                    hasEle = true;
+                } catch (NumberFormatException e) {
+                    pEle = 0;
+                }
+            }
+        }
+        if (!Double.isNaN(pLat) && !Double.isNaN(pLng)) {
+            track.add(pLat, pLng, pEle, hasEle);
+        }
+    }
+
+    private void readWaypoint(int index, WaypointHandler waypoints) throws XmlPullParserException, IOException {
+        double pLat = parseDouble(parser.getAttributeValue(null, "lat"));
+        double pLng = parseDouble(parser.getAttributeValue(null, "lon"));
+        String name = "";
+        String type = "";
+        double pEle = 0;
+
+        int depth = parser.getDepth();
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+                break;
+            }
+            if (event != XmlPullParser.START_TAG || parser.getDepth() != depth + 1) {
+                continue;
+            }
+            String tag = parser.getName();
+            if ("name".equals(tag)) {
+                name = parser.nextText().trim();
+            } else if ("type".equals(tag)) {
+                type = parser.nextText().trim();
+            } else if ("ele".equals(tag)) {
+                double parsed = parseDouble(parser.nextText().trim());
+                pEle = Double.isNaN(parsed) ? 0 : parsed;
+            }
+        }
+        if (!Double.isNaN(pLat) && !Double.isNaN(pLng)) {
+            waypoints.onWaypoint(index, name, type, pLat, pLng, pEle);
+        }
+    }
+
+    private static double parseDouble(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -16,30 +16,144 @@ public interface NavigationDao {
     void insertTrail(TrailEntity trail);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertBreadcrumb(BreadcrumbEntity breadcrumb);
+    void insertTrails(List<TrailEntity> trails);
+
+    // Breadcrumbs are stored in packed chunks; go through BreadcrumbStore
+    @Insert
+    void insertBreadcrumbChunks(List<BreadcrumbChunkEntity> chunks);
+
+    @Query("SELECT * FROM breadcrumb_chunks WHERE startTime <= :to AND endTime >= :from ORDER BY startTime")
+    List<BreadcrumbChunkEntity> getBreadcrumbChunksBetween(long from, long to);
+
+    @Query("SELECT * FROM breadcrumb_chunks WHERE minLat <= :maxLat AND maxLat >= :minLat AND minLng <= :maxLng AND maxLng >= :minLng ORDER BY startTime")
+    List<BreadcrumbChunkEntity> getBreadcrumbChunksInBounds(double minLat, double maxLat, double minLng, double maxLng);
+
+    // Per session; all of these seek on index (sessionId, startTime)
+    @Query("SELECT * FROM breadcrumb_chunks WHERE sessionId = :sessionId AND startTime <= :to AND endTime >= :from ORDER BY startTime")
+    List<BreadcrumbChunkEntity> getSessionBreadcrumbChunksBetween(String sessionId, long from, long to);
+
+    // The chunk holding the session's fix at or just before :time
+    @Query("SELECT * FROM breadcrumb_chunks WHERE sessionId = :sessionId AND startTime <= :time ORDER BY startTime DESC LIMIT 1")
+    BreadcrumbChunkEntity getBreadcrumbChunkAt(String sessionId, long time);
+
+    @Query("SELECT * FROM breadcrumb_chunks WHERE sessionId = :sessionId AND startTime > :after ORDER BY startTime LIMIT :limit")
+    List<BreadcrumbChunkEntity> getBreadcrumbChunksAfter(String sessionId, long after, int limit);
+
+    // Sessions
+    @Insert
+    void insertSession(SessionEntity session);
+
+    @Query("SELECT * FROM sessions WHERE id = :sessionId")
+    SessionEntity getSession(String sessionId);
+
+    @Query("SELECT * FROM sessions ORDER BY startTime DESC")
+    List<SessionEntity> getSessions();
+
+    @Query("UPDATE sessions SET pointCount = pointCount + :points, distanceMeters = distanceMeters + :distance, lastTimestamp = :lastTimestamp WHERE id = :sessionId")
+    void addToSession(String sessionId, int points, double distance, long lastTimestamp);
+
+    @Query("UPDATE sessions SET endTime = :endTime WHERE id = :sessionId")
+    void endSession(String sessionId, long endTime);
+
+    // Maintenance, see BreadcrumbMaintenance
+    // Sessions the app never closed (killed mid-hike) end at their last fix
+    @Query("UPDATE sessions SET endTime = MAX(startTime, lastTimestamp) WHERE endTime = 0 AND MAX(startTime, lastTimestamp) < :before")
+    int closeStaleSessions(long before);
+
+    @Query("SELECT id FROM sessions WHERE endTime > 0 AND compactedAt = 0 ORDER BY startTime LIMIT :limit")
+    List<String> getSessionsToRollUp(int limit);
+
+    @Query("UPDATE sessions SET distanceMeters = :distance, elevationGain = :elevationGain, geometry = :geometry, compactedAt = :compactedAt WHERE id = :sessionId")
+    void rollUpSession(String sessionId, double distance, double elevationGain, byte[] geometry, long compactedAt);
+
+    // Raw chunks of rolled-up sessions that ended before :before, up to :limit per call
+    @Query("DELETE FROM breadcrumb_chunks WHERE id IN (SELECT c.id FROM breadcrumb_chunks c JOIN sessions s ON s.id = c.sessionId WHERE s.compactedAt > 0 AND s.endTime < :before LIMIT :limit)")
+    int deleteExpiredBreadcrumbChunks(long before, int limit);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertPoi(PoiEntity poi);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertPois(List<PoiEntity> pois);
+
     @Query("SELECT * FROM pois WHERE mountainId = :mountainId")
     List<PoiEntity> getPoisByMountain(String mountainId);
 
     @Query("SELECT * FROM trails WHERE mountainId = :mountainId")
     List<TrailEntity> getTrailsByMountain(String mountainId);
 
+    // Everything but the geometry, for the trail list
+    @Query("SELECT id, mountainId, name, difficulty, distance, elevationGain, minLat, maxLat, minLng, maxLng FROM trails WHERE mountainId = :mountainId")
+    List<TrailSummary> getTrailSummariesByMountain(String mountainId);
+
+    @Query("SELECT * FROM trails WHERE id = :trailId")
+    TrailEntity getTrail(String trailId);
+
+    @Query("SELECT mountainId FROM trails WHERE id = :trailId")
+    String getMountainIdOfTrail(String trailId);
+
     @Query("SELECT * FROM trails")
     List<TrailEntity> getAllTrails();
 
-    // Spatial Query: Find trails within a bounding box centered on lat/lng
+    // Spatial Query: Find trails within a bounding box centered on lat/lng.
+    // These scan the table; SpatialIndex answers the same through an R*Tree
+    // and falls back to them where SQLite has no rtree module.
     @Query("SELECT * FROM trails WHERE minLat <= :lat + :padding AND maxLat >= :lat - :padding AND minLng <= :lng + :padding AND maxLng >= :lng - :padding")
     List<TrailEntity> getNearbyTrails(double lat, double lng, double padding);
 
+    // Same bounding box test, but only the owning mountains; skips reading geometry
+    @Query("SELECT DISTINCT mountainId FROM trails WHERE minLat <= :lat + :padding AND maxLat >= :lat - :padding AND minLng <= :lng + :padding AND maxLng >= :lng - :padding")
+    List<String> getNearbyMountainIds(double lat, double lng, double padding);
+
+    @Query("SELECT * FROM pois WHERE lat <= :lat + :padding AND lat >= :lat - :padding AND lng <= :lng + :padding AND lng >= :lng - :padding")
+    List<PoiEntity> getNearbyPois(double lat, double lng, double padding);
+
+    // R*Tree joins built by SpatialIndex; Room can't verify queries on virtual tables
+    @RawQuery
+    List<TrailEntity> queryTrails(SupportSQLiteQuery query);
+
+    @RawQuery
+    List<String> queryStrings(SupportSQLiteQuery query);
+
+    @RawQuery
+    List<PoiEntity> queryPois(SupportSQLiteQuery query);
+
     @Query("SELECT COUNT(*) FROM trails")
     int getTrailCount();
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertMountain(MountainEntity mountain);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertMountains(List<MountainEntity> mountains);
+
     @Query("SELECT * FROM mountain_regions")
     List<MountainEntity> getAllMountains();
+
+    // Incremental reseeding (see AssetSeed.plan)
+    @Query("SELECT * FROM asset_manifest")
+    List<AssetManifestEntity> getAssetManifest();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertAssetManifest(List<AssetManifestEntity> entries);
+
+    @Query("DELETE FROM asset_manifest WHERE mountainId = :mountainId")
+    void deleteAssetManifestByMountain(String mountainId);
+
+    @Query("DELETE FROM trails WHERE mountainId = :mountainId")
+    void deleteTrailsByMountain(String mountainId);
+
+    @Query("DELETE FROM trails WHERE mountainId = :mountainId AND id NOT IN (:keepIds)")
+    int deleteTrailsByMountainExcept(String mountainId, List<String> keepIds);
+
+    // Manifest or not: mountains seeded before the manifest existed have none
+    @Query("SELECT id FROM mountain_regions UNION SELECT mountainId FROM trails WHERE mountainId IS NOT NULL "
+            + "UNION SELECT mountainId FROM pois WHERE mountainId IS NOT NULL")
+    List<String> getSeededMountainIds();
+
+    @Query("DELETE FROM pois WHERE mountainId = :mountainId")
+    void deletePoisByMountain(String mountainId);
+
+    @Query("DELETE FROM mountain_regions WHERE id = :mountainId")
+    void deleteMountain(String mountainId);
 }
@@ -0,0 +1,41 @@
+package com.example.pandu_navigation.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * One tracking run, from START_TRACKING to STOP_TRACKING. The summary
+ * columns are updated with every breadcrumb batch (see BreadcrumbStore), so
+ * lists and the latest position never have to scan breadcrumb_chunks.
+ * Once the session has ended, BreadcrumbMaintenance rolls it up into
+ * {@code geometry} and may later delete its raw chunks.
+ */
+@Entity(tableName = "sessions", indices = { @Index("startTime") })
+public class SessionEntity {
+    @PrimaryKey
+    @NonNull
+    public String id;
+
+    public String trailId;
+    public long startTime;
+    public long endTime; // 0 while recording
+
+    // Summary
+    public int pointCount;
+    public double distanceMeters;
+    public long lastTimestamp;
+
+    // Roll-up, written by BreadcrumbMaintenance after the session ends. The
+    // simplified geometry (GeometryCodec) outlives the raw fixes.
+    public double elevationGain;
+    public byte[] geometry;
+    public long compactedAt; // 0 until rolled up
+
+    public SessionEntity(@NonNull String id, String trailId, long startTime) {
+        this.id = id;
+        this.trailId = trailId;
+        this.startTime = startTime;
+    }
+}
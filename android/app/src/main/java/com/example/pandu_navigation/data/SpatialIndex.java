@@ -0,0 +1,162 @@
+package com.example.pandu_navigation.data;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.util.Log;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.List;
+
+/**
+ * R*Tree companions of trails and pois, so bounding-box lookups on every fix
+ * walk a tree instead of scanning the table.
+ *
+ * trails_rtree holds each trail's box and pois_rtree each POI as a point,
+ * keyed by the rowid of the row they index. Triggers keep them in step with
+ * every insert, REPLACE, update and delete, so callers only ever write the
+ * Room tables. The R*Tree stores 32-bit floats rounded outwards, so every
+ * lookup re-checks the exact columns after the join and returns the same
+ * rows as the plain scan.
+ *
+ * The virtual tables aren't Room entities: they are (re)created in
+ * AppDatabase's onOpen callback, and the lookups go through @RawQuery.
+ * SQLite builds without the rtree module fall back to the scan queries.
+ */
+public final class SpatialIndex {
+    private static final String TAG = "SpatialIndex";
+
+    static final String[] TABLES = {
+            "CREATE VIRTUAL TABLE IF NOT EXISTS trails_rtree USING rtree(id, minLat, maxLat, minLng, maxLng)",
+            "CREATE VIRTUAL TABLE IF NOT EXISTS pois_rtree USING rtree(id, minLat, maxLat, minLng, maxLng)",
+    };
+
+    // A REPLACE deletes the old row without firing delete triggers (recursive_triggers
+    // is off), so each BEFORE INSERT drops the entry of the row it is about to replace.
+    static final String[] TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS trails_rtree_replace BEFORE INSERT ON trails BEGIN "
+                    + "DELETE FROM trails_rtree WHERE id IN (SELECT rowid FROM trails WHERE id = NEW.id); END",
+            "CREATE TRIGGER IF NOT EXISTS trails_rtree_insert AFTER INSERT ON trails BEGIN "
+                    + "INSERT OR REPLACE INTO trails_rtree VALUES (NEW.rowid, NEW.minLat, NEW.maxLat, NEW.minLng, "
+                    + "NEW.maxLng); END",
+            "CREATE TRIGGER IF NOT EXISTS trails_rtree_update AFTER UPDATE OF minLat, maxLat, minLng, maxLng "
+                    + "ON trails BEGIN UPDATE trails_rtree SET minLat = NEW.minLat, maxLat = NEW.maxLat, "
+                    + "minLng = NEW.minLng, maxLng = NEW.maxLng WHERE id = NEW.rowid; END",
+            "CREATE TRIGGER IF NOT EXISTS trails_rtree_delete AFTER DELETE ON trails BEGIN "
+                    + "DELETE FROM trails_rtree WHERE id = OLD.rowid; END",
+            "CREATE TRIGGER IF NOT EXISTS pois_rtree_replace BEFORE INSERT ON pois BEGIN "
+                    + "DELETE FROM pois_rtree WHERE id IN (SELECT rowid FROM pois WHERE id = NEW.id); END",
+            "CREATE TRIGGER IF NOT EXISTS pois_rtree_insert AFTER INSERT ON pois BEGIN "
+                    + "INSERT OR REPLACE INTO pois_rtree VALUES (NEW.rowid, NEW.lat, NEW.lat, NEW.lng, NEW.lng); END",
+            "CREATE TRIGGER IF NOT EXISTS pois_rtree_update AFTER UPDATE OF lat, lng ON pois BEGIN "
+                    + "UPDATE pois_rtree SET minLat = NEW.lat, maxLat = NEW.lat, minLng = NEW.lng, maxLng = NEW.lng "
+                    + "WHERE id = NEW.rowid; END",
+            "CREATE TRIGGER IF NOT EXISTS pois_rtree_delete AFTER DELETE ON pois BEGIN "
+                    + "DELETE FROM pois_rtree WHERE id = OLD.rowid; END",
+    };
+
+    static final String[] REBUILD = {
+            "DELETE FROM trails_rtree",
+            "INSERT INTO trails_rtree SELECT rowid, minLat, maxLat, minLng, maxLng FROM trails",
+            "DELETE FROM pois_rtree",
+            "INSERT INTO pois_rtree SELECT rowid, lat, lat, lng, lng FROM pois",
+    };
+
+    // ?1..?4 = lat + padding, lat - padding, lng + padding, lng - padding (see box)
+    private static final String TRAIL_BOX = "r.minLat <= ?1 AND r.maxLat >= ?2 AND r.minLng <= ?3 AND r.maxLng >= ?4 "
+            + "AND t.minLat <= ?1 AND t.maxLat >= ?2 AND t.minLng <= ?3 AND t.maxLng >= ?4";
+    static final String NEARBY_TRAILS = "SELECT t.* FROM trails_rtree r JOIN trails t ON t.rowid = r.id WHERE "
+            + TRAIL_BOX;
+    static final String NEARBY_MOUNTAIN_IDS = "SELECT DISTINCT t.mountainId FROM trails_rtree r "
+            + "JOIN trails t ON t.rowid = r.id WHERE " + TRAIL_BOX;
+    static final String NEARBY_POIS = "SELECT p.* FROM pois_rtree r JOIN pois p ON p.rowid = r.id "
+            + "WHERE r.minLat <= ?1 AND r.maxLat >= ?2 AND r.minLng <= ?3 AND r.maxLng >= ?4 "
+            + "AND p.lat <= ?1 AND p.lat >= ?2 AND p.lng <= ?3 AND p.lng >= ?4";
+
+    private static volatile boolean available;
+
+    private final NavigationDao dao;
+
+    public SpatialIndex(NavigationDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Creates the R*Trees and triggers if missing and rebuilds them when they
+     * no longer match their tables, e.g. after a destructive migration
+     * dropped trails but not trails_rtree. Cheap when nothing changed.
+     */
+    static void install(SupportSQLiteDatabase db) {
+        try {
+            for (String ddl : TABLES) {
+                db.execSQL(ddl);
+            }
+        } catch (SQLException e) {
+            Log.w(TAG, "No rtree module, nearby lookups scan", e);
+            available = false;
+            return;
+        }
+        for (String ddl : TRIGGERS) {
+            db.execSQL(ddl);
+        }
+        if (count(db, "trails_rtree") != count(db, "trails") || count(db, "pois_rtree") != count(db, "pois")) {
+            rebuild(db);
+        }
+        available = true;
+    }
+
+    /**
+     * Re-indexes every row. Needed after a full VACUUM, which may renumber
+     * the rowids of tables without an INTEGER PRIMARY KEY.
+     */
+    static void rebuild(SupportSQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (String sql : REBUILD) {
+                db.execSQL(sql);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    static boolean isAvailable() {
+        return available;
+    }
+
+    private static long count(SupportSQLiteDatabase db, String table) {
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM " + table)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /** Trails whose bounding box comes within {@code padding} degrees of the point. */
+    public List<TrailEntity> getNearbyTrails(double lat, double lng, double padding) {
+        if (!available) {
+            return dao.getNearbyTrails(lat, lng, padding);
+        }
+        return dao.queryTrails(new SimpleSQLiteQuery(NEARBY_TRAILS, box(lat, lng, padding)));
+    }
+
+    /** Mountains owning such trails; skips reading geometry. */
+    public List<String> getNearbyMountainIds(double lat, double lng, double padding) {
+        if (!available) {
+            return dao.getNearbyMountainIds(lat, lng, padding);
+        }
+        return dao.queryStrings(new SimpleSQLiteQuery(NEARBY_MOUNTAIN_IDS, box(lat, lng, padding)));
+    }
+
+    /** POIs within {@code padding} degrees of the point, in either axis. */
+    public List<PoiEntity> getNearbyPois(double lat, double lng, double padding) {
+        if (!available) {
+            return dao.getNearbyPois(lat, lng, padding);
+        }
+        return dao.queryPois(new SimpleSQLiteQuery(NEARBY_POIS, box(lat, lng, padding)));
+    }
+
+    static Object[] box(double lat, double lng, double padding) {
+        return new Object[] { lat + padding, lat - padding, lng + padding, lng - padding };
+    }
+}
@@ -13,12 +13,10 @@ public class TrailEntity {
     public String mountainId;
     public String name;
 
-    // Geometry stored as JSON string or Blob.
-    // For Native Logic, we might want raw bytes or stick to JSON if compatible with
-    // the Dart logic.
-    // The plan says "Mirror the Trails table".
-    // Dart uses JSON. Let's store JSON for now to allow simple passing to Flutter.
-    public String geometryJson;
+    // Geometry as a GeometryCodec BLOB (delta/varint encoded lat, lng, ele).
+    // Decode through TrailGeometryStore; MainActivity hands it to Dart as
+    // typed data, one trail at a time.
+    public byte[] geometry;
 
     public int difficulty;
     public double distance;
@@ -30,13 +28,13 @@ public class TrailEntity {
     public double minLng;
     public double maxLng;
 
-    public TrailEntity(@NonNull String id, String mountainId, String name, String geometryJson,
+    public TrailEntity(@NonNull String id, String mountainId, String name, byte[] geometry,
             int difficulty, double distance, double elevationGain,
             double minLat, double maxLat, double minLng, double maxLng) {
         this.id = id;
         this.mountainId = mountainId;
         this.name = name;
-        this.geometryJson = geometryJson;
+        this.geometry = geometry;
         this.difficulty = difficulty;
         this.distance = distance;
         this.elevationGain = elevationGain;
@@ -0,0 +1,100 @@
+package com.example.pandu_navigation.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Decoded trail polyline packed into primitive arrays.
+ * Index i of lat/lng/ele describes the same vertex. Instances are immutable
+ * once built, so they can be shared between the service and UI threads.
+ */
+public final class TrailGeometry {
+
+    public static final TrailGeometry EMPTY = new TrailGeometry(new double[0], new double[0], new double[0], 0);
+
+    public final double[] lat;
+    public final double[] lng;
+    public final double[] ele;
+    public final int size;
+
+    public TrailGeometry(double[] lat, double[] lng, double[] ele, int size) {
+        this.lat = lat;
+        this.lng = lng;
+        this.ele = ele;
+        this.size = size;
+    }
+
+    /**
+     * Streams a GeoJSON style coordinate array ([[lng, lat, ele], ...]) straight
+     * into primitive buffers, without building boxed intermediate lists.
+     */
+    public static TrailGeometry fromJson(String json) {
+        if (json == null || json.isEmpty()) {
+            return EMPTY;
+        }
+        double[] lat = new double[64];
+        double[] lng = new double[64];
+        double[] ele = new double[64];
+        int n = 0;
+
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (n == lat.length) {
+                    int grown = n * 2;
+                    lat = Arrays.copyOf(lat, grown);
+                    lng = Arrays.copyOf(lng, grown);
+                    ele = Arrays.copyOf(ele, grown);
+                }
+                reader.beginArray();
+                lng[n] = reader.nextDouble();
+                lat[n] = reader.nextDouble();
+                ele[n] = 0;
+                if (reader.hasNext() && reader.peek() == JsonToken.NUMBER) {
+                    ele[n] = reader.nextDouble();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+                n++;
+            }
+            reader.endArray();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return EMPTY;
+        }
+
+        return new TrailGeometry(lat, lng, ele, n);
+    }
+
+    /**
+     * lat, lng, ele of each vertex in turn, the shape Dart reads geometry in;
+     * the method channel codec moves a double[] as a Float64List without
+     * looking at the values.
+     */
+    public double[] toPoints() {
+        double[] points = new double[size * 3];
+        for (int i = 0, p = 0; i < size; i++) {
+            points[p++] = lat[i];
+            points[p++] = lng[i];
+            points[p++] = ele[i];
+        }
+        return points;
+    }
+
+    /** Inverse of {@link #fromJson}: [[lng, lat, ele], ...]. */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(size * 40 + 2);
+        json.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append('[').append(lng[i]).append(',').append(lat[i]).append(',').append(ele[i]).append(']');
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.pandu_navigation.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide cache of decoded trail geometry, keyed by trail id.
+ * Each trail is decoded once; the per-fix lookup is a map read with no allocation.
+ * There is one per process: tests share it too, so the cache only ever trusts
+ * an entry decoded from the very bytes it is asked about.
+ */
+public class TrailGeometryStore {
+
+    private static volatile TrailGeometryStore INSTANCE;
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    // Bumped whenever a trail is inserted, dropped or replaced, so structures built
+    // on top of the store (segment indexes) know to rebuild.
+    private final AtomicInteger version = new AtomicInteger();
+
+    private TrailGeometryStore() {
+    }
+
+    public static TrailGeometryStore getInstance() {
+        if (INSTANCE == null) {
+            synchronized (TrailGeometryStore.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new TrailGeometryStore();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the decoded geometry for the trail, decoding it on first use.
+     * The BLOB is kept and compared, so that a row replaced behind our back
+     * (without {@link #invalidate}) is not served stale, even at the same
+     * length. Rows read once and reused pass on the reference check alone.
+     */
+    public TrailGeometry get(TrailEntity trail) {
+        Entry entry = cache.get(trail.id);
+        if (entry != null && (entry.source == trail.geometry || Arrays.equals(entry.source, trail.geometry))) {
+            return entry.geometry;
+        }
+        entry = new Entry(GeometryCodec.decode(trail.geometry), trail.geometry);
+        if (cache.put(trail.id, entry) != null) {
+            version.incrementAndGet();
+        }
+        return entry.geometry;
+    }
+
+    /** Drops the cached geometry of a trail whose row has been inserted or replaced. */
+    public void invalidate(String trailId) {
+        cache.remove(trailId);
+        version.incrementAndGet();
+    }
+
+    public void clear() {
+        cache.clear();
+        version.incrementAndGet();
+    }
+
+    public int getVersion() {
+        return version.get();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private static final class Entry {
+        final TrailGeometry geometry;
+        final byte[] source;
+
+        Entry(TrailGeometry geometry, byte[] source) {
+            this.geometry = geometry;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.pandu_navigation.data;
+
+/**
+ * A trail row without its geometry, for listing trails. Reading these never
+ * touches the geometry BLOBs, so listing a mountain costs the same whatever
+ * the point count; the polyline is fetched per trail when it is drawn.
+ */
+public class TrailSummary {
+    public String id;
+    public String mountainId;
+    public String name;
+    public int difficulty;
+    public double distance;
+    public double elevationGain;
+    public double minLat;
+    public double maxLat;
+    public double minLng;
+    public double maxLng;
+
+    public TrailSummary(String id, String mountainId, String name,
+            int difficulty, double distance, double elevationGain,
+            double minLat, double maxLat, double minLng, double maxLng) {
+        this.id = id;
+        this.mountainId = mountainId;
+        this.name = name;
+        this.difficulty = difficulty;
+        this.distance = distance;
+        this.elevationGain = elevationGain;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLng = minLng;
+        this.maxLng = maxLng;
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.pandu_navigation.logic;
+
+/**
+ * Carries the {@link KalmanFilter} estimate between sparse GPS fixes on
+ * counted steps and a compass heading.
+ *
+ * Each step moves the estimate one stride along the heading; the moves are
+ * handed to {@link KalmanFilter#advance} once per {@link #WINDOW_MS}, and a
+ * window without steps brings the velocity to zero. Walkers lengthen their
+ * stride as they quicken their cadence, keeping stride over step rate (the
+ * walk ratio) about constant, so the stride is the walk ratio times the
+ * current cadence. Neither the walk ratio nor where the phone points
+ * relative to the walking direction (hand, pocket, pack strap) is known up
+ * front, so both are learned from GPS: between two
+ * fixes at least {@link #CALIBRATION_METERS} apart, the chord the fixes draw
+ * is compared with the chord the steps drew. Dead reckoning is trusted once
+ * two such chords in a row agree within {@link #MAX_OFFSET_JUMP_DEGREES},
+ * and again after they stop agreeing (the phone moved to another pocket).
+ * Until then the estimate is left to the filter's own prediction and
+ * {@link #isActive} is false.
+ *
+ * The error sigma is the last fix's accuracy plus {@link #DRIFT_FRACTION}
+ * of the distance walked since, the residual heading and stride error after
+ * calibration. It grows linearly rather than with the filter's variance,
+ * because a compass a few degrees off errs the same way on every step. Like
+ * the fix accuracy it starts from it is about one sigma (the Merbabu replays
+ * stay within it some 70% of the time), so the error bound the limit is
+ * held against is {@link #BOUND_SIGMAS} of it, which they stay within 99%
+ * of the time. {@link #shouldRequestFix} says when it has outgrown the
+ * limit.
+ *
+ * Not thread safe; owned by the fix-processing thread.
+ */
+public class DeadReckoning {
+
+    /** Two sigma of a 5 m fix plus 5 m of drift; a 10 m limit would ask for a fix on every step. */
+    public static final double DEFAULT_MAX_ERROR_METERS = 20;
+    public static final double DRIFT_FRACTION = 0.1;
+    public static final double BOUND_SIGMAS = 2;
+    static final long WINDOW_MS = 2_000;
+    /** Meters per step/s; 0.7 m strides at 1.8 steps/s. */
+    static final double INITIAL_WALK_RATIO = 0.39;
+    static final double INITIAL_CADENCE = 1.8;
+    static final double MIN_STEP_LENGTH = 0.3;
+    static final double MAX_STEP_LENGTH = 1.2;
+    static final double CALIBRATION_METERS = 40;
+    static final double MAX_OFFSET_JUMP_DEGREES = 30;
+    // Steps further apart than this are a pause, not a cadence
+    private static final long MAX_STEP_INTERVAL_MS = 2_000;
+    private static final double CADENCE_WEIGHT = 0.3;
+    // How far one chord moves the walk ratio and offset towards what it measured
+    private static final double CALIBRATION_WEIGHT = 0.5;
+    // Per-step spread around the calibrated stride
+    private static final double STRIDE_SIGMA_FRACTION = 0.1;
+    // Without a heading or step for this long the sensors are taken as gone
+    private static final long STALE_SENSOR_MS = 10_000;
+
+    private final KalmanFilter filter;
+    private final double maxErrorMeters;
+    private final GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+
+    // Latest heading, radians as the phone reports it
+    private double heading = Double.NaN;
+    private double headingSigma;
+    private long lastEventMs;
+    private long lastStepMs;
+
+    // Learned from GPS
+    private double walkRatio = INITIAL_WALK_RATIO;
+    private double cadence = INITIAL_CADENCE;
+    private double headingOffset; // radians from the phone's heading to the walking direction
+    private int agreeingChords;
+
+    // Steps since the calibration fix at the frame origin, along the phone's heading
+    private boolean hasCalibrationFix;
+    private double chordEast;
+    private double chordNorth;
+
+    // Steps not yet handed to the filter
+    private long windowStartMs;
+    private int pendingSteps;
+    private double pendingEast;
+    private double pendingNorth;
+    private double pendingVariance;
+    private boolean moving;
+
+    // Error bound
+    private double fixAccuracy = Double.POSITIVE_INFINITY;
+    private double walkedSinceFix;
+    private boolean fixRequested;
+
+    private long stepCount;
+
+    public DeadReckoning(KalmanFilter filter) {
+        this(filter, DEFAULT_MAX_ERROR_METERS);
+    }
+
+    public DeadReckoning(KalmanFilter filter, double maxErrorMeters) {
+        this.filter = filter;
+        this.maxErrorMeters = maxErrorMeters;
+    }
+
+    /** Forgets the track, not the walk ratio and phone offset; reset the filter alongside. */
+    public void reset() {
+        hasCalibrationFix = false;
+        chordEast = chordNorth = 0;
+        pendingEast = pendingNorth = pendingVariance = 0;
+        pendingSteps = 0;
+        moving = false;
+        fixAccuracy = Double.POSITIVE_INFINITY;
+        walkedSinceFix = 0;
+        fixRequested = false;
+    }
+
+    /** @return whether the filter's estimate moved */
+    public boolean onStep(long timeMs) {
+        lastEventMs = Math.max(lastEventMs, timeMs);
+        long interval = timeMs - lastStepMs;
+        lastStepMs = timeMs;
+        if (interval > 0 && interval <= MAX_STEP_INTERVAL_MS) {
+            cadence += CADENCE_WEIGHT * (1000.0 / interval - cadence);
+        }
+        if (Double.isNaN(heading)) {
+            return false;
+        }
+        stepCount++;
+        double stepLength = getStepLength();
+        chordEast += stepLength * Math.sin(heading);
+        chordNorth += stepLength * Math.cos(heading);
+        walkedSinceFix += stepLength;
+
+        double walking = heading + headingOffset;
+        pendingEast += stepLength * Math.sin(walking);
+        pendingNorth += stepLength * Math.cos(walking);
+        double along = stepLength * STRIDE_SIGMA_FRACTION;
+        double across = stepLength * headingSigma;
+        pendingVariance += (along * along + across * across) / 2;
+        pendingSteps++;
+        if (!moving) {
+            moving = true;
+            windowStartMs = timeMs;
+        }
+        return timeMs - windowStartMs >= WINDOW_MS && flush(timeMs);
+    }
+
+    /** @return whether the filter's estimate moved, when a pause brings it to a stop */
+    public boolean onHeading(long timeMs, double degrees, double accuracyDegrees) {
+        lastEventMs = Math.max(lastEventMs, timeMs);
+        heading = Math.toRadians(degrees);
+        headingSigma = Math.toRadians(accuracyDegrees);
+        if (moving && timeMs - lastStepMs >= WINDOW_MS) {
+            moving = false;
+            // The last steps end where they were taken, then the estimate stands still
+            if (pendingSteps > 0) {
+                flush(lastStepMs);
+            }
+            return flush(timeMs);
+        }
+        return false;
+    }
+
+    /**
+     * Folds in a GPS fix: the steps up to it first, then the fix, then what
+     * it says about walk ratio and phone offset.
+     */
+    public void onFix(double lat, double lng, float accuracy, long timeMs) {
+        if (moving) {
+            flush(timeMs);
+        }
+        filter.process(lat, lng, accuracy, timeMs);
+        calibrate(lat, lng);
+        fixAccuracy = Math.max(accuracy, filter.getAccuracy());
+        walkedSinceFix = 0;
+        fixRequested = false;
+    }
+
+    /** Hands the pending steps to the filter; only moves it once calibrated and past a fix. */
+    private boolean flush(long timeMs) {
+        boolean advanced = agreeingChords >= 2 && hasCalibrationFix;
+        if (advanced) {
+            filter.advance(pendingEast, pendingNorth, pendingVariance, timeMs);
+        }
+        pendingEast = pendingNorth = pendingVariance = 0;
+        pendingSteps = 0;
+        windowStartMs = timeMs;
+        return advanced;
+    }
+
+    private void calibrate(double lat, double lng) {
+        if (!hasCalibrationFix) {
+            frame.reset(lat, lng);
+            hasCalibrationFix = true;
+            chordEast = chordNorth = 0;
+            return;
+        }
+        double stepped = Math.hypot(chordEast, chordNorth);
+        if (stepped < CALIBRATION_METERS) {
+            return; // Too short to tell direction and scale apart from GPS noise; keep stepping
+        }
+        double gpsEast = frame.x(lat, lng);
+        double gpsNorth = frame.y(lat);
+        double offset = Math.atan2(gpsEast, gpsNorth) - Math.atan2(chordEast, chordNorth);
+        double scale = Math.hypot(gpsEast, gpsNorth) / stepped;
+        double jump = wrap(offset - headingOffset);
+        if (agreeingChords == 0 || Math.abs(jump) > Math.toRadians(MAX_OFFSET_JUMP_DEGREES)) {
+            // First chord, or the phone moved: take it as is and wait for the next to agree
+            headingOffset = wrap(offset);
+            walkRatio *= scale;
+            agreeingChords = 1;
+        } else {
+            headingOffset = wrap(headingOffset + CALIBRATION_WEIGHT * jump);
+            walkRatio *= 1 + CALIBRATION_WEIGHT * (scale - 1);
+            agreeingChords++;
+        }
+        frame.reset(lat, lng);
+        chordEast = chordNorth = 0;
+    }
+
+    /** Calibrated, with sensors still delivering at {@code timeMs}. */
+    public boolean isActive(long timeMs) {
+        return agreeingChords >= 2 && timeMs - lastEventMs < STALE_SENSOR_MS;
+    }
+
+    /**
+     * One sigma of the estimate's error since the last fix, meters, as
+     * {@code Location.getAccuracy()} has it; infinite before the first fix.
+     */
+    public double getErrorSigma() {
+        return fixAccuracy + DRIFT_FRACTION * walkedSinceFix;
+    }
+
+    /** How far off the estimate could be since the last fix, meters; infinite before the first. */
+    public double getErrorBound() {
+        return BOUND_SIGMAS * getErrorSigma();
+    }
+
+    /**
+     * True once per fix, when the error bound has outgrown the limit while
+     * dead reckoning is active; the next fix clears it.
+     */
+    public boolean shouldRequestFix(long timeMs) {
+        if (fixRequested || !isActive(timeMs) || getErrorBound() <= maxErrorMeters) {
+            return false;
+        }
+        fixRequested = true;
+        return true;
+    }
+
+    /** Stride at the current cadence, meters. */
+    public double getStepLength() {
+        return clampStep(walkRatio * cadence);
+    }
+
+    /** Stride over step rate, meters per step/s. */
+    public double getWalkRatio() {
+        return walkRatio;
+    }
+
+    public double getCadence() {
+        return cadence;
+    }
+
+    /** Degrees from where the phone points to where the hiker walks. */
+    public double getHeadingOffset() {
+        return Math.toDegrees(headingOffset);
+    }
+
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    private static double clampStep(double length) {
+        return Math.max(MIN_STEP_LENGTH, Math.min(MAX_STEP_LENGTH, length));
+    }
+
+    private static double wrap(double radians) {
+        while (radians > Math.PI) {
+            radians -= 2 * Math.PI;
+        }
+        while (radians < -Math.PI) {
+            radians += 2 * Math.PI;
+        }
+        return radians;
+    }
+}
@@ -1,24 +1,35 @@
 package com.example.pandu_navigation.logic;
 
 import com.example.pandu_navigation.data.TrailEntity;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.example.pandu_navigation.data.TrailGeometry;
+import com.example.pandu_navigation.data.TrailGeometryStore;
 
-import java.lang.reflect.Type;
 import java.util.List;
 
 public class DeviationEngine {
 
     // Thresholds in meters
-    private static final double WARNING_THRESHOLD = 50.0;
+    static final double WARNING_THRESHOLD = 50.0;
     private static final double DANGER_THRESHOLD = 150.0;
 
     public enum SafetyStatus {
         SAFE, WARNING, DANGER
     }
 
-    private final Gson gson = new Gson();
+    private final TrailGeometryStore geometryStore;
+    private final SegmentIndex.Result nearest = new SegmentIndex.Result(1);
+    private final GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+    private final TrailCursor cursor = new TrailCursor();
     private double lastMinDistance = 0.0;
+    private SafetyStatus lastStatus = SafetyStatus.SAFE;
+
+    public DeviationEngine() {
+        this(TrailGeometryStore.getInstance());
+    }
+
+    public DeviationEngine(TrailGeometryStore geometryStore) {
+        this.geometryStore = geometryStore;
+    }
 
     /**
      * Checks if the user is on track.
@@ -30,60 +41,125 @@ public class DeviationEngine {
             // But if we haven't loaded trails yet, we might flag false positives.
             // Assuming nearbyTrails are correctly queryable.
             lastMinDistance = -1.0; // Unknown distance
-            return SafetyStatus.DANGER;
+            return lastStatus = SafetyStatus.DANGER;
+        }
+
+        // Iterate all trails. Geometry comes pre-decoded from the store, and the
+        // indexed loops keep this hot path free of iterator allocations.
+        // Segments are ranked by squared distance in a local meter frame; only
+        // the winner is measured with haversine.
+        frame.reset(userLat, userLng);
+        double minDistanceSq = Double.MAX_VALUE;
+        double[] bestLat = null;
+        double[] bestLng = null;
+        int bestSegment = -1;
+
+        for (int t = 0, trailCount = nearbyTrails.size(); t < trailCount; t++) {
+            TrailGeometry geometry = geometryStore.get(nearbyTrails.get(t));
+            if (geometry.size < 2)
+                continue;
+
+            double[] lat = geometry.lat;
+            double[] lng = geometry.lng;
+            for (int i = 0; i < geometry.size - 1; i++) {
+                double distSq = frame.distanceSqToSegment(lat[i], lng[i], lat[i + 1], lng[i + 1]);
+
+                if (distSq < minDistanceSq) {
+                    minDistanceSq = distSq;
+                    bestLat = lat;
+                    bestLng = lng;
+                    bestSegment = i;
+                }
+            }
         }
 
         double minDistance = Double.MAX_VALUE;
+        if (bestSegment >= 0) {
+            minDistance = frame.exactDistanceToSegment(
+                    bestLat[bestSegment], bestLng[bestSegment],
+                    bestLat[bestSegment + 1], bestLng[bestSegment + 1]);
+        }
 
-        // Iterate all trails
-        for (TrailEntity trail : nearbyTrails) {
-            // Parse geometry (List<List<Double>> assumed: [[lng, lat, ele], ...]) or
-            // similar
-            // In TrailEntity we stored it as String (JSON).
-            // We need to parse it. This is heavy for the main loop, so we should cache it
-            // or parse once.
-            // For now, parsing every frame is inefficient but completes the logic port.
-            // Optimization: TrailEntity could have a transient field 'parsedGeometry'.
-
-            List<List<Double>> points = parseGeometry(trail.geometryJson);
-            if (points == null || points.size() < 2)
-                continue;
+        return classify(minDistance);
+    }
 
-            for (int i = 0; i < points.size() - 1; i++) {
-                List<Double> p1 = points.get(i);
-                List<Double> p2 = points.get(i + 1);
+    /**
+     * Checks the fix against the service's trail working set. Before the
+     * first set has loaded ({@link TrailWorkingSet#EMPTY}) there is nothing
+     * to measure against, which is not the same as being off every trail:
+     * the last status stands and the distance is reported unknown, so a
+     * navigation start doesn't raise a false off-trail alarm. A loaded set
+     * with no trails in it is still DANGER.
+     */
+    public SafetyStatus checkSafety(double userLat, double userLng, TrailWorkingSet set) {
+        if (set == TrailWorkingSet.EMPTY) {
+            cursor.reset();
+            lastMinDistance = -1.0; // Unknown distance
+            return lastStatus;
+        }
+        return checkSafetyIndexed(userLat, userLng, set.getIndexes());
+    }
 
-                // GeoJSON is [lng, lat, ele]
-                double dist = GeoMath.distanceToSegment(
-                        userLat, userLng,
-                        p1.get(1), p1.get(0), // lat, lng
-                        p2.get(1), p2.get(0));
+    /**
+     * Same check against prebuilt per-mountain segment indexes: only the
+     * segments in the grid cells around the user are measured.
+     * Consecutive fixes first try the trail cursor, which only looks at the
+     * segments around the previous match; the index is searched when the
+     * cursor loses the trail.
+     */
+    public SafetyStatus checkSafetyIndexed(double userLat, double userLng, List<SegmentIndex> indexes) {
+        if (indexes == null || indexes.isEmpty()) {
+            cursor.reset();
+            lastMinDistance = -1.0; // Unknown distance
+            return lastStatus = SafetyStatus.DANGER;
+        }
 
-                if (dist < minDistance) {
-                    minDistance = dist;
-                }
+        if (cursor.isOn(indexes) && cursor.track(userLat, userLng)) {
+            return classify(cursor.getDistance());
+        }
+
+        double minDistance = Double.MAX_VALUE;
+        SegmentIndex bestIndex = null;
+        int bestSegment = -1;
+        for (int i = 0, n = indexes.size(); i < n; i++) {
+            SegmentIndex index = indexes.get(i);
+            if (index.nearest(userLat, userLng, nearest) > 0 && nearest.distance[0] < minDistance) {
+                minDistance = nearest.distance[0];
+                bestIndex = index;
+                bestSegment = nearest.segment[0];
             }
         }
 
+        if (bestIndex != null) {
+            cursor.anchor(bestIndex, bestSegment, userLat, userLng);
+        } else {
+            cursor.reset();
+        }
+        return classify(minDistance);
+    }
+
+    private SafetyStatus classify(double minDistance) {
         lastMinDistance = minDistance == Double.MAX_VALUE ? 0.0 : minDistance;
 
         if (minDistance <= WARNING_THRESHOLD) {
-            return SafetyStatus.SAFE;
+            lastStatus = SafetyStatus.SAFE;
         } else if (minDistance <= DANGER_THRESHOLD) {
-            return SafetyStatus.WARNING;
+            lastStatus = SafetyStatus.WARNING;
         } else {
-            return SafetyStatus.DANGER;
+            lastStatus = SafetyStatus.DANGER;
         }
+        return lastStatus;
     }
 
     public double getLastDeviationDistance() {
         return lastMinDistance;
     }
 
-    // Helper to parse cached geometry
-    private List<List<Double>> parseGeometry(String json) {
-        Type listType = new TypeToken<List<List<Double>>>() {
-        }.getType();
-        return gson.fromJson(json, listType);
+    /**
+     * Matched trail, segment index and along-track position of the last
+     * indexed check.
+     */
+    public TrailCursor getCursor() {
+        return cursor;
     }
 }
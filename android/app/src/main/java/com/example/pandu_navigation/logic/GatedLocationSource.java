@@ -0,0 +1,55 @@
+package com.example.pandu_navigation.logic;
+
+/**
+ * A {@link LocationSource} that only passes requests on between
+ * {@link #activate} and {@link #stop}. Requests come from the fix thread and
+ * stop() from the main thread; they are serialized so a late request can't
+ * restart updates after tracking stopped.
+ *
+ * A request made before activate() is dropped, not held: activate before
+ * queuing the {@link SamplingScheduler#start} that makes the first one.
+ */
+public abstract class GatedLocationSource implements LocationSource {
+
+    private boolean active;
+
+    /** Allows requests again; the scheduler makes the first one. */
+    public synchronized void activate() {
+        active = true;
+    }
+
+    @Override
+    public final synchronized void request(SamplingScheduler.Request request) {
+        if (active) {
+            onRequest(request);
+        }
+    }
+
+    @Override
+    public final synchronized void requestFix() {
+        if (active) {
+            onRequestFix();
+        }
+    }
+
+    @Override
+    public final synchronized void stop() {
+        if (active) {
+            active = false;
+            onStop();
+        }
+    }
+
+    protected synchronized boolean isActive() {
+        return active;
+    }
+
+    /** Called with the lock held, only while active. */
+    protected abstract void onRequest(SamplingScheduler.Request request);
+
+    /** Called with the lock held, only while active. */
+    protected abstract void onRequestFix();
+
+    /** Called with the lock held, when an active source stops. */
+    protected abstract void onStop();
+}
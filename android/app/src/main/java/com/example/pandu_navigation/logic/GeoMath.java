@@ -20,51 +20,150 @@ public class GeoMath {
     /**
      * Calculates the shortest distance from a point (pLat, pLng) to a line segment
      * defined by (startLat, startLng) and (endLat, endLng).
+     * The closest point is found in a metric frame centred on the point (so
+     * longitude is scaled by cos(lat)), then measured exactly with haversine.
+     * Loops over many segments should hold a {@link LocalFrame} instead.
      */
     public static double distanceToSegment(double pLat, double pLng,
             double startLat, double startLng,
             double endLat, double endLng) {
+        LocalFrame frame = new LocalFrame();
+        frame.reset(pLat, pLng);
+        double t = frame.segmentParam(startLat, startLng, endLat, endLng);
+        return distanceMeters(pLat, pLng,
+                startLat + t * (endLat - startLat),
+                startLng + t * (endLng - startLng));
+    }
+
+    /**
+     * Local equirectangular frame centred on one point (usually the current fix).
+     * Points are projected to meters with the mid-latitude longitude scale, which
+     * is linearised around the origin so a projection costs no trig calls.
+     * Planar distances from the origin stay within a few centimeters of haversine
+     * (spherical frame) or Vincenty (WGS84 frame) out to 5 km, which makes them
+     * good enough to rank candidates; the winner is then measured exactly.
+     *
+     * Reusable via {@link #reset}; not thread safe.
+     */
+    public static final class LocalFrame {
+        // WGS84 ellipsoid
+        private static final double WGS84_A = 6378137.0;
+        private static final double WGS84_E2 = 6.69437999014e-3;
+
+        private final boolean ellipsoidal;
+        private double originLat;
+        private double originLng;
+        private double metersPerDegLat;
+        private double metersPerDegLng;
+        private double lngScaleSlope; // d(scale)/d(lat) relative, per degree
+
+        /** Spherical frame, consistent with {@link GeoMath#distanceMeters}. */
+        public LocalFrame() {
+            this(false);
+        }
+
+        /** @param ellipsoidal use WGS84 radii of curvature instead of the mean sphere */
+        public LocalFrame(boolean ellipsoidal) {
+            this.ellipsoidal = ellipsoidal;
+        }
+
+        public void reset(double lat, double lng) {
+            this.originLat = lat;
+            this.originLng = lng;
+            double phi = Math.toRadians(lat);
+            double cos = Math.cos(phi);
+            double radiansPerDeg = Math.PI / 180.0;
+            if (ellipsoidal) {
+                double sin = Math.sin(phi);
+                double w = 1 - WGS84_E2 * sin * sin;
+                double n = WGS84_A / Math.sqrt(w); // prime vertical radius
+                double m = WGS84_A * (1 - WGS84_E2) / (w * Math.sqrt(w)); // meridional radius
+                metersPerDegLat = m * radiansPerDeg;
+                metersPerDegLng = n * cos * radiansPerDeg;
+            } else {
+                metersPerDegLat = EARTH_RADIUS * radiansPerDeg;
+                metersPerDegLng = EARTH_RADIUS * cos * radiansPerDeg;
+            }
+            // cos(lat0 + d/2) ~= cos(lat0) * (1 - tan(lat0) * d/2)
+            lngScaleSlope = -Math.tan(phi) * radiansPerDeg / 2;
+        }
+
+        public double getOriginLat() {
+            return originLat;
+        }
+
+        public double getOriginLng() {
+            return originLng;
+        }
+
+        /** Easting of the point in meters. */
+        public double x(double lat, double lng) {
+            return (lng - originLng) * metersPerDegLng * (1 + lngScaleSlope * (lat - originLat));
+        }
+
+        /** Northing of the point in meters. */
+        public double y(double lat) {
+            return (lat - originLat) * metersPerDegLat;
+        }
+
+        /** Latitude of the point with the given northing; inverse of {@link #y}. */
+        public double lat(double y) {
+            return originLat + y / metersPerDegLat;
+        }
 
-        // Convert to Cartesian approximation for small distances (valid for trail
-        // proximity)
-        // Or use proper cross-track distance.
-        // For efficiency in loop, we often use a specialized function.
-        // Here is a robust implementation for local scale (Euclidean approximation
-        // projected):
-
-        double x = pLng;
-        double y = pLat;
-        double x1 = startLng;
-        double y1 = startLat;
-        double x2 = endLng;
-        double y2 = endLat;
-
-        double A = x - x1;
-        double B = y - y1;
-        double C = x2 - x1;
-        double D = y2 - y1;
-
-        double dot = A * C + B * D;
-        double len_sq = C * C + D * D;
-
-        double param = -1;
-        if (len_sq != 0) // in case of 0 length line
-            param = dot / len_sq;
-
-        double xx, yy;
-
-        if (param < 0) {
-            xx = x1;
-            yy = y1;
-        } else if (param > 1) {
-            xx = x2;
-            yy = y2;
-        } else {
-            xx = x1 + param * C;
-            yy = y1 + param * D;
+        /** Longitude of the point with the given easting at latitude lat; inverse of {@link #x}. */
+        public double lng(double x, double lat) {
+            return originLng + x / (metersPerDegLng * (1 + lngScaleSlope * (lat - originLat)));
         }
 
-        // Return distance from Point (x,y) to Closest Point (xx,yy)
-        return distanceMeters(y, x, yy, xx);
+        /** Squared planar distance from the origin, in square meters. */
+        public double distanceSq(double lat, double lng) {
+            double x = x(lat, lng);
+            double y = y(lat);
+            return x * x + y * y;
+        }
+
+        /**
+         * Position (0..1) along the segment of the point closest to the origin.
+         */
+        public double segmentParam(double lat1, double lng1, double lat2, double lng2) {
+            double x1 = x(lat1, lng1);
+            double y1 = y(lat1);
+            double dx = x(lat2, lng2) - x1;
+            double dy = y(lat2) - y1;
+            double lenSq = dx * dx + dy * dy;
+            if (lenSq == 0) // in case of 0 length line
+                return 0;
+            double t = -(x1 * dx + y1 * dy) / lenSq;
+            return t < 0 ? 0 : (t > 1 ? 1 : t);
+        }
+
+        /**
+         * Squared planar distance from the origin to the segment, in square meters.
+         */
+        public double distanceSqToSegment(double lat1, double lng1, double lat2, double lng2) {
+            double x1 = x(lat1, lng1);
+            double y1 = y(lat1);
+            double dx = x(lat2, lng2) - x1;
+            double dy = y(lat2) - y1;
+            double lenSq = dx * dx + dy * dy;
+            double t = lenSq == 0 ? 0 : -(x1 * dx + y1 * dy) / lenSq;
+            if (t < 0)
+                t = 0;
+            else if (t > 1)
+                t = 1;
+            double px = x1 + t * dx;
+            double py = y1 + t * dy;
+            return px * px + py * py;
+        }
+
+        /**
+         * Exact (haversine) distance from the origin to the segment, using the
+         * closest point found in the plane. Meant for the winning candidate only.
+         */
+        public double exactDistanceToSegment(double lat1, double lng1, double lat2, double lng2) {
+            double t = segmentParam(lat1, lng1, lat2, lng2);
+            return distanceMeters(originLat, originLng, lat1 + t * (lat2 - lat1), lng1 + t * (lng2 - lng1));
+        }
     }
 }
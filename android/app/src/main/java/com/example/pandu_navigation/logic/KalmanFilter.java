@@ -1,61 +1,181 @@
 package com.example.pandu_navigation.logic;
 
+/**
+ * Constant-velocity Kalman filter for GPS fixes.
+ *
+ * The state is position and velocity, east and north, in meters in a local
+ * frame anchored at the first fix: x = [e, n, ve, vn]. Velocity is driven by
+ * white-noise acceleration of {@code accelerationNoise} (m/s^2), and each fix
+ * measures position with its reported accuracy as the standard deviation.
+ * Because the model predicts where a walking hiker will be, the estimate
+ * doesn't lag behind them the way a position-only filter does, and it stays
+ * useful with fixes 5-10 s apart.
+ *
+ * With an isotropic measurement the two axes never correlate, so the 4x4
+ * covariance is block diagonal and kept as two 2x2 blocks of plain doubles.
+ * A step allocates nothing. The frame is moved to the current estimate once
+ * the hiker is {@link #REANCHOR_METERS} from its origin, which keeps the flat
+ * approximation within centimeters.
+ *
+ * Not thread safe; owned by the fix-processing thread.
+ */
 public class KalmanFilter {
+
+    /** Hikers change pace and direction gently; tuned on the Merbabu replays. */
+    public static final double DEFAULT_ACCELERATION_NOISE = 0.1;
+    static final double REANCHOR_METERS = 5_000;
+    // Velocity prior of a fresh filter: walking pace, direction unknown
+    private static final double INITIAL_VELOCITY_SIGMA = 2.0;
+    private static final float MIN_ACCURACY = 1;
+
+    private final double q; // acceleration noise spectral density, m^2/s^3
+    private final GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+    private boolean initialized;
     private long timestamp; // millis
+
+    // State, meters and meters per second in the frame
+    private double e;
+    private double n;
+    private double ve;
+    private double vn;
+
+    // Covariance blocks [pp pv; pv vv] per axis
+    private double ePP, ePV, eVV;
+    private double nPP, nPV, nVV;
+
+    // Cached output
     private double lat;
     private double lng;
-    private float variance; // P matrix. Initial estimate of error.
 
-    public KalmanFilter(float variance) {
-        this.variance = variance;
-        this.timestamp = System.currentTimeMillis();
-        this.lat = 0;
-        this.lng = 0;
+    public KalmanFilter() {
+        this(DEFAULT_ACCELERATION_NOISE);
+    }
+
+    public KalmanFilter(double accelerationNoise) {
+        this.q = accelerationNoise * accelerationNoise;
     }
 
-    public void setState(double lat, double lng, long timestamp, float accuracy) {
-        this.lat = lat;
-        this.lng = lng;
-        this.timestamp = timestamp;
-        this.variance = accuracy * accuracy;
+    /** Forgets the track; the next fix starts a new one. */
+    public void reset() {
+        initialized = false;
     }
 
     /**
-     * Kalman filter processing for latitude and longitude (simplified).
+     * Folds in one fix. Fixes must arrive oldest first; one that is not newer
+     * than the previous is applied as a second measurement at the same time.
      *
      * @param latMeasurement  New latitude measurement
      * @param lngMeasurement  New longitude measurement
-     * @param accuracy        Accuracy of measurement in meters
+     * @param accuracy        Accuracy of measurement in meters (one sigma)
      * @param timestampMillis Timestamp of measurement
      */
     public void process(double latMeasurement, double lngMeasurement, float accuracy, long timestampMillis) {
-        if (accuracy < 1)
-            accuracy = 1;
-        if (variance < 0) {
-            // Uninitialized
-            setState(latMeasurement, lngMeasurement, timestampMillis, accuracy);
+        if (accuracy < MIN_ACCURACY) {
+            accuracy = MIN_ACCURACY;
+        }
+        double r = (double) accuracy * accuracy;
+        if (!initialized) {
+            frame.reset(latMeasurement, lngMeasurement);
+            e = n = ve = vn = 0;
+            ePP = nPP = r;
+            ePV = nPV = 0;
+            eVV = nVV = INITIAL_VELOCITY_SIGMA * INITIAL_VELOCITY_SIGMA;
+            timestamp = timestampMillis;
+            lat = latMeasurement;
+            lng = lngMeasurement;
+            initialized = true;
             return;
         }
 
-        long timeInc = timestampMillis - this.timestamp;
-        if (timeInc > 0) {
-            // Apply process noise if time has passed (model uncertainty increases with
-            // time)
-            variance += timeInc * 0.001f /* Q_METERS_PER_SECOND */ * timeInc * 0.001f;
-            this.timestamp = timestampMillis;
+        if (timestampMillis > timestamp) {
+            predict((timestampMillis - timestamp) / 1000.0);
+            timestamp = timestampMillis;
+        }
+
+        // Measurement in the frame; H = [1 0] per axis
+        double ze = frame.x(latMeasurement, lngMeasurement);
+        double zn = frame.y(latMeasurement);
+
+        double s = ePP + r;
+        double k0 = ePP / s;
+        double k1 = ePV / s;
+        double y = ze - e;
+        e += k0 * y;
+        ve += k1 * y;
+        eVV -= k1 * ePV;
+        ePV *= 1 - k0;
+        ePP *= 1 - k0;
+
+        s = nPP + r;
+        k0 = nPP / s;
+        k1 = nPV / s;
+        y = zn - n;
+        n += k0 * y;
+        vn += k1 * y;
+        nVV -= k1 * nPV;
+        nPV *= 1 - k0;
+        nPP *= 1 - k0;
+
+        lat = frame.lat(n);
+        lng = frame.lng(e, lat);
+        if (e * e + n * n > REANCHOR_METERS * REANCHOR_METERS) {
+            // Velocity and covariance are the same in a frame shifted a few km
+            frame.reset(lat, lng);
+            e = n = 0;
+        }
+    }
+
+    /**
+     * Moves the estimate by a displacement measured some other way, such as
+     * counted steps along a compass heading, instead of predicting it from
+     * the velocity. Position variance grows by {@code variance} per axis, and
+     * the velocity becomes the displacement over the time since the last
+     * step, which also decouples it from the position. Ignored before the
+     * first fix.
+     *
+     * @param east            Displacement towards east, meters
+     * @param north           Displacement towards north, meters
+     * @param variance        Its variance per axis, m^2
+     * @param timestampMillis End of the displacement
+     */
+    public void advance(double east, double north, double variance, long timestampMillis) {
+        if (!initialized) {
+            return;
         }
+        double dt = Math.max(timestampMillis - timestamp, 1) / 1000.0;
+        e += east;
+        n += north;
+        ve = east / dt;
+        vn = north / dt;
+        ePP += variance;
+        nPP += variance;
+        ePV = nPV = 0;
+        eVV = nVV = variance / (dt * dt) + q * dt;
+        timestamp = Math.max(timestamp, timestampMillis);
+        lat = frame.lat(n);
+        lng = frame.lng(e, lat);
+        if (e * e + n * n > REANCHOR_METERS * REANCHOR_METERS) {
+            frame.reset(lat, lng);
+            e = n = 0;
+        }
+    }
 
-        // Kalman gain K = P / (P + R)
-        // R = accuracy * accuracy
-        float k = variance / (variance + accuracy * accuracy);
+    // x' = F x with F = [1 dt; 0 1], P' = F P F^T + Q for white-noise acceleration
+    private void predict(double dt) {
+        double dt2 = dt * dt;
+        double qPP = q * dt2 * dt / 3;
+        double qPV = q * dt2 / 2;
+        double qVV = q * dt;
 
-        // Update state
-        lat += k * (latMeasurement - lat);
-        lng += k * (lngMeasurement - lng);
+        e += ve * dt;
+        ePP += 2 * dt * ePV + dt2 * eVV + qPP;
+        ePV += dt * eVV + qPV;
+        eVV += qVV;
 
-        // Update covariance
-        // P = (1 - K) * P
-        variance = (1 - k) * variance;
+        n += vn * dt;
+        nPP += 2 * dt * nPV + dt2 * nVV + qPP;
+        nPV += dt * nVV + qPV;
+        nVV += qVV;
     }
 
     public double getLat() {
@@ -65,4 +185,29 @@ public class KalmanFilter {
     public double getLng() {
         return lng;
     }
+
+    /** Estimated velocity towards east, m/s. */
+    public double getVelocityEast() {
+        return ve;
+    }
+
+    /** Estimated velocity towards north, m/s. */
+    public double getVelocityNorth() {
+        return vn;
+    }
+
+    public double getSpeed() {
+        return Math.sqrt(ve * ve + vn * vn);
+    }
+
+    /** Degrees clockwise from north, 0..360; meaningless while standing still. */
+    public double getBearing() {
+        double bearing = Math.toDegrees(Math.atan2(ve, vn));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    /** One-sigma position uncertainty of the estimate, meters. */
+    public double getAccuracy() {
+        return Math.sqrt((ePP + nPP) / 2);
+    }
 }
@@ -0,0 +1,17 @@
+package com.example.pandu_navigation.logic;
+
+/**
+ * Where fixes come from, as far as {@link SamplingScheduler} is concerned.
+ * The service wraps the fused location provider; tests replay a track.
+ */
+public interface LocationSource {
+
+    /** Replaces the current request, if any; fixes keep arriving on the same callback. */
+    void request(SamplingScheduler.Request request);
+
+    /** One fix as soon as possible, delivered like the others; the current request stays. */
+    void requestFix();
+
+    /** Stops fixes until the next {@link #request}. */
+    void stop();
+}
@@ -0,0 +1,21 @@
+package com.example.pandu_navigation.logic;
+
+/**
+ * Step and heading events for {@link DeadReckoning}. The service reads the
+ * phone's step detector and rotation vector; tests replay a recorded log.
+ * Times are on the same clock as the fixes.
+ */
+public interface MotionSensors {
+
+    interface Listener {
+        void onStep(long timeMs);
+
+        /** Degrees clockwise from north the phone points, and the one-sigma error of that. */
+        void onHeading(long timeMs, double degrees, double accuracyDegrees);
+    }
+
+    /** @return false when the hardware is missing or not allowed; no events will come */
+    boolean start(Listener listener);
+
+    void stop();
+}
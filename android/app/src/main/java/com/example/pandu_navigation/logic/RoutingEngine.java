@@ -0,0 +1,331 @@
+package com.example.pandu_navigation.logic;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A* over a {@link RoutingGraph}, the native replacement for the Dart
+ * RoutingEngine. Holds the graph of one mountain at a time and the search
+ * state sized to it: g scores, parents and an indexed binary heap with
+ * decrease-key, so every node is in the open set at most once and a search
+ * allocates nothing but its result. Scores are valid only where the node's
+ * stamp equals the current search, so nothing is cleared between searches.
+ *
+ * The heuristic is the chord to the goal ({@link RoutingGraph#chordMeters}).
+ * Edge weights are haversine length times a factor of at least 1, so it
+ * never overestimates and is consistent: a node is final once it leaves the
+ * heap.
+ *
+ * Calls are synchronized; routing requests come from the reader pool.
+ * Checking, loading and searching the graph is one call, {@link #findRoute(
+ * String, int, GraphLoader, double, double, double, double)}, so requests
+ * for two mountains can't swap the graph out under each other.
+ */
+public final class RoutingEngine {
+
+    /** Start and end must be this close to the network to be routed. */
+    public static final double MAX_SNAP_METERS = 1000.0;
+
+    /** Builds the graph of a mountain; called with the engine's lock held. */
+    public interface GraphLoader {
+        RoutingGraph load() throws Exception;
+    }
+
+    private static volatile RoutingEngine INSTANCE;
+
+    private String mountainId;
+    private int version = -1;
+    private RoutingGraph graph;
+
+    private double[] g = new double[0];
+    private int[] parent = new int[0];
+    // Search that last reached / settled each node
+    private int[] reached = new int[0];
+    private int[] settled = new int[0];
+    private int search;
+    private final IndexedHeap open = new IndexedHeap();
+    private double lastCost = Double.NaN;
+
+    private long searches;
+    private long unrouted;
+    private long settledTotal;
+    private long decreased;
+    private long searchNanos;
+
+    public static RoutingEngine get() {
+        if (INSTANCE == null) {
+            synchronized (RoutingEngine.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new RoutingEngine();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    RoutingEngine() {
+    }
+
+    /**
+     * Route on the graph of this mountain at this TrailGeometryStore version,
+     * loading it first when the engine holds another one. See
+     * {@link #findRoute(double, double, double, double)}.
+     */
+    public synchronized double[] findRoute(String mountainId, int version, GraphLoader loader,
+            double startLat, double startLng, double endLat, double endLng) throws Exception {
+        if (!hasGraph(mountainId, version)) {
+            setGraph(mountainId, version, loader.load());
+        }
+        return findRoute(startLat, startLng, endLat, endLng);
+    }
+
+    /**
+     * Whether the graph of this mountain is loaded and was built at this
+     * TrailGeometryStore version.
+     */
+    synchronized boolean hasGraph(String mountainId, int version) {
+        return graph != null && version == this.version && mountainId.equals(this.mountainId);
+    }
+
+    synchronized void setGraph(String mountainId, int version, RoutingGraph graph) {
+        this.mountainId = mountainId;
+        this.version = version;
+        this.graph = graph;
+        int n = graph.nodeCount;
+        if (g.length < n) {
+            g = new double[n];
+            parent = new int[n];
+            reached = new int[n];
+            settled = new int[n];
+            open.ensureCapacity(n);
+        } else {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+        }
+        search = 0;
+    }
+
+    /**
+     * Shortest path between the nodes nearest to start and end, as lat, lng
+     * of each node in turn. Just the start when both snap to the same node;
+     * null when either is off the network or no path joins them.
+     */
+    synchronized double[] findRoute(double startLat, double startLng, double endLat, double endLng) {
+        if (graph == null) {
+            return null;
+        }
+        long startNanos = System.nanoTime();
+        lastCost = Double.NaN;
+        int from = graph.nearestNode(startLat, startLng, MAX_SNAP_METERS);
+        int to = graph.nearestNode(endLat, endLng, MAX_SNAP_METERS);
+        double[] route;
+        if (from < 0 || to < 0) {
+            route = null;
+        } else if (from == to) {
+            route = new double[] { startLat, startLng };
+            lastCost = 0;
+        } else {
+            route = search(from, to);
+        }
+        searches++;
+        if (route == null) {
+            unrouted++;
+        }
+        searchNanos += System.nanoTime() - startNanos;
+        return route;
+    }
+
+    private double[] search(int from, int to) {
+        if (++search == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            search = 1;
+        }
+        RoutingGraph graph = this.graph;
+
+        g[from] = 0;
+        parent[from] = -1;
+        reached[from] = search;
+        open.clear();
+        open.push(from, graph.chordMeters(from, to));
+
+        while (!open.isEmpty()) {
+            int node = open.pop();
+            settled[node] = search;
+            settledTotal++;
+            if (node == to) {
+                open.clear();
+                lastCost = g[to];
+                return path(to);
+            }
+            for (int e = graph.edgeStart[node]; e < graph.edgeStart[node + 1]; e++) {
+                int next = graph.edgeTarget[e];
+                if (settled[next] == search) {
+                    continue;
+                }
+                double score = g[node] + graph.edgeWeight[e];
+                if (reached[next] != search) {
+                    reached[next] = search;
+                    g[next] = score;
+                    parent[next] = node;
+                    open.push(next, score + graph.chordMeters(next, to));
+                } else if (score < g[next]) {
+                    // Same heuristic as when it was pushed, so the key drops by exactly the gain
+                    open.decrease(next, open.key(next) - (g[next] - score));
+                    g[next] = score;
+                    parent[next] = node;
+                    decreased++;
+                }
+            }
+        }
+        return null;
+    }
+
+    private double[] path(int to) {
+        int count = 0;
+        for (int n = to; n >= 0; n = parent[n]) {
+            count++;
+        }
+        double[] route = new double[count * 2];
+        int p = route.length;
+        for (int n = to; n >= 0; n = parent[n]) {
+            route[--p] = graph.lng[n];
+            route[--p] = graph.lat[n];
+        }
+        return route;
+    }
+
+    /** Weighted cost of the last route found, NaN if the last call found none. */
+    synchronized double getLastCost() {
+        return lastCost;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(searches, unrouted, settledTotal, decreased, searchNanos);
+    }
+
+    /**
+     * Binary min-heap of node ids keyed by f score. pos maps a node to its
+     * slot (or -1), which is what makes decrease-key O(log n) instead of a
+     * duplicate push. Nodes leave with pos -1, so the map stays clean.
+     */
+    static final class IndexedHeap {
+        private int[] heap = new int[0];
+        private double[] keys = new double[0];
+        private int[] pos = new int[0];
+        private int size;
+
+        void ensureCapacity(int nodes) {
+            heap = new int[nodes];
+            keys = new double[nodes];
+            pos = new int[nodes];
+            Arrays.fill(pos, -1);
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        double key(int node) {
+            return keys[node];
+        }
+
+        void push(int node, double key) {
+            keys[node] = key;
+            heap[size] = node;
+            pos[node] = size;
+            up(size++);
+        }
+
+        void decrease(int node, double key) {
+            keys[node] = key;
+            up(pos[node]);
+        }
+
+        int pop() {
+            int top = heap[0];
+            pos[top] = -1;
+            if (--size > 0) {
+                heap[0] = heap[size];
+                pos[heap[0]] = 0;
+                down(0);
+            }
+            return top;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                pos[heap[i]] = -1;
+            }
+            size = 0;
+        }
+
+        private void up(int i) {
+            int node = heap[i];
+            double key = keys[node];
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (keys[heap[p]] <= key) {
+                    break;
+                }
+                heap[i] = heap[p];
+                pos[heap[i]] = i;
+                i = p;
+            }
+            heap[i] = node;
+            pos[node] = i;
+        }
+
+        private void down(int i) {
+            int node = heap[i];
+            double key = keys[node];
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= size) {
+                    break;
+                }
+                if (c + 1 < size && keys[heap[c + 1]] < keys[heap[c]]) {
+                    c++;
+                }
+                if (keys[heap[c]] >= key) {
+                    break;
+                }
+                heap[i] = heap[c];
+                pos[heap[i]] = i;
+                i = c;
+            }
+            heap[i] = node;
+            pos[node] = i;
+        }
+    }
+
+    public static final class Stats {
+        public final long searches;
+        /** Off the network or no path. */
+        public final long unrouted;
+        /** Nodes taken off the heap, over all searches. */
+        public final long settled;
+        /** Open nodes whose key a shorter path lowered in place. */
+        public final long decreased;
+        public final long searchNanos;
+
+        Stats(long searches, long unrouted, long settled, long decreased, long searchNanos) {
+            this.searches = searches;
+            this.unrouted = unrouted;
+            this.settled = settled;
+            this.decreased = decreased;
+            this.searchNanos = searchNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d searches (%d unrouted), %d nodes settled, %d decreased, %.2f ms per search",
+                    searches, unrouted, settled, decreased, searches == 0 ? 0.0 : searchNanos / 1e6 / searches);
+        }
+    }
+}
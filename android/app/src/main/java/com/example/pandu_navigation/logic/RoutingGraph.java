@@ -0,0 +1,233 @@
+package com.example.pandu_navigation.logic;
+
+import com.example.pandu_navigation.data.TrailGeometry;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Walkable trail network of one mountain, for {@link RoutingEngine}.
+ * Trail vertices that round to the same 1e-5 degree (~1 m) cell become one
+ * node, so trails that share a point join there; consecutive vertices are
+ * linked both ways with weight length * difficulty factor, as the Dart
+ * TopologyBuilder does.
+ *
+ * Nodes are plain int ids and edges are stored in CSR form: the edges of node
+ * n are [edgeStart[n], edgeStart[n + 1]) in edgeTarget/edgeWeight. Nodes are
+ * also bucketed in a uniform grid (CSR again) for snapping a point to the
+ * nearest node. Instances are immutable and safe to share.
+ */
+public final class RoutingGraph {
+
+    // ~275 m of latitude; a 1 km snap looks at a few dozen cells
+    static final double CELL_DEGREES = 0.0025;
+
+    private static final double NODE_PRECISION = 1e5;
+    private static final double EARTH_RADIUS = 6371000;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180.0;
+
+    final int nodeCount;
+    final double[] lat;
+    final double[] lng;
+    // Unit vectors of the nodes, for the A* heuristic
+    final double[] x;
+    final double[] y;
+    final double[] z;
+    final int[] edgeStart;
+    final int[] edgeTarget;
+    final double[] edgeWeight;
+
+    // Grid
+    private final double originLat;
+    private final double originLng;
+    private final int rows;
+    private final int cols;
+    private final int[] cellStart;
+    private final int[] cellNodes;
+
+    private RoutingGraph(int nodeCount, double[] lat, double[] lng, double[] x, double[] y, double[] z,
+            int[] edgeStart, int[] edgeTarget, double[] edgeWeight,
+            double originLat, double originLng, int rows, int cols, int[] cellStart, int[] cellNodes) {
+        this.nodeCount = nodeCount;
+        this.lat = lat;
+        this.lng = lng;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.edgeStart = edgeStart;
+        this.edgeTarget = edgeTarget;
+        this.edgeWeight = edgeWeight;
+        this.originLat = originLat;
+        this.originLng = originLng;
+        this.rows = rows;
+        this.cols = cols;
+        this.cellStart = cellStart;
+        this.cellNodes = cellNodes;
+    }
+
+    /**
+     * Builds the graph. geometries and difficulty (1 flat .. 5 scramble) are
+     * parallel, one entry per trail; a difficulty under 1 counts as 1.
+     */
+    public static RoutingGraph build(List<TrailGeometry> geometries, int[] difficulty) {
+        int vertexCount = 0;
+        for (TrailGeometry g : geometries) {
+            vertexCount += g.size;
+        }
+
+        // Pass 1: merge vertices into nodes and collect each trail step once
+        HashMap<Long, Integer> nodeOf = new HashMap<>(vertexCount * 2);
+        double[] lat = new double[vertexCount];
+        double[] lng = new double[vertexCount];
+        int[] stepFrom = new int[vertexCount];
+        int[] stepTo = new int[vertexCount];
+        double[] stepWeight = new double[vertexCount];
+        int nodeCount = 0, steps = 0;
+        for (int t = 0; t < geometries.size(); t++) {
+            TrailGeometry g = geometries.get(t);
+            // Below 1 would undercut the chord heuristic A* relies on
+            double factor = 1.0 + (Math.max(difficulty[t], 1) - 1) * 0.2;
+            int previous = -1;
+            for (int i = 0; i < g.size; i++) {
+                long key = Math.round(g.lat[i] * NODE_PRECISION) << 32
+                        ^ (Math.round(g.lng[i] * NODE_PRECISION) & 0xffffffffL);
+                Integer node = nodeOf.get(key);
+                if (node == null) {
+                    node = nodeCount;
+                    nodeOf.put(key, node);
+                    lat[nodeCount] = g.lat[i];
+                    lng[nodeCount] = g.lng[i];
+                    nodeCount++;
+                }
+                if (previous >= 0 && previous != node) {
+                    stepFrom[steps] = previous;
+                    stepTo[steps] = node;
+                    stepWeight[steps] = factor
+                            * GeoMath.distanceMeters(lat[previous], lng[previous], lat[node], lng[node]);
+                    steps++;
+                }
+                previous = node;
+            }
+        }
+
+        // Pass 2: both directions of every step, grouped by source node
+        int[] edgeStart = new int[nodeCount + 1];
+        for (int s = 0; s < steps; s++) {
+            edgeStart[stepFrom[s] + 1]++;
+            edgeStart[stepTo[s] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            edgeStart[n + 1] += edgeStart[n];
+        }
+        int[] edgeTarget = new int[steps * 2];
+        double[] edgeWeight = new double[steps * 2];
+        int[] cursor = new int[nodeCount];
+        for (int s = 0; s < steps; s++) {
+            int e = edgeStart[stepFrom[s]] + cursor[stepFrom[s]]++;
+            edgeTarget[e] = stepTo[s];
+            edgeWeight[e] = stepWeight[s];
+            e = edgeStart[stepTo[s]] + cursor[stepTo[s]]++;
+            edgeTarget[e] = stepFrom[s];
+            edgeWeight[e] = stepWeight[s];
+        }
+
+        double[] x = new double[nodeCount];
+        double[] y = new double[nodeCount];
+        double[] z = new double[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            double phi = Math.toRadians(lat[n]), lambda = Math.toRadians(lng[n]);
+            x[n] = Math.cos(phi) * Math.cos(lambda);
+            y[n] = Math.cos(phi) * Math.sin(lambda);
+            z[n] = Math.sin(phi);
+        }
+
+        // Node grid
+        double minLat = 90, maxLat = -90, minLng = 180, maxLng = -180;
+        for (int n = 0; n < nodeCount; n++) {
+            minLat = Math.min(minLat, lat[n]);
+            maxLat = Math.max(maxLat, lat[n]);
+            minLng = Math.min(minLng, lng[n]);
+            maxLng = Math.max(maxLng, lng[n]);
+        }
+        if (nodeCount == 0) {
+            minLat = maxLat = minLng = maxLng = 0;
+        }
+        int rows = (int) ((maxLat - minLat) / CELL_DEGREES) + 1;
+        int cols = (int) ((maxLng - minLng) / CELL_DEGREES) + 1;
+        int[] cellStart = new int[rows * cols + 1];
+        for (int n = 0; n < nodeCount; n++) {
+            cellStart[cell(lat[n], minLat, rows) * cols + cell(lng[n], minLng, cols) + 1]++;
+        }
+        for (int c = 0; c < rows * cols; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] cellNodes = new int[nodeCount];
+        int[] cellCursor = new int[rows * cols];
+        for (int n = 0; n < nodeCount; n++) {
+            int c = cell(lat[n], minLat, rows) * cols + cell(lng[n], minLng, cols);
+            cellNodes[cellStart[c] + cellCursor[c]++] = n;
+        }
+
+        return new RoutingGraph(nodeCount, lat, lng, x, y, z, edgeStart, edgeTarget, edgeWeight,
+                minLat, minLng, rows, cols, cellStart, cellNodes);
+    }
+
+    private static int cell(double value, double origin, int limit) {
+        int c = (int) ((value - origin) / CELL_DEGREES);
+        return c < 0 ? 0 : (c >= limit ? limit - 1 : c);
+    }
+
+    /**
+     * Straight line through the earth between two nodes, in meters. Never more
+     * than the great circle distance and a metric itself, so as an A*
+     * heuristic it is admissible and consistent, and it costs no trig.
+     */
+    double chordMeters(int a, int b) {
+        double dx = x[a] - x[b], dy = y[a] - y[b], dz = z[a] - z[b];
+        return EARTH_RADIUS * Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * The node closest to the point within maxMeters, or -1. Only the grid
+     * cells overlapping the circle's bounding box are scanned.
+     */
+    public int nearestNode(double pointLat, double pointLng, double maxMeters) {
+        if (nodeCount == 0) {
+            return -1;
+        }
+        double dLat = maxMeters / METERS_PER_DEGREE;
+        double dLng = dLat / Math.max(0.01, Math.cos(Math.toRadians(Math.min(89.0, Math.abs(pointLat) + dLat))));
+        int r0 = (int) Math.floor((pointLat - dLat - originLat) / CELL_DEGREES);
+        int r1 = (int) Math.floor((pointLat + dLat - originLat) / CELL_DEGREES);
+        int c0 = (int) Math.floor((pointLng - dLng - originLng) / CELL_DEGREES);
+        int c1 = (int) Math.floor((pointLng + dLng - originLng) / CELL_DEGREES);
+        if (r1 < 0 || c1 < 0 || r0 >= rows || c0 >= cols) {
+            return -1;
+        }
+
+        int best = -1;
+        double bestMeters = maxMeters;
+        for (int r = Math.max(0, r0); r <= Math.min(rows - 1, r1); r++) {
+            for (int c = Math.max(0, c0); c <= Math.min(cols - 1, c1); c++) {
+                int idx = r * cols + c;
+                for (int i = cellStart[idx]; i < cellStart[idx + 1]; i++) {
+                    int n = cellNodes[i];
+                    double meters = GeoMath.distanceMeters(pointLat, pointLng, lat[n], lng[n]);
+                    if (meters <= bestMeters) {
+                        bestMeters = meters;
+                        best = n;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.pandu_navigation.logic;
+
+/**
+ * Picks how often, how accurately and how batched fixes are requested, from
+ * what the last fix said about the hiker.
+ *
+ * Leaving the trail or coming within {@link #NEAR_EDGE_MARGIN_METERS} of the
+ * warning distance asks for a fix every second, delivered at once. Walking
+ * gets a fix every few seconds and a slow climb less often, batched no
+ * longer than one interval, so a delivery is never more than two fixes
+ * behind; a rest at camp gets a coarse fix every half minute once the hiker
+ * has moved. A low battery (not charging) doubles every
+ * interval, the alert one included. While {@link DeadReckoning} carries
+ * the estimate on steps, every mode but the alert one only asks for a
+ * backstop fix each {@link #DEAD_RECKONING_INTERVAL_MS}; the service asks
+ * for one in between when the dead-reckoning error bound runs out.
+ *
+ * The filter's speed is noisy with fixes 10 s or more apart, so it is capped
+ * by the net speed away from where the hiker last stopped: staying within
+ * {@link #REST_RADIUS_METERS} for 80 s reads as a rest.
+ *
+ * A more frequent mode is taken on the fix that calls for it. A less
+ * frequent one only after every fix for {@link Mode#dwellMs} of the current
+ * mode has called for less, and then the most frequent of those, so noise in
+ * the speed estimate or a step back onto the trail doesn't flap the request.
+ * The battery saver switches on at {@link #LOW_BATTERY_PERCENT} and off again
+ * {@link #BATTERY_HYSTERESIS_PERCENT} above it or when charging.
+ *
+ * Not thread safe; owned by the fix-processing thread.
+ */
+public class SamplingScheduler {
+
+    /** The alert mode starts this far short of the warning distance. */
+    public static final double NEAR_EDGE_MARGIN_METERS = 20;
+    public static final double NEAR_EDGE_METERS = DeviationEngine.WARNING_THRESHOLD - NEAR_EDGE_MARGIN_METERS;
+    public static final double MOVING_SPEED = 0.5;
+    public static final double SLOW_SPEED = 0.25;
+    /** Staying this close to where the hiker stopped counts as not moving, whatever the speed estimate says. */
+    public static final double REST_RADIUS_METERS = 20;
+    public static final int LOW_BATTERY_PERCENT = 20;
+    public static final int BATTERY_HYSTERESIS_PERCENT = 5;
+    public static final long DEAD_RECKONING_INTERVAL_MS = 300_000;
+
+    public enum Accuracy {
+        HIGH, BALANCED, LOW_POWER
+    }
+
+    /** Most frequent first. */
+    public enum Mode {
+        ALERT(1_000, Accuracy.HIGH, 0, 0, 30_000),
+        MOVING(4_000, Accuracy.HIGH, 4_000, 0, 60_000),
+        SLOW(10_000, Accuracy.HIGH, 10_000, 0, 120_000),
+        RESTING(30_000, Accuracy.BALANCED, 60_000, 5, 0);
+
+        public final long intervalMs;
+        public final Accuracy accuracy;
+        public final long maxDelayMs;
+        public final float minDistanceMeters;
+        /** How long lower modes must be called for before leaving this one. */
+        public final long dwellMs;
+
+        Mode(long intervalMs, Accuracy accuracy, long maxDelayMs, float minDistanceMeters, long dwellMs) {
+            this.intervalMs = intervalMs;
+            this.accuracy = accuracy;
+            this.maxDelayMs = maxDelayMs;
+            this.minDistanceMeters = minDistanceMeters;
+            this.dwellMs = dwellMs;
+        }
+    }
+
+    /** What the location source is asked for; one instance per mode, battery and dead-reckoning state. */
+    public static final class Request {
+        public final Mode mode;
+        public final boolean batterySaver;
+        public final boolean deadReckoning;
+        public final long intervalMs;
+        /** Fixes other apps caused are taken up to this often. */
+        public final long minIntervalMs;
+        /** 0: deliver every fix at once. */
+        public final long maxDelayMs;
+        public final Accuracy accuracy;
+        public final float minDistanceMeters;
+
+        Request(Mode mode, boolean batterySaver, boolean deadReckoning) {
+            int factor = batterySaver ? 2 : 1;
+            this.mode = mode;
+            this.batterySaver = batterySaver;
+            // The alert mode checks every second against the trail; steps don't replace that
+            this.deadReckoning = deadReckoning && mode != Mode.ALERT;
+            if (this.deadReckoning) {
+                // Sparse fixes correct the steps, so each should be good and come at once
+                this.intervalMs = Math.max(mode.intervalMs, DEAD_RECKONING_INTERVAL_MS) * factor;
+                this.maxDelayMs = 0;
+                this.accuracy = Accuracy.HIGH;
+                this.minDistanceMeters = 0;
+            } else {
+                this.intervalMs = mode.intervalMs * factor;
+                this.maxDelayMs = mode.maxDelayMs * factor;
+                this.accuracy = batterySaver && mode.accuracy == Accuracy.BALANCED ? Accuracy.LOW_POWER
+                        : mode.accuracy;
+                this.minDistanceMeters = mode.minDistanceMeters;
+            }
+            this.minIntervalMs = intervalMs / 2;
+        }
+
+        @Override
+        public String toString() {
+            return mode + (batterySaver ? " (battery saver)" : "") + (deadReckoning ? " (dead reckoning)" : "")
+                    + ": every " + intervalMs + " ms, " + accuracy + ", batched up to " + maxDelayMs + " ms";
+        }
+    }
+
+    // [battery saver][dead reckoning][mode]
+    private static final Request[][][] REQUESTS = new Request[2][2][Mode.values().length];
+
+    static {
+        for (Mode mode : Mode.values()) {
+            for (int saver = 0; saver < 2; saver++) {
+                for (int reckoning = 0; reckoning < 2; reckoning++) {
+                    REQUESTS[saver][reckoning][mode.ordinal()] = new Request(mode, saver == 1, reckoning == 1);
+                }
+            }
+        }
+    }
+
+    private final LocationSource source;
+    private Mode mode = Mode.MOVING;
+    private boolean batterySaver;
+    private boolean deadReckoning;
+    private boolean running;
+    // Stepping down: since when every fix called for less, and the most it called for
+    private long downSinceMs = -1;
+    private Mode downTarget;
+    private int switchCount;
+    // Where the hiker was when they last moved REST_RADIUS_METERS
+    private double anchorLat = Double.NaN;
+    private double anchorLng;
+    private long anchorMs;
+
+    public SamplingScheduler(LocationSource source) {
+        this.source = source;
+    }
+
+    /** Requests fixes at walking pace until the first ones say otherwise. */
+    public void start() {
+        mode = Mode.MOVING;
+        downSinceMs = -1;
+        anchorLat = Double.NaN;
+        running = true;
+        source.request(getRequest());
+    }
+
+    public void stop() {
+        running = false;
+        source.stop();
+    }
+
+    /**
+     * Feeds one processed fix.
+     *
+     * @param timeMs          Fix time
+     * @param lat             Filtered position
+     * @param lng             Filtered position
+     * @param speed           Estimated speed, m/s
+     * @param deviationMeters Distance to the nearest trail; negative when unknown
+     * @param status          Deviation status of the fix
+     * @return whether the request changed
+     */
+    public boolean update(long timeMs, double lat, double lng, double speed, double deviationMeters,
+            DeviationEngine.SafetyStatus status) {
+        if (Double.isNaN(anchorLat)
+                || GeoMath.distanceMeters(anchorLat, anchorLng, lat, lng) >= REST_RADIUS_METERS) {
+            anchorLat = lat;
+            anchorLng = lng;
+            anchorMs = timeMs;
+        } else if (timeMs > anchorMs) {
+            speed = Math.min(speed, REST_RADIUS_METERS * 1000 / (timeMs - anchorMs));
+        }
+        Mode wanted = wanted(speed, deviationMeters, status);
+        if (wanted.ordinal() <= mode.ordinal()) {
+            downSinceMs = -1;
+            return wanted != mode && switchTo(wanted);
+        }
+        if (downSinceMs < 0) {
+            downSinceMs = timeMs;
+            downTarget = wanted;
+        } else if (wanted.ordinal() < downTarget.ordinal()) {
+            downTarget = wanted;
+        }
+        if (timeMs - downSinceMs < mode.dwellMs) {
+            return false;
+        }
+        downSinceMs = -1;
+        return switchTo(downTarget);
+    }
+
+    /** @return whether the request changed */
+    public boolean setBattery(int percent, boolean charging) {
+        boolean saver = batterySaver
+                ? !charging && percent < LOW_BATTERY_PERCENT + BATTERY_HYSTERESIS_PERCENT
+                : !charging && percent <= LOW_BATTERY_PERCENT;
+        if (saver == batterySaver) {
+            return false;
+        }
+        batterySaver = saver;
+        return request();
+    }
+
+    /** @return whether the request changed */
+    public boolean setDeadReckoning(boolean active) {
+        if (active == deadReckoning) {
+            return false;
+        }
+        deadReckoning = active;
+        return request();
+    }
+
+    static Mode wanted(double speed, double deviationMeters, DeviationEngine.SafetyStatus status) {
+        // A negative distance means no trail to measure against; that says nothing about danger
+        if (deviationMeters >= NEAR_EDGE_METERS
+                || (deviationMeters >= 0 && status != DeviationEngine.SafetyStatus.SAFE)) {
+            return Mode.ALERT;
+        }
+        if (speed >= MOVING_SPEED) {
+            return Mode.MOVING;
+        }
+        return speed >= SLOW_SPEED ? Mode.SLOW : Mode.RESTING;
+    }
+
+    private boolean switchTo(Mode next) {
+        mode = next;
+        return request();
+    }
+
+    private boolean request() {
+        switchCount++;
+        if (running) {
+            source.request(getRequest());
+        }
+        return true;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public Request getRequest() {
+        return REQUESTS[batterySaver ? 1 : 0][deadReckoning ? 1 : 0][mode.ordinal()];
+    }
+
+    public boolean isBatterySaver() {
+        return batterySaver;
+    }
+
+    public boolean isDeadReckoning() {
+        return deadReckoning;
+    }
+
+    /** Request changes since construction. */
+    public int getSwitchCount() {
+        return switchCount;
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.pandu_navigation.logic;
+
+import com.example.pandu_navigation.data.TrailGeometry;
+
+import java.util.List;
+
+/**
+ * Uniform grid over the individual segments of a set of trails (one mountain).
+ * Every segment is registered in each cell its bounding box touches, and the
+ * cells are stored in CSR form (cellStart/cellSegments) so the whole index is
+ * a handful of primitive arrays. Instances are immutable and safe to share.
+ *
+ * Queries walk square rings of cells outward from the user's cell and stop as
+ * soon as no unvisited cell can hold anything closer than the current k-th hit,
+ * so the cost depends on local segment density, not on total trail length.
+ */
+public final class SegmentIndex {
+
+    // ~55 m of latitude, small enough that the 50 m WARNING band is one or two rings
+    static final double CELL_DEGREES = 0.0005;
+
+    private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180.0;
+
+    private final String[] trailIds;
+
+    // Per segment: owning trail, start vertex and endpoints
+    private final int[] segTrail;
+    private final int[] segVertex;
+    private final double[] segLat1;
+    private final double[] segLng1;
+    private final double[] segLat2;
+    private final double[] segLng2;
+    // Distance along the trail to the segment start, and segment length (meters)
+    private final double[] segAlong;
+    private final double[] segLength;
+    private final int segmentCount;
+    // Segments of trail t are [trailFirstSegment[t], trailFirstSegment[t + 1])
+    private final int[] trailFirstSegment;
+
+    // Grid
+    private final double originLat;
+    private final double originLng;
+    private final int rows;
+    private final int cols;
+    private final int[] cellStart;
+    private final int[] cellSegments;
+    private final double minCellMeters;
+
+    private SegmentIndex(String[] trailIds, int[] segTrail, int[] segVertex,
+            double[] segLat1, double[] segLng1, double[] segLat2, double[] segLng2,
+            double[] segAlong, double[] segLength, int segmentCount, int[] trailFirstSegment,
+            double originLat, double originLng, int rows, int cols,
+            int[] cellStart, int[] cellSegments, double minCellMeters) {
+        this.trailIds = trailIds;
+        this.segTrail = segTrail;
+        this.segVertex = segVertex;
+        this.segLat1 = segLat1;
+        this.segLng1 = segLng1;
+        this.segLat2 = segLat2;
+        this.segLng2 = segLng2;
+        this.segAlong = segAlong;
+        this.segLength = segLength;
+        this.segmentCount = segmentCount;
+        this.trailFirstSegment = trailFirstSegment;
+        this.originLat = originLat;
+        this.originLng = originLng;
+        this.rows = rows;
+        this.cols = cols;
+        this.cellStart = cellStart;
+        this.cellSegments = cellSegments;
+        this.minCellMeters = minCellMeters;
+    }
+
+    /**
+     * Builds the index. trailIds and geometries are parallel lists.
+     */
+    public static SegmentIndex build(List<String> trailIds, List<TrailGeometry> geometries) {
+        int trailCount = trailIds.size();
+        int segmentCount = 0;
+        for (int t = 0; t < trailCount; t++) {
+            segmentCount += Math.max(0, geometries.get(t).size - 1);
+        }
+
+        int[] segTrail = new int[segmentCount];
+        int[] segVertex = new int[segmentCount];
+        double[] segLat1 = new double[segmentCount];
+        double[] segLng1 = new double[segmentCount];
+        double[] segLat2 = new double[segmentCount];
+        double[] segLng2 = new double[segmentCount];
+        double[] segAlong = new double[segmentCount];
+        double[] segLength = new double[segmentCount];
+        int[] trailFirstSegment = new int[trailCount + 1];
+
+        double minLat = 90, maxLat = -90, minLng = 180, maxLng = -180;
+        int s = 0;
+        for (int t = 0; t < trailCount; t++) {
+            TrailGeometry g = geometries.get(t);
+            trailFirstSegment[t] = s;
+            double along = 0;
+            for (int i = 0; i < g.size - 1; i++) {
+                segTrail[s] = t;
+                segVertex[s] = i;
+                segLat1[s] = g.lat[i];
+                segLng1[s] = g.lng[i];
+                segLat2[s] = g.lat[i + 1];
+                segLng2[s] = g.lng[i + 1];
+                segAlong[s] = along;
+                segLength[s] = GeoMath.distanceMeters(g.lat[i], g.lng[i], g.lat[i + 1], g.lng[i + 1]);
+                along += segLength[s];
+                s++;
+            }
+            for (int i = 0; i < g.size; i++) {
+                if (g.lat[i] < minLat)
+                    minLat = g.lat[i];
+                if (g.lat[i] > maxLat)
+                    maxLat = g.lat[i];
+                if (g.lng[i] < minLng)
+                    minLng = g.lng[i];
+                if (g.lng[i] > maxLng)
+                    maxLng = g.lng[i];
+            }
+        }
+        trailFirstSegment[trailCount] = s;
+        if (segmentCount == 0) {
+            minLat = maxLat = minLng = maxLng = 0;
+        }
+
+        int rows = (int) ((maxLat - minLat) / CELL_DEGREES) + 1;
+        int cols = (int) ((maxLng - minLng) / CELL_DEGREES) + 1;
+
+        // Pass 1: count registrations per cell
+        int[] cellStart = new int[rows * cols + 1];
+        for (s = 0; s < segmentCount; s++) {
+            int r0 = cell(Math.min(segLat1[s], segLat2[s]), minLat, rows);
+            int r1 = cell(Math.max(segLat1[s], segLat2[s]), minLat, rows);
+            int c0 = cell(Math.min(segLng1[s], segLng2[s]), minLng, cols);
+            int c1 = cell(Math.max(segLng1[s], segLng2[s]), minLng, cols);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellStart[r * cols + c + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < rows * cols; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+
+        // Pass 2: fill
+        int[] cellSegments = new int[cellStart[rows * cols]];
+        int[] cursor = new int[rows * cols];
+        for (s = 0; s < segmentCount; s++) {
+            int r0 = cell(Math.min(segLat1[s], segLat2[s]), minLat, rows);
+            int r1 = cell(Math.max(segLat1[s], segLat2[s]), minLat, rows);
+            int c0 = cell(Math.min(segLng1[s], segLng2[s]), minLng, cols);
+            int c1 = cell(Math.max(segLng1[s], segLng2[s]), minLng, cols);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    int idx = r * cols + c;
+                    cellSegments[cellStart[idx] + cursor[idx]++] = s;
+                }
+            }
+        }
+
+        // A cell is narrowest in longitude at the pole-most latitude of the grid.
+        // The 0.99 factor keeps the ring bound conservative against haversine.
+        double maxAbsLat = Math.max(Math.abs(minLat), Math.abs(maxLat));
+        double minCellMeters = 0.99 * CELL_DEGREES * METERS_PER_DEGREE
+                * Math.min(1.0, Math.cos(Math.toRadians(Math.min(89.0, maxAbsLat + CELL_DEGREES))));
+
+        return new SegmentIndex(trailIds.toArray(new String[0]), segTrail, segVertex,
+                segLat1, segLng1, segLat2, segLng2, segAlong, segLength, segmentCount, trailFirstSegment,
+                minLat, minLng, rows, cols, cellStart, cellSegments, minCellMeters);
+    }
+
+    private static int cell(double value, double origin, int limit) {
+        int c = (int) ((value - origin) / CELL_DEGREES);
+        return c < 0 ? 0 : (c >= limit ? limit - 1 : c);
+    }
+
+    /**
+     * Finds the k nearest segments to the point and writes them, closest first,
+     * into result (k is the result's capacity). Returns the number of hits.
+     * Candidates are compared by squared distance in a local metric frame;
+     * only the k winners get an exact haversine distance.
+     */
+    public int nearest(double lat, double lng, Result result) {
+        result.count = 0;
+        if (segmentCount == 0) {
+            return 0;
+        }
+        int k = result.segment.length;
+        result.frame.reset(lat, lng);
+
+        // Unclamped cell of the query point; it may be outside the grid
+        int pr = (int) Math.floor((lat - originLat) / CELL_DEGREES);
+        int pc = (int) Math.floor((lng - originLng) / CELL_DEGREES);
+
+        // First ring that touches the grid, and the ring that covers all of it
+        int dr = pr < 0 ? -pr : (pr >= rows ? pr - rows + 1 : 0);
+        int dc = pc < 0 ? -pc : (pc >= cols ? pc - cols + 1 : 0);
+        int firstRing = Math.max(dr, dc);
+        int lastRing = Math.max(Math.max(pr, rows - 1 - pr), Math.max(pc, cols - 1 - pc));
+
+        for (int ring = firstRing; ring <= lastRing; ring++) {
+            int rMin = pr - ring;
+            int rMax = pr + ring;
+            for (int r = Math.max(0, rMin); r <= Math.min(rows - 1, rMax); r++) {
+                boolean edgeRow = r == rMin || r == rMax;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = pc - ring; c <= pc + ring; c += Math.max(1, step)) {
+                    if (c >= 0 && c < cols) {
+                        scanCell(r * cols + c, result, k);
+                    }
+                }
+            }
+            // Anything not yet visited is at least `ring` whole cells away
+            double bound = ring * minCellMeters;
+            if (result.count == k && result.distanceSq[k - 1] <= bound * bound) {
+                break;
+            }
+        }
+
+        // Candidates were ranked in the local plane; measure the winners exactly
+        for (int i = 0; i < result.count; i++) {
+            int s = result.segment[i];
+            result.distance[i] = result.frame.exactDistanceToSegment(segLat1[s], segLng1[s], segLat2[s], segLng2[s]);
+        }
+        return result.count;
+    }
+
+    private void scanCell(int cell, Result result, int k) {
+        GeoMath.LocalFrame frame = result.frame;
+        for (int i = cellStart[cell], end = cellStart[cell + 1]; i < end; i++) {
+            int s = cellSegments[i];
+            result.offer(s, frame.distanceSqToSegment(segLat1[s], segLng1[s], segLat2[s], segLng2[s]), k);
+        }
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getTrailCount() {
+        return trailIds.length;
+    }
+
+    /** Approximate heap held by the arrays, trail id strings excluded. */
+    public long estimateBytes() {
+        return segmentCount * (2L * Integer.BYTES + 6L * Double.BYTES)
+                + (long) (trailFirstSegment.length + cellStart.length + cellSegments.length) * Integer.BYTES
+                + (long) trailIds.length * 8;
+    }
+
+    /** Index, within the build lists, of the trail owning the segment. */
+    public int trailOf(int segment) {
+        return segTrail[segment];
+    }
+
+    public String trailIdOf(int segment) {
+        return trailIds[segTrail[segment]];
+    }
+
+    /** Start vertex of the segment within its trail polyline. */
+    public int vertexOf(int segment) {
+        return segVertex[segment];
+    }
+
+    /** First segment id of the trail; a trail's segments are contiguous and in order. */
+    int firstSegmentOf(int trail) {
+        return trailFirstSegment[trail];
+    }
+
+    /** One past the last segment id of the trail. */
+    int endSegmentOf(int trail) {
+        return trailFirstSegment[trail + 1];
+    }
+
+    double distanceSq(GeoMath.LocalFrame frame, int segment) {
+        return frame.distanceSqToSegment(segLat1[segment], segLng1[segment], segLat2[segment], segLng2[segment]);
+    }
+
+    double exactDistance(GeoMath.LocalFrame frame, int segment) {
+        return frame.exactDistanceToSegment(segLat1[segment], segLng1[segment], segLat2[segment], segLng2[segment]);
+    }
+
+    /** Meters from the trail start to the point of the segment closest to the frame origin. */
+    double alongTrack(GeoMath.LocalFrame frame, int segment) {
+        double t = frame.segmentParam(segLat1[segment], segLng1[segment], segLat2[segment], segLng2[segment]);
+        return segAlong[segment] + t * segLength[segment];
+    }
+
+    /**
+     * Reusable k-nearest result buffer. Not thread safe; each caller owns one.
+     */
+    public static final class Result {
+        public final int[] segment;
+        public final double[] distance;
+        public int count;
+
+        final double[] distanceSq;
+        final GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+
+        public Result(int k) {
+            this.segment = new int[k];
+            this.distance = new double[k];
+            this.distanceSq = new double[k];
+        }
+
+        // Sorted insert; segments registered in several cells are only kept once
+        void offer(int s, double distSq, int k) {
+            if (count == k && distSq >= distanceSq[k - 1]) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                if (segment[i] == s)
+                    return;
+            }
+            int i = count < k ? count++ : k - 1;
+            while (i > 0 && distanceSq[i - 1] > distSq) {
+                segment[i] = segment[i - 1];
+                distanceSq[i] = distanceSq[i - 1];
+                i--;
+            }
+            segment[i] = s;
+            distanceSq[i] = distSq;
+        }
+    }
+}
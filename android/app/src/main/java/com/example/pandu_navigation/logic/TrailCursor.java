@@ -0,0 +1,122 @@
+package com.example.pandu_navigation.logic;
+
+import java.util.List;
+
+/**
+ * Incremental trail matcher. Hikers move a few meters between fixes, so the
+ * next match is almost always next to the previous one: the cursor remembers
+ * the matched segment and only searches a window of segments around it,
+ * doubling the window while the best hit sits on its edge.
+ *
+ * If the window's best distance exceeds REACQUIRE_DISTANCE the caller should
+ * run a global search and {@link #anchor} the cursor again. The threshold is
+ * below the WARNING band, so sticking to the current trail at a junction can
+ * never change the reported safety status.
+ */
+public class TrailCursor {
+
+    static final double REACQUIRE_DISTANCE = 30.0;
+    private static final int INITIAL_WINDOW = 8;
+    private static final int MAX_WINDOW = 512;
+
+    private final GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+
+    private SegmentIndex index;
+    private int segment = -1;
+    private double distance;
+    private double alongTrack;
+
+    /**
+     * Whether the cursor is attached to one of the given indexes.
+     */
+    public boolean isOn(List<SegmentIndex> indexes) {
+        if (index == null) {
+            return false;
+        }
+        for (int i = 0, n = indexes.size(); i < n; i++) {
+            if (indexes.get(i) == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches the fix against the window around the last segment.
+     * Returns false (leaving the previous match untouched) when the fix is
+     * too far from the window and a global search is needed.
+     */
+    public boolean track(double lat, double lng) {
+        if (index == null) {
+            return false;
+        }
+        frame.reset(lat, lng);
+
+        int trail = index.trailOf(segment);
+        int lo = index.firstSegmentOf(trail);
+        int hi = index.endSegmentOf(trail) - 1;
+
+        int best = segment;
+        for (int window = INITIAL_WINDOW;; window *= 2) {
+            int from = Math.max(lo, segment - window);
+            int to = Math.min(hi, segment + window);
+            double bestSq = Double.MAX_VALUE;
+            for (int s = from; s <= to; s++) {
+                double d = index.distanceSq(frame, s);
+                if (d < bestSq) {
+                    bestSq = d;
+                    best = s;
+                }
+            }
+            boolean atEdge = (best == from && from > lo) || (best == to && to < hi);
+            if (!atEdge || window >= MAX_WINDOW) {
+                break;
+            }
+        }
+
+        double exact = index.exactDistance(frame, best);
+        if (exact > REACQUIRE_DISTANCE) {
+            return false;
+        }
+        segment = best;
+        distance = exact;
+        alongTrack = index.alongTrack(frame, best);
+        return true;
+    }
+
+    /** Re-attaches the cursor to the winner of a global search. */
+    public void anchor(SegmentIndex index, int segment, double lat, double lng) {
+        this.index = index;
+        this.segment = segment;
+        frame.reset(lat, lng);
+        distance = index.exactDistance(frame, segment);
+        alongTrack = index.alongTrack(frame, segment);
+    }
+
+    public void reset() {
+        index = null;
+        segment = -1;
+    }
+
+    public boolean hasMatch() {
+        return index != null;
+    }
+
+    public String getTrailId() {
+        return index != null ? index.trailIdOf(segment) : null;
+    }
+
+    /** Start vertex, within the matched trail, of the matched segment. */
+    public int getSegmentIndex() {
+        return index != null ? index.vertexOf(segment) : -1;
+    }
+
+    /** Meters from the start of the matched trail to the matched point. */
+    public double getAlongTrack() {
+        return alongTrack;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+}
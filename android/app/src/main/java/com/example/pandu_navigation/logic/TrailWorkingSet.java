@@ -0,0 +1,190 @@
+package com.example.pandu_navigation.logic;
+
+import com.example.pandu_navigation.data.NavigationDao;
+import com.example.pandu_navigation.data.PoiEntity;
+import com.example.pandu_navigation.data.TrailEntity;
+import com.example.pandu_navigation.data.TrailGeometry;
+import com.example.pandu_navigation.data.TrailGeometryStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Everything the tracking hot path needs about the mountains around the
+ * hiker: decoded trail geometry, one SegmentIndex over all of it and the
+ * POIs, loaded once and never changed afterwards.
+ *
+ * A set covers the bounding box of its trails and POIs plus a margin. The
+ * service checks every fix against the current set and only loads a new one,
+ * off the fix thread, when a fix falls outside those bounds or the geometry
+ * store version moved on because seeding replaced trails. Loading reads the
+ * database; using a set never does.
+ *
+ * Immutable and safe to share between threads.
+ */
+public final class TrailWorkingSet {
+
+    /** How far past its data a set stays valid, ~1.1 km. */
+    public static final double DEFAULT_MARGIN_DEGREES = 0.01;
+
+    /** Covers nothing, so the first fix loads a real set. */
+    public static final TrailWorkingSet EMPTY = new TrailWorkingSet(Collections.emptyList(), Collections.emptyList(),
+            Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -1, 0);
+
+    private final List<String> mountainIds;
+    private final List<String> trailIds;
+    private final List<TrailGeometry> geometries;
+    private final List<SegmentIndex> indexes;
+    private final List<PoiEntity> pois;
+    private final double minLat;
+    private final double maxLat;
+    private final double minLng;
+    private final double maxLng;
+    private final int version;
+    private final long loadNanos;
+
+    private TrailWorkingSet(List<String> mountainIds, List<String> trailIds, List<TrailGeometry> geometries,
+            List<SegmentIndex> indexes, List<PoiEntity> pois, double minLat, double maxLat, double minLng,
+            double maxLng, int version, long loadNanos) {
+        this.mountainIds = mountainIds;
+        this.trailIds = trailIds;
+        this.geometries = geometries;
+        this.indexes = indexes;
+        this.pois = pois;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLng = minLng;
+        this.maxLng = maxLng;
+        this.version = version;
+        this.loadNanos = loadNanos;
+    }
+
+    /**
+     * Reads the mountains' trails and POIs and builds a set from them. The
+     * set also covers the point, if there is one (NaN when tracking starts
+     * before the first fix), so a hiker away from every trail gets an empty
+     * set valid for {@code marginDegrees} around them rather than a reload on
+     * each fix. Blocking; call it on a database reader.
+     */
+    public static TrailWorkingSet load(NavigationDao dao, TrailGeometryStore geometryStore,
+            List<String> mountainIds, double lat, double lng, double marginDegrees) {
+        long start = System.nanoTime();
+        // Read the version first: a reseed racing the load then only makes the set look stale
+        int version = geometryStore.getVersion();
+        List<TrailEntity> trails = new ArrayList<>();
+        List<PoiEntity> pois = new ArrayList<>();
+        for (String mountainId : mountainIds) {
+            trails.addAll(dao.getTrailsByMountain(mountainId));
+            pois.addAll(dao.getPoisByMountain(mountainId));
+        }
+        return build(mountainIds, trails, pois, geometryStore, version, lat, lng, marginDegrees, start);
+    }
+
+    static TrailWorkingSet build(List<String> mountainIds, List<TrailEntity> trails, List<PoiEntity> pois,
+            TrailGeometryStore geometryStore, int version, double lat, double lng, double marginDegrees,
+            long startNanos) {
+        List<String> trailIds = new ArrayList<>(trails.size());
+        List<TrailGeometry> geometries = new ArrayList<>(trails.size());
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLng = Double.POSITIVE_INFINITY, maxLng = Double.NEGATIVE_INFINITY;
+        if (!Double.isNaN(lat) && !Double.isNaN(lng)) {
+            minLat = maxLat = lat;
+            minLng = maxLng = lng;
+        }
+        for (TrailEntity trail : trails) {
+            trailIds.add(trail.id);
+            geometries.add(geometryStore.get(trail));
+            minLat = Math.min(minLat, trail.minLat);
+            maxLat = Math.max(maxLat, trail.maxLat);
+            minLng = Math.min(minLng, trail.minLng);
+            maxLng = Math.max(maxLng, trail.maxLng);
+        }
+        for (PoiEntity poi : pois) {
+            minLat = Math.min(minLat, poi.lat);
+            maxLat = Math.max(maxLat, poi.lat);
+            minLng = Math.min(minLng, poi.lng);
+            maxLng = Math.max(maxLng, poi.lng);
+        }
+        List<SegmentIndex> indexes = trails.isEmpty() ? Collections.emptyList()
+                : Collections.singletonList(SegmentIndex.build(trailIds, geometries));
+        return new TrailWorkingSet(Collections.unmodifiableList(new ArrayList<>(mountainIds)),
+                Collections.unmodifiableList(trailIds), Collections.unmodifiableList(geometries), indexes,
+                Collections.unmodifiableList(pois), minLat - marginDegrees, maxLat + marginDegrees,
+                minLng - marginDegrees, maxLng + marginDegrees, version, System.nanoTime() - startNanos);
+    }
+
+    /** Whether the fix is inside the area this set was loaded for. */
+    public boolean covers(double lat, double lng) {
+        return lat >= minLat && lat <= maxLat && lng >= minLng && lng <= maxLng;
+    }
+
+    /** False once seeding replaced trails after this set was loaded. */
+    public boolean isCurrent(TrailGeometryStore geometryStore) {
+        return version == geometryStore.getVersion();
+    }
+
+    public boolean contains(String mountainId) {
+        return mountainIds.contains(mountainId);
+    }
+
+    /** For DeviationEngine.checkSafetyIndexed; the same list on every call. */
+    public List<SegmentIndex> getIndexes() {
+        return indexes;
+    }
+
+    public List<String> getMountainIds() {
+        return mountainIds;
+    }
+
+    public List<String> getTrailIds() {
+        return trailIds;
+    }
+
+    public List<TrailGeometry> getGeometries() {
+        return geometries;
+    }
+
+    public List<PoiEntity> getPois() {
+        return pois;
+    }
+
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    /**
+     * Approximate heap held by the set: decoded geometry, the segment index
+     * and the POI rows. Geometry is shared with TrailGeometryStore, so this
+     * is what the set keeps alive, not what it adds.
+     */
+    public long estimateBytes() {
+        long bytes = 0;
+        for (TrailGeometry geometry : geometries) {
+            bytes += 3L * (16 + (long) geometry.lat.length * Double.BYTES) + 32;
+        }
+        for (SegmentIndex index : indexes) {
+            bytes += index.estimateBytes();
+        }
+        for (PoiEntity poi : pois) {
+            bytes += 64 + 2L * (length(poi.id) + length(poi.mountainId) + length(poi.name) + length(poi.type));
+        }
+        return bytes;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    @Override
+    public String toString() {
+        int segments = 0;
+        for (SegmentIndex index : indexes) {
+            segments += index.getSegmentCount();
+        }
+        return String.format(Locale.US, "%s: %d trails, %d segments, %d POIs, ~%d KB, loaded in %.1f ms",
+                mountainIds, trailIds.size(), segments, pois.size(), estimateBytes() / 1024, loadNanos / 1e6);
+    }
+}
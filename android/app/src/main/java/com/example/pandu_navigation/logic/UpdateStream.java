@@ -0,0 +1,489 @@
+package com.example.pandu_navigation.logic;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Navigation updates from PanduService to the Flutter event channel, in
+ * process and without a broadcast in between.
+ *
+ * The subscriber states a {@link Contract}: how often it wants updates,
+ * which fields, and how far the hiker must move or turn before an update is
+ * worth waking it for. Updates below the deltas are dropped when published;
+ * the rest are packed into fixed-layout little-endian records on the fix
+ * thread and handed over on the subscriber's thread no more often than the
+ * contract allows. Under a rate limit only the newest record waits (latest
+ * wins), except that a status change is never overwritten by a newer
+ * update before it went out; without one, whatever piled up goes over as
+ * one batch. A status change is never suppressed either, and a change to
+ * DANGER is delivered at once, taking back the delivery it overtakes.
+ * Nothing is kept without a subscriber.
+ *
+ * Batch layout (version 2):
+ *   u8   version
+ *   u8   record size
+ *   u16  record count
+ *   u16  field mask, {@link #FIELD_ALTITUDE} and following
+ *   records, oldest first; always
+ *     i64  time        ms; of the fix, or of the step window when dead reckoned
+ *     i64  received    ms, wall clock when the service had it; latency starts here
+ *     f64  lat
+ *     f64  lng
+ *     u8   status      DeviationEngine.SafetyStatus ordinal
+ *     u8   flags       {@link #FLAG_DEAD_RECKONED}
+ *   then, for each field in the mask, in bit order
+ *     f32  altitude    m
+ *     f32  accuracy    m
+ *     f32  bearing     degrees
+ *     f32  speed       m/s
+ *     f32  distance    m to the trail, negative when unknown
+ *     f64  along track m along the matched trail; i32 segment, -1 when none;
+ *          i16 trail, index into the trail table, -1 when none
+ *   with {@link #FIELD_TRAIL}: u8 trail count, then per trail u16 length, UTF-8 id
+ */
+public final class UpdateStream {
+
+    public static final int VERSION = 2;
+    public static final int HEADER_BYTES = 6;
+    public static final int BASE_RECORD_BYTES = 34;
+    public static final int FIELD_ALTITUDE = 1;
+    public static final int FIELD_ACCURACY = 1 << 1;
+    public static final int FIELD_BEARING = 1 << 2;
+    public static final int FIELD_SPEED = 1 << 3;
+    public static final int FIELD_DISTANCE = 1 << 4;
+    public static final int FIELD_TRAIL = 1 << 5;
+    public static final int ALL_FIELDS = (1 << 6) - 1;
+    private static final String[] FIELD_NAMES = {"altitude", "accuracy", "bearing", "speed", "distance", "trail"};
+    private static final int[] FIELD_BYTES = {4, 4, 4, 4, 4, 14};
+    public static final int FLAG_DEAD_RECKONED = 1;
+    /** Records held for a subscriber that doesn't drain; the oldest go first beyond this. */
+    public static final int MAX_PENDING = 256;
+    private static final int MAX_TRAILS = 255;
+
+    /** Receives batches on the thread its scheduler runs tasks on. */
+    public interface Sink {
+        void onBatch(byte[] batch);
+    }
+
+    /** Runs deliveries on the subscriber's thread; the main thread's Handler in the app. */
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+
+        /** Takes back a scheduled task that hasn't run yet; Handler.removeCallbacks in the app. */
+        void cancel(Runnable task);
+    }
+
+    /** Milliseconds from any fixed point. */
+    interface Clock {
+        long nowMs();
+    }
+
+    /** What the subscriber wants; immutable. */
+    public static final class Contract {
+        /** Every field of every update, batched per hand-over: the stream before contracts. */
+        public static final Contract ALL = new Contract(0, ALL_FIELDS, 0, 0);
+
+        /** 0: no limit. */
+        public final long minIntervalMs;
+        public final int fields;
+        /** 0: movement alone never lets an update through; with both deltas 0 every update goes. */
+        public final double minMoveMeters;
+        /** 0: turning alone never lets an update through. */
+        public final double minHeadingDegrees;
+
+        public Contract(long minIntervalMs, int fields, double minMoveMeters, double minHeadingDegrees) {
+            this.minIntervalMs = Math.max(0, minIntervalMs);
+            this.fields = fields & ALL_FIELDS;
+            this.minMoveMeters = Math.max(0, minMoveMeters);
+            this.minHeadingDegrees = Math.max(0, minHeadingDegrees);
+        }
+
+        /**
+         * Reads the event channel's listen arguments: maxRateHz, fields (names
+         * as in the batch layout), minMoveMeters, minHeadingDegrees. Anything
+         * missing or malformed keeps the {@link #ALL} value.
+         */
+        public static Contract of(Object arguments) {
+            if (!(arguments instanceof Map)) {
+                return ALL;
+            }
+            Map<?, ?> map = (Map<?, ?>) arguments;
+            double rate = number(map.get("maxRateHz"), 0);
+            int fields = ALL_FIELDS;
+            Object names = map.get("fields");
+            if (names instanceof Collection) {
+                fields = 0;
+                for (Object name : (Collection<?>) names) {
+                    for (int i = 0; i < FIELD_NAMES.length; i++) {
+                        if (FIELD_NAMES[i].equals(name)) {
+                            fields |= 1 << i;
+                        }
+                    }
+                }
+            }
+            return new Contract(rate > 0 ? Math.round(1000 / rate) : 0, fields,
+                    number(map.get("minMoveMeters"), 0), number(map.get("minHeadingDegrees"), 0));
+        }
+
+        private static double number(Object value, double fallback) {
+            return value instanceof Number ? ((Number) value).doubleValue() : fallback;
+        }
+
+        int recordBytes() {
+            int bytes = BASE_RECORD_BYTES;
+            for (int i = 0; i < FIELD_BYTES.length; i++) {
+                if ((fields & 1 << i) != 0) {
+                    bytes += FIELD_BYTES[i];
+                }
+            }
+            return bytes;
+        }
+
+        /** Under a rate limit the subscriber only wants where things stand. */
+        boolean latestWins() {
+            return minIntervalMs > 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "every %d ms, fields 0x%x, %.1f m, %.1f deg", minIntervalMs, fields,
+                    minMoveMeters, minHeadingDegrees);
+        }
+    }
+
+    /** One update; the publisher fills and reuses a single instance. */
+    public static final class Update {
+        public long timeMs;
+        public long receivedMs;
+        public double lat;
+        public double lng;
+        public double altitude;
+        public float accuracy;
+        public float bearing;
+        public float speed;
+        public double distance = -1;
+        public DeviationEngine.SafetyStatus status = DeviationEngine.SafetyStatus.SAFE;
+        public boolean deadReckoned;
+        /** Null when no trail is matched. */
+        public String trailId;
+        public int segmentIndex = -1;
+        public double alongTrack;
+    }
+
+    /** Counters since startup. */
+    public static final class Stats {
+        public final long published;
+        /** Below the subscriber's movement and heading deltas. */
+        public final long suppressed;
+        /** Replaced by a newer update before they went out. */
+        public final long coalesced;
+        public final long dropped;
+        public final long delivered;
+        public final long batches;
+        /** Time the subscriber's thread spent handing batches over. */
+        public final long deliverNanos;
+        public final long maxBatchNanos;
+
+        Stats(long published, long suppressed, long coalesced, long dropped, long delivered, long batches,
+                long deliverNanos, long maxBatchNanos) {
+            this.published = published;
+            this.suppressed = suppressed;
+            this.coalesced = coalesced;
+            this.dropped = dropped;
+            this.delivered = delivered;
+            this.batches = batches;
+            this.deliverNanos = deliverNanos;
+            this.maxBatchNanos = maxBatchNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d published, %d suppressed, %d coalesced, %d dropped; %d delivered in %d batches, "
+                            + "%.1f us per update, max %.1f us per batch",
+                    published, suppressed, coalesced, dropped, delivered, batches,
+                    delivered == 0 ? 0 : deliverNanos / 1e3 / delivered, maxBatchNanos / 1e3);
+        }
+    }
+
+    private static volatile UpdateStream INSTANCE;
+
+    private final Clock clock;
+    private final List<String> trails = new ArrayList<>();
+    private ByteBuffer pending = ByteBuffer.allocate(0);
+    private int pendingCount;
+    // The newest pending record is a status change; it goes out before being replaced
+    private boolean lastPinned;
+    private Sink sink;
+    private Scheduler scheduler;
+    private Contract contract = Contract.ALL;
+    private int recordBytes;
+
+    // Last update let through, for the deltas
+    private boolean hasLast;
+    private double lastLat;
+    private double lastLng;
+    private float lastBearing;
+    private DeviationEngine.SafetyStatus lastStatus;
+
+    // The delivery waiting on the scheduler, null when none. Each carries a token and only
+    // the latest one delivers, in case a superseded one was already running when taken back.
+    private long token;
+    private Runnable scheduledTask;
+    private long scheduledForMs;
+    private long lastDeliveryMs;
+
+    private long published;
+    private long suppressed;
+    private long coalesced;
+    private long dropped;
+    private long delivered;
+    private long batches;
+    private long deliverNanos;
+    private long maxBatchNanos;
+
+    public static UpdateStream get() {
+        if (INSTANCE == null) {
+            synchronized (UpdateStream.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new UpdateStream(() -> System.nanoTime() / 1_000_000);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    UpdateStream(Clock clock) {
+        this.clock = clock;
+    }
+
+    /** Replaces any previous subscriber and its contract. */
+    public synchronized void subscribe(Sink sink, Contract contract, Scheduler scheduler) {
+        cancelScheduled();
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.contract = contract;
+        recordBytes = contract.recordBytes();
+        // Status changes pile up under latest wins too, so both get the full buffer
+        int capacity = MAX_PENDING * recordBytes;
+        if (pending.capacity() < capacity) {
+            pending = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        clear();
+        hasLast = false;
+        lastDeliveryMs = Long.MIN_VALUE / 2;
+    }
+
+    /** Does nothing unless {@code sink} is the current subscriber. */
+    public synchronized void unsubscribe(Sink sink) {
+        if (this.sink == sink) {
+            cancelScheduled();
+            this.sink = null;
+            this.scheduler = null;
+            clear();
+        }
+    }
+
+    private void cancelScheduled() {
+        if (scheduledTask != null) {
+            scheduler.cancel(scheduledTask);
+            scheduledTask = null;
+        }
+    }
+
+    /** Packs the update if the contract wants it; it can be reused as soon as this returns. */
+    public void publish(Update update) {
+        Scheduler target;
+        Runnable task;
+        long delayMs;
+        synchronized (this) {
+            published++;
+            if (sink == null) {
+                return;
+            }
+            boolean statusChanged = !hasLast || update.status != lastStatus;
+            if (!statusChanged && !moved(update)) {
+                suppressed++;
+                return;
+            }
+            boolean urgent = statusChanged && update.status == DeviationEngine.SafetyStatus.DANGER;
+            hasLast = true;
+            lastLat = update.lat;
+            lastLng = update.lng;
+            lastBearing = update.bearing;
+            lastStatus = update.status;
+
+            if (pendingCount > 0 && contract.latestWins() && !lastPinned) {
+                pendingCount--;
+                coalesced++;
+            } else if (pendingCount == MAX_PENDING) {
+                // Not capacity: a buffer kept from a wider contract holds more
+                dropOldest();
+            }
+            write(pendingCount * recordBytes, update);
+            pendingCount++;
+            lastPinned = statusChanged && contract.latestWins();
+
+            long now = clock.nowMs();
+            long dueMs = urgent ? now : Math.max(now, lastDeliveryMs + contract.minIntervalMs);
+            if (scheduledTask != null && scheduledForMs <= dueMs) {
+                return;
+            }
+            // Nothing scheduled, or a DANGER change that can't wait for the one that is
+            cancelScheduled();
+            scheduledForMs = dueMs;
+            long mine = ++token;
+            task = () -> deliver(mine);
+            scheduledTask = task;
+            delayMs = dueMs - now;
+            target = scheduler;
+        }
+        // Outside the lock: a direct scheduler delivers right here
+        target.schedule(task, delayMs);
+    }
+
+    private boolean moved(Update update) {
+        if (contract.minMoveMeters == 0 && contract.minHeadingDegrees == 0) {
+            return true; // No deltas: every update
+        }
+        if (contract.minHeadingDegrees > 0) {
+            double turn = Math.abs(update.bearing - lastBearing) % 360;
+            if (Math.min(turn, 360 - turn) >= contract.minHeadingDegrees) {
+                return true;
+            }
+        }
+        return contract.minMoveMeters > 0
+                && GeoMath.distanceMeters(lastLat, lastLng, update.lat, update.lng) >= contract.minMoveMeters;
+    }
+
+    private void write(int at, Update update) {
+        pending.putLong(at, update.timeMs);
+        pending.putLong(at + 8, update.receivedMs);
+        pending.putDouble(at + 16, update.lat);
+        pending.putDouble(at + 24, update.lng);
+        pending.put(at + 32, (byte) update.status.ordinal());
+        pending.put(at + 33, (byte) (update.deadReckoned ? FLAG_DEAD_RECKONED : 0));
+        at += BASE_RECORD_BYTES;
+        int fields = contract.fields;
+        if ((fields & FIELD_ALTITUDE) != 0) {
+            pending.putFloat(at, (float) update.altitude);
+            at += 4;
+        }
+        if ((fields & FIELD_ACCURACY) != 0) {
+            pending.putFloat(at, update.accuracy);
+            at += 4;
+        }
+        if ((fields & FIELD_BEARING) != 0) {
+            pending.putFloat(at, update.bearing);
+            at += 4;
+        }
+        if ((fields & FIELD_SPEED) != 0) {
+            pending.putFloat(at, update.speed);
+            at += 4;
+        }
+        if ((fields & FIELD_DISTANCE) != 0) {
+            pending.putFloat(at, (float) update.distance);
+            at += 4;
+        }
+        if ((fields & FIELD_TRAIL) != 0) {
+            pending.putDouble(at, update.alongTrack);
+            pending.putInt(at + 8, update.trailId != null ? update.segmentIndex : -1);
+            pending.putShort(at + 12, (short) trailIndex(update.trailId));
+        }
+    }
+
+    private int trailIndex(String trailId) {
+        if (trailId == null) {
+            return -1;
+        }
+        int index = trails.indexOf(trailId);
+        if (index < 0 && trails.size() < MAX_TRAILS) {
+            index = trails.size();
+            trails.add(trailId);
+        }
+        return index;
+    }
+
+    private void dropOldest() {
+        byte[] records = pending.array();
+        System.arraycopy(records, recordBytes, records, 0, (pendingCount - 1) * recordBytes);
+        pendingCount--;
+        dropped++;
+    }
+
+    /** Runs on the subscriber's thread. */
+    private void deliver(long mine) {
+        long start = System.nanoTime();
+        byte[] batch;
+        Sink target;
+        int count;
+        synchronized (this) {
+            if (mine != token || scheduledTask == null) {
+                return; // Superseded by an earlier delivery for a DANGER change
+            }
+            scheduledTask = null;
+            target = sink;
+            count = pendingCount;
+            if (target == null || count == 0) {
+                return;
+            }
+            lastDeliveryMs = clock.nowMs();
+            batch = pack();
+            clear();
+        }
+        target.onBatch(batch);
+        long nanos = System.nanoTime() - start;
+        synchronized (this) {
+            delivered += count;
+            batches++;
+            deliverNanos += nanos;
+            maxBatchNanos = Math.max(maxBatchNanos, nanos);
+        }
+    }
+
+    private byte[] pack() {
+        boolean withTrails = (contract.fields & FIELD_TRAIL) != 0;
+        byte[][] ids = new byte[withTrails ? trails.size() : 0][];
+        int tableBytes = withTrails ? 1 : 0;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = trails.get(i).getBytes(StandardCharsets.UTF_8);
+            tableBytes += 2 + ids[i].length;
+        }
+        int bytes = pendingCount * recordBytes;
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + bytes + tableBytes).order(ByteOrder.LITTLE_ENDIAN);
+        out.put((byte) VERSION);
+        out.put((byte) recordBytes);
+        out.putShort((short) pendingCount);
+        out.putShort((short) contract.fields);
+        out.put(pending.array(), 0, bytes);
+        if (withTrails) {
+            out.put((byte) ids.length);
+            for (byte[] id : ids) {
+                out.putShort((short) id.length);
+                out.put(id);
+            }
+        }
+        return out.array();
+    }
+
+    private void clear() {
+        pendingCount = 0;
+        lastPinned = false;
+        trails.clear();
+    }
+
+    public synchronized Contract getContract() {
+        return contract;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(published, suppressed, coalesced, dropped, delivered, batches, deliverNanos,
+                maxBatchNanos);
+    }
+}
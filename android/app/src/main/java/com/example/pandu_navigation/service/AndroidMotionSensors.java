@@ -0,0 +1,85 @@
+package com.example.pandu_navigation.service;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+
+import com.example.pandu_navigation.logic.MotionSensors;
+
+/**
+ * {@link MotionSensors} over the step detector and the rotation vector.
+ * Events arrive on the main thread with sensor timestamps, which are moved
+ * onto the wall clock the fixes use.
+ */
+class AndroidMotionSensors implements MotionSensors, SensorEventListener {
+    // Heading five times a second is plenty at walking pace
+    private static final int HEADING_PERIOD_US = 200_000;
+    private static final double DEFAULT_HEADING_ACCURACY = 15;
+
+    private final SensorManager sensorManager;
+    // Some devices report five values and reject them in getRotationMatrixFromVector
+    private final float[] vector = new float[4];
+    private final float[] rotation = new float[9];
+    private final float[] orientation = new float[3];
+    private Listener listener;
+
+    AndroidMotionSensors(Context context) {
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+    }
+
+    @Override
+    public boolean start(Listener listener) {
+        if (sensorManager == null) {
+            return false;
+        }
+        Sensor steps = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR);
+        Sensor heading = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        if (steps == null || heading == null) {
+            return false;
+        }
+        this.listener = listener;
+        // Fails without the activity recognition permission
+        boolean started = sensorManager.registerListener(this, steps, SensorManager.SENSOR_DELAY_NORMAL)
+                && sensorManager.registerListener(this, heading, HEADING_PERIOD_US);
+        if (!started) {
+            stop();
+        }
+        return started;
+    }
+
+    @Override
+    public void stop() {
+        if (sensorManager != null) {
+            sensorManager.unregisterListener(this);
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        Listener listener = this.listener;
+        if (listener == null) {
+            return;
+        }
+        long timeMs = System.currentTimeMillis()
+                - (SystemClock.elapsedRealtimeNanos() - event.timestamp) / 1_000_000;
+        if (event.sensor.getType() == Sensor.TYPE_STEP_DETECTOR) {
+            listener.onStep(timeMs);
+            return;
+        }
+        System.arraycopy(event.values, 0, vector, 0, vector.length);
+        SensorManager.getRotationMatrixFromVector(rotation, vector);
+        SensorManager.getOrientation(rotation, orientation);
+        double degrees = Math.toDegrees(orientation[0]);
+        // values[4], where present, is the estimated heading accuracy in radians
+        double accuracy = event.values.length > 4 && event.values[4] > 0
+                ? Math.toDegrees(event.values[4]) : DEFAULT_HEADING_ACCURACY;
+        listener.onHeading(timeMs, degrees < 0 ? degrees + 360 : degrees, accuracy);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.pandu_navigation.service;
+
+import android.annotation.SuppressLint;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.pandu_navigation.logic.GatedLocationSource;
+import com.example.pandu_navigation.logic.SamplingScheduler;
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.Priority;
+
+import java.util.Collections;
+
+/**
+ * {@link GatedLocationSource} over the fused provider. Requesting again with the
+ * same callback replaces the previous request, so a mode change never drops
+ * the stream. The gate drops requests outside activate() .. stop(). A
+ * one-off fix is handed to the same callback.
+ */
+class FusedLocationSource extends GatedLocationSource {
+    private static final String TAG = "FusedLocationSource";
+
+    private final FusedLocationProviderClient client;
+    private final LocationCallback callback;
+
+    FusedLocationSource(FusedLocationProviderClient client, LocationCallback callback) {
+        this.client = client;
+        this.callback = callback;
+    }
+
+    @SuppressLint("MissingPermission") // checked by PanduService before tracking starts
+    @Override
+    protected void onRequest(SamplingScheduler.Request request) {
+        LocationRequest locationRequest = new LocationRequest.Builder(priority(request.accuracy), request.intervalMs)
+                .setMinUpdateIntervalMillis(request.minIntervalMs)
+                .setMaxUpdateDelayMillis(request.maxDelayMs)
+                .setMinUpdateDistanceMeters(request.minDistanceMeters)
+                .build();
+        client.requestLocationUpdates(locationRequest, callback, Looper.getMainLooper());
+        Log.i(TAG, "Location request " + request);
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    protected void onRequestFix() {
+        // Delivered through the same callback, so it is processed like any other fix
+        client.getCurrentLocation(Priority.PRIORITY_HIGH_ACCURACY, null)
+                .addOnSuccessListener(location -> {
+                    if (location != null && isActive()) {
+                        callback.onLocationResult(LocationResult.create(Collections.singletonList(location)));
+                    }
+                });
+    }
+
+    @Override
+    protected void onStop() {
+        client.removeLocationUpdates(callback);
+    }
+
+    private static int priority(SamplingScheduler.Accuracy accuracy) {
+        switch (accuracy) {
+            case BALANCED:
+                return Priority.PRIORITY_BALANCED_POWER_ACCURACY;
+            case LOW_POWER:
+                return Priority.PRIORITY_LOW_POWER;
+            default:
+                return Priority.PRIORITY_HIGH_ACCURACY;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.pandu_navigation.service;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.example.pandu_navigation.data.AppDatabase;
+import com.example.pandu_navigation.data.BreadcrumbMaintenance;
+import com.example.pandu_navigation.data.DatabaseAccess;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs BreadcrumbMaintenance once a day, only while the device is idle and
+ * charging. When the system takes the constraints away mid-run, the run
+ * stops at its next checkpoint and the job is rescheduled; the work done so
+ * far is already committed. It runs on the shared writer queue, so live
+ * breadcrumb writes queue behind it rather than contending for the lock.
+ */
+public class MaintenanceJobService extends JobService {
+    private static final String TAG = "MaintenanceJob";
+    private static final int JOB_ID = 1001;
+    private static final long PERIOD_MS = 24L * 60 * 60 * 1000;
+
+    private final AtomicBoolean stop = new AtomicBoolean();
+
+    /** Schedules the daily job unless it is already pending; cheap enough to call on every service start. */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = ContextCompat.getSystemService(context, JobScheduler.class);
+        if (scheduler == null) {
+            return;
+        }
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MS)
+                .setPersisted(true) // RECEIVE_BOOT_COMPLETED
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(TAG, "Could not schedule breadcrumb maintenance");
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        stop.set(false);
+        DatabaseAccess.get().write("maintenance", () -> {
+            boolean reschedule = false;
+            try {
+                BreadcrumbMaintenance maintenance = new BreadcrumbMaintenance(
+                        AppDatabase.getDatabase(this), BreadcrumbMaintenance.DEFAULT_RETENTION_MS);
+                BreadcrumbMaintenance.Report report = maintenance.run(stop);
+                Log.i(TAG, "Breadcrumb maintenance: " + report);
+                reschedule = !report.finished;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Breadcrumb maintenance failed", e);
+            }
+            jobFinished(params, reschedule);
+        });
+        return true; // still running on the writer queue
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        stop.set(true);
+        return true; // retry; the next run resumes
+    }
+
+    @Override
+    public void onDestroy() {
+        stop.set(true);
+        super.onDestroy();
+    }
+}
@@ -6,54 +6,91 @@ import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.location.Location;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.IBinder;
-import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.example.pandu_navigation.data.AppDatabase;
 import com.example.pandu_navigation.data.AssetConfigLoader;
+import com.example.pandu_navigation.data.BreadcrumbDecimator;
 import com.example.pandu_navigation.data.BreadcrumbEntity;
+import com.example.pandu_navigation.data.BreadcrumbStore;
+import com.example.pandu_navigation.data.BreadcrumbWriter;
+import com.example.pandu_navigation.data.DatabaseAccess;
 import com.example.pandu_navigation.data.NavigationDao;
-import com.example.pandu_navigation.data.TrailEntity;
+import com.example.pandu_navigation.data.SpatialIndex;
+import com.example.pandu_navigation.data.TrailGeometryStore;
+import com.example.pandu_navigation.logic.DeadReckoning;
 import com.example.pandu_navigation.logic.DeviationEngine;
 import com.example.pandu_navigation.logic.KalmanFilter;
+import com.example.pandu_navigation.logic.MotionSensors;
+import com.example.pandu_navigation.logic.SamplingScheduler;
+import com.example.pandu_navigation.logic.TrailCursor;
+import com.example.pandu_navigation.logic.TrailWorkingSet;
+import com.example.pandu_navigation.logic.UpdateStream;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.location.Priority;
 import com.google.gson.Gson;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PanduService extends Service {
     private static final String TAG = "PanduService";
     private static final String CHANNEL_ID = "PanduNavigationChannel";
     private static final int NOTIFICATION_ID = 12345;
+    private static final long BATTERY_CHECK_MS = 60_000;
+    // Longest a heading waits for a step before it is handed over alone
+    private static final long HEADING_HANDOVER_MS = 1_000;
 
     // Logic Components
     private AppDatabase db;
+    private DatabaseAccess access;
     private NavigationDao dao;
+    private SpatialIndex spatialIndex;
     private KalmanFilter kalmanFilter;
     private DeviationEngine deviationEngine;
+    private TrailGeometryStore geometryStore;
     private AssetConfigLoader configLoader;
+    private BreadcrumbStore breadcrumbStore;
+    private BreadcrumbWriter breadcrumbWriter;
+    private final BreadcrumbDecimator breadcrumbDecimator = new BreadcrumbDecimator();
 
     // Location
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
-
+    private FusedLocationSource locationSource;
+    // Owned by bgExecutor, like the filter and the engine
+    private SamplingScheduler samplingScheduler;
+    private long lastBatteryCheckMs;
+    // Steps and heading between fixes; the sampler drops to rare fixes while it holds
+    private DeadReckoning deadReckoning;
+    private AndroidMotionSensors motionSensors;
+    private double lastAltitude;
+    // Refilled for every update; packed by the stream before publish returns
+    private final UpdateStream.Update update = new UpdateStream.Update();
+
+    // Fix processing; database work is handed to DatabaseAccess from here
     private ExecutorService bgExecutor;
+    // Trails and POIs the fixes are checked against; replaced, never modified, by loadWorkingSet
+    private volatile TrailWorkingSet workingSet = TrailWorkingSet.EMPTY;
+    private final AtomicBoolean workingSetLoading = new AtomicBoolean();
     private Gson gson;
 
     private boolean isTracking = false;
@@ -64,19 +101,30 @@ public class PanduService extends Service {
 
         // Init Components
         db = AppDatabase.getDatabase(this);
+        access = DatabaseAccess.get();
         dao = db.navigationDao();
-        kalmanFilter = new KalmanFilter(10); // Initial variance
+        spatialIndex = new SpatialIndex(dao);
+        kalmanFilter = new KalmanFilter();
+        deadReckoning = new DeadReckoning(kalmanFilter);
         deviationEngine = new DeviationEngine();
-        configLoader = new AssetConfigLoader(this, dao);
+        geometryStore = TrailGeometryStore.getInstance();
+        configLoader = new AssetConfigLoader(this, db);
+        breadcrumbStore = new BreadcrumbStore(db);
+        breadcrumbWriter = new BreadcrumbWriter(breadcrumbStore::append);
         bgExecutor = Executors.newSingleThreadExecutor();
         gson = new Gson();
 
         // Pre-seed if needed
         configLoader.loadInitialData();
+        // Rolls up finished sessions and expires old raw fixes while idle and charging
+        MaintenanceJobService.schedule(this);
 
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
 
         setupLocationCallback();
+        locationSource = new FusedLocationSource(fusedLocationClient, locationCallback);
+        samplingScheduler = new SamplingScheduler(locationSource);
+        motionSensors = new AndroidMotionSensors(this);
         createNotificationChannel();
     }
 
@@ -87,62 +135,170 @@ public class PanduService extends Service {
                 if (locationResult == null) {
                     return;
                 }
-                for (Location location : locationResult.getLocations()) {
-                    processLocation(location);
-                }
+                processLocations(locationResult.getLocations());
             }
         };
     }
 
-    private void processLocation(Location location) {
+    /**
+     * Sensor events arrive on the main thread and are handled with the fixes.
+     * Headings come five times a second but only count at a step or to
+     * notice a pause, so rather than a task each, the newest one goes over
+     * with the next step, or on its own once {@link #HEADING_HANDOVER_MS}
+     * passes without one; about a fifth of the tasks while walking.
+     */
+    private final MotionSensors.Listener motionListener = new MotionSensors.Listener() {
+        // Newest heading not yet handed over, main thread only
+        private long headingMs = -1;
+        private double headingDegrees;
+        private double headingAccuracy;
+        private long handedOverMs;
+
+        @Override
+        public void onStep(long timeMs) {
+            long receivedMs = System.currentTimeMillis();
+            long pendingMs = headingMs;
+            double degrees = headingDegrees, accuracyDegrees = headingAccuracy;
+            if (pendingMs >= 0) {
+                headingMs = -1;
+                handedOverMs = timeMs;
+            }
+            bgExecutor.execute(() -> {
+                if (pendingMs >= 0 && deadReckoning.onHeading(pendingMs, degrees, accuracyDegrees)) {
+                    publishEstimate(pendingMs, receivedMs);
+                }
+                if (deadReckoning.onStep(timeMs)) {
+                    publishEstimate(timeMs, receivedMs);
+                }
+            });
+        }
+
+        @Override
+        public void onHeading(long timeMs, double degrees, double accuracyDegrees) {
+            if (timeMs - handedOverMs < HEADING_HANDOVER_MS) {
+                headingMs = timeMs;
+                headingDegrees = degrees;
+                headingAccuracy = accuracyDegrees;
+                return;
+            }
+            headingMs = -1;
+            handedOverMs = timeMs;
+            long receivedMs = System.currentTimeMillis();
+            bgExecutor.execute(() -> {
+                if (deadReckoning.onHeading(timeMs, degrees, accuracyDegrees)) {
+                    publishEstimate(timeMs, receivedMs);
+                }
+            });
+        }
+    };
+
+    /**
+     * Processes one LocationResult delivery as a batch. With batching enabled
+     * (setMaxUpdateDelayMillis) a delivery holds several fixes; they are
+     * filtered in order and saved together, but the trail lookup, deviation
+     * check and Flutter update only run for the newest one.
+     */
+    private void processLocations(List<Location> locations) {
+        if (locations == null || locations.isEmpty()) {
+            return;
+        }
+        long receivedMs = System.currentTimeMillis();
         bgExecutor.execute(() -> {
-            // 1. Kalman Filter
-            kalmanFilter.process(
-                    location.getLatitude(),
-                    location.getLongitude(),
-                    location.getAccuracy(),
-                    location.getTime());
-
-            double kLat = kalmanFilter.getLat();
-            double kLng = kalmanFilter.getLng();
-
-            // 2. Save Breadcrumb
-            // Logic: Only save if moved explicit amount or time passed?
-            // For now save every point for Breadcrumb Trail (maybe throttle in real world)
-            dao.insertBreadcrumb(new BreadcrumbEntity(
-                    kLat, kLng,
-                    location.getAltitude(),
-                    location.getAccuracy(),
-                    location.getBearing(),
-                    location.getSpeed(),
-                    location.getTime()));
-
-            // 3. Deviation Check
-            // Query nearby trails (within ~200m padding = 0.002 deg approx)
-            double padding = 0.002;
-            List<TrailEntity> nearbyTrails = dao.getNearbyTrails(kLat, kLng, padding);
-
-            DeviationEngine.SafetyStatus status = deviationEngine.checkSafety(kLat, kLng, nearbyTrails);
-
-            if (status == DeviationEngine.SafetyStatus.DANGER) {
-                // Vibrate or similar?
-                Log.w(TAG, "DANGER: USER OFF TRAIL!");
+            // 1. Kalman Filter over the whole batch (oldest first), after the steps taken before each fix
+            List<BreadcrumbEntity> breadcrumbs = new ArrayList<>(locations.size());
+            for (Location location : locations) {
+                deadReckoning.onFix(
+                        location.getLatitude(),
+                        location.getLongitude(),
+                        location.getAccuracy(),
+                        location.getTime());
+
+                breadcrumbs.add(new BreadcrumbEntity(
+                        kalmanFilter.getLat(), kalmanFilter.getLng(),
+                        location.getAltitude(),
+                        location.getAccuracy(),
+                        location.getBearing(),
+                        location.getSpeed(),
+                        location.getTime()));
+            }
+
+            Location location = locations.get(locations.size() - 1);
+            lastAltitude = location.getAltitude();
+
+            // 2. Save Breadcrumbs
+            // Only fixes that change the path beyond the decimator's tolerance are kept;
+            // those are buffered and written in one transaction per BreadcrumbWriter batch,
+            // on the writer queue so a slow commit never holds up this thread
+            List<BreadcrumbEntity> kept = new ArrayList<>(breadcrumbs.size());
+            for (BreadcrumbEntity breadcrumb : breadcrumbs) {
+                breadcrumbDecimator.add(breadcrumb, kept);
+            }
+            if (!kept.isEmpty()) {
+                access.write("appendBreadcrumbs", () -> writeBreadcrumbs(kept, false));
             }
 
-            // 4. Stream to Flutter
-            Intent intent = new Intent("PanduNavigationUpdate");
-            intent.putExtra("lat", kLat);
-            intent.putExtra("lng", kLng);
-            intent.putExtra("status", status.name());
-            intent.putExtra("altitude", location.getAltitude());
-            intent.putExtra("accuracy", location.getAccuracy());
-            intent.putExtra("bearing", location.getBearing());
-            intent.putExtra("speed", location.getSpeed());
-            intent.putExtra("distance", deviationEngine.getLastDeviationDistance()); // Add distance to trail
-            LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+            // 3-5. Deviation check, sampling and Flutter update (newest fix only)
+            publish(location.getTime(), receivedMs, location.getAccuracy(), location.getBearing(),
+                    location.getSpeed(), false);
         });
     }
 
+    /** A step window moved the filter: check and stream the dead-reckoned position like a fix. */
+    private void publishEstimate(long timeMs, long receivedMs) {
+        publish(timeMs, receivedMs, (float) deadReckoning.getErrorSigma(), (float) kalmanFilter.getBearing(),
+                (float) kalmanFilter.getSpeed(), true);
+    }
+
+    /** Runs on bgExecutor after the filter has taken a fix or a step window. */
+    private void publish(long timeMs, long receivedMs, float accuracy, float bearing, float speed,
+            boolean deadReckoned) {
+        double kLat = kalmanFilter.getLat();
+        double kLng = kalmanFilter.getLng();
+        // 3. Deviation Check
+        // Against the in-memory working set; no database reads per fix. Leaving its
+        // bounds or a reseed starts loading the next one, and this fix and those
+        // after it use the current set until it is ready. Until the first set is
+        // in, the status stays as it was rather than reading as off trail.
+        TrailWorkingSet set = workingSet;
+        if (!set.covers(kLat, kLng) || !set.isCurrent(geometryStore)) {
+            loadWorkingSet(kLat, kLng);
+        }
+        DeviationEngine.SafetyStatus status = deviationEngine.checkSafety(kLat, kLng, set);
+
+        if (status == DeviationEngine.SafetyStatus.DANGER) {
+            // Vibrate or similar?
+            Log.w(TAG, "DANGER: USER OFF TRAIL!");
+        }
+
+        // 4. Adapt interval, priority and batching to what this fix says; while the steps
+        // carry the estimate fixes only bound its error, and one is asked for when it grows
+        checkBattery(timeMs);
+        samplingScheduler.setDeadReckoning(deadReckoning.isActive(timeMs));
+        samplingScheduler.update(timeMs, kLat, kLng, kalmanFilter.getSpeed(),
+                deviationEngine.getLastDeviationDistance(), status);
+        if (deadReckoning.shouldRequestFix(timeMs)) {
+            locationSource.requestFix();
+        }
+
+        // 5. Stream newest state to Flutter, packed here and batched on the main thread
+        update.timeMs = timeMs;
+        update.receivedMs = receivedMs;
+        update.lat = kLat;
+        update.lng = kLng;
+        update.altitude = lastAltitude;
+        update.accuracy = accuracy;
+        update.bearing = bearing;
+        update.speed = speed;
+        update.distance = deviationEngine.getLastDeviationDistance();
+        update.status = status;
+        update.deadReckoned = deadReckoned;
+        TrailCursor cursor = deviationEngine.getCursor();
+        update.trailId = cursor.hasMatch() ? cursor.getTrailId() : null;
+        update.segmentIndex = cursor.hasMatch() ? cursor.getSegmentIndex() : -1;
+        update.alongTrack = cursor.hasMatch() ? cursor.getAlongTrack() : 0;
+        UpdateStream.get().publish(update);
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         String action = intent != null ? intent.getAction() : null;
@@ -159,7 +315,7 @@ public class PanduService extends Service {
         return START_STICKY; // Unkillable
     }
 
-    private String activeTrailId;
+    private volatile String activeTrailId;
 
     private void startTracking(String trailId) {
         this.activeTrailId = trailId;
@@ -172,11 +328,24 @@ public class PanduService extends Service {
             return;
         }
 
-        LocationRequest locationRequest = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, 2000)
-                .setMinUpdateIntervalMillis(1000)
-                .build();
-
-        fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
+        // Before the task below: the scheduler's first request is dropped while inactive
+        locationSource.activate();
+        // Queued ahead of the first delivery, so every fix lands in the new session
+        bgExecutor.execute(() -> {
+            kalmanFilter.reset();
+            deadReckoning.reset();
+            breadcrumbDecimator.reset();
+            access.write("startSession", () -> breadcrumbStore.startSession(trailId));
+            // Walking pace until the first fixes say otherwise; the scheduler
+            // re-requests from here on as the hiker rests, climbs or strays
+            lastBatteryCheckMs = 0;
+            samplingScheduler.start();
+        });
+        // The selected trail's mountain is in memory before the first fix arrives
+        loadWorkingSet(Double.NaN, Double.NaN);
+        if (!motionSensors.start(motionListener)) {
+            Log.i(TAG, "No step or heading sensor; fixes only");
+        }
         isTracking = true;
         Log.d(TAG, "Tracking Started");
     }
@@ -184,7 +353,10 @@ public class PanduService extends Service {
     private void stopTracking() {
         if (!isTracking)
             return;
-        fusedLocationClient.removeLocationUpdates(locationCallback);
+        locationSource.stop();
+        motionSensors.stop();
+        flushBreadcrumbs();
+        endSession();
         isTracking = false;
         stopForeground(true);
         stopSelf();
@@ -214,6 +386,132 @@ public class PanduService extends Service {
         }
     }
 
+    /**
+     * Loads the working set for the active trail's mountain and every mountain
+     * with a trail within the set margin of the point (NaN: no fix yet) on a
+     * database reader. At most one load runs at a time; fixes arriving
+     * meanwhile keep using the previous set.
+     */
+    private void loadWorkingSet(double lat, double lng) {
+        if (!workingSetLoading.compareAndSet(false, true)) {
+            return;
+        }
+        access.read("loadWorkingSet", () -> {
+            try {
+                double margin = TrailWorkingSet.DEFAULT_MARGIN_DEGREES;
+                Set<String> mountainIds = new LinkedHashSet<>();
+                String trailId = activeTrailId;
+                if (trailId != null) {
+                    String mountainId = dao.getMountainIdOfTrail(trailId);
+                    if (mountainId != null) {
+                        mountainIds.add(mountainId);
+                    }
+                }
+                if (!Double.isNaN(lat)) {
+                    mountainIds.addAll(spatialIndex.getNearbyMountainIds(lat, lng, margin));
+                }
+                TrailWorkingSet set = TrailWorkingSet.load(dao, geometryStore, new ArrayList<>(mountainIds),
+                        lat, lng, margin);
+                workingSet = set;
+                Log.i(TAG, "Working set " + set);
+                return set;
+            } finally {
+                workingSetLoading.set(false);
+            }
+        });
+    }
+
+    /** Feeds the battery level to the scheduler at most every BATTERY_CHECK_MS of fix time. */
+    private void checkBattery(long timeMs) {
+        if (timeMs - lastBatteryCheckMs < BATTERY_CHECK_MS) {
+            return;
+        }
+        lastBatteryCheckMs = timeMs;
+        // Sticky broadcast: no receiver is registered
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0) {
+            return;
+        }
+        boolean charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        samplingScheduler.setBattery(level * 100 / scale, charging);
+    }
+
+    /** Queues a flush behind any pending fix processing and, from there, behind pending writes. */
+    private void flushBreadcrumbs() {
+        bgExecutor.execute(() -> {
+            // The newest held-back fix ends the recorded path
+            List<BreadcrumbEntity> last = new ArrayList<>(1);
+            breadcrumbDecimator.finish(last);
+            access.write("flushBreadcrumbs", () -> {
+                writeBreadcrumbs(last, true);
+                logStats();
+            });
+        });
+    }
+
+    /**
+     * A failed write (disk full, database locked) must not take tracking down,
+     * and nothing reads the write's future: log it here. The writer keeps the
+     * batch and the next due flush retries. Runs on the writer.
+     */
+    private void writeBreadcrumbs(List<BreadcrumbEntity> breadcrumbs, boolean flush) {
+        try {
+            breadcrumbWriter.add(breadcrumbs);
+            if (flush) {
+                breadcrumbWriter.flush();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Breadcrumb write failed; " + breadcrumbWriter.getQueueDepth() + " queued for retry", e);
+        }
+    }
+
+    /** Same ordering as flushBreadcrumbs, so the session closes after its last fixes are stored. */
+    private void endSession() {
+        bgExecutor.execute(() -> access.write("endSession", breadcrumbStore::endSession));
+    }
+
+    private void logStats() {
+        Log.d(TAG, String.format(Locale.US,
+                "Breadcrumbs: %d of %d fixes kept (%d dropped); %d written in %d flushes "
+                        + "(avg %.1f ms, max %.1f ms), %d queued",
+                breadcrumbDecimator.getKeptCount(), breadcrumbDecimator.getSeenCount(),
+                breadcrumbDecimator.getDroppedCount(),
+                breadcrumbWriter.getWrittenCount(), breadcrumbWriter.getFlushCount(),
+                breadcrumbWriter.getAverageFlushNanos() / 1e6, breadcrumbWriter.getMaxFlushNanos() / 1e6,
+                breadcrumbWriter.getQueueDepth()));
+        UpdateStream updates = UpdateStream.get();
+        Log.d(TAG, "Updates (" + updates.getContract() + "): " + updates.getStats());
+        for (DatabaseAccess.Stats stats : access.getStats()) {
+            Log.d(TAG, "Database " + stats);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // The process may be killed next; don't keep track only in memory
+        flushBreadcrumbs();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (isTracking) {
+            locationSource.stop();
+            motionSensors.stop();
+            isTracking = false;
+        }
+        flushBreadcrumbs();
+        endSession();
+        // Already-queued work, including the flush, still runs after shutdown()
+        bgExecutor.shutdown();
+        super.onDestroy();
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
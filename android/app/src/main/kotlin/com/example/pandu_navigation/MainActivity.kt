@@ -1,36 +1,48 @@
 package com.example.pandu_navigation
 
-import android.content.BroadcastReceiver
-import android.content.Context
 import android.content.Intent
-import android.content.IntentFilter
+import android.os.Handler
+import android.os.Looper
 import io.flutter.embedding.android.FlutterActivity
 import io.flutter.embedding.engine.FlutterEngine
 import io.flutter.plugin.common.MethodChannel
 import io.flutter.plugin.common.EventChannel
-import androidx.localbroadcastmanager.content.LocalBroadcastManager
 import com.example.pandu_navigation.service.PanduService
 import com.example.pandu_navigation.data.AppDatabase
 import com.example.pandu_navigation.data.AssetConfigLoader
-import com.google.gson.Gson
-import java.util.concurrent.Executors
+import com.example.pandu_navigation.data.DatabaseAccess
+import com.example.pandu_navigation.data.TrailGeometryStore
+import com.example.pandu_navigation.logic.RoutingEngine
+import com.example.pandu_navigation.logic.RoutingGraph
+import com.example.pandu_navigation.logic.UpdateStream
 
 class MainActivity: FlutterActivity() {
     private val COMMAND_CHANNEL = "com.pandu.nav/commands"
     private val UPDATE_CHANNEL = "com.pandu.nav/updates"
 
-    private var eventSink: EventChannel.EventSink? = null
+    private var updateSink: UpdateStream.Sink? = null
+    private val mainHandler = Handler(Looper.getMainLooper())
 
     override fun configureFlutterEngine(flutterEngine: FlutterEngine) {
         super.configureFlutterEngine(flutterEngine)
         
-        // Trigger initial data seed
+        val commands = MethodChannel(flutterEngine.dartExecutor.binaryMessenger, COMMAND_CHANNEL)
+
+        // Trigger initial data seed; geometry Dart cached before it finished may be stale
         val db = AppDatabase.getDatabase(applicationContext)
-        val loader = AssetConfigLoader(applicationContext, db.navigationDao())
-        loader.loadInitialData()
+        val loader = AssetConfigLoader(applicationContext, db)
+        loader.loadInitialData(object : AssetConfigLoader.ProgressListener {
+            override fun onProgress(parsedFiles: Int, totalFiles: Int) {}
+
+            override fun onComplete(success: Boolean, elapsedMs: Long) {
+                if (success) {
+                    mainHandler.post { commands.invokeMethod("trailDataChanged", null) }
+                }
+            }
+        })
 
         // 1. Command Channel
-        MethodChannel(flutterEngine.dartExecutor.binaryMessenger, COMMAND_CHANNEL).setMethodCallHandler { call, result ->
+        commands.setMethodCallHandler { call, result ->
             when (call.method) {
                 "startService" -> {
                     val trailId = call.argument<String>("trailId")
@@ -56,78 +68,126 @@ class MainActivity: FlutterActivity() {
                        result.error("INVALID", "No mountainId", null)
                     }
                 }
+                "getTrailGeometry" -> {
+                    val trailId = call.argument<String>("trailId")
+                    if (trailId != null) {
+                        getTrailGeometryBackground(trailId, result)
+                    } else {
+                        result.error("INVALID", "No trailId", null)
+                    }
+                }
+                "findRoute" -> {
+                    val mountainId = call.argument<String>("mountainId")
+                    val startLat = call.argument<Double>("startLat")
+                    val startLng = call.argument<Double>("startLng")
+                    val endLat = call.argument<Double>("endLat")
+                    val endLng = call.argument<Double>("endLng")
+                    if (mountainId != null && startLat != null && startLng != null && endLat != null && endLng != null) {
+                        findRouteBackground(mountainId, startLat, startLng, endLat, endLng, result)
+                    } else {
+                        result.error("INVALID", "findRoute needs mountainId and start/end lat/lng", null)
+                    }
+                }
                 else -> result.notImplemented()
             }
         }
 
-        // 2. Event Channel
+        // 2. Event Channel: packed update batches straight from the service (see UpdateStream).
+        // The listen arguments are the subscriber's contract; Dart listens again to change it.
         EventChannel(flutterEngine.dartExecutor.binaryMessenger, UPDATE_CHANNEL).setStreamHandler(
             object : EventChannel.StreamHandler {
                 override fun onListen(arguments: Any?, events: EventChannel.EventSink?) {
-                    eventSink = events
-                    registerReceiver()
+                    val sink = events ?: return
+                    val updates = UpdateStream.Sink { batch -> sink.success(batch) }
+                    updateSink = updates
+                    UpdateStream.get().subscribe(updates, UpdateStream.Contract.of(arguments),
+                        object : UpdateStream.Scheduler {
+                            override fun schedule(task: Runnable, delayMs: Long) {
+                                mainHandler.postDelayed(task, delayMs)
+                            }
+
+                            override fun cancel(task: Runnable) {
+                                mainHandler.removeCallbacks(task)
+                            }
+                        })
                 }
 
                 override fun onCancel(arguments: Any?) {
-                    unregisterReceiver()
-                    eventSink = null
+                    updateSink?.let { UpdateStream.get().unsubscribe(it) }
+                    updateSink = null
                 }
             }
         )
     }
 
+    override fun onDestroy() {
+        // The service outlives the activity; stop handing it batches for a dead engine
+        updateSink?.let { UpdateStream.get().unsubscribe(it) }
+        updateSink = null
+        super.onDestroy()
+    }
+
+    // Summaries only: the list costs the same however long the trails are
     private fun getTrailsBackground(mountainId: String, result: MethodChannel.Result) {
-        val executor = Executors.newSingleThreadExecutor()
-        executor.execute {
+        DatabaseAccess.get().read("getTrails") {
             try {
                 val db = AppDatabase.getDatabase(applicationContext)
-                val trails = db.navigationDao().getTrailsByMountain(mountainId)
-                
-                val gson = Gson()
-                val jsonStr = gson.toJson(trails)
-                
-                runOnUiThread {
-                    result.success(jsonStr) 
+                val payload = db.navigationDao().getTrailSummariesByMountain(mountainId).map { trail ->
+                    mapOf(
+                        "id" to trail.id,
+                        "mountainId" to trail.mountainId,
+                        "name" to trail.name,
+                        "difficulty" to trail.difficulty,
+                        "distance" to trail.distance,
+                        "elevationGain" to trail.elevationGain,
+                        "minLat" to trail.minLat,
+                        "maxLat" to trail.maxLat,
+                        "minLng" to trail.minLng,
+                        "maxLng" to trail.maxLng
+                    )
                 }
+                runOnUiThread { result.success(payload) }
             } catch (e: Exception) {
                 runOnUiThread { result.error("DB_ERROR", e.message, null) }
             }
         }
     }
 
-    private val receiver = object : BroadcastReceiver() {
-        override fun onReceive(context: Context, intent: Intent) {
-            val lat = intent.getDoubleExtra("lat", 0.0)
-            val lng = intent.getDoubleExtra("lng", 0.0)
-            val status = intent.getStringExtra("status") ?: "SAFE"
-            val altitude = intent.getDoubleExtra("altitude", 0.0)
-            val accuracy = intent.getDoubleExtra("accuracy", 0.0)
-            val bearing = intent.getDoubleExtra("bearing", 0.0)
-            val speed = intent.getDoubleExtra("speed", 0.0)
-            val distance = intent.getDoubleExtra("distance", 0.0)
-            
-            val payload = mapOf(
-                "lat" to lat,
-                "lng" to lng,
-                "status" to status,
-                "altitude" to altitude,
-                "accuracy" to accuracy,
-                "bearing" to bearing,
-                "speed" to speed,
-                "distance" to distance
-            )
-            eventSink?.success(payload)
+    // One trail's points as a DoubleArray (lat, lng, ele per vertex); the codec
+    // sends it as a Float64List. Decoded once per trail by TrailGeometryStore.
+    private fun getTrailGeometryBackground(trailId: String, result: MethodChannel.Result) {
+        DatabaseAccess.get().read("getTrailGeometry") {
+            try {
+                val db = AppDatabase.getDatabase(applicationContext)
+                val trail = db.navigationDao().getTrail(trailId)
+                if (trail == null) {
+                    runOnUiThread { result.error("NOT_FOUND", "No trail $trailId", null) }
+                } else {
+                    val points = TrailGeometryStore.getInstance().get(trail).toPoints()
+                    runOnUiThread { result.success(points) }
+                }
+            } catch (e: Exception) {
+                runOnUiThread { result.error("DB_ERROR", e.message, null) }
+            }
         }
     }
 
-    private fun registerReceiver() {
-        LocalBroadcastManager.getInstance(this).registerReceiver(
-            receiver,
-            IntentFilter("PanduNavigationUpdate")
-        )
-    }
-
-    private fun unregisterReceiver() {
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(receiver)
+    // Route as lat, lng per node (Float64List in Dart), or null. The graph is
+    // built once per mountain and rebuilt when the trail geometry changes.
+    private fun findRouteBackground(mountainId: String, startLat: Double, startLng: Double,
+            endLat: Double, endLng: Double, result: MethodChannel.Result) {
+        DatabaseAccess.get().read("findRoute") {
+            try {
+                val store = TrailGeometryStore.getInstance()
+                val route = RoutingEngine.get().findRoute(mountainId, store.version, {
+                    val db = AppDatabase.getDatabase(applicationContext)
+                    val trails = db.navigationDao().getTrailsByMountain(mountainId)
+                    RoutingGraph.build(trails.map { store.get(it) }, trails.map { it.difficulty }.toIntArray())
+                }, startLat, startLng, endLat, endLng)
+                runOnUiThread { result.success(route) }
+            } catch (e: Exception) {
+                runOnUiThread { result.error("DB_ERROR", e.message, null) }
+            }
+        }
     }
 }
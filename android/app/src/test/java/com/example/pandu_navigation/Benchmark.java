@@ -0,0 +1,31 @@
+package com.example.pandu_navigation;
+
+import org.junit.Assume;
+
+import java.util.Locale;
+
+/**
+ * Opt-in side of the benchmark tests. A plain test run keeps only their
+ * deterministic checks (sizes, allocations, counts, query plans); wall-clock
+ * measurements run and print with {@code ./gradlew test -Pbenchmark}, which
+ * sets -Dbenchmark=true. Nothing asserts on timings either way.
+ */
+public final class Benchmark {
+
+    public static final boolean ENABLED = Boolean.getBoolean("benchmark");
+
+    private Benchmark() {
+    }
+
+    /** Skips the calling test unless benchmarks were asked for; for tests that only measure. */
+    public static void assumeEnabled() {
+        Assume.assumeTrue("timing only; run with -Pbenchmark", ENABLED);
+    }
+
+    /** Prints one "Benchmark: " line when benchmarks were asked for. */
+    public static void report(String format, Object... args) {
+        if (ENABLED) {
+            System.out.println("Benchmark: " + String.format(Locale.US, format, args));
+        }
+    }
+}
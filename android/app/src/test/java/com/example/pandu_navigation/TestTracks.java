@@ -0,0 +1,86 @@
+package com.example.pandu_navigation;
+
+import com.example.pandu_navigation.data.GeometryCodec;
+import com.example.pandu_navigation.data.TrailEntity;
+import com.example.pandu_navigation.data.TrailGeometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the bundled Merbabu GPX tracks for JVM tests and benchmarks.
+ * Unit tests run from android/app, so the Flutter assets live two levels up.
+ */
+public final class TestTracks {
+
+    public static final String[] MERBABU = {
+            "Cuntel", "Gancik", "Grenden", "Selo", "Suwanting", "Thekelan", "Wekas"
+    };
+
+    private static final Pattern TRKPT = Pattern.compile(
+            "<trkpt lat=\"([-0-9.]+)\" lon=\"([-0-9.]+)\">\\s*(?:<ele>([-0-9.]+)</ele>)?");
+
+    private TestTracks() {
+    }
+
+    public static File gpxFile(String name) {
+        File file = new File("../../assets/gpx/merbabu/" + name + ".gpx");
+        if (!file.exists()) {
+            file = new File("assets/gpx/merbabu/" + name + ".gpx");
+        }
+        return file;
+    }
+
+    /** Returns the track as {lat[], lng[], ele[]}. */
+    public static double[][] load(String name) {
+        String xml;
+        try {
+            xml = new String(Files.readAllBytes(gpxFile(name).toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Missing test track " + name, e);
+        }
+        List<double[]> points = new ArrayList<>();
+        Matcher m = TRKPT.matcher(xml);
+        while (m.find()) {
+            points.add(new double[] {
+                    Double.parseDouble(m.group(1)),
+                    Double.parseDouble(m.group(2)),
+                    m.group(3) != null ? Double.parseDouble(m.group(3)) : 0 });
+        }
+        double[][] track = new double[3][points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            track[0][i] = points.get(i)[0];
+            track[1][i] = points.get(i)[1];
+            track[2][i] = points.get(i)[2];
+        }
+        return track;
+    }
+
+    /** Geometry in the legacy geometryJson shape: [[lng, lat, ele], ...]. */
+    public static String json(String name) {
+        double[][] track = load(name);
+        return new TrailGeometry(track[0], track[1], track[2], track[0].length).toJson();
+    }
+
+    /** Builds a trail row the same way AssetConfigLoader does. */
+    public static TrailEntity trail(String name) {
+        double[][] track = load(name);
+        double minLat = 90, maxLat = -90, minLng = 180, maxLng = -180;
+        for (int i = 0; i < track[0].length; i++) {
+            minLat = Math.min(minLat, track[0][i]);
+            maxLat = Math.max(maxLat, track[0][i]);
+            minLng = Math.min(minLng, track[1][i]);
+            maxLng = Math.max(maxLng, track[1][i]);
+        }
+        byte[] geometry = GeometryCodec.encode(track[0], track[1], track[2], track[0].length);
+        String id = "merbabu_" + name.toLowerCase(Locale.ROOT);
+        return new TrailEntity(id, "merbabu", name, geometry, 3, 0, 0, minLat, maxLat, minLng, maxLng);
+    }
+}
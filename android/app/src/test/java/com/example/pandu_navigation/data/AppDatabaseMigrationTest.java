@@ -0,0 +1,126 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Runs the migration SQL on the oldest SQLite the tests can get, not the
+ * current one the other tests use: Android before 14 ships SQLite older
+ * than 3.39, which rejects syntax the newer library accepts. The legacy
+ * driver (legacySqlite in build.gradle.kts) gets its own class loader.
+ */
+public class AppDatabaseMigrationTest {
+
+    private static Driver legacy;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void loadLegacyDriver() throws Exception {
+        String classpath = System.getProperty("legacySqlite.classpath");
+        assertNotNull("legacySqlite.classpath not set; run through Gradle", classpath);
+        String[] jars = classpath.split(File.pathSeparator);
+        URL[] urls = new URL[jars.length];
+        for (int i = 0; i < jars.length; i++) {
+            urls[i] = new File(jars[i]).toURI().toURL();
+        }
+        ClassLoader loader = new URLClassLoader(urls, ClassLoader.getPlatformClassLoader());
+        legacy = (Driver) Class.forName("org.sqlite.JDBC", true, loader).getDeclaredConstructor().newInstance();
+    }
+
+    private Connection openV6() throws Exception {
+        File file = tmp.newFile();
+        Connection db = legacy.connect("jdbc:sqlite:" + file.getAbsolutePath(), new Properties());
+        try (Statement statement = db.createStatement()) {
+            try (ResultSet version = statement.executeQuery("SELECT sqlite_version()")) {
+                version.next();
+                String[] parts = version.getString(1).split("\\.");
+                assertTrue("not a pre-3.39 SQLite: " + version.getString(1),
+                        Integer.parseInt(parts[0]) == 3 && Integer.parseInt(parts[1]) < 39);
+            }
+            statement.execute("CREATE TABLE `breadcrumb_chunks` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, `count` INTEGER NOT NULL, "
+                    + "`minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, `minLng` REAL NOT NULL, "
+                    + "`maxLng` REAL NOT NULL, `data` BLOB, `isSynced` INTEGER NOT NULL)");
+            statement.execute("CREATE INDEX `index_breadcrumb_chunks_startTime` ON `breadcrumb_chunks` (`startTime`)");
+        }
+        return db;
+    }
+
+    private static void migrate(Connection db) throws SQLException {
+        try (Statement statement = db.createStatement()) {
+            for (String sql : AppDatabase.MIGRATION_6_7_SQL) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    @Test
+    public void sixToSevenBackfillsOneImportedSession() throws Exception {
+        try (Connection db = openV6(); Statement statement = db.createStatement()) {
+            statement.execute("INSERT INTO breadcrumb_chunks (startTime, endTime, count, minLat, maxLat, minLng, "
+                    + "maxLng, data, isSynced) VALUES (1000, 5000, 40, 0, 0, 0, 0, NULL, 0), "
+                    + "(6000, 9000, 25, 0, 0, 0, 0, NULL, 0)");
+
+            migrate(db);
+
+            try (ResultSet session = statement.executeQuery(
+                    "SELECT id, startTime, endTime, pointCount, lastTimestamp FROM sessions")) {
+                assertTrue(session.next());
+                assertEquals("imported", session.getString(1));
+                assertEquals(1000, session.getLong(2));
+                assertEquals(9000, session.getLong(3));
+                assertEquals(65, session.getInt(4));
+                assertEquals(9000, session.getLong(5));
+                assertFalse(session.next());
+            }
+            try (ResultSet unassigned = statement.executeQuery(
+                    "SELECT COUNT(*) FROM breadcrumb_chunks WHERE sessionId IS NOT 'imported'")) {
+                unassigned.next();
+                assertEquals(0, unassigned.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    public void sixToSevenWithoutHistoryAddsNoSession() throws Exception {
+        try (Connection db = openV6(); Statement statement = db.createStatement()) {
+            migrate(db);
+
+            try (ResultSet count = statement.executeQuery("SELECT COUNT(*) FROM sessions")) {
+                count.next();
+                assertEquals(0, count.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    public void legacySqliteRejectsHavingWithoutGroupBy() throws Exception {
+        // The form the backfill must not use: fine on 3.39+, a syntax error here
+        try (Connection db = openV6(); Statement statement = db.createStatement()) {
+            statement.executeQuery("SELECT COUNT(*) FROM breadcrumb_chunks HAVING COUNT(*) > 0").close();
+            fail("expected a syntax error before SQLite 3.39");
+        } catch (SQLException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("HAVING"));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class AssetSeedTest {
+
+    private static final String CONFIG = "{\"mountains\": ["
+            + "{\"id\": \"merbabu\", \"name\": \"Mt. Merbabu\", \"poi_file\": \"m/poi.gpx\", \"tracks\": ["
+            + "  {\"name\": \"Via Selo\", \"file\": \"m/Selo.gpx\"},"
+            + "  {\"name\": \"Via Wekas\", \"file\": \"m/Wekas.gpx\"}]},"
+            + "{\"id\": \"merapi\", \"name\": \"Mt. Merapi\", \"tracks\": ["
+            + "  {\"name\": \"Via Selo\", \"file\": \"p/Selo.gpx\"}]}]}";
+
+    private final Map<String, String> files = new HashMap<>();
+    // Mountains with rows in the database
+    private final Set<String> seeded = new HashSet<>();
+
+    public AssetSeedTest() {
+        files.put("m/poi.gpx", "a");
+        files.put("m/Selo.gpx", "b");
+        files.put("m/Wekas.gpx", "c");
+        files.put("p/Selo.gpx", "d");
+    }
+
+    private AssetSeed.SyncPlan plan(String config, List<AssetManifestEntity> stored) {
+        return AssetSeed.plan(AssetSeed.readConfig(new StringReader(config)), stored, seeded, files::get);
+    }
+
+    @Test
+    public void firstRunSeedsEverythingAndUnchangedAssetsSeedNothing() {
+        AssetSeed.SyncPlan first = plan(CONFIG, Collections.emptyList());
+        assertEquals(2, first.mountains.size());
+        assertEquals(3, first.tracks.size());
+        assertEquals(1, first.pois.size());
+        assertEquals(2 + 3 + 1, first.manifest.size());
+
+        AssetSeed.SyncPlan second = plan(CONFIG, new ArrayList<>(first.manifest.values()));
+        assertTrue(second.isEmpty());
+    }
+
+    @Test
+    public void changedTrackFileReparsesItsMountainsTracksToFindDroppedTrails() {
+        List<AssetManifestEntity> stored = new ArrayList<>(plan(CONFIG, Collections.emptyList()).manifest.values());
+        files.put("m/Wekas.gpx", "c2");
+
+        AssetSeed.SyncPlan plan = plan(CONFIG, stored);
+        assertTrue(plan.mountains.isEmpty());
+        assertTrue(plan.resetMountainIds.isEmpty());
+        assertEquals(2, plan.tracks.size());
+        for (AssetSeed.TrackJob job : plan.tracks) {
+            assertEquals("merbabu", job.mountainId);
+        }
+        assertEquals(Collections.singleton("merbabu"), plan.trailSetMountainIds);
+        assertTrue(plan.pois.isEmpty());
+        assertEquals("c2", plan.manifest.get("m/Wekas.gpx").hash);
+        assertEquals("b", plan.manifest.get("m/Selo.gpx").hash);
+    }
+
+    @Test
+    public void unreadableSiblingKeepsTheMountainsTrails() {
+        List<AssetManifestEntity> stored = new ArrayList<>(plan(CONFIG, Collections.emptyList()).manifest.values());
+        files.put("m/Wekas.gpx", "c2");
+        files.remove("m/Selo.gpx");
+
+        AssetSeed.SyncPlan plan = plan(CONFIG, stored);
+        assertEquals(1, plan.tracks.size());
+        assertEquals("m/Wekas.gpx", plan.tracks.get(0).track.file);
+        // Selo's trail can't be told apart from a dropped one
+        assertTrue(plan.trailSetMountainIds.isEmpty());
+    }
+
+    @Test
+    public void mountainsSeededBeforeTheManifestGoStaleToo() {
+        seeded.add("merbabu");
+        seeded.add("sindoro");
+
+        AssetSeed.SyncPlan first = plan(CONFIG, Collections.emptyList());
+        assertEquals(Collections.singleton("sindoro"), first.staleMountainIds);
+        // A whole reseed replaces every row, so there's nothing to prune by id
+        assertTrue(first.trailSetMountainIds.isEmpty());
+
+        seeded.remove("sindoro");
+        seeded.add("merapi");
+        assertTrue(plan(CONFIG, new ArrayList<>(first.manifest.values())).isEmpty());
+    }
+
+    @Test
+    public void changedConfigEntryReseedsTheWholeMountainAndRemovedOnesGoStale() {
+        List<AssetManifestEntity> stored = new ArrayList<>(plan(CONFIG, Collections.emptyList()).manifest.values());
+        String renamed = CONFIG.replace("\"Via Wekas\"", "\"Via Wekas Baru\"")
+                .replace(",{\"id\": \"merapi\", \"name\": \"Mt. Merapi\", \"tracks\": ["
+                        + "  {\"name\": \"Via Selo\", \"file\": \"p/Selo.gpx\"}]}", "");
+
+        AssetSeed.SyncPlan plan = plan(renamed, stored);
+        assertEquals(1, plan.mountains.size());
+        assertTrue(plan.resetMountainIds.contains("merbabu"));
+        assertEquals(2, plan.tracks.size());
+        assertEquals(1, plan.pois.size());
+        assertEquals(Collections.singleton("merapi"), plan.staleMountainIds);
+    }
+
+    @Test
+    public void unreadableFilesAreRetriedInsteadOfRecorded() {
+        files.remove("m/poi.gpx");
+        AssetSeed.SyncPlan first = plan(CONFIG, Collections.emptyList());
+        assertTrue(first.pois.isEmpty());
+        assertFalse(first.manifest.containsKey("m/poi.gpx"));
+
+        files.put("m/poi.gpx", "a");
+        AssetSeed.SyncPlan second = plan(CONFIG, new ArrayList<>(first.manifest.values()));
+        assertEquals(1, second.pois.size());
+        assertTrue(second.tracks.isEmpty());
+    }
+
+    @Test
+    public void configHashIsOverAFixedKeyOrder() {
+        List<AssetManifestEntity> stored = new ArrayList<>(plan(CONFIG, Collections.emptyList()).manifest.values());
+        String reordered = CONFIG.replace("{\"id\": \"merbabu\", \"name\": \"Mt. Merbabu\", \"poi_file\": \"m/poi.gpx\",",
+                "{\"poi_file\": \"m/poi.gpx\", \"name\": \"Mt. Merbabu\",   \"id\": \"merbabu\",");
+        assertTrue(plan(reordered, stored).isEmpty());
+
+        AssetSeed.MountainConfig merapi = AssetSeed.readConfig(new StringReader(CONFIG)).mountains.get(1);
+        assertEquals("{\"id\":\"merapi\",\"name\":\"Mt. Merapi\",\"region\":null,\"description\":null,"
+                + "\"lat\":0.0,\"lng\":0.0,\"altitude\":0.0,\"poi_file\":null,"
+                + "\"tracks\":[{\"name\":\"Via Selo\",\"file\":\"p/Selo.gpx\"}]}", AssetSeed.canonicalForm(merapi));
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.logic.GeoMath;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BreadcrumbDecimatorTest {
+
+    private static final double TOLERANCE = BreadcrumbDecimator.DEFAULT_TOLERANCE_METERS;
+    private static final double METERS_PER_DEG = 111_320;
+
+    private static BreadcrumbEntity fix(double lat, double lng, long time) {
+        return new BreadcrumbEntity(lat, lng, 0, 5, 0, 1, time);
+    }
+
+    private static List<BreadcrumbEntity> decimate(BreadcrumbDecimator decimator, List<BreadcrumbEntity> fixes) {
+        List<BreadcrumbEntity> kept = new ArrayList<>();
+        for (BreadcrumbEntity fix : fixes) {
+            decimator.add(fix, kept);
+        }
+        decimator.finish(kept);
+        return kept;
+    }
+
+    /**
+     * Every input fix must lie within the tolerance of the kept polyline
+     * segment covering its time.
+     */
+    private static double maxDeviation(List<BreadcrumbEntity> fixes, List<BreadcrumbEntity> kept) {
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        double max = 0;
+        int k = 0;
+        for (BreadcrumbEntity fix : fixes) {
+            while (k < kept.size() - 2 && kept.get(k + 1).timestamp <= fix.timestamp) {
+                k++;
+            }
+            BreadcrumbEntity a = kept.get(k);
+            BreadcrumbEntity b = kept.get(Math.min(k + 1, kept.size() - 1));
+            frame.reset(fix.lat, fix.lng);
+            max = Math.max(max, Math.sqrt(frame.distanceSqToSegment(a.lat, a.lng, b.lat, b.lng)));
+        }
+        return max;
+    }
+
+    @Test
+    public void straightWalkKeepsEndpointsAndTimeMarkers() {
+        List<BreadcrumbEntity> fixes = new ArrayList<>();
+        for (int s = 0; s <= 600; s++) {
+            fixes.add(fix(-7.45 + s / METERS_PER_DEG, 110.44, s * 1000L));
+        }
+        BreadcrumbDecimator decimator = new BreadcrumbDecimator();
+        List<BreadcrumbEntity> kept = decimate(decimator, fixes);
+
+        // Start, one per 2 min and the end
+        assertEquals(6, kept.size());
+        assertSame(fixes.get(0), kept.get(0));
+        assertSame(fixes.get(600), kept.get(5));
+        assertEquals(120_000, kept.get(1).timestamp);
+        assertEquals(601, decimator.getSeenCount());
+        assertEquals(601 - 6, decimator.getDroppedCount());
+    }
+
+    @Test
+    public void keepsCornersAndBothSidesOfASignalGap() {
+        List<BreadcrumbEntity> fixes = new ArrayList<>();
+        long t = 0;
+        for (int s = 0; s <= 30; s++) {
+            fixes.add(fix(-7.45 + s / METERS_PER_DEG, 110.44, t += 1000));
+        }
+        for (int s = 1; s <= 30; s++) {
+            fixes.add(fix(-7.45 + 30 / METERS_PER_DEG, 110.44 + s / METERS_PER_DEG, t += 1000));
+        }
+        t += 5 * 60_000; // tunnel of trees
+        fixes.add(fix(-7.45 + 30 / METERS_PER_DEG, 110.44 + 80 / METERS_PER_DEG, t));
+
+        List<BreadcrumbEntity> kept = decimate(new BreadcrumbDecimator(), fixes);
+        assertEquals(4, kept.size());
+        // The corner, give or take the fixes that cut it by less than the tolerance
+        int corner = fixes.indexOf(kept.get(1));
+        assertTrue(corner >= 30 && corner <= 33);
+        assertSame(fixes.get(60), kept.get(2)); // last fix before the gap
+        assertTrue(maxDeviation(fixes.subList(0, 61), kept.subList(0, 3)) <= TOLERANCE);
+    }
+
+    @Test
+    public void campingHourCollapsesToTimeMarkers() {
+        Random random = new Random(7);
+        List<BreadcrumbEntity> fixes = new ArrayList<>();
+        for (int s = 0; s < 3600; s++) {
+            // Filtered jitter well inside the tolerance
+            fixes.add(fix(-7.45 + random.nextGaussian() * 0.3 / METERS_PER_DEG,
+                    110.44 + random.nextGaussian() * 0.3 / METERS_PER_DEG, s * 1000L));
+        }
+        List<BreadcrumbEntity> kept = decimate(new BreadcrumbDecimator(), fixes);
+
+        assertTrue(kept.size() <= 3600 / 120 + 2);
+        assertTrue(maxDeviation(fixes, kept) <= TOLERANCE);
+    }
+
+    @Test
+    public void benchmarkMerbabuHikes() {
+        Random random = new Random(42);
+        long totalSeen = 0, totalKept = 0;
+        double worst = 0;
+        for (String name : TestTracks.MERBABU) {
+            double[][] track = TestTracks.load(name);
+            List<BreadcrumbEntity> fixes = walk(track, random);
+
+            BreadcrumbDecimator decimator = new BreadcrumbDecimator();
+            List<BreadcrumbEntity> kept = decimate(decimator, fixes);
+            double deviation = maxDeviation(fixes, kept);
+            worst = Math.max(worst, deviation);
+            totalSeen += decimator.getSeenCount();
+            totalKept += decimator.getKeptCount();
+            Benchmark.report("%-9s %6d fixes -> %5d kept (%.1f%%), max deviation %.2f m",
+                    name, fixes.size(), kept.size(), 100.0 * kept.size() / fixes.size(), deviation);
+        }
+        Benchmark.report("all tracks %d -> %d fixes (%.1fx fewer), tolerance %.1f m",
+                totalSeen, totalKept, (double) totalSeen / totalKept, TOLERANCE);
+
+        assertTrue(worst <= TOLERANCE + 1e-6);
+        assertTrue(totalKept * 5 < totalSeen);
+    }
+
+    /**
+     * Replays the track at 1 Hz and ~1 m/s with smooth position noise, as
+     * the Kalman filter hands it over, and a 20 min rest halfway.
+     */
+    private static List<BreadcrumbEntity> walk(double[][] track, Random random) {
+        List<BreadcrumbEntity> fixes = new ArrayList<>();
+        double noiseLat = 0, noiseLng = 0;
+        long time = 0;
+        int n = track[0].length;
+        for (int i = 1; i < n; i++) {
+            double lat0 = track[0][i - 1], lng0 = track[1][i - 1];
+            double meters = GeoMath.distanceMeters(lat0, lng0, track[0][i], track[1][i]);
+            int steps = Math.max(1, (int) Math.round(meters));
+            for (int s = 0; s < steps; s++) {
+                double f = (double) s / steps;
+                noiseLat = noiseLat * 0.9 + random.nextGaussian() * 0.1;
+                noiseLng = noiseLng * 0.9 + random.nextGaussian() * 0.1;
+                fixes.add(fix(lat0 + (track[0][i] - lat0) * f + noiseLat / METERS_PER_DEG,
+                        lng0 + (track[1][i] - lng0) * f + noiseLng / METERS_PER_DEG, time += 1000));
+                if (i == n / 2 && s == 0) {
+                    for (int r = 0; r < 20 * 60; r++) {
+                        fixes.add(fix(lat0 + random.nextGaussian() * 0.3 / METERS_PER_DEG,
+                                lng0 + random.nextGaussian() * 0.3 / METERS_PER_DEG, time += 1000));
+                    }
+                }
+            }
+        }
+        return fixes;
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.logic.GeoMath;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BreadcrumbMaintenanceTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long START = 1_700_000_000_000L;
+    private static final double METERS_PER_DEG = 111_320;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Replays a Merbabu track at 1 Hz and ~1 m/s with smooth position noise
+     * and 1.5 m altitude noise, and returns what the decimator keeps.
+     */
+    private static List<BreadcrumbEntity> hike(String name, long start, Random random) {
+        double[][] track = TestTracks.load(name);
+        BreadcrumbDecimator decimator = new BreadcrumbDecimator();
+        List<BreadcrumbEntity> kept = new ArrayList<>();
+        double noiseLat = 0, noiseLng = 0;
+        long time = start;
+        for (int i = 1; i < track[0].length; i++) {
+            double lat0 = track[0][i - 1], lng0 = track[1][i - 1], ele0 = track[2][i - 1];
+            double meters = GeoMath.distanceMeters(lat0, lng0, track[0][i], track[1][i]);
+            int steps = Math.max(1, (int) Math.round(meters));
+            for (int s = 0; s < steps; s++) {
+                double f = (double) s / steps;
+                noiseLat = noiseLat * 0.9 + random.nextGaussian() * 0.1;
+                noiseLng = noiseLng * 0.9 + random.nextGaussian() * 0.1;
+                decimator.add(new BreadcrumbEntity(
+                        lat0 + (track[0][i] - lat0) * f + noiseLat / METERS_PER_DEG,
+                        lng0 + (track[1][i] - lng0) * f + noiseLng / METERS_PER_DEG,
+                        ele0 + (track[2][i] - ele0) * f + random.nextGaussian() * 1.5,
+                        6, 0, 1, time += 1000), kept);
+            }
+        }
+        decimator.finish(kept);
+        return kept;
+    }
+
+    @Test
+    public void rollUpSimplifiesAndSummarizes() {
+        List<BreadcrumbEntity> fixes = hike("Selo", START, new Random(3));
+        BreadcrumbMaintenance.Rollup rollup = BreadcrumbMaintenance.rollUp(fixes);
+
+        double distance = 0;
+        for (int i = 1; i < fixes.size(); i++) {
+            BreadcrumbEntity a = fixes.get(i - 1), b = fixes.get(i);
+            distance += GeoMath.distanceMeters(a.lat, a.lng, b.lat, b.lng);
+        }
+        assertEquals(distance, rollup.distance, 1e-6);
+        // The altitude noise must not add climb the trail doesn't have
+        double[][] track = TestTracks.load("Selo");
+        double climb = 0, up = 0;
+        for (int i = 1; i < track[2].length; i++) {
+            climb = Math.max(climb, track[2][i] - track[2][0]);
+            up += Math.max(0, track[2][i] - track[2][i - 1]);
+        }
+        assertTrue(rollup.elevationGain >= climb && rollup.elevationGain <= up * 1.05);
+
+        TrailGeometry geometry = GeometryCodec.decode(rollup.geometry);
+        // Already decimated at 2 m and 2 min; the roll-up drops the time markers and tightens to 5 m
+        assertTrue(geometry.size > 1 && geometry.size * 4 < fixes.size() * 3);
+        assertEquals(fixes.get(0).lat, geometry.lat[0], 1e-7);
+        assertEquals(fixes.get(fixes.size() - 1).lng, geometry.lng[geometry.size - 1], 1e-7);
+
+        assertEquals(0, GeometryCodec.decode(BreadcrumbMaintenance.rollUp(new ArrayList<>()).geometry).size);
+    }
+
+    /**
+     * A year of weekly hikes up the Merbabu trails. One database keeps every raw chunk; the
+     * other runs the maintenance SQL (same statements as NavigationDao) after
+     * every hike with the default 30-day retention. The maintained file has
+     * to level off once retention kicks in.
+     */
+    @Test
+    public void benchmarkYearOfWeeklyHikes() throws SQLException {
+        Random random = new Random(11);
+        File keepAll = new File(tmp.getRoot(), "keep_all.db");
+        File maintained = new File(tmp.getRoot(), "maintained.db");
+        long[] maintainedSizes = new long[52];
+        long reclaimed = 0;
+        long maintenanceNanos = 0;
+        try (Connection all = open(keepAll); Connection kept = open(maintained)) {
+            for (int week = 0; week < 52; week++) {
+                long start = START + week * 7 * DAY;
+                List<BreadcrumbEntity> fixes = hike(TestTracks.MERBABU[week % TestTracks.MERBABU.length], start, random);
+                String sessionId = "s" + week;
+                record(all, sessionId, fixes);
+                record(kept, sessionId, fixes);
+
+                long now = start + DAY;
+                long t0 = System.nanoTime();
+                reclaimed += maintain(kept, now);
+                maintenanceNanos += System.nanoTime() - t0;
+                maintainedSizes[week] = size(kept);
+            }
+
+            long allSize = size(all);
+            double allPerWeek = allSize / 52.0;
+            double maintainedPerWeek = (maintainedSizes[51] - maintainedSizes[7]) / 44.0;
+            Benchmark.report("52 weekly hikes, keep all %d KB (%.1f KB/week); maintained %d KB "
+                    + "after 8 weeks, %d KB after 52 (%.1f KB/week of roll-ups), %d KB reclaimed, %.1f ms per run",
+                    allSize / 1024, allPerWeek / 1024, maintainedSizes[7] / 1024, maintainedSizes[51] / 1024,
+                    maintainedPerWeek / 1024, reclaimed / 1024, maintenanceNanos / 52 / 1e6);
+
+            // Past the retention window only the roll-ups accumulate
+            assertTrue(maintainedPerWeek * 3 < allPerWeek);
+            assertTrue(maintainedSizes[51] * 3 < allSize * 2);
+            // Every session keeps its roll-up; only the last five have raw fixes left
+            assertEquals(52, count(kept, "SELECT COUNT(*) FROM sessions WHERE compactedAt > 0 AND geometry IS NOT NULL"));
+            assertEquals(5, count(kept, "SELECT COUNT(DISTINCT sessionId) FROM breadcrumb_chunks"));
+        }
+    }
+
+    private static Connection open(File file) throws SQLException {
+        Connection db = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        try (Statement statement = db.createStatement()) {
+            statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("CREATE TABLE `breadcrumb_chunks` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`sessionId` TEXT, `startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, "
+                    + "`count` INTEGER NOT NULL, `minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, "
+                    + "`minLng` REAL NOT NULL, `maxLng` REAL NOT NULL, `data` BLOB, `isSynced` INTEGER NOT NULL)");
+            statement.execute("CREATE INDEX `index_breadcrumb_chunks_startTime` ON `breadcrumb_chunks` (`startTime`)");
+            statement.execute("CREATE INDEX `index_breadcrumb_chunks_sessionId_startTime` "
+                    + "ON `breadcrumb_chunks` (`sessionId`, `startTime`)");
+            statement.execute("CREATE TABLE `sessions` (`id` TEXT NOT NULL, `trailId` TEXT, "
+                    + "`startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, `pointCount` INTEGER NOT NULL, "
+                    + "`distanceMeters` REAL NOT NULL, `lastTimestamp` INTEGER NOT NULL, `elevationGain` REAL NOT NULL, "
+                    + "`geometry` BLOB, `compactedAt` INTEGER NOT NULL, PRIMARY KEY(`id`))");
+        }
+        return db;
+    }
+
+    private static void record(Connection db, String sessionId, List<BreadcrumbEntity> fixes) throws SQLException {
+        db.setAutoCommit(false);
+        BreadcrumbEntity last = fixes.get(fixes.size() - 1);
+        try (PreparedStatement insert = db.prepareStatement("INSERT INTO sessions (id, trailId, startTime, endTime, "
+                + "pointCount, distanceMeters, lastTimestamp, elevationGain, compactedAt) "
+                + "VALUES (?, NULL, ?, ?, ?, 0, ?, 0, 0)")) {
+            insert.setString(1, sessionId);
+            insert.setLong(2, fixes.get(0).timestamp);
+            insert.setLong(3, last.timestamp);
+            insert.setInt(4, fixes.size());
+            insert.setLong(5, last.timestamp);
+            insert.executeUpdate();
+        }
+        try (PreparedStatement insert = db.prepareStatement("INSERT INTO breadcrumb_chunks (sessionId, startTime, "
+                + "endTime, count, minLat, maxLat, minLng, maxLng, data, isSynced) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 0)")) {
+            for (BreadcrumbChunkEntity chunk : BreadcrumbStore.pack(sessionId, fixes)) {
+                insert.setString(1, chunk.sessionId);
+                insert.setLong(2, chunk.startTime);
+                insert.setLong(3, chunk.endTime);
+                insert.setInt(4, chunk.count);
+                insert.setDouble(5, chunk.minLat);
+                insert.setDouble(6, chunk.maxLat);
+                insert.setDouble(7, chunk.minLng);
+                insert.setDouble(8, chunk.maxLng);
+                insert.setBytes(9, chunk.data);
+                insert.executeUpdate();
+            }
+        }
+        db.commit();
+        db.setAutoCommit(true);
+    }
+
+    /** BreadcrumbMaintenance.run's steps, in the same units of work; returns bytes reclaimed. */
+    private static long maintain(Connection db, long now) throws SQLException {
+        long pagesBefore = count(db, "PRAGMA page_count");
+        List<String> ids = new ArrayList<>();
+        try (Statement statement = db.createStatement();
+                ResultSet rows = statement.executeQuery(
+                        "SELECT id FROM sessions WHERE endTime > 0 AND compactedAt = 0 ORDER BY startTime")) {
+            while (rows.next()) {
+                ids.add(rows.getString(1));
+            }
+        }
+        for (String id : ids) {
+            List<BreadcrumbChunkEntity> chunks = new ArrayList<>();
+            try (PreparedStatement select = db.prepareStatement(
+                    "SELECT startTime, endTime, count, data FROM breadcrumb_chunks WHERE sessionId = ? ORDER BY startTime")) {
+                select.setString(1, id);
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        chunks.add(new BreadcrumbChunkEntity(id, rows.getLong(1), rows.getLong(2), rows.getInt(3),
+                                0, 0, 0, 0, rows.getBytes(4)));
+                    }
+                }
+            }
+            BreadcrumbMaintenance.Rollup rollup = BreadcrumbMaintenance.rollUp(
+                    BreadcrumbStore.unpackBetween(chunks, Long.MIN_VALUE, Long.MAX_VALUE));
+            try (PreparedStatement update = db.prepareStatement("UPDATE sessions SET distanceMeters = ?, "
+                    + "elevationGain = ?, geometry = ?, compactedAt = ? WHERE id = ?")) {
+                update.setDouble(1, rollup.distance);
+                update.setDouble(2, rollup.elevationGain);
+                update.setBytes(3, rollup.geometry);
+                update.setLong(4, now);
+                update.setString(5, id);
+                update.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement delete = db.prepareStatement("DELETE FROM breadcrumb_chunks WHERE id IN "
+                + "(SELECT c.id FROM breadcrumb_chunks c JOIN sessions s ON s.id = c.sessionId "
+                + "WHERE s.compactedAt > 0 AND s.endTime < ? LIMIT ?)")) {
+            delete.setLong(1, now - BreadcrumbMaintenance.DEFAULT_RETENTION_MS);
+            delete.setInt(2, BreadcrumbMaintenance.DELETE_BATCH);
+            while (delete.executeUpdate() == BreadcrumbMaintenance.DELETE_BATCH) {
+                // next batch
+            }
+        }
+
+        try (Statement statement = db.createStatement()) {
+            while (count(db, "PRAGMA freelist_count") > 0) {
+                statement.execute("PRAGMA incremental_vacuum(" + BreadcrumbMaintenance.VACUUM_PAGES + ")");
+            }
+            statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        }
+        return (pagesBefore - count(db, "PRAGMA page_count")) * count(db, "PRAGMA page_size");
+    }
+
+    private static long size(Connection db) throws SQLException {
+        return count(db, "PRAGMA page_count") * count(db, "PRAGMA page_size");
+    }
+
+    private static long count(Connection db, String sql) throws SQLException {
+        try (Statement statement = db.createStatement(); ResultSet rows = statement.executeQuery(sql)) {
+            return rows.next() ? rows.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class BreadcrumbStoreTest {
+
+    // Three 10 h hiking days at 1 Hz
+    private static final int TREK_FIXES = 3 * 10 * 60 * 60;
+    private static final long START = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** A walk at ~1 m/s with GPS-like noise in every column and a few dropped fixes. */
+    private static List<BreadcrumbEntity> trek(int n) {
+        Random random = new Random(42);
+        List<BreadcrumbEntity> fixes = new ArrayList<>(n);
+        double lat = -7.45, lng = 110.44, alt = 1600, heading = 30;
+        long time = START;
+        for (int i = 0; i < n; i++) {
+            heading = (heading + random.nextGaussian() * 8 + 360) % 360;
+            lat += Math.cos(Math.toRadians(heading)) * 9e-6;
+            lng += Math.sin(Math.toRadians(heading)) * 9e-6;
+            alt += 0.15 + random.nextGaussian() * 0.3;
+            fixes.add(new BreadcrumbEntity(lat, lng, alt, 4 + random.nextDouble() * 8, heading,
+                    0.8 + random.nextDouble() * 0.5, time));
+            time += random.nextInt(20) == 0 ? 1000 + random.nextInt(5000) : 1000;
+        }
+        return fixes;
+    }
+
+    @Test
+    public void codecRoundTripsWithinFixedPointPrecision() {
+        List<BreadcrumbEntity> fixes = trek(500);
+        fixes.get(10).bearing = 359.96; // rounds to 360.0, i.e. 0
+        fixes.get(11).bearing = 0.1;
+        List<BreadcrumbEntity> decoded = BreadcrumbCodec.decode(BreadcrumbCodec.encode(fixes, 0, fixes.size()));
+
+        assertEquals(fixes.size(), decoded.size());
+        for (int i = 0; i < fixes.size(); i++) {
+            BreadcrumbEntity a = fixes.get(i);
+            BreadcrumbEntity b = decoded.get(i);
+            assertEquals(a.timestamp, b.timestamp);
+            assertEquals(a.lat, b.lat, 0.6e-7);
+            assertEquals(a.lng, b.lng, 0.6e-7);
+            assertEquals(a.altitude, b.altitude, 0.051);
+            assertEquals(a.accuracy, b.accuracy, 0.051);
+            assertEquals(0, Math.abs((a.bearing - b.bearing + 180) % 360 - 180), 0.051);
+            assertEquals(a.speed, b.speed, 0.0051);
+        }
+        assertEquals(0.0, decoded.get(10).bearing, 0.0);
+
+        byte[] blob = BreadcrumbCodec.encode(fixes, 0, 3);
+        assertTrue(BreadcrumbCodec.decode(Arrays.copyOf(blob, blob.length - 1)).isEmpty());
+        blob[0] = (byte) (BreadcrumbCodec.VERSION + 1);
+        assertTrue(BreadcrumbCodec.decode(blob).isEmpty());
+    }
+
+    @Test
+    public void packsFixedSizeChunksWithTimeAndBounds() {
+        List<BreadcrumbEntity> fixes = trek(BreadcrumbStore.CHUNK_SIZE * 2 + 5);
+        List<BreadcrumbChunkEntity> chunks = BreadcrumbStore.pack("s1", fixes);
+
+        assertEquals(3, chunks.size());
+        assertEquals(BreadcrumbStore.CHUNK_SIZE, chunks.get(0).count);
+        assertEquals(5, chunks.get(2).count);
+        BreadcrumbChunkEntity first = chunks.get(0);
+        assertEquals(fixes.get(0).timestamp, first.startTime);
+        assertEquals(fixes.get(BreadcrumbStore.CHUNK_SIZE - 1).timestamp, first.endTime);
+        for (BreadcrumbEntity fix : fixes.subList(0, BreadcrumbStore.CHUNK_SIZE)) {
+            assertTrue(fix.lat >= first.minLat && fix.lat <= first.maxLat);
+            assertTrue(fix.lng >= first.minLng && fix.lng <= first.maxLng);
+        }
+    }
+
+    @Test
+    public void rangeAndBoundsReadsReturnExactlyTheMatchingFixes() {
+        List<BreadcrumbEntity> fixes = trek(1000);
+        List<BreadcrumbChunkEntity> chunks = BreadcrumbStore.pack("s1", fixes);
+
+        // A window that starts and ends mid-chunk
+        long from = fixes.get(100).timestamp;
+        long to = fixes.get(300).timestamp;
+        List<BreadcrumbEntity> between = BreadcrumbStore.unpackBetween(chunks, from, to);
+        assertEquals(201, between.size());
+        assertEquals(from, between.get(0).timestamp);
+        assertEquals(to, between.get(200).timestamp);
+
+        BreadcrumbEntity center = fixes.get(500);
+        double minLat = center.lat - 1e-4, maxLat = center.lat + 1e-4;
+        double minLng = center.lng - 1e-4, maxLng = center.lng + 1e-4;
+        int expected = 0;
+        for (BreadcrumbEntity fix : fixes) {
+            if (fix.lat >= minLat && fix.lat <= maxLat && fix.lng >= minLng && fix.lng <= maxLng) {
+                expected++;
+            }
+        }
+        List<BreadcrumbChunkEntity> candidates = new ArrayList<>();
+        for (BreadcrumbChunkEntity chunk : chunks) {
+            if (chunk.minLat <= maxLat && chunk.maxLat >= minLat && chunk.minLng <= maxLng && chunk.maxLng >= minLng) {
+                candidates.add(chunk);
+            }
+        }
+        assertTrue(expected > 0);
+        assertEquals(expected, BreadcrumbStore.unpackInBounds(candidates, minLat, maxLat, minLng, maxLng).size());
+    }
+
+    @Test
+    public void benchmarkMultiDayTrek() throws Exception {
+        List<BreadcrumbEntity> fixes = trek(TREK_FIXES);
+        File file = tmp.newFile("trek.db");
+
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath())) {
+            try (Statement statement = db.createStatement()) {
+                // Schema 5 row table and schema 6 chunk table, side by side
+                statement.execute("CREATE TABLE `breadcrumbs` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                        + "`lat` REAL NOT NULL, `lng` REAL NOT NULL, `altitude` REAL NOT NULL, "
+                        + "`accuracy` REAL NOT NULL, `bearing` REAL NOT NULL, `speed` REAL NOT NULL, "
+                        + "`timestamp` INTEGER NOT NULL, `isSynced` INTEGER NOT NULL)");
+                statement.execute("CREATE TABLE `breadcrumb_chunks` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                        + "`startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, `count` INTEGER NOT NULL, "
+                        + "`minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, `minLng` REAL NOT NULL, "
+                        + "`maxLng` REAL NOT NULL, `data` BLOB, `isSynced` INTEGER NOT NULL)");
+                statement.execute("CREATE INDEX `index_breadcrumb_chunks_startTime` ON `breadcrumb_chunks` (`startTime`)");
+            }
+            db.setAutoCommit(false);
+            writeRows(db, fixes);
+            writeChunks(db, BreadcrumbStore.pack("s1", fixes));
+            db.commit();
+            db.setAutoCommit(true);
+
+            long rowBytes = tableBytes(db, "breadcrumbs");
+            long chunkBytes = tableBytes(db, "breadcrumb_chunks") + tableBytes(db, "index_breadcrumb_chunks_startTime");
+
+            long rowNanos = Long.MAX_VALUE, chunkNanos = Long.MAX_VALUE, windowNanos = Long.MAX_VALUE;
+            long hourFrom = fixes.get(fixes.size() / 2).timestamp;
+            for (int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                assertEquals(TREK_FIXES, readRows(db).size());
+                rowNanos = Math.min(rowNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                assertEquals(TREK_FIXES, readChunks(db, Long.MIN_VALUE, Long.MAX_VALUE).size());
+                chunkNanos = Math.min(chunkNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                assertTrue(readChunks(db, hourFrom, hourFrom + 3_600_000).size() > 3000);
+                windowNanos = Math.min(windowNanos, System.nanoTime() - start);
+            }
+
+            Benchmark.report("%,d fixes, rows %,d bytes (%.1f B/fix) vs chunks %,d bytes (%.1f B/fix): %.1fx",
+                    TREK_FIXES, rowBytes, (double) rowBytes / TREK_FIXES, chunkBytes,
+                    (double) chunkBytes / TREK_FIXES, (double) rowBytes / chunkBytes);
+            Benchmark.report("full-session read rows %.1f ms vs chunks %.1f ms (%.1fx); 1 h window %.2f ms",
+                    rowNanos / 1e6, chunkNanos / 1e6, (double) rowNanos / chunkNanos, windowNanos / 1e6);
+
+            // Timings are reported, not asserted: either read can win on a busy machine
+            assertTrue(rowBytes >= 5 * chunkBytes);
+        }
+    }
+
+    @Test
+    public void latestFixLookupDoesNotGrowWithHistory() throws Exception {
+        File file = tmp.newFile("sessions.db");
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath())) {
+            try (Statement statement = db.createStatement()) {
+                // gnav's row layout, with and without the (sessionId, timestamp) index
+                statement.execute("CREATE TABLE `breadcrumbs` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                        + "`timestamp` INTEGER NOT NULL, `lat` REAL NOT NULL, `lng` REAL NOT NULL, "
+                        + "`accuracy` REAL NOT NULL, `sessionId` TEXT NOT NULL, `isOffTrail` INTEGER NOT NULL)");
+                statement.execute("CREATE TABLE `breadcrumb_chunks` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                        + "`sessionId` TEXT, `startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, "
+                        + "`count` INTEGER NOT NULL, `minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, "
+                        + "`minLng` REAL NOT NULL, `maxLng` REAL NOT NULL, `data` BLOB, `isSynced` INTEGER NOT NULL)");
+                statement.execute("CREATE INDEX `index_breadcrumb_chunks_sessionId_startTime` "
+                        + "ON `breadcrumb_chunks` (`sessionId`, `startTime`)");
+            }
+            String unindexed = "SELECT * FROM breadcrumbs ORDER BY timestamp DESC LIMIT 1";
+            String indexed = "SELECT * FROM breadcrumbs WHERE sessionId = 's9' ORDER BY timestamp DESC LIMIT 1";
+            // NavigationDao.getBreadcrumbChunkAt(sessionId, Long.MAX_VALUE)
+            String chunked = "SELECT * FROM breadcrumb_chunks WHERE sessionId = 's9' AND startTime <= "
+                    + Long.MAX_VALUE + " ORDER BY startTime DESC LIMIT 1";
+
+            Benchmark.report("latest fix  | rows    | no index ms | index ms | chunk ms");
+            int stored = 0;
+            // The plans are what's checked; the large table only matters for the timings
+            for (int total : Benchmark.ENABLED ? new int[] { 10_000, 300_000 } : new int[] { 10_000 }) {
+                // Ten sessions interleaved, the newest one last
+                db.setAutoCommit(false);
+                try (PreparedStatement rows = db.prepareStatement("INSERT INTO breadcrumbs "
+                        + "(timestamp, lat, lng, accuracy, sessionId, isOffTrail) VALUES (?, ?, ?, 5, ?, 0)")) {
+                    for (int i = stored; i < total; i++) {
+                        rows.setLong(1, START + i * 1000L);
+                        rows.setDouble(2, -7.45 + i * 1e-6);
+                        rows.setDouble(3, 110.44);
+                        rows.setString(4, i >= total - total / 10 ? "s9" : "s" + (i % 9));
+                        rows.addBatch();
+                    }
+                    rows.executeBatch();
+                }
+                List<BreadcrumbEntity> fixes = trek(total - stored);
+                List<BreadcrumbChunkEntity> chunks = BreadcrumbStore.pack("s9", fixes);
+                try (PreparedStatement insert = db.prepareStatement("INSERT INTO breadcrumb_chunks (sessionId, "
+                        + "startTime, endTime, count, minLat, maxLat, minLng, maxLng, data, isSynced) "
+                        + "VALUES (?, ?, ?, ?, 0, 0, 0, 0, ?, 0)")) {
+                    for (BreadcrumbChunkEntity c : chunks) {
+                        insert.setString(1, c.sessionId);
+                        insert.setLong(2, c.startTime + stored * 1000L);
+                        insert.setLong(3, c.endTime + stored * 1000L);
+                        insert.setInt(4, c.count);
+                        insert.setBytes(5, c.data);
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+                db.commit();
+                db.setAutoCommit(true);
+                stored = total;
+
+                double[] ms = { bestOf(db, unindexed), 0, bestOf(db, chunked) };
+                try (Statement statement = db.createStatement()) {
+                    statement.execute("CREATE INDEX IF NOT EXISTS `index_breadcrumbs_sessionId_timestamp` "
+                            + "ON `breadcrumbs` (`sessionId`, `timestamp`)");
+                }
+                ms[1] = bestOf(db, indexed);
+                // A full scan grows with the table; the seeks don't
+                assertTrue(plan(db, indexed).contains("index_breadcrumbs_sessionId_timestamp"));
+                try (Statement statement = db.createStatement()) {
+                    statement.execute("DROP INDEX `index_breadcrumbs_sessionId_timestamp`");
+                }
+                assertTrue(plan(db, unindexed).contains("SCAN"));
+                Benchmark.report("latest fix  | %,7d | %11.3f | %8.3f | %8.3f", total, ms[0], ms[1], ms[2]);
+            }
+            assertTrue(plan(db, chunked).contains("index_breadcrumb_chunks_sessionId_startTime"));
+        }
+    }
+
+    private static double bestOf(Connection db, String sql) throws SQLException {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 20; run++) {
+            long start = System.nanoTime();
+            try (Statement statement = db.createStatement(); ResultSet rows = statement.executeQuery(sql)) {
+                assertTrue(rows.next());
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    private static String plan(Connection db, String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = db.createStatement();
+                ResultSet rows = statement.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rows.next()) {
+                plan.append(rows.getString("detail")).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+    private static void writeRows(Connection db, List<BreadcrumbEntity> fixes) throws SQLException {
+        try (PreparedStatement insert = db.prepareStatement("INSERT INTO breadcrumbs "
+                + "(lat, lng, altitude, accuracy, bearing, speed, timestamp, isSynced) VALUES (?, ?, ?, ?, ?, ?, ?, 0)")) {
+            for (BreadcrumbEntity b : fixes) {
+                insert.setDouble(1, b.lat);
+                insert.setDouble(2, b.lng);
+                insert.setDouble(3, b.altitude);
+                insert.setDouble(4, b.accuracy);
+                insert.setDouble(5, b.bearing);
+                insert.setDouble(6, b.speed);
+                insert.setLong(7, b.timestamp);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private static void writeChunks(Connection db, List<BreadcrumbChunkEntity> chunks) throws SQLException {
+        try (PreparedStatement insert = db.prepareStatement("INSERT INTO breadcrumb_chunks (startTime, endTime, "
+                + "count, minLat, maxLat, minLng, maxLng, data, isSynced) VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)")) {
+            for (BreadcrumbChunkEntity c : chunks) {
+                insert.setLong(1, c.startTime);
+                insert.setLong(2, c.endTime);
+                insert.setInt(3, c.count);
+                insert.setDouble(4, c.minLat);
+                insert.setDouble(5, c.maxLat);
+                insert.setDouble(6, c.minLng);
+                insert.setDouble(7, c.maxLng);
+                insert.setBytes(8, c.data);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private static List<BreadcrumbEntity> readRows(Connection db) throws SQLException {
+        List<BreadcrumbEntity> fixes = new ArrayList<>();
+        try (Statement statement = db.createStatement();
+                ResultSet rows = statement.executeQuery("SELECT lat, lng, altitude, accuracy, bearing, speed, "
+                        + "timestamp FROM breadcrumbs ORDER BY timestamp")) {
+            while (rows.next()) {
+                fixes.add(new BreadcrumbEntity(rows.getDouble(1), rows.getDouble(2), rows.getDouble(3),
+                        rows.getDouble(4), rows.getDouble(5), rows.getDouble(6), rows.getLong(7)));
+            }
+        }
+        return fixes;
+    }
+
+    /** Same query as NavigationDao.getBreadcrumbChunksBetween. */
+    private static List<BreadcrumbEntity> readChunks(Connection db, long from, long to) throws SQLException {
+        List<BreadcrumbChunkEntity> chunks = new ArrayList<>();
+        try (PreparedStatement query = db.prepareStatement("SELECT startTime, endTime, count, minLat, maxLat, "
+                + "minLng, maxLng, data FROM breadcrumb_chunks WHERE startTime <= ? AND endTime >= ? ORDER BY startTime")) {
+            query.setLong(1, to);
+            query.setLong(2, from);
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    chunks.add(new BreadcrumbChunkEntity(null, rows.getLong(1), rows.getLong(2), rows.getInt(3),
+                            rows.getDouble(4), rows.getDouble(5), rows.getDouble(6), rows.getDouble(7),
+                            rows.getBytes(8)));
+                }
+            }
+        }
+        return BreadcrumbStore.unpackBetween(chunks, from, to);
+    }
+
+    /** Bytes of database pages owned by a table or index. */
+    private static long tableBytes(Connection db, String name) throws SQLException {
+        try (Statement statement = db.createStatement();
+                ResultSet rows = statement.executeQuery("SELECT SUM(pgsize) FROM dbstat WHERE name = '" + name + "'")) {
+            rows.next();
+            return rows.getLong(1);
+        }
+    }
+}
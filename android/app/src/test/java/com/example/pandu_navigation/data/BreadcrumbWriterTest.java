@@ -0,0 +1,234 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.pandu_navigation.Benchmark;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BreadcrumbWriterTest {
+
+    // 8 hours at the service's 1 s minimum update interval
+    private static final int HIKE_FIXES = 8 * 60 * 60;
+    private static final int FIXES_PER_DELIVERY = 6; // PanduService.MAX_UPDATE_DELAY_MS at 1 Hz
+    // 7 doubles + timestamp + isSynced + rowid, as SQLite would need at minimum
+    private static final int PAYLOAD_BYTES_PER_FIX = 7 * 8 + 8 + 1 + 8;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static BreadcrumbEntity fix(long second) {
+        return new BreadcrumbEntity(-7.45 + second * 1e-6, 110.44, 2000, 5, 90, 1.2, second * 1000);
+    }
+
+    @Test
+    public void flushesOnBatchSizeAndOnFixTimeSpan() {
+        List<List<BreadcrumbEntity>> batches = new ArrayList<>();
+        BreadcrumbWriter writer = new BreadcrumbWriter(batches::add, 4, 10_000);
+
+        for (int s = 0; s < 3; s++) {
+            writer.add(fix(s));
+        }
+        assertTrue(batches.isEmpty());
+        assertEquals(3, writer.getQueueDepth());
+        writer.add(fix(3));
+        assertEquals(1, batches.size());
+        assertEquals(4, batches.get(0).size());
+        assertEquals(0, writer.getQueueDepth());
+
+        // Sparse fixes: the 10 s span triggers before the size limit
+        writer.add(fix(20));
+        writer.add(fix(30));
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(1).size());
+        assertEquals(2, writer.getFlushCount());
+        assertEquals(6, writer.getWrittenCount());
+    }
+
+    @Test
+    public void explicitFlushWritesRemainderAndFailedBatchIsKept() {
+        List<List<BreadcrumbEntity>> batches = new ArrayList<>();
+        boolean[] failNext = { true };
+        BreadcrumbWriter writer = new BreadcrumbWriter(batch -> {
+            if (failNext[0]) {
+                failNext[0] = false;
+                throw new IllegalStateException("disk I/O error");
+            }
+            batches.add(batch);
+        }, 64, 30_000);
+
+        writer.add(Collections.singletonList(fix(0)));
+        writer.add(fix(1));
+        try {
+            writer.flush();
+            fail("sink failure should propagate");
+        } catch (IllegalStateException expected) {
+            // Batch stays queued
+        }
+        assertEquals(2, writer.getQueueDepth());
+        writer.add(fix(2));
+        writer.flush();
+        assertEquals(1, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals(0L, batches.get(0).get(0).timestamp);
+
+        writer.flush(); // Nothing buffered: no empty transaction
+        assertEquals(1, writer.getFlushCount());
+    }
+
+    @Test
+    public void failedSizeTriggeredFlushThrowsFromAddAndTheNextAddRetries() {
+        // PanduService catches this around add and flush; uncaught it would vanish in the write future
+        List<List<BreadcrumbEntity>> batches = new ArrayList<>();
+        int[] failures = { 2 };
+        BreadcrumbWriter writer = new BreadcrumbWriter(batch -> {
+            if (failures[0] > 0) {
+                failures[0]--;
+                throw new IllegalStateException("database is locked");
+            }
+            batches.add(new ArrayList<>(batch));
+        }, 2, 30_000);
+
+        writer.add(fix(0));
+        for (int s = 1; s <= 2; s++) {
+            try {
+                writer.add(fix(s));
+                fail("sink failure should propagate from add");
+            } catch (IllegalStateException expected) {
+                // Batch stays queued for the next due flush
+            }
+        }
+        assertEquals(3, writer.getQueueDepth());
+        assertEquals(0, writer.getFlushCount());
+
+        writer.add(fix(3));
+        assertEquals(1, batches.size());
+        assertEquals(4, batches.get(0).size());
+        for (int s = 0; s < 4; s++) {
+            assertEquals(s * 1000L, batches.get(0).get(s).timestamp);
+        }
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void benchmarkEightHourHike() throws Exception {
+        Benchmark.report("%,d fixes (8 h at 1 Hz), SQLite WAL, synchronous=FULL", HIKE_FIXES);
+        Benchmark.report("strategy        | commits | WAL bytes  | write amp | wall ms | cpu ms");
+
+        Result perFix = simulate("per-fix insert", 1, null);
+        Result perDelivery = simulate("per-delivery list", FIXES_PER_DELIVERY, null);
+        BreadcrumbWriter[] writer = new BreadcrumbWriter[1];
+        Result writeBehind = simulate("write-behind", FIXES_PER_DELIVERY, writer);
+
+        Benchmark.report("write-behind flushes: %d, avg %.2f ms, max %.2f ms",
+                writer[0].getFlushCount(), writer[0].getAverageFlushNanos() / 1e6,
+                writer[0].getMaxFlushNanos() / 1e6);
+
+        assertEquals(HIKE_FIXES, perFix.commits);
+        assertTrue(writeBehind.commits < perDelivery.commits / 5);
+        assertTrue(writeBehind.walBytes < perFix.walBytes / 10);
+    }
+
+    private static final class Result {
+        long commits;
+        long walBytes;
+    }
+
+    /**
+     * Replays the hike into a fresh database. Fixes arrive in deliveries of
+     * {@code perDelivery}; each delivery is one transaction unless a writer
+     * slot is passed, in which case it goes through a BreadcrumbWriter.
+     */
+    private Result simulate(String name, int perDelivery, BreadcrumbWriter[] writerOut) throws Exception {
+        File file = tmp.newFile(name.replace(' ', '_') + ".db");
+        Result result = new Result();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath())) {
+            try (Statement statement = db.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=FULL");
+                // No checkpoints, so the WAL size is everything the commits wrote
+                statement.execute("PRAGMA wal_autocheckpoint=0");
+                statement.execute("CREATE TABLE IF NOT EXISTS `breadcrumbs` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                        + "`lat` REAL NOT NULL, `lng` REAL NOT NULL, `altitude` REAL NOT NULL, "
+                        + "`accuracy` REAL NOT NULL, `bearing` REAL NOT NULL, `speed` REAL NOT NULL, "
+                        + "`timestamp` INTEGER NOT NULL, `isSynced` INTEGER NOT NULL)");
+                statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+            }
+            db.setAutoCommit(false);
+            PreparedStatement insert = db.prepareStatement("INSERT INTO breadcrumbs "
+                    + "(lat, lng, altitude, accuracy, bearing, speed, timestamp, isSynced) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            BreadcrumbWriter.Sink sink = batch -> {
+                try {
+                    for (BreadcrumbEntity b : batch) {
+                        insert.setDouble(1, b.lat);
+                        insert.setDouble(2, b.lng);
+                        insert.setDouble(3, b.altitude);
+                        insert.setDouble(4, b.accuracy);
+                        insert.setDouble(5, b.bearing);
+                        insert.setDouble(6, b.speed);
+                        insert.setLong(7, b.timestamp);
+                        insert.setInt(8, 0);
+                        insert.executeUpdate();
+                    }
+                    db.commit();
+                    result.commits++;
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+            BreadcrumbWriter writer = writerOut != null ? new BreadcrumbWriter(sink) : null;
+
+            long cpuStart = threads.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            List<BreadcrumbEntity> delivery = new ArrayList<>(perDelivery);
+            for (int s = 0; s < HIKE_FIXES; s++) {
+                delivery.add(fix(s));
+                if (delivery.size() == perDelivery || s == HIKE_FIXES - 1) {
+                    if (writer != null) {
+                        writer.add(delivery);
+                    } else {
+                        sink.write(delivery);
+                    }
+                    delivery = new ArrayList<>(perDelivery);
+                }
+            }
+            if (writer != null) {
+                writer.flush(); // stopTracking
+                writerOut[0] = writer;
+            }
+            long wallMs = (System.nanoTime() - start) / 1_000_000;
+            long cpuMs = (threads.getCurrentThreadCpuTime() - cpuStart) / 1_000_000;
+            insert.close();
+
+            try (Statement statement = db.createStatement();
+                    ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM breadcrumbs")) {
+                rows.next();
+                assertEquals(HIKE_FIXES, rows.getInt(1));
+            }
+            result.walBytes = new File(file.getAbsolutePath() + "-wal").length();
+            Benchmark.report("%-17s | %7d | %10d | %8.1fx | %7d | %6d", name, result.commits,
+                    result.walBytes, (double) result.walBytes / ((long) HIKE_FIXES * PAYLOAD_BYTES_PER_FIX),
+                    wallMs, cpuMs);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DatabaseAccessTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void writesRunOneAtATimeInSubmissionOrder() throws Exception {
+        DatabaseAccess access = new DatabaseAccess(3, 1_000, null);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        for (int i = 0; i < 500; i++) {
+            int n = i;
+            access.write("append", () -> {
+                if (running.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                order.add(n);
+                threads.add(Thread.currentThread().getName());
+                running.decrementAndGet();
+            });
+        }
+        access.shutdown();
+
+        assertEquals(500, order.size());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        assertEquals(1, threads.size());
+        assertTrue(!overlapped.get());
+    }
+
+    @Test
+    public void readsOverlapUpToThePoolSize() throws Exception {
+        DatabaseAccess access = new DatabaseAccess(3, 1_000, null);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch allStarted = new CountDownLatch(3);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            int n = i;
+            results.add(access.read("query", () -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                allStarted.countDown();
+                allStarted.await(5, TimeUnit.SECONDS);
+                Thread.sleep(5);
+                running.decrementAndGet();
+                return n;
+            }));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, (int) results.get(i).get());
+        }
+        access.shutdown();
+        assertEquals(3, peak.get());
+    }
+
+    @Test
+    public void slowTasksAreReportedAndTimedByName() throws Exception {
+        List<String> slow = Collections.synchronizedList(new ArrayList<>());
+        DatabaseAccess access = new DatabaseAccess(2, 20, (name, write, waitNanos, runNanos) ->
+                slow.add((write ? "write " : "read ") + name));
+        access.read("fast", () -> 1).get();
+        access.read("slow", () -> {
+            Thread.sleep(40);
+            return 2;
+        }).get();
+        access.write("commit", () -> sleep(40)).get();
+        access.shutdown();
+
+        assertEquals(Arrays.asList("read slow", "write commit"), slow);
+        for (DatabaseAccess.Stats stats : access.getStats()) {
+            assertEquals(1, stats.count);
+            assertEquals("fast".equals(stats.name) ? 0 : 1, stats.slowCount);
+            assertTrue(stats.maxNanos <= stats.totalNanos);
+        }
+        assertEquals(3, access.getStats().size());
+    }
+
+    @Test
+    public void awaitGivesUpAtTheDeadline() throws Exception {
+        DatabaseAccess access = new DatabaseAccess(1, 1_000, null);
+        List<String> previous = Collections.singletonList("merbabu");
+        CountDownLatch release = new CountDownLatch(1);
+        Future<List<String>> stalled = access.read("stalled", () -> {
+            release.await(10, TimeUnit.SECONDS);
+            return Collections.<String>emptyList();
+        });
+
+        // The query can't finish before await returns, so getting the fallback means await gave up
+        assertEquals(previous, DatabaseAccess.await(stalled, 50, previous));
+        assertFalse(stalled.isDone());
+        release.countDown();
+        assertEquals(Collections.singletonList("merapi"),
+                DatabaseAccess.await(access.read("quick", () -> Collections.singletonList("merapi")), 2_000,
+                        previous));
+        access.shutdown();
+    }
+
+    /**
+     * The per-fix nearby lookup while a seeding transaction holds the write
+     * lock on another connection. With a rollback journal the reader has to
+     * wait for the commit; in WAL mode it reads the last committed snapshot.
+     */
+    @Test
+    public void walReadersDoNotWaitForAnOpenWriteTransaction() throws Exception {
+        assertTrue(readsDuringWrite("WAL"));
+        assertFalse(readsDuringWrite("DELETE"));
+    }
+
+    /** Whether a reader that won't wait gets through while a write transaction is open. */
+    private boolean readsDuringWrite(String journalMode) throws Exception {
+        String url = "jdbc:sqlite:" + tmp.newFile("access-" + journalMode + ".db").getAbsolutePath();
+        try (Connection writer = DriverManager.getConnection(url);
+                Connection reader = DriverManager.getConnection(url);
+                Statement write = writer.createStatement();
+                Statement read = reader.createStatement()) {
+            write.execute("PRAGMA journal_mode = " + journalMode);
+            write.execute("CREATE TABLE trails (id TEXT PRIMARY KEY, mountainId TEXT, "
+                    + "minLat REAL, maxLat REAL, minLng REAL, maxLng REAL)");
+            write.execute("INSERT INTO trails VALUES ('t1', 'merbabu', -7.46, -7.44, 110.42, 110.44)");
+            read.execute("PRAGMA busy_timeout = 0");
+            String nearby = "SELECT DISTINCT mountainId FROM trails "
+                    + "WHERE minLat <= -7.45 AND maxLat >= -7.45 AND minLng <= 110.43 AND maxLng >= 110.43";
+
+            // Held open until after the read, as a long reseed would
+            write.execute("BEGIN EXCLUSIVE");
+            write.execute("INSERT INTO trails VALUES ('t2', 'merapi', -7.46, -7.44, 110.42, 110.44)");
+            List<String> seen = new ArrayList<>();
+            boolean gotThrough;
+            try (ResultSet rows = read.executeQuery(nearby)) {
+                while (rows.next()) {
+                    seen.add(rows.getString(1));
+                }
+                gotThrough = true;
+            } catch (SQLException busy) {
+                gotThrough = false;
+            }
+            write.execute("COMMIT");
+
+            if (gotThrough) {
+                // The committed snapshot, not the open transaction
+                assertEquals(Collections.singletonList("merbabu"), seen);
+            }
+            try (ResultSet rows = read.executeQuery("SELECT COUNT(*) FROM trails")) {
+                assertEquals(2, rows.getInt(1));
+            }
+            return gotThrough;
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GeometryCodecTest {
+
+    @Test
+    public void roundTripsMerbabuTracks() {
+        for (String name : TestTracks.MERBABU) {
+            double[][] track = TestTracks.load(name);
+            int n = track[0].length;
+            TrailGeometry decoded = GeometryCodec.decode(GeometryCodec.encode(track[0], track[1], track[2], n));
+
+            assertEquals(n, decoded.size);
+            for (int i = 0; i < n; i++) {
+                assertEquals(track[0][i], decoded.lat[i], 0.6e-7);
+                assertEquals(track[1][i], decoded.lng[i], 0.6e-7);
+                assertEquals(track[2][i], decoded.ele[i], 0.051);
+            }
+        }
+    }
+
+    @Test
+    public void omitsElevationWhenAbsent() {
+        double[] lat = { -7.45, -7.4501, -7.4503 };
+        double[] lng = { 110.44, 110.4402, 110.4401 };
+        byte[] withEle = GeometryCodec.encode(lat, lng, new double[] { 1, 2, 3 }, 3);
+        byte[] withoutEle = GeometryCodec.encode(lat, lng, new double[3], 3);
+
+        assertEquals(withEle.length - 3, withoutEle.length);
+        TrailGeometry decoded = GeometryCodec.decode(ByteBuffer.wrap(withoutEle));
+        assertEquals(-7.4503, decoded.lat[2], 1e-9);
+        assertEquals(0.0, decoded.ele[2], 0.0);
+    }
+
+    @Test
+    public void rejectsUnknownVersionAndTruncatedData() {
+        byte[] blob = GeometryCodec.encode(new double[] { 1, 2 }, new double[] { 3, 4 }, null, 2);
+        assertSame(TrailGeometry.EMPTY, GeometryCodec.decode(Arrays.copyOf(blob, blob.length - 1)));
+
+        blob[0] = (byte) (GeometryCodec.VERSION + 1);
+        assertSame(TrailGeometry.EMPTY, GeometryCodec.decode(blob));
+        assertSame(TrailGeometry.EMPTY, GeometryCodec.decode((byte[]) null));
+    }
+
+    @Test
+    public void packsPointsForDart() {
+        TrailGeometry geometry = new TrailGeometry(new double[] { -7.45, -7.46, 0 },
+                new double[] { 110.44, 110.45, 0 }, new double[] { 1800, 1850.5, 0 }, 2);
+
+        assertArrayEquals(new double[] { -7.45, 110.44, 1800, -7.46, 110.45, 1850.5 }, geometry.toPoints(), 0.0);
+        assertEquals(0, TrailGeometry.EMPTY.toPoints().length);
+    }
+
+    @Test
+    public void benchmarkTrailListAgainstJsonPayload() {
+        List<byte[]> blobs = new ArrayList<>();
+        for (String name : TestTracks.MERBABU) {
+            double[][] track = TestTracks.load(name);
+            blobs.add(GeometryCodec.encode(track[0], track[1], track[2], track[0].length));
+        }
+
+        // Old getTrails: every trail's geometry as JSON text inside one payload.
+        // Now: summaries only, then one trail's points as a double[] when it is drawn.
+        int rounds = 50;
+        long jsonChars = 0, pointBytes = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            jsonChars = 0;
+            for (byte[] blob : blobs) {
+                jsonChars += GeometryCodec.decode(blob).toJson().length();
+            }
+        }
+        long jsonNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            pointBytes = GeometryCodec.decode(blobs.get(0)).toPoints().length * 8L;
+        }
+        long pointNanos = System.nanoTime() - start;
+
+        assertTrue(pointBytes > 0 && jsonChars > pointBytes);
+        Benchmark.report("open trail list: all geometry as JSON %d chars, %.1f us; one trail as points %d bytes, %.1f us",
+                jsonChars, jsonNanos / 1000.0 / rounds, pointBytes, pointNanos / 1000.0 / rounds);
+    }
+
+    @Test
+    public void benchmarkSizeAndDecodeAgainstJson() {
+        Gson gson = new Gson();
+        Type listType = new TypeToken<List<List<Double>>>() {
+        }.getType();
+
+        List<String> jsons = new ArrayList<>();
+        List<byte[]> blobs = new ArrayList<>();
+        long jsonBytes = 0, blobBytes = 0;
+        for (String name : TestTracks.MERBABU) {
+            double[][] track = TestTracks.load(name);
+            // Exactly what AssetConfigLoader used to store: Gson over List<List<Double>>
+            List<List<Double>> coordinates = new ArrayList<>();
+            for (int i = 0; i < track[0].length; i++) {
+                coordinates.add(Arrays.asList(track[1][i], track[0][i], track[2][i]));
+            }
+            String json = gson.toJson(coordinates);
+            byte[] blob = GeometryCodec.encode(track[0], track[1], track[2], track[0].length);
+            jsons.add(json);
+            blobs.add(blob);
+            jsonBytes += json.length();
+            blobBytes += blob.length;
+        }
+
+        int rounds = 200;
+        long sink = 0;
+        long[] nanos = new long[3];
+        for (int pass = 0; pass < 2; pass++) { // first pass is warmup
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (String json : jsons) {
+                    List<List<Double>> points = gson.fromJson(json, listType);
+                    sink += points.size();
+                }
+            }
+            nanos[0] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (String json : jsons) {
+                    sink += TrailGeometry.fromJson(json).size;
+                }
+            }
+            nanos[1] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (byte[] blob : blobs) {
+                    sink += GeometryCodec.decode(blob).size;
+                }
+            }
+            nanos[2] = System.nanoTime() - start;
+        }
+
+        assertTrue(sink > 0); // keep the decode loops alive
+        assertTrue(blobBytes * 4 < jsonBytes);
+        Benchmark.report("Merbabu geometry storage: JSON %d bytes, BLOB %d bytes (%.1fx smaller)",
+                jsonBytes, blobBytes, (double) jsonBytes / blobBytes);
+        Benchmark.report("decode all tracks: Gson %.1f us, JsonReader %.1f us, BLOB %.1f us",
+                nanos[0] / 1000.0 / rounds, nanos[1] / 1000.0 / rounds, nanos[2] / 1000.0 / rounds);
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static com.example.pandu_navigation.logic.DeviationEngineBenchmarkTest.measure;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.logic.GeoMath;
+
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+public class GpxReaderTest {
+
+    private static final int SYNTHETIC_POINTS = 200_000;
+
+    @Test
+    public void readsMerbabuTracksInOnePass() throws Exception {
+        GpxReader reader = new GpxReader(new KXmlParser());
+        for (String name : TestTracks.MERBABU) {
+            double[][] expected = TestTracks.load(name);
+            List<GpxReader.Track> seen = new ArrayList<>();
+            double[] stats = new double[6];
+            try (InputStream in = Files.newInputStream(TestTracks.gpxFile(name).toPath())) {
+                reader.read(in, track -> {
+                    seen.add(track);
+                    assertEquals(expected[0].length, track.size);
+                    for (int i = 0; i < track.size; i++) {
+                        assertEquals(expected[0][i], track.lat[i], 0);
+                        assertEquals(expected[1][i], track.lng[i], 0);
+                        assertEquals(expected[2][i], track.ele[i], 0);
+                    }
+                    stats[0] = track.minLat;
+                    stats[1] = track.maxLat;
+                    stats[2] = track.minLng;
+                    stats[3] = track.maxLng;
+                    stats[4] = track.distance;
+                    stats[5] = track.elevationGain;
+                }, null);
+            }
+            assertEquals(name, 1, seen.size());
+
+            double distance = 0, minLat = 90, maxLat = -90, minLng = 180, maxLng = -180;
+            for (int i = 0; i < expected[0].length; i++) {
+                if (i > 0) {
+                    distance += GeoMath.distanceMeters(expected[0][i - 1], expected[1][i - 1],
+                            expected[0][i], expected[1][i]);
+                }
+                minLat = Math.min(minLat, expected[0][i]);
+                maxLat = Math.max(maxLat, expected[0][i]);
+                minLng = Math.min(minLng, expected[1][i]);
+                maxLng = Math.max(maxLng, expected[1][i]);
+            }
+            assertEquals(minLat, stats[0], 0);
+            assertEquals(maxLat, stats[1], 0);
+            assertEquals(minLng, stats[2], 0);
+            assertEquals(maxLng, stats[3], 0);
+            assertEquals(distance, stats[4], 1e-6);
+            assertTrue(name + " should climb", stats[5] > 0);
+        }
+    }
+
+    @Test
+    public void joinsSegmentsWithoutCountingTheGap() throws Exception {
+        String gpx = "<gpx><trk><name> Jalur A </name>"
+                + "<trkseg><trkpt lat=\"0\" lon=\"0\"><ele>100</ele><name>ignored</name></trkpt>"
+                + "<trkpt lat=\"0\" lon=\"0.001\"><ele>101</ele></trkpt></trkseg>"
+                + "<trkseg><trkpt lat=\"1\" lon=\"1\"><ele>103</ele></trkpt>"
+                + "<trkpt lat=\"1\" lon=\"1.001\"></trkpt>"
+                + "<trkpt lat=\"1\" lon=\"1.002\"><ele>99</ele></trkpt>"
+                + "<trkpt lat=\"1\" lon=\"1.003\"><ele>110</ele></trkpt></trkseg></trk></gpx>";
+        GpxReader reader = new GpxReader(new KXmlParser());
+        List<String> names = new ArrayList<>();
+        double[] stats = new double[3];
+        reader.read(stream(gpx), track -> {
+            names.add(track.name);
+            stats[0] = track.size;
+            stats[1] = track.distance;
+            stats[2] = track.elevationGain;
+        }, null);
+
+        assertEquals(1, names.size());
+        assertEquals("Jalur A", names.get(0));
+        assertEquals(6, stats[0], 0);
+        double expected = GeoMath.distanceMeters(0, 0, 0, 0.001)
+                + GeoMath.distanceMeters(1, 1, 1, 1.001)
+                + GeoMath.distanceMeters(1, 1.001, 1, 1.002)
+                + GeoMath.distanceMeters(1, 1.002, 1, 1.003);
+        assertEquals(expected, stats[1], 1e-6);
+        // 100 -> 101 stays inside the noise band, so 100 -> 103 counts as one climb;
+        // the point without <ele> is skipped and the descent to 99 resets the reference
+        assertEquals(3 + 11, stats[2], 1e-9);
+    }
+
+    @Test
+    public void readsWaypoints() throws Exception {
+        File tags = new File(TestTracks.gpxFile("Selo").getParentFile(), "merbabu_tag.gpx");
+        String xml = new String(Files.readAllBytes(tags.toPath()), StandardCharsets.UTF_8);
+        int expected = xml.split("<wpt ", -1).length - 1;
+
+        GpxReader reader = new GpxReader(new KXmlParser());
+        List<String> names = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(tags.toPath())) {
+            reader.read(in, null, (index, name, type, lat, lon, ele) -> {
+                assertEquals(names.size(), index);
+                assertTrue(lat < 0 && lon > 100);
+                names.add(name);
+            });
+        }
+        assertEquals(expected, names.size());
+    }
+
+    @Test
+    public void benchmarkAgainstDom() throws Exception {
+        List<byte[]> merbabu = new ArrayList<>();
+        for (String name : TestTracks.MERBABU) {
+            merbabu.add(Files.readAllBytes(TestTracks.gpxFile(name).toPath()));
+        }
+        byte[] synthetic = syntheticTrack(SYNTHETIC_POINTS);
+        GpxReader reader = new GpxReader(new KXmlParser());
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+
+        int rounds = 20;
+        long[] dom = null, stream = null;
+        for (int pass = 0; pass < 2; pass++) { // first pass is warmup
+            dom = measure(() -> {
+                for (int r = 0; r < rounds; r++) {
+                    for (byte[] file : merbabu) {
+                        domParse(factory, file);
+                    }
+                }
+            });
+            stream = measure(() -> {
+                for (int r = 0; r < rounds; r++) {
+                    for (byte[] file : merbabu) {
+                        streamParse(reader, file);
+                    }
+                }
+            });
+        }
+        Benchmark.report("Merbabu GPX (%d files): DOM %.2f ms, %d KB; streaming %.2f ms, %d KB",
+                merbabu.size(), dom[0] / 1e6 / rounds, dom[1] / 1024 / rounds,
+                stream[0] / 1e6 / rounds, stream[1] / 1024 / rounds);
+
+        long[] domBig = measure(() -> assertEquals(SYNTHETIC_POINTS, domParse(factory, synthetic)));
+        long[] streamBig = measure(() -> assertEquals(SYNTHETIC_POINTS, streamParse(reader, synthetic)));
+        Benchmark.report("synthetic %,d-point GPX (%.1f MB): DOM %.0f ms, %d MB; streaming %.0f ms, %d MB",
+                SYNTHETIC_POINTS, synthetic.length / 1048576.0,
+                domBig[0] / 1e6, domBig[1] >> 20, streamBig[0] / 1e6, streamBig[1] >> 20);
+
+        assertTrue("Streaming should allocate less than DOM", streamBig[1] < domBig[1]);
+    }
+
+    /** The pre-streaming AssetConfigLoader path: DOM plus getElementsByTagName per point. */
+    private static int domParse(DocumentBuilderFactory factory, byte[] file) {
+        try {
+            Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(file));
+            doc.getDocumentElement().normalize();
+            NodeList trkpts = ((Element) doc.getElementsByTagName("trk").item(0)).getElementsByTagName("trkpt");
+            int count = trkpts.getLength();
+            double[] lats = new double[count];
+            for (int j = 0; j < count; j++) {
+                Element pt = (Element) trkpts.item(j);
+                lats[j] = Double.parseDouble(pt.getAttribute("lat"));
+                Double.parseDouble(pt.getAttribute("lon"));
+                if (pt.getElementsByTagName("ele").getLength() > 0) {
+                    Double.parseDouble(pt.getElementsByTagName("ele").item(0).getFirstChild().getNodeValue());
+                }
+            }
+            return count;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int streamParse(GpxReader reader, byte[] file) {
+        int[] count = new int[1];
+        try {
+            reader.read(new ByteArrayInputStream(file), track -> count[0] += track.size, null);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return count[0];
+    }
+
+    private static byte[] syntheticTrack(int points) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(points * 80);
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n"
+                    + "  <trk>\n    <name>Synthetic</name>\n    <trkseg>\n");
+            for (int i = 0; i < points; i++) {
+                double t = i * 1e-4;
+                out.write(String.format(Locale.ROOT,
+                        "      <trkpt lat=\"%.6f\" lon=\"%.6f\">\n        <ele>%.1f</ele>\n      </trkpt>\n",
+                        -7.45 + 0.01 * Math.sin(t), 110.44 + t * 0.001, 1500 + 500 * Math.sin(t * 3)));
+            }
+            out.write("    </trkseg>\n  </trk>\n</gpx>\n");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class SpatialIndexTest {
+
+    // NavigationDao's scan queries, with the same ?1..?4 binding as SpatialIndex.box
+    private static final String SCAN_TRAILS = "SELECT id FROM trails WHERE minLat <= ?1 AND maxLat >= ?2 "
+            + "AND minLng <= ?3 AND maxLng >= ?4";
+    private static final String SCAN_MOUNTAIN_IDS = "SELECT DISTINCT mountainId FROM trails WHERE minLat <= ?1 "
+            + "AND maxLat >= ?2 AND minLng <= ?3 AND maxLng >= ?4";
+    private static final String SCAN_POIS = "SELECT id FROM pois WHERE lat <= ?1 AND lat >= ?2 AND lng <= ?3 "
+            + "AND lng >= ?4";
+    private static final double PADDING = 0.002; // PanduService's ~200 m
+
+    private static Connection open() throws SQLException {
+        Connection db = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = db.createStatement()) {
+            statement.execute("CREATE TABLE `trails` (`id` TEXT NOT NULL, `mountainId` TEXT, `name` TEXT, "
+                    + "`geometry` BLOB, `difficulty` INTEGER NOT NULL, `distance` REAL NOT NULL, "
+                    + "`elevationGain` REAL NOT NULL, `minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, "
+                    + "`minLng` REAL NOT NULL, `maxLng` REAL NOT NULL, PRIMARY KEY(`id`))");
+            statement.execute("CREATE TABLE `pois` (`id` TEXT NOT NULL, `mountainId` TEXT, `name` TEXT, "
+                    + "`type` TEXT, `lat` REAL NOT NULL, `lng` REAL NOT NULL, `elevation` REAL NOT NULL, "
+                    + "PRIMARY KEY(`id`))");
+        }
+        return db;
+    }
+
+    private static void install(Connection db) throws SQLException {
+        try (Statement statement = db.createStatement()) {
+            for (String ddl : SpatialIndex.TABLES) {
+                statement.execute(ddl);
+            }
+            for (String ddl : SpatialIndex.TRIGGERS) {
+                statement.execute(ddl);
+            }
+        }
+    }
+
+    /**
+     * Trails of 1-8 km boxes on the Java volcano belt, ten per mountain, so
+     * nearby boxes overlap as they do around Merbabu and Merapi.
+     */
+    private static void insertTrails(Connection db, int from, int count, Random random) throws SQLException {
+        db.setAutoCommit(false);
+        try (PreparedStatement insert = db.prepareStatement("INSERT OR REPLACE INTO trails (id, mountainId, name, "
+                + "geometry, difficulty, distance, elevationGain, minLat, maxLat, minLng, maxLng) "
+                + "VALUES (?, ?, ?, NULL, 3, 0, 0, ?, ?, ?, ?)")) {
+            for (int i = from; i < from + count; i++) {
+                double lat = -8.5 + random.nextDouble() * 2;
+                double lng = 106 + random.nextDouble() * 9;
+                double h = 0.005 + random.nextDouble() * 0.035;
+                double w = 0.005 + random.nextDouble() * 0.035;
+                insert.setString(1, "t" + i);
+                insert.setString(2, "m" + i / 10);
+                insert.setString(3, "Trail " + i);
+                insert.setDouble(4, lat);
+                insert.setDouble(5, lat + h);
+                insert.setDouble(6, lng);
+                insert.setDouble(7, lng + w);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        db.commit();
+        db.setAutoCommit(true);
+    }
+
+    private static void insertPois(Connection db, int count, Random random) throws SQLException {
+        db.setAutoCommit(false);
+        try (PreparedStatement insert = db.prepareStatement("INSERT OR REPLACE INTO pois (id, mountainId, name, "
+                + "type, lat, lng, elevation) VALUES (?, ?, ?, 'camp', ?, ?, 0)")) {
+            for (int i = 0; i < count; i++) {
+                insert.setString(1, "p" + i);
+                insert.setString(2, "m" + i / 10);
+                insert.setString(3, "Pos " + i);
+                insert.setDouble(4, -8.5 + random.nextDouble() * 2);
+                insert.setDouble(5, 106 + random.nextDouble() * 9);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        db.commit();
+        db.setAutoCommit(true);
+    }
+
+    private static List<String> query(Connection db, String sql, double lat, double lng) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        try (PreparedStatement select = db.prepareStatement(sql)) {
+            Object[] box = SpatialIndex.box(lat, lng, PADDING);
+            for (int i = 0; i < box.length; i++) {
+                select.setDouble(i + 1, (Double) box[i]);
+            }
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    ids.add(rows.getString(1));
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /** Every R*Tree lookup must return exactly what the scan returns. */
+    private static int assertSameAsScan(Connection db, Random random) throws SQLException {
+        int hits = 0;
+        for (int q = 0; q < 500; q++) {
+            double lat = -8.5 + random.nextDouble() * 2;
+            double lng = 106 + random.nextDouble() * 9;
+            List<String> trails = query(db, SCAN_TRAILS, lat, lng);
+            assertEquals(trails, query(db, SpatialIndex.NEARBY_TRAILS.replace("t.*", "t.id"), lat, lng));
+            assertEquals(query(db, SCAN_MOUNTAIN_IDS, lat, lng), query(db, SpatialIndex.NEARBY_MOUNTAIN_IDS, lat, lng));
+            assertEquals(query(db, SCAN_POIS, lat, lng), query(db, SpatialIndex.NEARBY_POIS.replace("p.*", "p.id"), lat, lng));
+            hits += trails.size();
+        }
+        return hits;
+    }
+
+    private static long count(Connection db, String sql) throws SQLException {
+        try (Statement statement = db.createStatement(); ResultSet rows = statement.executeQuery(sql)) {
+            return rows.next() ? rows.getLong(1) : 0;
+        }
+    }
+
+    @Test
+    public void triggersKeepTheTreeInStepWithTheTables() throws SQLException {
+        Random random = new Random(5);
+        try (Connection db = open()) {
+            install(db);
+            insertTrails(db, 0, 2000, random);
+            insertPois(db, 2000, random);
+            assertTrue(assertSameAsScan(db, random) > 0);
+
+            // Reseeding a mountain: REPLACE half the trails with new boxes, move and drop some rows
+            insertTrails(db, 0, 1000, random);
+            try (Statement statement = db.createStatement()) {
+                statement.execute("UPDATE trails SET minLat = minLat + 0.3, maxLat = maxLat + 0.3 WHERE mountainId = 'm150'");
+                statement.execute("UPDATE pois SET lat = lat - 0.2 WHERE mountainId = 'm3'");
+                statement.execute("DELETE FROM trails WHERE mountainId IN ('m7', 'm180')");
+                statement.execute("DELETE FROM pois WHERE mountainId = 'm9'");
+            }
+            assertEquals(count(db, "SELECT COUNT(*) FROM trails"), count(db, "SELECT COUNT(*) FROM trails_rtree"));
+            assertEquals(count(db, "SELECT COUNT(*) FROM pois"), count(db, "SELECT COUNT(*) FROM pois_rtree"));
+            assertSameAsScan(db, random);
+
+            // A full VACUUM may renumber rowids; rebuild re-keys the tree
+            try (Statement statement = db.createStatement()) {
+                statement.execute("VACUUM");
+                for (String sql : SpatialIndex.REBUILD) {
+                    statement.execute(sql);
+                }
+            }
+            assertSameAsScan(db, random);
+        }
+    }
+
+    @Test
+    public void nearbyQueriesSeekTheTreeWhereTheScansReadEveryRow() throws SQLException {
+        try (Connection db = open()) {
+            install(db);
+            insertTrails(db, 0, 1_000, new Random(9));
+
+            assertTrue(plan(db, SCAN_MOUNTAIN_IDS).contains("SCAN trails"));
+            for (String sql : new String[] { SpatialIndex.NEARBY_MOUNTAIN_IDS, SpatialIndex.NEARBY_TRAILS,
+                    SpatialIndex.NEARBY_POIS }) {
+                String plan = plan(db, sql);
+                assertTrue(plan, plan.contains("VIRTUAL TABLE INDEX"));
+                assertTrue(plan, !plan.contains("SCAN t ") && !plan.contains("SCAN p "));
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkNearbyMountainsPerFix() throws SQLException {
+        Benchmark.assumeEnabled();
+        Random random = new Random(9);
+        int queries = 500;
+        for (int size : new int[] { 100, 1_000, 10_000, 50_000 }) {
+            try (Connection db = open()) {
+                install(db);
+                insertTrails(db, 0, size, random);
+
+                double[] lat = new double[queries];
+                double[] lng = new double[queries];
+                for (int q = 0; q < queries; q++) {
+                    lat[q] = -8.5 + random.nextDouble() * 2;
+                    lng[q] = 106 + random.nextDouble() * 9;
+                }
+                long scan = time(db, SCAN_MOUNTAIN_IDS, lat, lng);
+                long tree = time(db, SpatialIndex.NEARBY_MOUNTAIN_IDS, lat, lng);
+                Benchmark.report("nearby mountains, %6d trails: scan %7.1f us, R*Tree %5.1f us per fix "
+                        + "(%.0fx)", size, scan / 1e3 / queries, tree / 1e3 / queries, (double) scan / tree);
+            }
+        }
+    }
+
+    private static String plan(Connection db, String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = db.createStatement();
+                ResultSet rows = statement.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rows.next()) {
+                plan.append(rows.getString("detail")).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+    /** Warm-up pass, then the timed pass, over the same fixes. */
+    private static long time(Connection db, String sql, double[] lat, double[] lng) throws SQLException {
+        try (PreparedStatement select = db.prepareStatement(sql)) {
+            long start = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                start = System.nanoTime();
+                for (int q = 0; q < lat.length; q++) {
+                    Object[] box = SpatialIndex.box(lat[q], lng[q], PADDING);
+                    for (int i = 0; i < box.length; i++) {
+                        select.setDouble(i + 1, (Double) box[i]);
+                    }
+                    try (ResultSet rows = select.executeQuery()) {
+                        while (rows.next()) {
+                            rows.getString(1);
+                        }
+                    }
+                }
+            }
+            return System.nanoTime() - start;
+        }
+    }
+}
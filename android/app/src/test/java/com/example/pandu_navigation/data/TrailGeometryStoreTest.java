@@ -0,0 +1,32 @@
+package com.example.pandu_navigation.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TrailGeometryStoreTest {
+
+    private static TrailEntity trail(String id, double lat) {
+        byte[] blob = GeometryCodec.encode(new double[]{lat, lat + 0.001}, new double[]{110.43, 110.44},
+                new double[]{1800, 1850}, 2);
+        return new TrailEntity(id, "merbabu", id, blob, 1, 0, 0, lat, lat + 0.001, 110.43, 110.44);
+    }
+
+    @Test
+    public void rowReplacedWithSameLengthBlobIsDecodedAgain() {
+        TrailGeometryStore store = TrailGeometryStore.getInstance();
+        TrailEntity before = trail("store_test_replaced", -7.45);
+        TrailEntity after = trail("store_test_replaced", -7.46);
+        assertEquals(before.geometry.length, after.geometry.length);
+
+        TrailGeometry cached = store.get(before);
+        // An equal copy of the row is served from the cache
+        assertSame(cached, store.get(trail("store_test_replaced", -7.45)));
+
+        int version = store.getVersion();
+        assertEquals(-7.46, store.get(after).lat[0], 1e-6);
+        assertNotEquals(version, store.getVersion());
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.data.PoiEntity;
+import com.example.pandu_navigation.data.TrailEntity;
+import com.example.pandu_navigation.data.TrailGeometryStore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Dead reckoning between sparse fixes, and replays of step, heading and GPS
+ * logs recorded off the Merbabu hikes through the scheduler, against GPS
+ * alone.
+ */
+public class DeadReckoningTest {
+
+    private static final float ACCURACY = 5f;
+    private static final double GPS_WHITE_SIGMA = 4.0;
+    private static final double GPS_BIAS_SIGMA = 2.0;
+    private static final double GPS_BIAS_TAU_S = 60;
+    // Walkers lengthen their stride and quicken their cadence together
+    private static final double STRIDE_AT_1MS = 0.7;
+    private static final long HEADING_PERIOD_MS = 200;
+    // PanduService hands the newest heading over with each step, and at least this often
+    private static final long HEADING_HANDOVER_MS = 1_000;
+    private static final double HEADING_ACCURACY = 15;
+    private static final double HEADING_WHITE_SIGMA = 10;
+    // Compass bias: magnetic disturbance and a slowly tilting phone
+    private static final double HEADING_BIAS_SIGMA = 4;
+    private static final double HEADING_BIAS_TAU_S = 600;
+    // The phone in a side pocket points this far off the walking direction
+    private static final double PHONE_OFFSET = 35;
+    // A fix asked for with the receiver idle takes this long
+    private static final long FORCED_FIX_DELAY_MS = 3_000;
+
+    /** Walks 0.8 m strides due north, phone pointing east, one exact fix every 4 s. */
+    private static void calibrate(DeadReckoning reckoning, GeoMath.LocalFrame frame, int fromS, int toS) {
+        for (long t = fromS * 1000L; t <= toS * 1000L; t += 100) {
+            if (t % HEADING_PERIOD_MS == 0) {
+                reckoning.onHeading(t, 90, 5);
+            }
+            if (t % 500 == 0 && t > 0) {
+                reckoning.onStep(t);
+            }
+            if (t % 4_000 == 0) {
+                double lat = frame.lat(1.6 * t / 1000.0);
+                reckoning.onFix(lat, frame.lng(0, lat), 1f, t);
+            }
+        }
+    }
+
+    @Test
+    public void learnsStrideAndPhoneOffsetFromFixes() {
+        KalmanFilter filter = new KalmanFilter();
+        DeadReckoning reckoning = new DeadReckoning(filter);
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        frame.reset(-7.45, 110.43);
+
+        calibrate(reckoning, frame, 0, 40);
+        assertFalse("one chord is not enough", reckoning.isActive(40_000));
+        calibrate(reckoning, frame, 40, 120);
+        assertTrue(reckoning.isActive(120_000));
+        assertEquals(0.8, reckoning.getStepLength(), 0.02);
+        assertEquals(-90, reckoning.getHeadingOffset(), 2);
+
+        // 100 m on steps alone
+        long t = 120_000;
+        for (int step = 1; step <= 125; step++) {
+            t += 500;
+            reckoning.onHeading(t, 90, 5);
+            reckoning.onStep(t);
+        }
+        t += DeadReckoning.WINDOW_MS;
+        assertTrue(reckoning.onHeading(t, 90, 5));
+        double truth = 1.6 * 120 + 100;
+        assertEquals(truth, frame.y(filter.getLat()), 3);
+        assertEquals(0, frame.x(filter.getLat(), filter.getLng()), 3);
+        assertEquals("stopped", 0, filter.getSpeed(), 1e-9);
+    }
+
+    @Test
+    public void errorBoundAsksForOneFix() {
+        KalmanFilter filter = new KalmanFilter();
+        DeadReckoning reckoning = new DeadReckoning(filter, 40);
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        frame.reset(-7.45, 110.43);
+        calibrate(reckoning, frame, 0, 120);
+        double atFix = reckoning.getErrorBound();
+        assertEquals(DeadReckoning.BOUND_SIGMAS * reckoning.getErrorSigma(), atFix, 1e-9);
+        assertTrue(atFix < 3);
+
+        long t = 120_000;
+        int steps = 0;
+        while (!reckoning.shouldRequestFix(t)) {
+            t += 500;
+            reckoning.onHeading(t, 90, 5);
+            reckoning.onStep(t);
+            steps++;
+        }
+        // 40 m at two sigma of 10 % drift is reached after about 200 m
+        assertEquals(200, steps * reckoning.getStepLength(), 10);
+        assertFalse("asked once", reckoning.shouldRequestFix(t + 500));
+
+        double lat = frame.lat(1.6 * 120 + steps * 0.8);
+        reckoning.onFix(lat, frame.lng(0, lat), 1f, t + 1_000);
+        assertTrue(reckoning.getErrorBound() < 3);
+        // Sensors gone quiet: no longer active, nothing asked for
+        assertFalse(reckoning.isActive(t + 60_000));
+    }
+
+    @Test
+    public void aMovedPhoneStopsDeadReckoningUntilRecalibrated() {
+        KalmanFilter filter = new KalmanFilter();
+        DeadReckoning reckoning = new DeadReckoning(filter);
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        frame.reset(-7.45, 110.43);
+        calibrate(reckoning, frame, 0, 120);
+        assertTrue(reckoning.isActive(120_000));
+
+        // Phone now points north-west while the hiker keeps walking north; a fix every 100 steps
+        long t = 120_000;
+        double y = 1.6 * 120;
+        for (int chord = 0; chord < 5; chord++) {
+            for (int step = 1; step <= 100; step++) {
+                t += 500;
+                reckoning.onHeading(t, 315, 5);
+                reckoning.onStep(t);
+            }
+            y += 100 * 0.8;
+            double lat = frame.lat(y);
+            reckoning.onFix(lat, frame.lng(0, lat), 1f, t);
+            if (chord == 0) {
+                assertFalse(reckoning.isActive(t));
+            }
+        }
+        assertTrue(reckoning.isActive(t));
+        assertEquals(45, reckoning.getHeadingOffset(), 3);
+        assertEquals(0.4, reckoning.getWalkRatio(), 0.02);
+    }
+
+    /**
+     * Each Merbabu hike as a recorded log: steps with stride and cadence
+     * both following the pace, a compass 35 degrees off the walking direction with
+     * slowly wandering bias and noise, and GPS fixes with white noise and
+     * bias. Replayed through the scheduler four ways: the old fixed 2 s
+     * request, the scheduler on GPS alone, and the scheduler with dead
+     * reckoning at two error limits. Reports fixes per hour, RMS, 95th
+     * percentile and worst error of the estimate each second, and how often
+     * the error stayed within the dead-reckoning bound.
+     */
+    @Test
+    public void replayMerbabuHikes() {
+        TrailGeometryStore store = TrailGeometryStore.getInstance();
+        List<TrailEntity> trails = new ArrayList<>();
+        for (String name : TestTracks.MERBABU) {
+            trails.add(TestTracks.trail(name));
+        }
+        TrailWorkingSet set = TrailWorkingSet.build(Collections.singletonList("merbabu"), trails,
+                Collections.<PoiEntity>emptyList(), store, store.getVersion(), Double.NaN, Double.NaN,
+                TrailWorkingSet.DEFAULT_MARGIN_DEGREES, System.nanoTime());
+
+        String[] labels = { "fixed 2 s", "scheduler, GPS only", "dead reckoning, 20 m", "dead reckoning, 30 m" };
+        double[] fixesPerHour = new double[labels.length];
+        double[] rms = new double[labels.length];
+        double[] p95 = new double[labels.length];
+        double[] worst = new double[labels.length];
+        double[] withinBound = new double[labels.length];
+        double eventsPerHour = 0, tasksPerHour = 0;
+        for (int i = 0; i < TestTracks.MERBABU.length; i++) {
+            double[][] truth = KalmanFilterTest.walk(TestTracks.load(TestTracks.MERBABU[i]));
+            for (int k = 0; k < labels.length; k++) {
+                Replay replay = new Replay(store, set, k == 0, k >= 2, k == 2 ? 20 : 30);
+                replay.run(truth, 41L * i);
+                fixesPerHour[k] += replay.fixes / (truth[0].length / 3600.0) / TestTracks.MERBABU.length;
+                rms[k] += replay.rms() / TestTracks.MERBABU.length;
+                p95[k] += replay.percentile(0.95) / TestTracks.MERBABU.length;
+                worst[k] = Math.max(worst[k], replay.percentile(1));
+                withinBound[k] += replay.withinBound() / TestTracks.MERBABU.length;
+                if (k == 2) {
+                    eventsPerHour += replay.sensorEvents / (truth[0].length / 3600.0) / TestTracks.MERBABU.length;
+                    tasksPerHour += replay.sensorTasks / (truth[0].length / 3600.0) / TestTracks.MERBABU.length;
+                }
+            }
+        }
+        for (int k = 0; k < labels.length; k++) {
+            Benchmark.report("dead reckoning replay, %-21s %4.0f fixes/h (%3.0f%% saved), "
+                            + "error RMS %.1f m, p95 %.1f m, worst %.1f m%s", labels[k] + ":",
+                    fixesPerHour[k], 100 * (1 - fixesPerHour[k] / fixesPerHour[0]), rms[k], p95[k], worst[k],
+                    k >= 2 ? String.format(", %.0f%% within bound", 100 * withinBound[k]) : "");
+        }
+        Benchmark.report("dead reckoning replay, %.0f sensor events/h handed over in %.0f tasks/h",
+                eventsPerHour, tasksPerHour);
+        assertTrue(fixesPerHour[2] < fixesPerHour[1] / 4);
+        assertTrue(fixesPerHour[3] < fixesPerHour[2]);
+        assertTrue(p95[2] < 2 * p95[1]);
+        assertTrue(withinBound[2] > 0.95);
+        assertTrue(withinBound[3] > 0.95);
+        assertTrue(tasksPerHour < eventsPerHour / 2);
+    }
+
+    /** The scheduler's requests, with a fix asked for arriving after FORCED_FIX_DELAY_MS. */
+    private static final class FakeSource implements LocationSource {
+        long intervalMs;
+        int requests;
+        long forcedAtMs = -1;
+        long nowMs;
+
+        @Override
+        public void request(SamplingScheduler.Request request) {
+            intervalMs = request.intervalMs;
+            requests++;
+        }
+
+        @Override
+        public void requestFix() {
+            forcedAtMs = nowMs + FORCED_FIX_DELAY_MS;
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    /** One hike, stepped every 100 ms the way the service sees it; fixes are delivered at once. */
+    private static final class Replay {
+        final FakeSource source = new FakeSource();
+        final SamplingScheduler scheduler = new SamplingScheduler(source);
+        final KalmanFilter filter = new KalmanFilter();
+        final DeadReckoning reckoning;
+        final DeviationEngine engine;
+        final TrailWorkingSet set;
+        final boolean fixed;
+        final boolean sensors;
+        double[] errors;
+        int within;
+        int active;
+        long fixes;
+        // Heading and step events, and the bgExecutor tasks the service posts for them
+        long sensorEvents;
+        long sensorTasks;
+
+        Replay(TrailGeometryStore store, TrailWorkingSet set, boolean fixed, boolean sensors, double maxError) {
+            this.reckoning = new DeadReckoning(filter, maxError);
+            this.engine = new DeviationEngine(store);
+            this.set = set;
+            this.fixed = fixed;
+            this.sensors = sensors;
+            if (fixed) {
+                source.intervalMs = 2_000;
+            } else {
+                scheduler.start();
+            }
+        }
+
+        void run(double[][] truth, long seed) {
+            Random random = new Random(seed);
+            GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+            frame.reset(truth[0][0], truth[1][0]);
+            int seconds = truth[0].length - 1;
+            errors = new double[seconds];
+            double gpsDecay = Math.exp(-0.1 / GPS_BIAS_TAU_S);
+            double gpsDrive = GPS_BIAS_SIGMA * Math.sqrt(1 - gpsDecay * gpsDecay);
+            double headingDecay = Math.exp(-0.1 / HEADING_BIAS_TAU_S);
+            double headingDrive = HEADING_BIAS_SIGMA * Math.sqrt(1 - headingDecay * headingDecay);
+            double biasE = 0, biasN = 0, headingBias = 0;
+            double course = 0, stepPhase = 0;
+            long nextFixMs = 0;
+            double heading = 0;
+            long headingMs = -1, handedOverMs = -HEADING_HANDOVER_MS;
+
+            for (int tick = 0; tick < seconds * 10; tick++) {
+                long now = tick * 100L;
+                source.nowMs = now;
+                int t = tick / 10;
+                double f = (tick % 10) / 10.0;
+                double lat = truth[0][t] + f * (truth[0][t + 1] - truth[0][t]);
+                double lng = truth[1][t] + f * (truth[1][t + 1] - truth[1][t]);
+                double dx = frame.x(truth[0][t + 1], truth[1][t + 1]) - frame.x(truth[0][t], truth[1][t]);
+                double dy = frame.y(truth[0][t + 1]) - frame.y(truth[0][t]);
+                double pace = Math.hypot(dx, dy);
+                if (pace > 0.05) {
+                    course = Math.toDegrees(Math.atan2(dx, dy));
+                }
+                biasE = biasE * gpsDecay + gpsDrive * random.nextGaussian();
+                biasN = biasN * gpsDecay + gpsDrive * random.nextGaussian();
+                headingBias = headingBias * headingDecay + headingDrive * random.nextGaussian();
+
+                if (sensors) {
+                    if (now % HEADING_PERIOD_MS == 0) {
+                        heading = course - PHONE_OFFSET + headingBias + HEADING_WHITE_SIGMA * random.nextGaussian();
+                        headingMs = now;
+                        sensorEvents++;
+                        if (now - handedOverMs >= HEADING_HANDOVER_MS) {
+                            sensorTasks++;
+                            handedOverMs = now;
+                            headingMs = -1;
+                            if (reckoning.onHeading(now, heading, HEADING_ACCURACY)) {
+                                afterEstimate(now);
+                            }
+                        }
+                    }
+                    // Stride ~ sqrt(pace), the rest is cadence
+                    stepPhase += pace > 0.05 ? pace / (STRIDE_AT_1MS * Math.sqrt(pace)) / 10 : 0;
+                    if (stepPhase >= 1) {
+                        stepPhase -= 1;
+                        sensorEvents++;
+                        sensorTasks++;
+                        if (headingMs >= 0) {
+                            handedOverMs = now;
+                            if (reckoning.onHeading(headingMs, heading, HEADING_ACCURACY)) {
+                                afterEstimate(now);
+                            }
+                            headingMs = -1;
+                        }
+                        if (reckoning.onStep(now)) {
+                            afterEstimate(now);
+                        }
+                    }
+                }
+
+                boolean forced = source.forcedAtMs >= 0 && now >= source.forcedAtMs;
+                if (now >= nextFixMs || forced) {
+                    double y = frame.y(lat) + biasN + GPS_WHITE_SIGMA * random.nextGaussian();
+                    double x = frame.x(lat, lng) + biasE + GPS_WHITE_SIGMA * random.nextGaussian();
+                    double mLat = frame.lat(y);
+                    reckoning.onFix(mLat, frame.lng(x, mLat), ACCURACY, now);
+                    fixes++;
+                    source.forcedAtMs = -1;
+                    nextFixMs = now + source.intervalMs;
+                    afterEstimate(now);
+                }
+                // A shorter request takes over from the pending long one
+                nextFixMs = Math.min(nextFixMs, now + source.intervalMs);
+
+                if (tick % 10 == 0) {
+                    double error = GeoMath.distanceMeters(lat, lng, filter.getLat(), filter.getLng());
+                    errors[t] = error;
+                    if (reckoning.isActive(now)) {
+                        active++;
+                        if (error <= reckoning.getErrorBound()) {
+                            within++;
+                        }
+                    }
+                }
+            }
+        }
+
+        /** What PanduService does after the estimate moves. */
+        private void afterEstimate(long now) {
+            if (fixed) {
+                return;
+            }
+            DeviationEngine.SafetyStatus status = engine.checkSafetyIndexed(filter.getLat(), filter.getLng(),
+                    set.getIndexes());
+            scheduler.update(now, filter.getLat(), filter.getLng(), filter.getSpeed(),
+                    engine.getLastDeviationDistance(), status);
+            scheduler.setDeadReckoning(reckoning.isActive(now));
+            if (reckoning.shouldRequestFix(now)) {
+                source.requestFix();
+            }
+        }
+
+        double rms() {
+            double sumSq = 0;
+            for (double error : errors) {
+                sumSq += error * error;
+            }
+            return Math.sqrt(sumSq / errors.length);
+        }
+
+        double percentile(double p) {
+            double[] sorted = errors.clone();
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(sorted.length - 1, p * sorted.length)];
+        }
+
+        double withinBound() {
+            return active == 0 ? 1 : (double) within / active;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.data.TrailEntity;
+import com.example.pandu_navigation.data.TrailGeometryStore;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-fix latency and garbage of DeviationEngine.checkSafety on the longest
+ * Merbabu tracks: Gson parsing on every fix versus the decoded geometry store.
+ */
+public class DeviationEngineBenchmarkTest {
+
+    private static final int FIXES = 2000;
+
+    @Test
+    public void benchmarkCheckSafetyOnLongestTracks() {
+        List<TrailEntity> trails = new ArrayList<>();
+        trails.add(TestTracks.trail("Thekelan"));
+        trails.add(TestTracks.trail("Grenden"));
+        List<String> geometryJson = new ArrayList<>();
+        geometryJson.add(TestTracks.json("Thekelan"));
+        geometryJson.add(TestTracks.json("Grenden"));
+        double[][] walk = TestTracks.load("Thekelan");
+
+        DeviationEngine engine = new DeviationEngine(TrailGeometryStore.getInstance());
+        LegacyEngine legacy = new LegacyEngine();
+
+        // Warmup & Verification
+        for (int i = 0; i < walk[0].length; i++) {
+            double lat = walk[0][i] + 0.0001;
+            double lng = walk[1][i];
+            engine.checkSafety(lat, lng, trails);
+            assertEquals(legacy.minDistance(lat, lng, geometryJson), engine.getLastDeviationDistance(), 1e-9);
+        }
+
+        long[] legacyCost = measure(() -> {
+            for (int i = 0; i < FIXES; i++) {
+                int p = i % walk[0].length;
+                legacy.minDistance(walk[0][p] + 0.0001, walk[1][p], geometryJson);
+            }
+        });
+        long[] storeCost = measure(() -> {
+            for (int i = 0; i < FIXES; i++) {
+                int p = i % walk[0].length;
+                engine.checkSafety(walk[0][p] + 0.0001, walk[1][p], trails);
+            }
+        });
+
+        Benchmark.report("checkSafety legacy Gson path: %.1f us/fix, %d bytes/fix",
+                legacyCost[0] / 1000.0 / FIXES, legacyCost[1] / FIXES);
+        Benchmark.report("checkSafety geometry store:   %.1f us/fix, %d bytes/fix",
+                storeCost[0] / 1000.0 / FIXES, storeCost[1] / FIXES);
+
+        assertTrue("Store path should allocate less than the Gson path", storeCost[1] < legacyCost[1]);
+    }
+
+    /** Returns {elapsed nanos, allocated bytes} for the current thread. */
+    public static long[] measure(Runnable work) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        work.run();
+        long elapsed = System.nanoTime() - start;
+        return new long[] { elapsed, threads.getThreadAllocatedBytes(threadId) - bytesBefore };
+    }
+
+    /** The pre-store implementation: parse geometryJson through Gson on every fix. */
+    private static class LegacyEngine {
+        private final Gson gson = new Gson();
+        private final Type listType = new TypeToken<List<List<Double>>>() {
+        }.getType();
+
+        double minDistance(double userLat, double userLng, List<String> geometryJson) {
+            double minDistance = Double.MAX_VALUE;
+            for (String json : geometryJson) {
+                List<List<Double>> points = gson.fromJson(json, listType);
+                for (int i = 0; i < points.size() - 1; i++) {
+                    List<Double> p1 = points.get(i);
+                    List<Double> p2 = points.get(i + 1);
+                    double dist = GeoMath.distanceToSegment(userLat, userLng,
+                            p1.get(1), p1.get(0), p2.get(1), p2.get(0));
+                    if (dist < minDistance) {
+                        minDistance = dist;
+                    }
+                }
+            }
+            return minDistance;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+public class GatedLocationSourceTest {
+
+    private static final class Source extends GatedLocationSource {
+        int requests;
+        int fixes;
+        int stops;
+
+        @Override
+        protected void onRequest(SamplingScheduler.Request request) {
+            requests++;
+        }
+
+        @Override
+        protected void onRequestFix() {
+            fixes++;
+        }
+
+        @Override
+        protected void onStop() {
+            stops++;
+        }
+    }
+
+    /** PanduService.startTracking: activate on the caller, then queue the scheduler start for bgExecutor. */
+    private static void startTracking(Source source, SamplingScheduler scheduler, Queue<Runnable> bgExecutor) {
+        source.activate();
+        bgExecutor.add(scheduler::start);
+    }
+
+    @Test
+    public void theFirstRequestGoesOutWhicheverThreadRunsFirst() {
+        Source source = new Source();
+        SamplingScheduler scheduler = new SamplingScheduler(source);
+        Queue<Runnable> bgExecutor = new ArrayDeque<>();
+
+        startTracking(source, scheduler, bgExecutor);
+        // The executor picks the task up before the caller gets any further
+        bgExecutor.remove().run();
+        assertEquals(1, source.requests);
+    }
+
+    @Test
+    public void requestsOutsideActivateAndStopAreDropped() {
+        Source source = new Source();
+        SamplingScheduler scheduler = new SamplingScheduler(source);
+
+        scheduler.start();
+        source.requestFix();
+        assertEquals("not active yet", 0, source.requests + source.fixes);
+
+        source.activate();
+        scheduler.setBattery(5, false);
+        source.requestFix();
+        assertEquals(1, source.requests);
+        assertEquals(1, source.fixes);
+
+        source.stop();
+        source.stop();
+        assertEquals(1, source.stops);
+        // A late request from the fix thread doesn't restart updates
+        scheduler.setDeadReckoning(true);
+        assertEquals(1, source.requests);
+    }
+
+    @Test
+    public void aStopBeforeTheQueuedStartLeavesUpdatesOff() {
+        Source source = new Source();
+        SamplingScheduler scheduler = new SamplingScheduler(source);
+        Queue<Runnable> bgExecutor = new ArrayDeque<>();
+
+        startTracking(source, scheduler, bgExecutor);
+        source.stop();
+        bgExecutor.remove().run();
+        assertEquals(0, source.requests);
+    }
+}
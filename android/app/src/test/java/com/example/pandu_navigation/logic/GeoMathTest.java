@@ -0,0 +1,205 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GeoMathTest {
+
+    private static final double MAX_ERROR_METERS = 0.5;
+    private static final double MAX_RANGE_METERS = 5000;
+
+    @Test
+    public void sphericalFrameMatchesHaversineWithin5Km() {
+        Random random = new Random(1);
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        double worst = 0;
+        for (int i = 0; i < 100000; i++) {
+            double[] p = randomPair(random);
+            frame.reset(p[0], p[1]);
+            double planar = Math.sqrt(frame.distanceSq(p[2], p[3]));
+            double exact = GeoMath.distanceMeters(p[0], p[1], p[2], p[3]);
+            worst = Math.max(worst, Math.abs(planar - exact));
+        }
+        Benchmark.report("spherical frame worst error vs haversine: %.4f m", worst);
+        assertTrue(worst < MAX_ERROR_METERS);
+    }
+
+    @Test
+    public void wgs84FrameMatchesVincentyWithin5Km() {
+        Random random = new Random(2);
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame(true);
+        double worst = 0;
+        for (int i = 0; i < 100000; i++) {
+            double[] p = randomPair(random);
+            frame.reset(p[0], p[1]);
+            double planar = Math.sqrt(frame.distanceSq(p[2], p[3]));
+            double exact = vincentyMeters(p[0], p[1], p[2], p[3]);
+            worst = Math.max(worst, Math.abs(planar - exact));
+        }
+        Benchmark.report("WGS84 frame worst error vs Vincenty: %.4f m", worst);
+        assertTrue(worst < MAX_ERROR_METERS);
+    }
+
+    @Test
+    public void segmentDistanceMatchesDenseHaversineSampling() {
+        Random random = new Random(3);
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        for (int i = 0; i < 2000; i++) {
+            double[] a = randomPair(random);
+            double[] b = randomPair(random);
+            // Segment from a's second point to b's second point, all near a's origin
+            double lat1 = a[2], lng1 = a[3];
+            double lat2 = a[0] + (b[2] - b[0]) / 2, lng2 = a[1] + (b[3] - b[1]) / 2;
+
+            double sampled = Double.MAX_VALUE;
+            for (int s = 0; s <= 4000; s++) {
+                double t = s / 4000.0;
+                sampled = Math.min(sampled, GeoMath.distanceMeters(a[0], a[1],
+                        lat1 + t * (lat2 - lat1), lng1 + t * (lng2 - lng1)));
+            }
+
+            frame.reset(a[0], a[1]);
+            assertEquals(sampled, Math.sqrt(frame.distanceSqToSegment(lat1, lng1, lat2, lng2)), MAX_ERROR_METERS);
+            assertEquals(sampled, frame.exactDistanceToSegment(lat1, lng1, lat2, lng2), MAX_ERROR_METERS);
+            assertEquals(sampled, GeoMath.distanceToSegment(a[0], a[1], lat1, lng1, lat2, lng2), MAX_ERROR_METERS);
+        }
+    }
+
+    @Test
+    public void frameInverseRoundTrips() {
+        Random random = new Random(4);
+        for (GeoMath.LocalFrame frame : new GeoMath.LocalFrame[] { new GeoMath.LocalFrame(),
+                new GeoMath.LocalFrame(true) }) {
+            for (int i = 0; i < 10000; i++) {
+                double[] p = randomPair(random);
+                frame.reset(p[0], p[1]);
+                double lat = frame.lat(frame.y(p[2]));
+                assertEquals(p[2], lat, 1e-9);
+                assertEquals(p[3], frame.lng(frame.x(p[2], p[3]), lat), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkNearestSegmentFastPath() {
+        double[][] track = TestTracks.load("Thekelan");
+        int n = track[0].length;
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        int fixes = 20000;
+
+        double sink = 0;
+        for (int round = 0; round < 2; round++) { // first round is warmup
+            long start = System.nanoTime();
+            for (int f = 0; f < fixes; f++) {
+                int p = f % n;
+                sink += legacyNearest(track, track[0][p] + 0.0003, track[1][p]);
+            }
+            long legacy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int f = 0; f < fixes; f++) {
+                int p = f % n;
+                double userLat = track[0][p] + 0.0003;
+                double userLng = track[1][p];
+                frame.reset(userLat, userLng);
+                double best = Double.MAX_VALUE;
+                int bestI = 0;
+                for (int i = 0; i < n - 1; i++) {
+                    double d = frame.distanceSqToSegment(track[0][i], track[1][i], track[0][i + 1], track[1][i + 1]);
+                    if (d < best) {
+                        best = d;
+                        bestI = i;
+                    }
+                }
+                sink -= frame.exactDistanceToSegment(track[0][bestI], track[1][bestI],
+                        track[0][bestI + 1], track[1][bestI + 1]);
+            }
+            long fast = System.nanoTime() - start;
+
+            if (round == 1) {
+                Benchmark.report("nearest segment over %d points: haversine per segment %.1f us/fix, "
+                        + "local frame %.1f us/fix (%.1fx)",
+                        n, legacy / 1000.0 / fixes, fast / 1000.0 / fixes, (double) legacy / fast);
+            }
+        }
+        // Degree-space projection picks slightly different closest points, never far off
+        assertEquals(0.0, sink / (2.0 * fixes), 1.0);
+    }
+
+    // The previous distanceToSegment: closest point in raw degrees, then haversine
+    private static double legacyNearest(double[][] track, double pLat, double pLng) {
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i < track[0].length - 1; i++) {
+            double x1 = track[1][i], y1 = track[0][i];
+            double c = track[1][i + 1] - x1, d = track[0][i + 1] - y1;
+            double lenSq = c * c + d * d;
+            double param = lenSq != 0 ? ((pLng - x1) * c + (pLat - y1) * d) / lenSq : -1;
+            double xx, yy;
+            if (param < 0) {
+                xx = x1;
+                yy = y1;
+            } else if (param > 1) {
+                xx = x1 + c;
+                yy = y1 + d;
+            } else {
+                xx = x1 + param * c;
+                yy = y1 + param * d;
+            }
+            min = Math.min(min, GeoMath.distanceMeters(pLat, pLng, yy, xx));
+        }
+        return min;
+    }
+
+    // {lat1, lng1, lat2, lng2} at most 5 km apart, latitudes within +-60
+    private static double[] randomPair(Random random) {
+        double lat = -60 + random.nextDouble() * 120;
+        double lng = -180 + random.nextDouble() * 360;
+        double dist = random.nextDouble() * MAX_RANGE_METERS;
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        double dLat = dist * Math.cos(bearing) / 111195.0;
+        double dLng = dist * Math.sin(bearing) / (111195.0 * Math.cos(Math.toRadians(lat + dLat / 2)));
+        return new double[] { lat, lng, lat + dLat, lng + dLng };
+    }
+
+    // Vincenty inverse formula on the WGS84 ellipsoid
+    static double vincentyMeters(double lat1, double lng1, double lat2, double lng2) {
+        double a = 6378137.0, f = 1 / 298.257223563, b = a * (1 - f);
+        double l = Math.toRadians(lng2 - lng1);
+        double u1 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat1)));
+        double u2 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat2)));
+        double sinU1 = Math.sin(u1), cosU1 = Math.cos(u1), sinU2 = Math.sin(u2), cosU2 = Math.cos(u2);
+        double lambda = l, lambdaP;
+        double sinSigma, cosSigma, sigma, cosSqAlpha, cos2SigmaM;
+        int iter = 0;
+        do {
+            double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+            sinSigma = Math.sqrt((cosU2 * sinLambda) * (cosU2 * sinLambda)
+                    + (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda) * (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+            if (sinSigma == 0)
+                return 0;
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+            double c = f / 16 * cosSqAlpha * (4 + f * (4 - 3 * cosSqAlpha));
+            lambdaP = lambda;
+            lambda = l + (1 - c) * f * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+        } while (Math.abs(lambda - lambdaP) > 1e-12 && ++iter < 200);
+
+        double uSq = cosSqAlpha * (a * a - b * b) / (b * b);
+        double bigA = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+        double bigB = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+        double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                - bigB / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+        return b * bigA * (sigma - deltaSigma);
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Replays the Merbabu tracks as a hiker walking them at a varying pace,
+ * sampled every 1, 5 and 10 s with GPS-like noise, and compares the filtered
+ * positions against the true ones.
+ */
+public class KalmanFilterTest {
+
+    private static final float ACCURACY = 5f;
+    private static final double WHITE_SIGMA = 4.0;
+    // Multipath and atmosphere: slowly wandering bias, the part no filter can remove
+    private static final double BIAS_SIGMA = 2.0;
+    private static final double BIAS_TAU_S = 60;
+
+    /** Where the hiker really is, once a second, walking the track at 0.6-1.4 m/s with rests. */
+    static double[][] walk(double[][] track) {
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        frame.reset(track[0][0], track[1][0]);
+        int n = track[0].length;
+        double[] along = new double[n];
+        for (int i = 1; i < n; i++) {
+            along[i] = along[i - 1] + GeoMath.distanceMeters(track[0][i - 1], track[1][i - 1], track[0][i], track[1][i]);
+        }
+        int seconds = 0;
+        double d = 0;
+        while (d < along[n - 1]) {
+            d += pace(seconds++);
+        }
+        double[][] truth = new double[2][seconds];
+        d = 0;
+        int seg = 0;
+        for (int t = 0; t < seconds; t++) {
+            while (seg < n - 2 && along[seg + 1] < d) {
+                seg++;
+            }
+            double len = along[seg + 1] - along[seg];
+            double f = len == 0 ? 0 : Math.min(1, (d - along[seg]) / len);
+            truth[0][t] = track[0][seg] + f * (track[0][seg + 1] - track[0][seg]);
+            truth[1][t] = track[1][seg] + f * (track[1][seg + 1] - track[1][seg]);
+            d += pace(t);
+        }
+        return truth;
+    }
+
+    private static double pace(int t) {
+        if (t % 900 >= 840) {
+            return 0; // a minute's rest every quarter hour
+        }
+        return 1.0 + 0.4 * Math.sin(t / 97.0);
+    }
+
+    /** {raw, legacy, new} RMS error in meters over the track, after the first minute. */
+    private static double[] replay(double[][] truth, int intervalS, long seed) {
+        Random random = new Random(seed);
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        frame.reset(truth[0][0], truth[1][0]);
+        LegacyFilter legacy = new LegacyFilter(-1);
+        KalmanFilter filter = new KalmanFilter();
+        double biasE = 0, biasN = 0;
+        double decay = Math.exp(-intervalS / BIAS_TAU_S);
+        double drive = BIAS_SIGMA * Math.sqrt(1 - decay * decay);
+        double[] sumSq = new double[3];
+        int count = 0;
+        for (int t = 0; t < truth[0].length; t += intervalS) {
+            biasE = biasE * decay + drive * random.nextGaussian();
+            biasN = biasN * decay + drive * random.nextGaussian();
+            double lat = truth[0][t];
+            double lng = truth[1][t];
+            double y = frame.y(lat) + biasN + WHITE_SIGMA * random.nextGaussian();
+            double x = frame.x(lat, lng) + biasE + WHITE_SIGMA * random.nextGaussian();
+            double mLat = frame.lat(y);
+            double mLng = frame.lng(x, mLat);
+            long time = t * 1000L;
+
+            legacy.process(mLat, mLng, ACCURACY, time);
+            filter.process(mLat, mLng, ACCURACY, time);
+            if (t >= 60) {
+                double raw = GeoMath.distanceMeters(lat, lng, mLat, mLng);
+                double old = GeoMath.distanceMeters(lat, lng, legacy.lat, legacy.lng);
+                double kf = GeoMath.distanceMeters(lat, lng, filter.getLat(), filter.getLng());
+                sumSq[0] += raw * raw;
+                sumSq[1] += old * old;
+                sumSq[2] += kf * kf;
+                count++;
+            }
+        }
+        return new double[] { Math.sqrt(sumSq[0] / count), Math.sqrt(sumSq[1] / count), Math.sqrt(sumSq[2] / count) };
+    }
+
+    @Test
+    public void beatsTheLegacyFilterOnMerbabuReplays() {
+        for (int interval : new int[] { 1, 5, 10 }) {
+            double[] total = new double[3];
+            for (int i = 0; i < TestTracks.MERBABU.length; i++) {
+                double[] rms = replay(walk(TestTracks.load(TestTracks.MERBABU[i])), interval, 31 * i + interval);
+                for (int k = 0; k < 3; k++) {
+                    total[k] += rms[k];
+                }
+            }
+            int tracks = TestTracks.MERBABU.length;
+            Benchmark.report("Kalman replay every %2d s, RMS error: raw %.2f m, legacy %.2f m, "
+                    + "constant velocity %.2f m", interval, total[0] / tracks, total[1] / tracks, total[2] / tracks);
+            assertTrue(interval + " s", total[2] < total[1]);
+            assertTrue(interval + " s", total[2] < total[0]);
+        }
+    }
+
+    @Test
+    public void estimatesVelocity() {
+        KalmanFilter filter = new KalmanFilter();
+        Random random = new Random(8);
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        frame.reset(-7.45, 110.43);
+        // 1.2 m/s towards north-east, one noisy fix a second
+        double speed = 1.2;
+        double heading = Math.toRadians(45);
+        for (int t = 0; t <= 300; t++) {
+            double x = speed * Math.sin(heading) * t + WHITE_SIGMA * random.nextGaussian();
+            double y = speed * Math.cos(heading) * t + WHITE_SIGMA * random.nextGaussian();
+            double lat = frame.lat(y);
+            filter.process(lat, frame.lng(x, lat), ACCURACY, t * 1000L);
+        }
+        assertEquals(speed, filter.getSpeed(), 0.25);
+        assertEquals(45, filter.getBearing(), 15);
+        assertTrue(filter.getAccuracy() < ACCURACY);
+    }
+
+    @Test
+    public void staysExactAcrossReanchoring() {
+        KalmanFilter filter = new KalmanFilter();
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        frame.reset(-7.45, 110.43);
+        double worst = 0;
+        // 20 km due east at 5 m/s, noise free, so the frame moves several times
+        for (int t = 0; t <= 4000; t++) {
+            double lat = frame.lat(0);
+            double lng = frame.lng(5.0 * t, lat);
+            filter.process(lat, lng, ACCURACY, t * 1000L);
+            if (t > 60) {
+                worst = Math.max(worst, GeoMath.distanceMeters(lat, lng, filter.getLat(), filter.getLng()));
+            }
+        }
+        assertTrue("worst " + worst, worst < 0.5);
+        assertEquals(5.0, filter.getVelocityEast(), 0.01);
+        assertEquals(0.0, filter.getVelocityNorth(), 0.01);
+    }
+
+    @Test
+    public void firstFixIsTakenAsIs() {
+        KalmanFilter filter = new KalmanFilter();
+        filter.process(-7.4539, 110.4397, 12f, 1_000);
+        assertEquals(-7.4539, filter.getLat(), 0);
+        assertEquals(110.4397, filter.getLng(), 0);
+        assertEquals(0, filter.getSpeed(), 0);
+
+        filter.reset();
+        filter.process(-7.5407, 110.4457, 3f, 2_000);
+        assertEquals(-7.5407, filter.getLat(), 0);
+    }
+
+    @Test
+    public void advanceMovesTheEstimateAndGrowsItsUncertainty() {
+        KalmanFilter filter = new KalmanFilter();
+        filter.advance(10, 10, 1, 500); // before the first fix: nothing to move
+        filter.process(-7.45, 110.43, ACCURACY, 1_000);
+        double accuracy = filter.getAccuracy();
+
+        // 2 m east and 2 m north over 2 s
+        filter.advance(2.0, 2.0, 0.5, 3_000);
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        frame.reset(-7.45, 110.43);
+        assertEquals(2.0, frame.x(filter.getLat(), filter.getLng()), 1e-6);
+        assertEquals(2.0, frame.y(filter.getLat()), 1e-6);
+        assertEquals(1.0, filter.getVelocityEast(), 1e-9);
+        assertEquals(45, filter.getBearing(), 1e-6);
+        assertEquals(Math.sqrt(accuracy * accuracy + 0.5), filter.getAccuracy(), 1e-9);
+
+        // The next fix still pulls the estimate towards it
+        filter.process(frame.lat(0), frame.lng(0, frame.lat(0)), ACCURACY, 4_000);
+        assertTrue(frame.x(filter.getLat(), filter.getLng()) < 2.0);
+    }
+
+    @Test
+    public void stepsWithoutAllocating() {
+        KalmanFilter filter = new KalmanFilter();
+        double[][] track = TestTracks.load("Selo");
+        long[] cost = DeviationEngineBenchmarkTest.measure(() -> {
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < track[0].length; i++) {
+                    filter.process(track[0][i], track[1][i], ACCURACY, (round * track[0].length + i) * 1000L);
+                }
+            }
+        });
+        int steps = 20 * track[0].length;
+        Benchmark.report("Kalman step %.0f ns, %d bytes over %d steps",
+                (double) cost[0] / steps, cost[1], steps);
+        assertTrue(cost[1] < 1024);
+    }
+
+    /** The previous filter: one variance shared by lat/lng degrees, no velocity. */
+    private static final class LegacyFilter {
+        private long timestamp;
+        private float variance;
+        double lat;
+        double lng;
+
+        LegacyFilter(float variance) {
+            this.variance = variance;
+        }
+
+        void process(double latMeasurement, double lngMeasurement, float accuracy, long timestampMillis) {
+            if (accuracy < 1)
+                accuracy = 1;
+            if (variance < 0) {
+                lat = latMeasurement;
+                lng = lngMeasurement;
+                timestamp = timestampMillis;
+                variance = accuracy * accuracy;
+                return;
+            }
+            long timeInc = timestampMillis - timestamp;
+            if (timeInc > 0) {
+                variance += timeInc * 0.001f * timeInc * 0.001f;
+                timestamp = timestampMillis;
+            }
+            float k = variance / (variance + accuracy * accuracy);
+            lat += k * (latMeasurement - lat);
+            lng += k * (lngMeasurement - lng);
+            variance = (1 - k) * variance;
+        }
+    }
+}
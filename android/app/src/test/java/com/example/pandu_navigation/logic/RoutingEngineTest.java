@@ -0,0 +1,428 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.data.TrailGeometry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RoutingEngineTest {
+
+    @Test
+    public void heapPopsInKeyOrderAfterDecreases() {
+        RoutingEngine.IndexedHeap heap = new RoutingEngine.IndexedHeap();
+        heap.ensureCapacity(500);
+        Random random = new Random(3);
+        double[] keys = new double[500];
+        for (int n = 0; n < 500; n++) {
+            keys[n] = random.nextDouble() * 1000;
+            heap.push(n, keys[n]);
+        }
+        for (int i = 0; i < 300; i++) {
+            int n = random.nextInt(500);
+            keys[n] -= random.nextDouble() * 100;
+            heap.decrease(n, keys[n]);
+        }
+
+        double[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        for (double expected : sorted) {
+            assertEquals(expected, keys[heap.pop()], 0.0);
+        }
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test
+    public void sharedVerticesJoinTrailsIntoOneNode() {
+        // Two trails crossing at (0, 0.001); the second point repeats within a meter
+        RoutingGraph graph = RoutingGraph.build(Arrays.asList(
+                line(new double[] { 0, 0, 0 }, new double[] { 0, 0.001, 0.002 }),
+                line(new double[] { -0.001, 0.000002, 0.001 }, new double[] { 0.001, 0.001, 0.001 })),
+                new int[] { 1, 1 });
+
+        assertEquals(5, graph.getNodeCount());
+        assertEquals(8, graph.getEdgeCount());
+        int cross = graph.nearestNode(0, 0.001, 10);
+        assertEquals(4, graph.edgeStart[cross + 1] - graph.edgeStart[cross]);
+        assertEquals(-1, graph.nearestNode(0.5, 0.5, RoutingEngine.MAX_SNAP_METERS));
+    }
+
+    @Test
+    public void prefersTheCheaperTrailAndSnapsItsEnds() {
+        // Flat detour north against a straight but grade 5 trail
+        RoutingGraph graph = RoutingGraph.build(Arrays.asList(
+                line(new double[] { 0, 0, 0 }, new double[] { 0, 0.005, 0.01 }),
+                line(new double[] { 0, 0.001, 0.001, 0 }, new double[] { 0, 0, 0.01, 0.01 })),
+                new int[] { 5, 1 });
+        RoutingEngine engine = new RoutingEngine();
+        engine.setGraph("test", 0, graph);
+
+        double[] route = engine.findRoute(0.00001, 0, 0, 0.01);
+        assertArrayEquals(new double[] { 0, 0, 0.001, 0, 0.001, 0.01, 0, 0.01 }, route, 0.0);
+
+        assertArrayEquals(new double[] { 0.00001, 0.00001 }, engine.findRoute(0.00001, 0.00001, 0, 0), 0.0);
+        assertNull(engine.findRoute(0, 0, 0.5, 0.5));
+        assertEquals(3, engine.getStats().searches);
+        assertEquals(1, engine.getStats().unrouted);
+    }
+
+    @Test
+    public void unconnectedTrailsHaveNoRoute() {
+        RoutingGraph graph = RoutingGraph.build(Arrays.asList(
+                line(new double[] { 0, 0 }, new double[] { 0, 0.001 }),
+                line(new double[] { 0.003, 0.003 }, new double[] { 0, 0.001 })),
+                new int[] { 1, 1 });
+        RoutingEngine engine = new RoutingEngine();
+        engine.setGraph("test", 0, graph);
+
+        assertNull(engine.findRoute(0, 0, 0.003, 0.001));
+        // Scratch state from the failed search doesn't leak into the next one
+        assertArrayEquals(new double[] { 0.003, 0, 0.003, 0.001 }, engine.findRoute(0.003, 0, 0.003, 0.001), 0.0);
+    }
+
+    @Test
+    public void loadsTheGraphOnlyWhenTheMountainOrVersionChanges() throws Exception {
+        RoutingGraph a = RoutingGraph.build(Collections.singletonList(
+                line(new double[] { 0, 0 }, new double[] { 0, 0.001 })), new int[] { 1 });
+        RoutingGraph b = RoutingGraph.build(Collections.singletonList(
+                line(new double[] { 1, 1 }, new double[] { 1, 1.001 })), new int[] { 1 });
+        RoutingEngine engine = new RoutingEngine();
+        int[] loads = new int[1];
+        RoutingEngine.GraphLoader loadA = () -> {
+            loads[0]++;
+            return a;
+        };
+
+        assertArrayEquals(new double[] { 0, 0, 0, 0.001 }, engine.findRoute("a", 0, loadA, 0, 0, 0, 0.001), 0.0);
+        engine.findRoute("a", 0, loadA, 0, 0.001, 0, 0);
+        assertEquals(1, loads[0]);
+        assertArrayEquals(new double[] { 1, 1, 1, 1.001 }, engine.findRoute("b", 0, () -> b, 1, 1, 1, 1.001), 0.0);
+        engine.findRoute("a", 0, loadA, 0, 0, 0, 0.001);
+        engine.findRoute("a", 1, loadA, 0, 0, 0, 0.001);
+        assertEquals(3, loads[0]);
+    }
+
+    @Test
+    public void requestsForTwoMountainsEachRouteOnTheirOwnGraph() throws Exception {
+        // Before checking, loading and searching were one call, a request could search the other mountain's graph
+        RoutingGraph a = RoutingGraph.build(Collections.singletonList(
+                line(new double[] { 0, 0 }, new double[] { 0, 0.001 })), new int[] { 1 });
+        RoutingGraph b = RoutingGraph.build(Collections.singletonList(
+                line(new double[] { 1, 1 }, new double[] { 1, 1.001 })), new int[] { 1 });
+        RoutingEngine engine = new RoutingEngine();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<double[]>> routes = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                boolean onA = i % 2 == 0;
+                routes.add(pool.submit(() -> onA
+                        ? engine.findRoute("a", 0, () -> a, 0, 0, 0, 0.001)
+                        : engine.findRoute("b", 0, () -> b, 1, 1, 1, 1.001)));
+            }
+            for (Future<double[]> route : routes) {
+                assertNotNull(route.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void difficultyBelowOneCostsTheSameAsOne() {
+        List<TrailGeometry> trail = Collections.singletonList(
+                line(new double[] { 0, 0, 0 }, new double[] { 0, 0.005, 0.01 }));
+        RoutingEngine engine = new RoutingEngine();
+        engine.setGraph("test", 0, RoutingGraph.build(trail, new int[] { 1 }));
+        engine.findRoute(0, 0, 0, 0.01);
+        double flat = engine.getLastCost();
+
+        engine.setGraph("test", 1, RoutingGraph.build(trail, new int[] { 0 }));
+        engine.findRoute(0, 0, 0, 0.01);
+        assertEquals(flat, engine.getLastCost(), 0.0);
+        assertTrue(flat >= RoutingGraph.build(trail, new int[] { 1 }).chordMeters(0, 2));
+    }
+
+    @Test
+    public void matchesDartRoutingOnMerbabuAndTheSyntheticNetwork() {
+        for (List<TrailGeometry> network : Arrays.asList(merbabu(), synthetic(3))) {
+            int[] difficulty = difficulties(network.size());
+            RoutingGraph graph = RoutingGraph.build(network, difficulty);
+            DartRouter dart = new DartRouter(network, difficulty);
+            RoutingEngine engine = new RoutingEngine();
+            engine.setGraph("test", 0, graph);
+            assertEquals(dart.nodes.size(), graph.getNodeCount());
+
+            Random random = new Random(11);
+            for (int q = 0; q < 100; q++) {
+                int a = random.nextInt(graph.nodeCount), b = random.nextInt(graph.nodeCount);
+                double[] route = engine.findRoute(graph.lat[a], graph.lng[a], graph.lat[b], graph.lng[b]);
+                double dartCost = dart.findRoute(graph.lat[a], graph.lng[a], graph.lat[b], graph.lng[b]);
+                if (Double.isNaN(dartCost)) {
+                    assertNull(route);
+                } else {
+                    assertEquals(dartCost, engine.getLastCost(), 1e-6 * Math.max(1, dartCost));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkAgainstDartRouting() {
+        Benchmark.assumeEnabled();
+        Benchmark.report("network | nodes | edges | routed | Dart-style us/route | CSR us/route | settled/route");
+        benchmark("Merbabu", merbabu(), 200);
+        benchmark("Merbabu x100", synthetic(10), 50);
+    }
+
+    private static void benchmark(String label, List<TrailGeometry> network, int queries) {
+        int[] difficulty = difficulties(network.size());
+        RoutingGraph graph = RoutingGraph.build(network, difficulty);
+        DartRouter dart = new DartRouter(network, difficulty);
+        RoutingEngine engine = new RoutingEngine();
+        engine.setGraph("bench", 0, graph);
+
+        Random random = new Random(5);
+        int[] from = new int[queries], to = new int[queries];
+        for (int q = 0; q < queries; q++) {
+            from[q] = random.nextInt(graph.nodeCount);
+            to[q] = random.nextInt(graph.nodeCount);
+        }
+
+        double sink = 0;
+        long[] nanos = new long[2];
+        int routed = 0;
+        for (int round = 0; round < 3; round++) { // first round warms up
+            nanos[0] = nanos[1] = 0;
+            routed = 0;
+            for (int q = 0; q < queries; q++) {
+                double lat1 = graph.lat[from[q]], lng1 = graph.lng[from[q]];
+                double lat2 = graph.lat[to[q]], lng2 = graph.lng[to[q]];
+                long start = System.nanoTime();
+                double cost = dart.findRoute(lat1, lng1, lat2, lng2);
+                nanos[0] += System.nanoTime() - start;
+                start = System.nanoTime();
+                double[] route = engine.findRoute(lat1, lng1, lat2, lng2);
+                nanos[1] += System.nanoTime() - start;
+                if (route != null) {
+                    routed++;
+                    sink += cost - engine.getLastCost();
+                }
+            }
+        }
+
+        assertEquals(0.0, sink, 1e-3);
+        RoutingEngine.Stats stats = engine.getStats();
+        Benchmark.report("%s | %d | %d | %d/%d | %.1f | %.1f | %.0f", label,
+                graph.getNodeCount(), graph.getEdgeCount(), routed, queries,
+                nanos[0] / 1000.0 / queries, nanos[1] / 1000.0 / queries, (double) stats.settled / stats.searches);
+    }
+
+    private static TrailGeometry line(double[] lat, double[] lng) {
+        return new TrailGeometry(lat, lng, new double[lat.length], lat.length);
+    }
+
+    private static int[] difficulties(int trails) {
+        int[] difficulty = new int[trails];
+        for (int t = 0; t < trails; t++) {
+            difficulty[t] = 1 + t % 5;
+        }
+        return difficulty;
+    }
+
+    private static List<TrailGeometry> merbabu() {
+        List<TrailGeometry> network = new ArrayList<>();
+        for (String name : TestTracks.MERBABU) {
+            double[][] track = TestTracks.load(name);
+            network.add(new TrailGeometry(track[0], track[1], track[2], track[0].length));
+        }
+        return network;
+    }
+
+    /**
+     * side x side copies of the Merbabu tracks laid side by side, each tile's
+     * tracks tied together at their ends and every tile tied to its east and
+     * north neighbours by straight links, so the whole network is one piece.
+     */
+    static List<TrailGeometry> synthetic(int side) {
+        List<TrailGeometry> tracks = merbabu();
+        double minLat = 90, maxLat = -90, minLng = 180, maxLng = -180;
+        for (TrailGeometry t : tracks) {
+            for (int i = 0; i < t.size; i++) {
+                minLat = Math.min(minLat, t.lat[i]);
+                maxLat = Math.max(maxLat, t.lat[i]);
+                minLng = Math.min(minLng, t.lng[i]);
+                maxLng = Math.max(maxLng, t.lng[i]);
+            }
+        }
+        double stepLat = maxLat - minLat + 0.005, stepLng = maxLng - minLng + 0.005;
+
+        List<TrailGeometry> network = new ArrayList<>();
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                List<TrailGeometry> tile = new ArrayList<>();
+                for (TrailGeometry t : tracks) {
+                    double[] lat = new double[t.size], lng = new double[t.size];
+                    for (int i = 0; i < t.size; i++) {
+                        lat[i] = t.lat[i] + r * stepLat;
+                        lng[i] = t.lng[i] + c * stepLng;
+                    }
+                    tile.add(line(lat, lng));
+                }
+                network.addAll(tile);
+                for (int t = 0; t + 1 < tile.size(); t++) {
+                    network.add(link(tile.get(t), tile.get(t).size - 1, tile.get(t + 1), tile.get(t + 1).size - 1));
+                    network.add(link(tile.get(t), 0, tile.get(t + 1), 0));
+                }
+            }
+        }
+        int perTile = tracks.size() + 2 * (tracks.size() - 1);
+        List<TrailGeometry> links = new ArrayList<>();
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                TrailGeometry here = network.get((r * side + c) * perTile);
+                if (c + 1 < side) {
+                    links.add(link(here, 0, network.get((r * side + c + 1) * perTile), 0));
+                }
+                if (r + 1 < side) {
+                    links.add(link(here, 0, network.get(((r + 1) * side + c) * perTile), 0));
+                }
+            }
+        }
+        network.addAll(links);
+        return network;
+    }
+
+    private static TrailGeometry link(TrailGeometry a, int i, TrailGeometry b, int j) {
+        return line(new double[] { a.lat[i], b.lat[j] }, new double[] { a.lng[i], b.lng[j] });
+    }
+
+    /**
+     * The Dart RoutingEngine and TopologyBuilder as written, on the JVM:
+     * string node ids, a map of node objects with edge lists, score maps keyed
+     * by id, and a priority queue without decrease-key that takes a duplicate
+     * entry on every improvement. Routes node to node; snapping is left out.
+     */
+    static final class DartRouter {
+        static final class Node {
+            final String id;
+            final double lat;
+            final double lng;
+            final List<Edge> edges = new ArrayList<>();
+
+            Node(String id, double lat, double lng) {
+                this.id = id;
+                this.lat = lat;
+                this.lng = lng;
+            }
+        }
+
+        static final class Edge {
+            final Node toNode;
+            final double weight;
+
+            Edge(Node toNode, double weight) {
+                this.toNode = toNode;
+                this.weight = weight;
+            }
+        }
+
+        static final class Wrapper {
+            final Node node;
+            final double fScore;
+
+            Wrapper(Node node, double fScore) {
+                this.node = node;
+                this.fScore = fScore;
+            }
+        }
+
+        final Map<String, Node> nodes = new HashMap<>();
+
+        DartRouter(List<TrailGeometry> trails, int[] difficulty) {
+            for (int t = 0; t < trails.size(); t++) {
+                TrailGeometry g = trails.get(t);
+                double multiplier = 1.0 + (difficulty[t] - 1) * 0.2;
+                Node previous = null;
+                for (int i = 0; i < g.size; i++) {
+                    double lat = g.lat[i], lng = g.lng[i];
+                    Node current = nodes.computeIfAbsent(id(lat, lng), k -> new Node(k, lat, lng));
+                    // Dart keeps the self loop of repeated points; it never shortens a path
+                    if (previous != null) {
+                        double weight = GeoMath.distanceMeters(previous.lat, previous.lng, current.lat, current.lng)
+                                * multiplier;
+                        previous.edges.add(new Edge(current, weight));
+                        current.edges.add(new Edge(previous, weight));
+                    }
+                    previous = current;
+                }
+            }
+        }
+
+        // Dart formats toStringAsFixed(5); the same 1e-5 cells here, so both
+        // sides merge exactly the same vertices and only the search differs
+        static String id(double lat, double lng) {
+            return Math.round(lat * 1e5) + "_" + Math.round(lng * 1e5);
+        }
+
+        /** Cost of the best route between the nodes at the two points, NaN if none. */
+        double findRoute(double startLat, double startLng, double endLat, double endLng) {
+            Node start = nodes.get(id(startLat, startLng));
+            Node end = nodes.get(id(endLat, endLng));
+            if (start.id.equals(end.id)) {
+                return 0;
+            }
+            PriorityQueue<Wrapper> openSet = new PriorityQueue<>((a, b) -> Double.compare(a.fScore, b.fScore));
+            Map<String, Double> gScore = new HashMap<>();
+            Map<String, Node> cameFrom = new HashMap<>();
+            gScore.put(start.id, 0.0);
+            openSet.add(new Wrapper(start, heuristic(start, end)));
+
+            while (!openSet.isEmpty()) {
+                Node current = openSet.poll().node;
+                if (current.id.equals(end.id)) {
+                    List<Node> path = new ArrayList<>();
+                    path.add(current);
+                    while (cameFrom.containsKey(current.id)) {
+                        current = cameFrom.get(current.id);
+                        path.add(current);
+                    }
+                    Collections.reverse(path);
+                    return gScore.get(end.id);
+                }
+                for (Edge edge : current.edges) {
+                    Node neighbor = edge.toNode;
+                    double tentative = gScore.get(current.id) + edge.weight;
+                    Double known = gScore.get(neighbor.id);
+                    if (tentative < (known != null ? known : Double.POSITIVE_INFINITY)) {
+                        cameFrom.put(neighbor.id, current);
+                        gScore.put(neighbor.id, tentative);
+                        openSet.add(new Wrapper(neighbor, tentative + heuristic(neighbor, end)));
+                    }
+                }
+            }
+            return Double.NaN;
+        }
+
+        private static double heuristic(Node a, Node b) {
+            return GeoMath.distanceMeters(a.lat, a.lng, b.lat, b.lng);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.data.PoiEntity;
+import com.example.pandu_navigation.data.TrailEntity;
+import com.example.pandu_navigation.data.TrailGeometryStore;
+import com.example.pandu_navigation.logic.DeviationEngine.SafetyStatus;
+import com.example.pandu_navigation.logic.SamplingScheduler.Mode;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Drives the scheduler with a fake location source replaying the Merbabu
+ * hikes, and reports the fixes per hour it asks for against the fixed 2 s
+ * request it replaces.
+ */
+public class SamplingSchedulerTest {
+
+    private static final double WHITE_SIGMA = 4.0;
+    private static final float ACCURACY = 5f;
+    private static final int CAMP_REST_S = 40 * 60;
+    private static final int DETOUR_S = 6 * 60;
+    private static final double DETOUR_METERS = 120;
+
+    @Test
+    public void stepsUpAtOnceAndDownAfterTheDwell() {
+        FakeSource source = new FakeSource();
+        SamplingScheduler scheduler = new SamplingScheduler(source);
+        scheduler.start();
+        assertEquals(Mode.MOVING, source.mode);
+
+        assertTrue(update(scheduler, 1_000, 1.0, 60, SafetyStatus.WARNING));
+        assertEquals(Mode.ALERT, source.mode);
+        assertEquals(0, source.maxDelayMs);
+
+        // Back on the trail, resting: one step down after ALERT's dwell, to the most asked for
+        long t = 2_000;
+        assertFalse(update(scheduler, t, 0.0, 5, SafetyStatus.SAFE));
+        assertFalse(update(scheduler, t + 10_000, 0.8, 5, SafetyStatus.SAFE));
+        assertFalse(update(scheduler, t + 20_000, 0.0, 5, SafetyStatus.SAFE));
+        assertTrue(update(scheduler, t + Mode.ALERT.dwellMs, 0.0, 5, SafetyStatus.SAFE));
+        assertEquals(Mode.MOVING, source.mode);
+
+        // A fast fix in the middle of a rest restarts the dwell
+        t += Mode.ALERT.dwellMs;
+        assertFalse(update(scheduler, t + 1_000, 0.1, 5, SafetyStatus.SAFE));
+        assertFalse(update(scheduler, t + 30_000, 0.6, 5, SafetyStatus.SAFE));
+        assertFalse(update(scheduler, t + 31_000, 0.1, 5, SafetyStatus.SAFE));
+        assertFalse(update(scheduler, t + 31_000 + Mode.MOVING.dwellMs - 1, 0.1, 5, SafetyStatus.SAFE));
+        assertTrue(update(scheduler, t + 31_000 + Mode.MOVING.dwellMs, 0.1, 5, SafetyStatus.SAFE));
+        assertEquals(Mode.RESTING, source.mode);
+        assertEquals(4, source.requests);
+    }
+
+    @Test
+    public void netSpeedAwayFromARestCapsTheEstimate() {
+        FakeSource source = new FakeSource();
+        SamplingScheduler scheduler = new SamplingScheduler(source);
+        scheduler.start();
+        // Jittering around camp with a noisy 0.6 m/s estimate: the first fixes still read as moving
+        long t = 0;
+        for (; t <= 30_000; t += 10_000) {
+            scheduler.update(t, -7.45 + (t % 20_000 == 0 ? 0 : 0.0001), 110.43, 0.6, 5, SafetyStatus.SAFE);
+        }
+        assertEquals(Mode.MOVING, scheduler.getMode());
+        for (; t <= 10 * 60_000; t += 10_000) {
+            scheduler.update(t, -7.45 + (t % 20_000 == 0 ? 0 : 0.0001), 110.43, 0.6, 5, SafetyStatus.SAFE);
+        }
+        assertEquals(Mode.RESTING, scheduler.getMode());
+
+        // Walking off, 25 m in the first 30 s
+        assertTrue(scheduler.update(t, -7.45 + 0.000225, 110.43, 0.8, 5, SafetyStatus.SAFE));
+        assertEquals(Mode.MOVING, scheduler.getMode());
+    }
+
+    @Test
+    public void unknownDistanceIsNotAnAlert() {
+        // No trail loaded yet: the engine reports DANGER at distance -1
+        assertEquals(Mode.MOVING, SamplingScheduler.wanted(1.0, -1, SafetyStatus.DANGER));
+        assertEquals(Mode.RESTING, SamplingScheduler.wanted(0.0, -1, SafetyStatus.DANGER));
+        assertEquals(Mode.ALERT, SamplingScheduler.wanted(0.0, SamplingScheduler.NEAR_EDGE_METERS,
+                SafetyStatus.SAFE));
+    }
+
+    @Test
+    public void batterySaverHasHysteresis() {
+        FakeSource source = new FakeSource();
+        SamplingScheduler scheduler = new SamplingScheduler(source);
+        scheduler.start();
+        long interval = source.intervalMs;
+
+        assertFalse(scheduler.setBattery(21, false));
+        assertTrue(scheduler.setBattery(20, false));
+        assertEquals(interval * 2, source.intervalMs);
+        assertFalse(scheduler.setBattery(24, false));
+        assertTrue(scheduler.setBattery(25, false));
+        assertEquals(interval, source.intervalMs);
+
+        assertTrue(scheduler.setBattery(10, false));
+        assertTrue(scheduler.setBattery(10, true));
+        assertFalse(scheduler.isBatterySaver());
+
+        // Stopped: state still tracks, nothing is requested
+        scheduler.stop();
+        int requests = source.requests;
+        scheduler.setBattery(5, false);
+        assertEquals(requests, source.requests);
+    }
+
+    /**
+     * Each Merbabu hike, walked at a varying pace with a 40 minute camp rest
+     * and a 120 m detour off the trail, once with the scheduler and once with
+     * the fixed 2 s request. Reports fixes and deliveries per hour, the RMS
+     * error of the last known position against the true one each second, and
+     * how long after the hiker really passes the warning distance the app
+     * first sees it.
+     */
+    @Test
+    public void replayMerbabuHikes() {
+        TrailGeometryStore store = TrailGeometryStore.getInstance();
+        List<TrailEntity> trails = new ArrayList<>();
+        for (String name : TestTracks.MERBABU) {
+            trails.add(TestTracks.trail(name));
+        }
+        TrailWorkingSet set = TrailWorkingSet.build(Collections.singletonList("merbabu"), trails,
+                Collections.<PoiEntity>emptyList(), store, store.getVersion(), Double.NaN, Double.NaN,
+                TrailWorkingSet.DEFAULT_MARGIN_DEGREES, System.nanoTime());
+
+        double hours = 0;
+        long[] fixes = new long[2];
+        long[] deliveries = new long[2];
+        double[] rms = new double[2];
+        for (int i = 0; i < TestTracks.MERBABU.length; i++) {
+            String name = TestTracks.MERBABU[i];
+            double[][] truth = hike(KalmanFilterTest.walk(TestTracks.load(name)));
+            double[] trueDistance = trueDistances(truth, store, set);
+
+            Replay scheduled = new Replay(store, set, true);
+            scheduled.run(truth, trueDistance, 17L * i);
+            Replay fixed = new Replay(store, set, false);
+            fixed.run(truth, trueDistance, 17L * i);
+
+            double h = truth[0].length / 3600.0;
+            Benchmark.report("sampling %-9s %.1f h: %4.0f fixes/h, %4.0f deliveries/h, %d switches, "
+                    + "%2d min resting, RMS %.1f m, warning seen after %d s | fixed 2 s: %4.0f fixes/h, %4.0f deliveries/h, "
+                    + "RMS %.1f m, warning seen after %d s", name, h,
+                    scheduled.fixes / h, scheduled.deliveries / h, scheduled.scheduler.getSwitchCount(),
+                    scheduled.modeSeconds[Mode.RESTING.ordinal()] / 60,
+                    scheduled.rms(), scheduled.warningLatencyS,
+                    fixed.fixes / h, fixed.deliveries / h, fixed.rms(), fixed.warningLatencyS);
+
+            assertTrue(name, scheduled.fixes < fixed.fixes / 2);
+            assertTrue(name, scheduled.warningLatencyS >= 0 && scheduled.warningLatencyS <= fixed.warningLatencyS + 5);
+            assertTrue(name, scheduled.modeSeconds[Mode.RESTING.ordinal()] > CAMP_REST_S / 2);
+            hours += h;
+            fixes[0] += scheduled.fixes;
+            fixes[1] += fixed.fixes;
+            deliveries[0] += scheduled.deliveries;
+            deliveries[1] += fixed.deliveries;
+            rms[0] += scheduled.rms() / TestTracks.MERBABU.length;
+            rms[1] += fixed.rms() / TestTracks.MERBABU.length;
+        }
+        Benchmark.report("sampling all hikes: %.0f fixes/h, %.0f deliveries/h, RMS %.1f m "
+                        + "vs fixed 2 s %.0f fixes/h, %.0f deliveries/h, RMS %.1f m",
+                fixes[0] / hours, deliveries[0] / hours, rms[0], fixes[1] / hours, deliveries[1] / hours, rms[1]);
+    }
+
+    // Moves 25 m, beyond the rest radius, whenever the speed says walking
+    private double walkedLat = -7.45;
+
+    private boolean update(SamplingScheduler scheduler, long timeMs, double speed, double deviationMeters,
+            SafetyStatus status) {
+        if (speed >= SamplingScheduler.MOVING_SPEED) {
+            walkedLat += 0.000225;
+        }
+        return scheduler.update(timeMs, walkedLat, 110.43, speed, deviationMeters, status);
+    }
+
+    /** The walk with a camp rest at 60 % and a detour off the trail at 30 %, one entry per second. */
+    private static double[][] hike(double[][] walk) {
+        int n = walk[0].length;
+        int camp = n * 6 / 10;
+        double[][] hike = new double[2][n + CAMP_REST_S];
+        for (int t = 0, s = 0; t < hike[0].length; t++) {
+            hike[0][t] = walk[0][s];
+            hike[1][t] = walk[1][s];
+            if (t < camp || t >= camp + CAMP_REST_S) {
+                s++;
+            }
+        }
+        // Sideways to the direction of travel, out and back
+        int start = n * 3 / 10;
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        frame.reset(hike[0][start], hike[1][start]);
+        double dx = frame.x(hike[0][start + 60], hike[1][start + 60]);
+        double dy = frame.y(hike[0][start + 60]);
+        double len = Math.hypot(dx, dy);
+        for (int t = 0; t <= DETOUR_S; t++) {
+            double offset = DETOUR_METERS * Math.sin(Math.PI * t / DETOUR_S);
+            int p = start + t;
+            double x = frame.x(hike[0][p], hike[1][p]) - dy / len * offset;
+            double y = frame.y(hike[0][p]) + dx / len * offset;
+            hike[0][p] = frame.lat(y);
+            hike[1][p] = frame.lng(x, hike[0][p]);
+        }
+        return hike;
+    }
+
+    private static double[] trueDistances(double[][] truth, TrailGeometryStore store, TrailWorkingSet set) {
+        double[] distance = new double[truth[0].length];
+        for (int t = 0; t < distance.length; t++) {
+            DeviationEngine engine = new DeviationEngine(store);
+            engine.checkSafetyIndexed(truth[0][t], truth[1][t], set.getIndexes());
+            distance[t] = engine.getLastDeviationDistance();
+        }
+        return distance;
+    }
+
+    /** Records the current request the way the fused provider would hold it. */
+    private static final class FakeSource implements LocationSource {
+        Mode mode;
+        long intervalMs;
+        long maxDelayMs;
+        float minDistanceMeters;
+        int requests;
+        boolean active;
+
+        @Override
+        public void request(SamplingScheduler.Request request) {
+            mode = request.mode;
+            intervalMs = request.intervalMs;
+            maxDelayMs = request.maxDelayMs;
+            minDistanceMeters = request.minDistanceMeters;
+            requests++;
+            active = true;
+        }
+
+        @Override
+        public void requestFix() {
+        }
+
+        @Override
+        public void stop() {
+            active = false;
+        }
+    }
+
+    /**
+     * One hike through the fake source: a noisy fix every interval, held back
+     * while within the minimum distance of the last one reported, delivered in
+     * batches up to the maximum delay, then filtered and checked like
+     * PanduService does.
+     */
+    private static final class Replay {
+        final FakeSource source = new FakeSource();
+        final SamplingScheduler scheduler = new SamplingScheduler(source);
+        final KalmanFilter filter = new KalmanFilter();
+        final DeviationEngine engine;
+        final TrailWorkingSet set;
+        final boolean adaptive;
+        final long[] modeSeconds = new long[Mode.values().length];
+        long fixes;
+        long deliveries;
+        double sumSq;
+        int seconds;
+        int warningLatencyS = -1;
+
+        Replay(TrailGeometryStore store, TrailWorkingSet set, boolean adaptive) {
+            this.engine = new DeviationEngine(store);
+            this.set = set;
+            this.adaptive = adaptive;
+            if (adaptive) {
+                scheduler.start();
+            } else {
+                // The request PanduService used to make
+                source.intervalMs = 2_000;
+                source.maxDelayMs = 6_000;
+            }
+        }
+
+        void run(double[][] truth, double[] trueDistance, long seed) {
+            Random random = new Random(seed);
+            GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+            frame.reset(truth[0][0], truth[1][0]);
+            List<double[]> batch = new ArrayList<>();
+            long nextFixMs = 0;
+            long batchStartMs = 0;
+            double lastLat = Double.NaN, lastLng = Double.NaN;
+            double knownLat = truth[0][0], knownLng = truth[1][0];
+            int warningAt = -1;
+            for (int t = 0; t < truth[0].length; t++) {
+                long now = t * 1000L;
+                double lat = truth[0][t];
+                double lng = truth[1][t];
+                if (warningAt < 0 && trueDistance[t] > 50) {
+                    warningAt = t;
+                }
+                nextFixMs = Math.min(nextFixMs, now + source.intervalMs);
+                if (now >= nextFixMs) {
+                    nextFixMs = now + source.intervalMs;
+                    double y = frame.y(lat) + WHITE_SIGMA * random.nextGaussian();
+                    double x = frame.x(lat, lng) + WHITE_SIGMA * random.nextGaussian();
+                    double mLat = frame.lat(y);
+                    double mLng = frame.lng(x, mLat);
+                    if (Double.isNaN(lastLat) || source.minDistanceMeters == 0
+                            || GeoMath.distanceMeters(lastLat, lastLng, mLat, mLng) >= source.minDistanceMeters) {
+                        if (batch.isEmpty()) {
+                            batchStartMs = now;
+                        }
+                        batch.add(new double[] { mLat, mLng, now });
+                        lastLat = mLat;
+                        lastLng = mLng;
+                        fixes++;
+                    }
+                }
+                if (!batch.isEmpty() && now - batchStartMs >= source.maxDelayMs) {
+                    deliver(batch);
+                    knownLat = filter.getLat();
+                    knownLng = filter.getLng();
+                    if (warningLatencyS < 0 && warningAt >= 0 && engine.getLastDeviationDistance() > 50) {
+                        warningLatencyS = t - warningAt;
+                    }
+                }
+                modeSeconds[scheduler.getMode().ordinal()]++;
+                double error = GeoMath.distanceMeters(lat, lng, knownLat, knownLng);
+                sumSq += error * error;
+                seconds++;
+            }
+        }
+
+        private void deliver(List<double[]> batch) {
+            for (double[] fix : batch) {
+                filter.process(fix[0], fix[1], ACCURACY, (long) fix[2]);
+            }
+            long time = (long) batch.get(batch.size() - 1)[2];
+            batch.clear();
+            deliveries++;
+            SafetyStatus status = engine.checkSafetyIndexed(filter.getLat(), filter.getLng(), set.getIndexes());
+            if (adaptive) {
+                scheduler.update(time, filter.getLat(), filter.getLng(), filter.getSpeed(), engine.getLastDeviationDistance(), status);
+            }
+        }
+
+        double rms() {
+            return Math.sqrt(sumSq / seconds);
+        }
+    }
+}
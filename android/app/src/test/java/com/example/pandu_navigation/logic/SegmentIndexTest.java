@@ -0,0 +1,147 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.data.TrailGeometry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SegmentIndexTest {
+
+    @Test
+    public void nearestMatchesBruteForceOnMerbabuTracks() {
+        List<String> ids = new ArrayList<>();
+        List<TrailGeometry> geometries = new ArrayList<>();
+        for (String name : TestTracks.MERBABU) {
+            double[][] track = TestTracks.load(name);
+            ids.add(name);
+            geometries.add(new TrailGeometry(track[0], track[1], track[2], track[0].length));
+        }
+        SegmentIndex index = SegmentIndex.build(ids, geometries);
+        SegmentIndex.Result result = new SegmentIndex.Result(3);
+
+        // Query points around the mountain, including far outside the grid
+        Random random = new Random(42);
+        for (int q = 0; q < 2000; q++) {
+            double lat = -7.50 + random.nextDouble() * 0.12;
+            double lng = 110.38 + random.nextDouble() * 0.12;
+
+            double[] brute = bruteForce(geometries, lat, lng, 3);
+            assertEquals(3, index.nearest(lat, lng, result));
+            for (int i = 0; i < 3; i++) {
+                assertEquals(brute[i], result.distance[i], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void reportsOwningTrailAndVertex() {
+        double[] lat = { 0, 0.001, 0.002 };
+        double[] lng = { 0, 0, 0 };
+        List<String> ids = new ArrayList<>();
+        List<TrailGeometry> geometries = new ArrayList<>();
+        ids.add("a");
+        geometries.add(new TrailGeometry(lat, lng, new double[3], 3));
+        SegmentIndex index = SegmentIndex.build(ids, geometries);
+
+        SegmentIndex.Result result = new SegmentIndex.Result(1);
+        assertEquals(1, index.nearest(0.0015, 0.0001, result));
+        assertEquals("a", index.trailIdOf(result.segment[0]));
+        assertEquals(1, index.vertexOf(result.segment[0]));
+    }
+
+    @Test
+    public void benchmarkFixCostAsTrailsGrow() {
+        Benchmark.assumeEnabled();
+        Random random = new Random(7);
+        Benchmark.report("trails | segments | linear us/fix | indexed us/fix");
+        for (int trailCount : new int[] { 10, 100, 1000 }) {
+            List<String> ids = new ArrayList<>();
+            List<TrailGeometry> geometries = new ArrayList<>();
+            for (int t = 0; t < trailCount; t++) {
+                ids.add("t" + t);
+                geometries.add(randomWalk(random, 300));
+            }
+            SegmentIndex index = SegmentIndex.build(ids, geometries);
+            SegmentIndex.Result result = new SegmentIndex.Result(1);
+
+            int fixes = 200;
+            double[] qLat = new double[fixes];
+            double[] qLng = new double[fixes];
+            for (int i = 0; i < fixes; i++) {
+                TrailGeometry g = geometries.get(random.nextInt(trailCount));
+                int p = random.nextInt(g.size);
+                qLat[i] = g.lat[p] + 0.0002;
+                qLng[i] = g.lng[p];
+            }
+
+            double sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < fixes; i++) {
+                sink += linearMin(geometries, qLat[i], qLng[i]);
+            }
+            long linear = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < fixes; i++) {
+                index.nearest(qLat[i], qLng[i], result);
+                sink -= result.distance[0];
+            }
+            long indexed = System.nanoTime() - start;
+
+            assertEquals(0.0, sink, 1e-6);
+            Benchmark.report("%6d | %8d | %13.1f | %14.1f", trailCount, index.getSegmentCount(),
+                    linear / 1000.0 / fixes, indexed / 1000.0 / fixes);
+        }
+    }
+
+    // Trails wander around a 0.1 x 0.1 degree mountain area with ~10 m steps
+    private static TrailGeometry randomWalk(Random random, int points) {
+        double[] lat = new double[points];
+        double[] lng = new double[points];
+        lat[0] = -7.5 + random.nextDouble() * 0.1;
+        lng[0] = 110.4 + random.nextDouble() * 0.1;
+        double heading = random.nextDouble() * Math.PI * 2;
+        for (int i = 1; i < points; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.6;
+            lat[i] = lat[i - 1] + Math.cos(heading) * 0.0001;
+            lng[i] = lng[i - 1] + Math.sin(heading) * 0.0001;
+        }
+        return new TrailGeometry(lat, lng, new double[points], points);
+    }
+
+    // The pre-index DeviationEngine loop
+    private static double linearMin(List<TrailGeometry> geometries, double lat, double lng) {
+        double min = Double.MAX_VALUE;
+        for (int t = 0; t < geometries.size(); t++) {
+            TrailGeometry g = geometries.get(t);
+            for (int i = 0; i < g.size - 1; i++) {
+                double d = GeoMath.distanceToSegment(lat, lng, g.lat[i], g.lng[i], g.lat[i + 1], g.lng[i + 1]);
+                if (d < min)
+                    min = d;
+            }
+        }
+        return min;
+    }
+
+    private static double[] bruteForce(List<TrailGeometry> geometries, double lat, double lng, int k) {
+        List<Double> all = new ArrayList<>();
+        for (TrailGeometry g : geometries) {
+            for (int i = 0; i < g.size - 1; i++) {
+                all.add(GeoMath.distanceToSegment(lat, lng, g.lat[i], g.lng[i], g.lat[i + 1], g.lng[i + 1]));
+            }
+        }
+        all.sort(null);
+        double[] best = new double[k];
+        for (int i = 0; i < k; i++) {
+            best[i] = all.get(i);
+        }
+        return best;
+    }
+}
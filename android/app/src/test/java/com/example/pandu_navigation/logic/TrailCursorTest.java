@@ -0,0 +1,117 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.data.TrailGeometry;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class TrailCursorTest {
+
+    private static SegmentIndex indexOf(String id, double[][] track) {
+        return SegmentIndex.build(Collections.singletonList(id),
+                Collections.singletonList(new TrailGeometry(track[0], track[1], track[2], track[0].length)));
+    }
+
+    @Test
+    public void followsHikerAlongTrackWithGrowingAlongTrackPosition() {
+        double[][] track = TestTracks.load("Thekelan");
+        SegmentIndex index = indexOf("thekelan", track);
+        SegmentIndex.Result global = new SegmentIndex.Result(1);
+        TrailCursor cursor = new TrailCursor();
+
+        index.nearest(track[0][0], track[1][0], global);
+        cursor.anchor(index, global.segment[0], track[0][0], track[1][0]);
+
+        double lastAlong = -1;
+        for (int i = 0; i < track[0].length - 1; i++) {
+            // Halfway along each segment, ~5 m off the line
+            double lat = (track[0][i] + track[0][i + 1]) / 2 + 0.00004;
+            double lng = (track[1][i] + track[1][i + 1]) / 2;
+
+            assertTrue("cursor lost the trail at " + i, cursor.track(lat, lng));
+            index.nearest(lat, lng, global);
+            assertEquals(global.distance[0], cursor.getDistance(), 1.0);
+            assertTrue(cursor.getAlongTrack() >= lastAlong - 10);
+            lastAlong = cursor.getAlongTrack();
+        }
+        assertEquals("thekelan", cursor.getTrailId());
+        assertTrue(cursor.getSegmentIndex() > track[0].length - 10);
+    }
+
+    @Test
+    public void asksForGlobalSearchWhenFarFromWindow() {
+        double[][] track = TestTracks.load("Selo");
+        SegmentIndex index = indexOf("selo", track);
+        TrailCursor cursor = new TrailCursor();
+        cursor.anchor(index, 0, track[0][0], track[1][0]);
+
+        int before = cursor.getSegmentIndex();
+        assertFalse(cursor.track(track[0][0] + 0.01, track[1][0] + 0.01)); // ~1.5 km away
+        assertEquals(before, cursor.getSegmentIndex());
+    }
+
+    @Test
+    public void engineReportsSegmentAndAlongTrack() {
+        double[][] track = TestTracks.load("Wekas");
+        List<SegmentIndex> indexes = Collections.singletonList(indexOf("wekas", track));
+        DeviationEngine engine = new DeviationEngine();
+
+        int mid = track[0].length / 2;
+        assertEquals(DeviationEngine.SafetyStatus.SAFE,
+                engine.checkSafetyIndexed(track[0][mid], track[1][mid], indexes));
+        assertEquals("wekas", engine.getCursor().getTrailId());
+        assertTrue(Math.abs(engine.getCursor().getSegmentIndex() - mid) <= 1);
+        assertTrue(engine.getCursor().getAlongTrack() > 0);
+    }
+
+    @Test
+    public void benchmarkCursorOnLongTrack() {
+        Benchmark.assumeEnabled();
+        // Synthetic 100k point (~1000 km) track, hiker walks the first 10k points
+        int points = 100000;
+        double[][] track = new double[3][points];
+        double heading = 0;
+        for (int i = 1; i < points; i++) {
+            heading += Math.sin(i * 0.01) * 0.1;
+            track[0][i] = track[0][i - 1] + Math.cos(heading) * 0.00009;
+            track[1][i] = track[1][i - 1] + Math.sin(heading) * 0.00009;
+        }
+        SegmentIndex index = indexOf("long", track);
+        TrailCursor cursor = new TrailCursor();
+        GeoMath.LocalFrame frame = new GeoMath.LocalFrame();
+        cursor.anchor(index, 0, track[0][0], track[1][0]);
+
+        int fixes = 10000;
+        double sink = 0;
+        long start = System.nanoTime();
+        for (int f = 0; f < fixes; f++) {
+            cursor.track(track[0][f] + 0.00003, track[1][f]);
+            sink += cursor.getDistance();
+        }
+        long cursorNanos = System.nanoTime() - start;
+
+        int sampled = 200;
+        start = System.nanoTime();
+        for (int f = 0; f < fixes; f += fixes / sampled) {
+            frame.reset(track[0][f] + 0.00003, track[1][f]);
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i < points - 1; i++) {
+                best = Math.min(best, frame.distanceSqToSegment(track[0][i], track[1][i], track[0][i + 1], track[1][i + 1]));
+            }
+            sink += Math.sqrt(best);
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        assertTrue(sink > 0);
+        Benchmark.report("%d point track: full scan %.1f us/fix, cursor %.2f us/fix",
+                points, scanNanos / 1000.0 / sampled, cursorNanos / 1000.0 / fixes);
+    }
+}
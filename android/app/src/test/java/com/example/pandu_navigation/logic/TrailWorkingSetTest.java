@@ -0,0 +1,216 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+import com.example.pandu_navigation.data.PoiEntity;
+import com.example.pandu_navigation.data.TrailEntity;
+import com.example.pandu_navigation.data.TrailGeometryStore;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TrailWorkingSetTest {
+
+    // NavigationDao.getNearbyMountainIds, the lookup every fix used to make
+    private static final String NEARBY_MOUNTAIN_IDS = "SELECT DISTINCT mountainId FROM trails WHERE minLat <= ? "
+            + "AND maxLat >= ? AND minLng <= ? AND maxLng >= ?";
+    private static final double MARGIN = TrailWorkingSet.DEFAULT_MARGIN_DEGREES;
+
+    private static List<TrailEntity> merbabu() {
+        List<TrailEntity> trails = new ArrayList<>();
+        for (String name : TestTracks.MERBABU) {
+            trails.add(TestTracks.trail(name));
+        }
+        return trails;
+    }
+
+    private static List<PoiEntity> basecamps() {
+        List<PoiEntity> pois = new ArrayList<>();
+        for (String name : TestTracks.MERBABU) {
+            double[][] track = TestTracks.load(name);
+            pois.add(new PoiEntity("merbabu_bc_" + name, "merbabu", "Basecamp " + name, "basecamp",
+                    track[0][0], track[1][0], track[2][0]));
+        }
+        return pois;
+    }
+
+    private static TrailWorkingSet build(TrailGeometryStore store, double lat, double lng) {
+        return TrailWorkingSet.build(Collections.singletonList("merbabu"), merbabu(), basecamps(), store,
+                store.getVersion(), lat, lng, MARGIN, System.nanoTime());
+    }
+
+    @Test
+    public void coversItsTrailsPlusTheMargin() {
+        TrailGeometryStore store = TrailGeometryStore.getInstance();
+        TrailWorkingSet set = build(store, Double.NaN, Double.NaN);
+
+        assertEquals(TestTracks.MERBABU.length, set.getTrailIds().size());
+        assertEquals(TestTracks.MERBABU.length, set.getPois().size());
+        assertEquals(1, set.getIndexes().size());
+        for (String name : TestTracks.MERBABU) {
+            double[][] track = TestTracks.load(name);
+            for (int i = 0; i < track[0].length; i++) {
+                assertTrue(set.covers(track[0][i], track[1][i]));
+            }
+        }
+        TrailEntity selo = TestTracks.trail("Selo");
+        assertTrue(set.covers(selo.minLat - MARGIN * 0.9, selo.minLng));
+        // Merapi's summit, ~10 km south
+        assertFalse(set.covers(-7.5407, 110.4457));
+        assertTrue(set.contains("merbabu"));
+        assertFalse(set.contains("merapi"));
+    }
+
+    @Test
+    public void emptySetStillCoversTheFixAndEmptyCoversNothing() {
+        TrailGeometryStore store = TrailGeometryStore.getInstance();
+        TrailWorkingSet set = TrailWorkingSet.build(Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyList(), store, store.getVersion(), -7.0, 110.0, MARGIN, System.nanoTime());
+
+        assertTrue(set.getIndexes().isEmpty());
+        assertTrue(set.covers(-7.0 + MARGIN / 2, 110.0 - MARGIN / 2));
+        assertFalse(set.covers(-7.0 + MARGIN * 2, 110.0));
+        assertFalse(TrailWorkingSet.EMPTY.covers(-7.0, 110.0));
+        assertFalse(TrailWorkingSet.EMPTY.isCurrent(store));
+    }
+
+    @Test
+    public void fixBeforeTheFirstLoadIsNotOffTrail() {
+        TrailGeometryStore store = TrailGeometryStore.getInstance();
+        DeviationEngine engine = new DeviationEngine(store);
+        double[][] wekas = TestTracks.load("Wekas");
+        double lat = wekas[0][40], lng = wekas[1][40];
+
+        // Navigation just started: the service still holds EMPTY
+        assertEquals(DeviationEngine.SafetyStatus.SAFE, engine.checkSafety(lat, lng, TrailWorkingSet.EMPTY));
+        assertEquals(-1.0, engine.getLastDeviationDistance(), 0.0);
+
+        // Once loaded, a fix well off every trail is DANGER, and that stands while unknown
+        TrailWorkingSet set = build(store, lat, lng);
+        assertEquals(DeviationEngine.SafetyStatus.DANGER, engine.checkSafety(lat + 0.01, lng, set));
+        assertEquals(DeviationEngine.SafetyStatus.DANGER, engine.checkSafety(lat, lng, TrailWorkingSet.EMPTY));
+        assertEquals(DeviationEngine.SafetyStatus.SAFE, engine.checkSafety(lat, lng, set));
+        assertTrue(engine.getLastDeviationDistance() >= 0);
+
+        // A loaded set with no trails around is still off trail
+        TrailWorkingSet none = TrailWorkingSet.build(Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyList(), store, store.getVersion(), lat, lng, MARGIN, System.nanoTime());
+        assertEquals(DeviationEngine.SafetyStatus.DANGER, engine.checkSafety(lat, lng, none));
+    }
+
+    @Test
+    public void reseedMakesTheSetStale() {
+        TrailGeometryStore store = TrailGeometryStore.getInstance();
+        TrailWorkingSet set = build(store, Double.NaN, Double.NaN);
+        assertTrue(set.isCurrent(store));
+
+        store.invalidate("merbabu_selo");
+        assertFalse(set.isCurrent(store));
+        assertTrue(build(store, Double.NaN, Double.NaN).isCurrent(store));
+    }
+
+    @Test
+    public void matchesTheUnindexedCheck() {
+        TrailGeometryStore store = TrailGeometryStore.getInstance();
+        TrailWorkingSet set = build(store, Double.NaN, Double.NaN);
+        DeviationEngine scan = new DeviationEngine(store);
+        List<TrailEntity> trails = merbabu();
+
+        double[][] walk = TestTracks.load("Wekas");
+        for (int i = 0; i < walk[0].length; i += 7) {
+            double lat = walk[0][i] + 0.0003;
+            double lng = walk[1][i] - 0.0002;
+            // A fresh engine each time: the trail cursor would stay on the trail being followed
+            DeviationEngine indexed = new DeviationEngine(store);
+            assertEquals(scan.checkSafety(lat, lng, trails), indexed.checkSafetyIndexed(lat, lng, set.getIndexes()));
+            assertEquals(scan.getLastDeviationDistance(), indexed.getLastDeviationDistance(), 1e-6);
+        }
+    }
+
+    /**
+     * Per-fix cost of the old path, a nearby-mountain query on every fix,
+     * against the working set, plus the one-off load cost and footprint.
+     */
+    @Test
+    public void benchmarkPerFixLookup() throws SQLException {
+        TrailGeometryStore store = TrailGeometryStore.getInstance();
+        double[][] walk = TestTracks.load("Thekelan");
+        int fixes = 2000;
+
+        List<TrailEntity> trails = merbabu();
+        List<PoiEntity> pois = basecamps();
+        TrailWorkingSet set = TrailWorkingSet.build(Collections.singletonList("merbabu"), trails, pois, store,
+                store.getVersion(), walk[0][0], walk[1][0], MARGIN, System.nanoTime());
+
+        DeviationEngine engine = new DeviationEngine(store);
+        long[] inMemory = DeviationEngineBenchmarkTest.measure(() -> {
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < fixes; i++) {
+                    int p = i % walk[0].length;
+                    TrailWorkingSet current = set;
+                    if (!current.covers(walk[0][p], walk[1][p]) || !current.isCurrent(store)) {
+                        throw new AssertionError("walk left the working set");
+                    }
+                    engine.checkSafetyIndexed(walk[0][p], walk[1][p], current.getIndexes());
+                }
+            }
+        });
+
+        long queryNanos;
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            try (Statement statement = db.createStatement()) {
+                statement.execute("CREATE TABLE trails (id TEXT PRIMARY KEY, mountainId TEXT, minLat REAL, "
+                        + "maxLat REAL, minLng REAL, maxLng REAL)");
+            }
+            try (PreparedStatement insert = db.prepareStatement("INSERT INTO trails VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (TrailEntity trail : trails) {
+                    insert.setString(1, trail.id);
+                    insert.setString(2, trail.mountainId);
+                    insert.setDouble(3, trail.minLat);
+                    insert.setDouble(4, trail.maxLat);
+                    insert.setDouble(5, trail.minLng);
+                    insert.setDouble(6, trail.maxLng);
+                    insert.executeUpdate();
+                }
+            }
+            try (PreparedStatement select = db.prepareStatement(NEARBY_MOUNTAIN_IDS)) {
+                long t0 = 0;
+                for (int pass = 0; pass < 2; pass++) {
+                    t0 = System.nanoTime();
+                    for (int i = 0; i < fixes; i++) {
+                        int p = i % walk[0].length;
+                        select.setDouble(1, walk[0][p] + 0.002);
+                        select.setDouble(2, walk[0][p] - 0.002);
+                        select.setDouble(3, walk[1][p] + 0.002);
+                        select.setDouble(4, walk[1][p] - 0.002);
+                        try (ResultSet rows = select.executeQuery()) {
+                            while (rows.next()) {
+                                rows.getString(1);
+                            }
+                        }
+                    }
+                }
+                queryNanos = System.nanoTime() - t0;
+            }
+        }
+
+        Benchmark.report("working set %s", set);
+        Benchmark.report("per fix, nearby query alone %.1f us vs working set check %.1f us "
+                + "(%d bytes/fix)", queryNanos / 1e3 / fixes, inMemory[0] / 2e3 / fixes, inMemory[1] / 2 / fixes);
+        assertTrue(set.estimateBytes() > 0);
+        assertTrue(inMemory[1] / 2 / fixes < 64);
+    }
+}
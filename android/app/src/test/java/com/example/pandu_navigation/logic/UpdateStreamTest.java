@@ -0,0 +1,455 @@
+package com.example.pandu_navigation.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.pandu_navigation.Benchmark;
+import com.example.pandu_navigation.TestTracks;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class UpdateStreamTest {
+
+    // What the Flutter side asks for, see NativeBridge
+    private static final UpdateStream.Contract FOREGROUND = new UpdateStream.Contract(500,
+            UpdateStream.ALL_FIELDS, 1, 5);
+    private static final UpdateStream.Contract BACKGROUND = new UpdateStream.Contract(10_000,
+            UpdateStream.FIELD_DISTANCE, 25, 0);
+
+    /** Stands in for the main thread and its clock: runs what was posted once its time comes. */
+    private static final class Looper implements UpdateStream.Scheduler, UpdateStream.Clock {
+        final List<long[]> due = new ArrayList<>();
+        final List<Runnable> tasks = new ArrayList<>();
+        long now;
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            due.add(new long[] {now + delayMs});
+            tasks.add(task);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            int i = tasks.indexOf(task);
+            if (i >= 0) {
+                due.remove(i);
+                tasks.remove(i);
+            }
+        }
+
+        @Override
+        public long nowMs() {
+            return now;
+        }
+
+        /** Moves the clock, running what comes due in order. */
+        void advanceTo(long timeMs) {
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < due.size(); i++) {
+                    if (due.get(i)[0] <= timeMs && (next < 0 || due.get(i)[0] < due.get(next)[0])) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                now = Math.max(now, due.remove(next)[0]);
+                tasks.remove(next).run();
+            }
+            now = timeMs;
+        }
+
+        int waiting() {
+            return tasks.size();
+        }
+    }
+
+    private static UpdateStream.Update update(long second, String trailId) {
+        UpdateStream.Update update = new UpdateStream.Update();
+        update.timeMs = second * 1000;
+        update.receivedMs = second * 1000 + 40;
+        update.lat = -7.45 + second * 1e-5;
+        update.lng = 110.44;
+        update.altitude = 2100.5;
+        update.accuracy = 4.5f;
+        update.bearing = 90;
+        update.speed = 1.2f;
+        update.distance = 12.25;
+        update.status = DeviationEngine.SafetyStatus.WARNING;
+        update.trailId = trailId;
+        update.segmentIndex = trailId != null ? 7 : -1;
+        update.alongTrack = 350.5;
+        return update;
+    }
+
+    private static ByteBuffer wrap(byte[] batch) {
+        return ByteBuffer.wrap(batch).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int count(byte[] batch) {
+        return wrap(batch).getShort(2) & 0xffff;
+    }
+
+    private static String trailOf(ByteBuffer batch, int record) {
+        int size = batch.get(1);
+        int count = batch.getShort(2) & 0xffff;
+        int index = batch.getShort(UpdateStream.HEADER_BYTES + record * size + size - 2);
+        if (index < 0) {
+            return null;
+        }
+        int at = UpdateStream.HEADER_BYTES + count * size;
+        int trails = batch.get(at++) & 0xff;
+        assertTrue(index < trails);
+        for (int i = 0; ; i++) {
+            int length = batch.getShort(at) & 0xffff;
+            if (i == index) {
+                return new String(batch.array(), at + 2, length, StandardCharsets.UTF_8);
+            }
+            at += 2 + length;
+        }
+    }
+
+    @Test
+    public void withoutContractEveryUpdateGoesAndThosePilingUpShareABatch() {
+        Looper main = new Looper();
+        UpdateStream stream = new UpdateStream(main);
+        List<byte[]> batches = new ArrayList<>();
+        stream.subscribe(batches::add, UpdateStream.Contract.ALL, main);
+
+        stream.publish(update(1, "selo"));
+        UpdateStream.Update dr = update(2, null);
+        dr.deadReckoned = true;
+        stream.publish(dr);
+        stream.publish(update(3, "wekas"));
+        assertEquals("one delivery is posted however many updates queue", 1, main.waiting());
+        main.advanceTo(0);
+
+        assertEquals(1, batches.size());
+        ByteBuffer batch = wrap(batches.get(0));
+        assertEquals(UpdateStream.VERSION, batch.get(0));
+        assertEquals(68, batch.get(1));
+        assertEquals(3, batch.getShort(2));
+        assertEquals(UpdateStream.ALL_FIELDS, batch.getShort(4));
+
+        int at = UpdateStream.HEADER_BYTES;
+        assertEquals(1000, batch.getLong(at));
+        assertEquals(1040, batch.getLong(at + 8));
+        assertEquals(-7.45 + 1e-5, batch.getDouble(at + 16), 0);
+        assertEquals(110.44, batch.getDouble(at + 24), 0);
+        assertEquals(DeviationEngine.SafetyStatus.WARNING.ordinal(), batch.get(at + 32));
+        assertEquals(0, batch.get(at + 33));
+        assertEquals(2100.5, batch.getFloat(at + 34), 0);
+        assertEquals(4.5, batch.getFloat(at + 38), 0);
+        assertEquals(90, batch.getFloat(at + 42), 0);
+        assertEquals(1.2, batch.getFloat(at + 46), 1e-6);
+        assertEquals(12.25, batch.getFloat(at + 50), 0);
+        assertEquals(350.5, batch.getDouble(at + 54), 0);
+        assertEquals(7, batch.getInt(at + 62));
+
+        at += 68;
+        assertEquals(UpdateStream.FLAG_DEAD_RECKONED, batch.get(at + 33));
+        assertEquals(-1, batch.getInt(at + 62));
+
+        assertEquals("selo", trailOf(batch, 0));
+        assertEquals(null, trailOf(batch, 1));
+        assertEquals("wekas", trailOf(batch, 2));
+
+        UpdateStream.Stats stats = stream.getStats();
+        assertEquals(3, stats.published);
+        assertEquals(3, stats.delivered);
+        assertEquals(1, stats.batches);
+    }
+
+    @Test
+    public void keepsNothingWithoutSubscriberAndDropsTheOldestWhenNotDrained() {
+        Looper main = new Looper();
+        UpdateStream stream = new UpdateStream(main);
+        stream.publish(update(1, "selo"));
+
+        List<byte[]> batches = new ArrayList<>();
+        UpdateStream.Sink sink = batches::add;
+        stream.subscribe(sink, UpdateStream.Contract.ALL, main);
+        for (int s = 0; s < UpdateStream.MAX_PENDING + 10; s++) {
+            stream.publish(update(s, "selo"));
+        }
+        main.advanceTo(0);
+        assertEquals(1, batches.size());
+        assertEquals(UpdateStream.MAX_PENDING, count(batches.get(0)));
+        assertEquals("the newest survive", 10_000, wrap(batches.get(0)).getLong(UpdateStream.HEADER_BYTES));
+        assertEquals(10, stream.getStats().dropped);
+
+        stream.unsubscribe(sink);
+        stream.publish(update(999, "selo"));
+        main.advanceTo(10_000);
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void narrowerResubscribeStillDropsAtMaxPending() {
+        // 68-byte records then 38: the kept buffer is no multiple of the new size
+        Looper main = new Looper();
+        UpdateStream stream = new UpdateStream(main);
+        stream.subscribe(batches -> { }, UpdateStream.Contract.ALL, main);
+        List<byte[]> batches = new ArrayList<>();
+        stream.subscribe(batches::add, new UpdateStream.Contract(0, UpdateStream.FIELD_DISTANCE, 0, 0), main);
+
+        int published = 2 * UpdateStream.MAX_PENDING;
+        for (int s = 0; s < published; s++) {
+            stream.publish(update(s, "selo"));
+        }
+        main.advanceTo(0);
+        assertEquals(1, batches.size());
+        assertEquals(38, batches.get(0)[1]);
+        assertEquals(UpdateStream.MAX_PENDING, count(batches.get(0)));
+        assertEquals((published - UpdateStream.MAX_PENDING) * 1000L,
+                wrap(batches.get(0)).getLong(UpdateStream.HEADER_BYTES));
+        assertEquals(published - UpdateStream.MAX_PENDING, stream.getStats().dropped);
+    }
+
+    @Test
+    public void packsOnlyTheFieldsAsked() {
+        Looper main = new Looper();
+        UpdateStream stream = new UpdateStream(main);
+        List<byte[]> batches = new ArrayList<>();
+        stream.subscribe(batches::add, new UpdateStream.Contract(0,
+                UpdateStream.FIELD_ACCURACY | UpdateStream.FIELD_DISTANCE, 0, 0), main);
+        stream.publish(update(1, "selo"));
+        main.advanceTo(0);
+
+        ByteBuffer batch = wrap(batches.get(0));
+        assertEquals(UpdateStream.BASE_RECORD_BYTES + 8, batch.get(1));
+        assertEquals(4.5, batch.getFloat(UpdateStream.HEADER_BYTES + 34), 0);
+        assertEquals(12.25, batch.getFloat(UpdateStream.HEADER_BYTES + 38), 0);
+        assertEquals("no trail table", UpdateStream.HEADER_BYTES + 42, batch.capacity());
+    }
+
+    @Test
+    public void rateLimitKeepsOnlyTheLatest() {
+        Looper main = new Looper();
+        UpdateStream stream = new UpdateStream(main);
+        List<byte[]> batches = new ArrayList<>();
+        stream.subscribe(batches::add, new UpdateStream.Contract(1000, UpdateStream.ALL_FIELDS, 0, 0), main);
+
+        stream.publish(update(0, "selo"));
+        main.advanceTo(0);
+        assertEquals("the first goes at once", 1, batches.size());
+        for (int ms = 100; ms <= 900; ms += 100) {
+            main.advanceTo(ms);
+            stream.publish(update(ms, "selo"));
+        }
+        main.advanceTo(999);
+        assertEquals(1, batches.size());
+        main.advanceTo(1000);
+        assertEquals(2, batches.size());
+        assertEquals(1, count(batches.get(1)));
+        assertEquals(900_000, wrap(batches.get(1)).getLong(UpdateStream.HEADER_BYTES));
+        assertEquals(8, stream.getStats().coalesced);
+    }
+
+    @Test
+    public void suppressesUpdatesBelowTheDeltasButNeverAStatusChange() {
+        Looper main = new Looper();
+        UpdateStream stream = new UpdateStream(main);
+        List<byte[]> batches = new ArrayList<>();
+        stream.subscribe(batches::add, new UpdateStream.Contract(0, UpdateStream.ALL_FIELDS, 10, 20), main);
+
+        UpdateStream.Update update = update(0, "selo");
+        update.status = DeviationEngine.SafetyStatus.SAFE;
+        stream.publish(update);
+        update.lat += 5e-5; // 5.6 m
+        update.bearing = 100;
+        stream.publish(update);
+        update.lat += 5e-5; // 11 m from the first
+        stream.publish(update);
+        update.bearing = 125; // turned 25 degrees since the last one let through
+        stream.publish(update);
+        update.bearing = 130;
+        stream.publish(update);
+        update.status = DeviationEngine.SafetyStatus.WARNING;
+        stream.publish(update);
+        main.advanceTo(0);
+
+        assertEquals(4, count(batches.get(0)));
+        assertEquals(2, stream.getStats().suppressed);
+    }
+
+    @Test
+    public void dangerGoesAtOnceAndIsNotCoalescedAway() {
+        Looper main = new Looper();
+        UpdateStream stream = new UpdateStream(main);
+        List<byte[]> batches = new ArrayList<>();
+        stream.subscribe(batches::add, BACKGROUND, main);
+
+        UpdateStream.Update update = update(0, "selo");
+        update.status = DeviationEngine.SafetyStatus.SAFE;
+        stream.publish(update);
+        main.advanceTo(100);
+        assertEquals(1, batches.size());
+
+        update.lat += 1e-3; // 110 m, due in 10 s
+        stream.publish(update);
+        main.advanceTo(2000);
+        update.status = DeviationEngine.SafetyStatus.DANGER;
+        stream.publish(update);
+        // The next fix, right behind it, must not replace it
+        update.status = DeviationEngine.SafetyStatus.WARNING;
+        stream.publish(update);
+        main.advanceTo(2000);
+        assertEquals("delivered without waiting out the rate limit", 2, batches.size());
+        ByteBuffer batch = wrap(batches.get(1));
+        int size = batch.get(1);
+        assertEquals(2, count(batches.get(1)));
+        assertEquals(DeviationEngine.SafetyStatus.DANGER.ordinal(), batch.get(UpdateStream.HEADER_BYTES + 32));
+        assertEquals(DeviationEngine.SafetyStatus.WARNING.ordinal(),
+                batch.get(UpdateStream.HEADER_BYTES + size + 32));
+
+        // The delivery scheduled for the 110 m update was taken back
+        assertEquals(0, main.waiting());
+        main.advanceTo(20_000);
+        assertEquals(2, batches.size());
+    }
+
+    @Test
+    public void rateLimitNeverCoalescesAStatusChangeAway() {
+        Looper main = new Looper();
+        UpdateStream stream = new UpdateStream(main);
+        List<byte[]> batches = new ArrayList<>();
+        stream.subscribe(batches::add, new UpdateStream.Contract(1000, UpdateStream.ALL_FIELDS, 0, 0), main);
+
+        UpdateStream.Update update = update(0, "selo");
+        update.status = DeviationEngine.SafetyStatus.SAFE;
+        stream.publish(update);
+        main.advanceTo(0);
+        // Stepping over the warning distance and back within one interval
+        DeviationEngine.SafetyStatus[] statuses = { DeviationEngine.SafetyStatus.WARNING,
+                DeviationEngine.SafetyStatus.WARNING, DeviationEngine.SafetyStatus.SAFE,
+                DeviationEngine.SafetyStatus.SAFE, DeviationEngine.SafetyStatus.SAFE };
+        for (int i = 0; i < statuses.length; i++) {
+            main.advanceTo(100 * (i + 1));
+            update.timeMs = 100 * (i + 1);
+            update.status = statuses[i];
+            stream.publish(update);
+        }
+        assertEquals(1, main.waiting());
+        main.advanceTo(1000);
+
+        assertEquals(2, batches.size());
+        ByteBuffer batch = wrap(batches.get(1));
+        int size = batch.get(1);
+        assertEquals(3, count(batches.get(1)));
+        long[] times = { 100, 300, 500 };
+        for (int r = 0; r < times.length; r++) {
+            assertEquals(times[r], batch.getLong(UpdateStream.HEADER_BYTES + r * size));
+        }
+        assertEquals(DeviationEngine.SafetyStatus.WARNING.ordinal(), batch.get(UpdateStream.HEADER_BYTES + 32));
+        assertEquals(DeviationEngine.SafetyStatus.SAFE.ordinal(), batch.get(UpdateStream.HEADER_BYTES + size + 32));
+        assertEquals(2, stream.getStats().coalesced);
+    }
+
+    @Test
+    public void readsTheContractFromListenArguments() {
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("maxRateHz", 0.1);
+        arguments.put("fields", Arrays.asList("distance", "trail", "nonsense"));
+        arguments.put("minMoveMeters", 25);
+        UpdateStream.Contract contract = UpdateStream.Contract.of(arguments);
+        assertEquals(10_000, contract.minIntervalMs);
+        assertEquals(UpdateStream.FIELD_DISTANCE | UpdateStream.FIELD_TRAIL, contract.fields);
+        assertEquals(25, contract.minMoveMeters, 0);
+        assertEquals(0, contract.minHeadingDegrees, 0);
+
+        assertEquals(UpdateStream.Contract.ALL, UpdateStream.Contract.of(null));
+        assertEquals(UpdateStream.ALL_FIELDS, UpdateStream.Contract.of(new HashMap<>()).fields);
+    }
+
+    /**
+     * Every fix of a Merbabu hike, with filter jitter, a compass bearing and
+     * one off-trail excursion, against each contract: how often the main
+     * thread and the Dart isolate are woken and how much crosses the channel.
+     */
+    @Test
+    public void benchmarkContractsOnMerbabuHikes() {
+        Map<String, UpdateStream.Contract> contracts = new java.util.LinkedHashMap<>();
+        contracts.put("everything", UpdateStream.Contract.ALL);
+        contracts.put("foreground", FOREGROUND);
+        contracts.put("background", BACKGROUND);
+        double hours = 0;
+        Map<String, long[]> totals = new HashMap<>();
+        for (String name : TestTracks.MERBABU) {
+            double[][] truth = KalmanFilterTest.walk(TestTracks.load(name));
+            hours += truth[0].length / 3600.0;
+            for (Map.Entry<String, UpdateStream.Contract> entry : contracts.entrySet()) {
+                long[] result = replay(truth, entry.getValue(), name.hashCode());
+                long[] total = totals.computeIfAbsent(entry.getKey(), k -> new long[3]);
+                for (int i = 0; i < 3; i++) {
+                    total[i] += result[i];
+                }
+                assertTrue("DANGER waited " + result[2] + " ms", result[2] == 0);
+            }
+        }
+        for (String key : contracts.keySet()) {
+            long[] total = totals.get(key);
+            Benchmark.report("update contract %-10s %6.0f wakeups/h, %7.0f bytes/h", key,
+                    total[0] / hours, total[1] / hours);
+        }
+        assertTrue(totals.get("background")[0] * 20 < totals.get("everything")[0]);
+        assertTrue(totals.get("foreground")[0] < totals.get("everything")[0]);
+    }
+
+    /** {batches, bytes, worst delay of the DANGER change in ms}. */
+    private static long[] replay(double[][] truth, UpdateStream.Contract contract, long seed) {
+        Looper main = new Looper();
+        UpdateStream stream = new UpdateStream(main);
+        long[] result = new long[3];
+        int n = truth[0].length;
+        int dangerAt = n / 2;
+        boolean[] dangerSeen = new boolean[1];
+        stream.subscribe(batch -> {
+            result[0]++;
+            result[1] += batch.length;
+            ByteBuffer buffer = wrap(batch);
+            for (int i = 0; i < count(batch); i++) {
+                int at = UpdateStream.HEADER_BYTES + i * buffer.get(1);
+                if (!dangerSeen[0] && buffer.get(at + 32) == DeviationEngine.SafetyStatus.DANGER.ordinal()) {
+                    dangerSeen[0] = true;
+                    result[2] = main.nowMs() - buffer.getLong(at);
+                }
+            }
+        }, contract, main);
+        Random random = new Random(seed);
+        UpdateStream.Update update = update(0, "selo");
+        double bearing = 0;
+        for (int t = 1; t < n; t++) {
+            long ms = t * 1000L;
+            main.advanceTo(ms);
+            double dLat = truth[0][t] - truth[0][t - 1];
+            double dLng = truth[1][t] - truth[1][t - 1];
+            if (dLat != 0 || dLng != 0) {
+                bearing = Math.toDegrees(Math.atan2(dLng, dLat));
+            }
+            update.timeMs = ms;
+            update.receivedMs = ms;
+            update.lat = truth[0][t] + random.nextGaussian() * 1e-5;
+            update.lng = truth[1][t] + random.nextGaussian() * 1e-5;
+            update.bearing = (float) ((bearing + random.nextGaussian() * 10 + 360) % 360);
+            boolean off = t >= dangerAt && t < dangerAt + 120;
+            update.status = off ? DeviationEngine.SafetyStatus.DANGER : DeviationEngine.SafetyStatus.SAFE;
+            update.distance = off ? 60 : 3;
+            stream.publish(update);
+        }
+        main.advanceTo(n * 1000L + 60_000);
+        assertTrue(dangerSeen[0]);
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+plugins {
+    java
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+// The tool compiles the app's Android-free seeding code (AssetSeed, GpxReader,
+// GeometryCodec, the entities) directly, so the prebuilt database is produced
+// by exactly the same parser, codec and id scheme as runtime seeding.
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "com/example/pandu_navigation/tools/**",
+                "com/example/pandu_navigation/data/AssetSeed.java",
+                "com/example/pandu_navigation/data/GpxReader.java",
+                "com/example/pandu_navigation/data/GeometryCodec.java",
+                "com/example/pandu_navigation/data/TrailGeometry.java",
+                "com/example/pandu_navigation/data/*Entity.java",
+                "com/example/pandu_navigation/logic/GeoMath.java",
+            )
+        }
+    }
+}
+
+dependencies {
+    val room_version = "2.6.1"
+    compileOnly("androidx.room:room-common:$room_version")
+    compileOnly("androidx.annotation:annotation:1.7.1")
+    implementation("com.google.code.gson:gson:2.10.1")
+    implementation("net.sf.kxml:kxml2:2.3.0")
+    implementation("org.xerial:sqlite-jdbc:3.45.1.0")
+}
+
+val flutterRoot = rootProject.projectDir.parentFile
+val prebuiltAssets = layout.buildDirectory.dir("generated/assets")
+
+tasks.register<JavaExec>("buildPrebuiltDatabase") {
+    group = "build"
+    description = "Seeds the navigation database from mountains.json and the bundled GPX files."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.pandu_navigation.tools.PrebuiltDatabaseBuilder")
+    inputs.dir(flutterRoot.resolve("assets/config"))
+    inputs.dir(flutterRoot.resolve("assets/gpx"))
+    inputs.files(sourceSets["main"].runtimeClasspath)
+    outputs.dir(prebuiltAssets)
+    args(
+        flutterRoot.absolutePath,
+        prebuiltAssets.get().file("databases/pandu_native_db.db").asFile.absolutePath,
+    )
+}
@@ -0,0 +1,226 @@
+package com.example.pandu_navigation.tools;
+
+import com.example.pandu_navigation.data.AssetManifestEntity;
+import com.example.pandu_navigation.data.AssetSeed;
+import com.example.pandu_navigation.data.AssetSeed.AppConfig;
+import com.example.pandu_navigation.data.AssetSeed.MountainConfig;
+import com.example.pandu_navigation.data.GpxReader;
+import com.example.pandu_navigation.data.MountainEntity;
+import com.example.pandu_navigation.data.PoiEntity;
+import com.example.pandu_navigation.data.TrailEntity;
+
+import org.kxml2.io.KXmlParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Build-time seeding: parses mountains.json and the bundled GPX with the
+ * app's own {@link AssetSeed}/{@link GpxReader}, and writes a ready SQLite file
+ * that AppDatabase opens through Room's createFromAsset.
+ *
+ * Usage: PrebuiltDatabaseBuilder <flutter project root> <output .db>
+ */
+public final class PrebuiltDatabaseBuilder {
+
+    /** Must match AppDatabase's @Database version. */
+    static final int SCHEMA_VERSION = 8;
+
+    /**
+     * Room's generated CREATE statements for AppDatabase version 8. Room
+     * validates a pre-packaged file against the entities on first open and
+     * refuses it on any column mismatch, so keep these in step with the
+     * entity classes.
+     */
+    static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS `trails` (`id` TEXT NOT NULL, `mountainId` TEXT, `name` TEXT, "
+                    + "`geometry` BLOB, `difficulty` INTEGER NOT NULL, `distance` REAL NOT NULL, "
+                    + "`elevationGain` REAL NOT NULL, `minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, "
+                    + "`minLng` REAL NOT NULL, `maxLng` REAL NOT NULL, PRIMARY KEY(`id`))",
+            "CREATE TABLE IF NOT EXISTS `breadcrumb_chunks` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`sessionId` TEXT, `startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, "
+                    + "`count` INTEGER NOT NULL, `minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, "
+                    + "`minLng` REAL NOT NULL, `maxLng` REAL NOT NULL, `data` BLOB, `isSynced` INTEGER NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS `index_breadcrumb_chunks_startTime` ON `breadcrumb_chunks` (`startTime`)",
+            "CREATE INDEX IF NOT EXISTS `index_breadcrumb_chunks_sessionId_startTime` "
+                    + "ON `breadcrumb_chunks` (`sessionId`, `startTime`)",
+            "CREATE TABLE IF NOT EXISTS `sessions` (`id` TEXT NOT NULL, `trailId` TEXT, "
+                    + "`startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, `pointCount` INTEGER NOT NULL, "
+                    + "`distanceMeters` REAL NOT NULL, `lastTimestamp` INTEGER NOT NULL, `elevationGain` REAL NOT NULL, "
+                    + "`geometry` BLOB, `compactedAt` INTEGER NOT NULL, PRIMARY KEY(`id`))",
+            "CREATE INDEX IF NOT EXISTS `index_sessions_startTime` ON `sessions` (`startTime`)",
+            "CREATE TABLE IF NOT EXISTS `pois` (`id` TEXT NOT NULL, `mountainId` TEXT, `name` TEXT, "
+                    + "`type` TEXT, `lat` REAL NOT NULL, `lng` REAL NOT NULL, `elevation` REAL NOT NULL, "
+                    + "PRIMARY KEY(`id`))",
+            "CREATE TABLE IF NOT EXISTS `mountain_regions` (`id` TEXT NOT NULL, `name` TEXT, "
+                    + "`description` TEXT, `region` TEXT, `lat` REAL NOT NULL, `lng` REAL NOT NULL, "
+                    + "`altitude` REAL NOT NULL, `is_downloaded` INTEGER NOT NULL, "
+                    + "`is_offline_available` INTEGER NOT NULL, `local_map_path` TEXT, `boundary_json` TEXT, "
+                    + "PRIMARY KEY(`id`))",
+            "CREATE TABLE IF NOT EXISTS `asset_manifest` (`path` TEXT NOT NULL, `mountainId` TEXT, "
+                    + "`hash` TEXT, PRIMARY KEY(`path`))",
+    };
+
+    private PrebuiltDatabaseBuilder() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: PrebuiltDatabaseBuilder <flutter project root> <output .db>");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        File root = new File(args[0]);
+        File output = new File(args[1]);
+
+        AppConfig config;
+        try (InputStream in = Files.newInputStream(new File(root, AssetSeed.CONFIG_PATH).toPath())) {
+            config = AssetSeed.readConfig(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+
+        // Diffing against an empty manifest schedules every readable file and yields
+        // the manifest rows, so the app's first sync finds nothing to do
+        AssetSeed.SyncPlan plan = AssetSeed.plan(config, Collections.emptyList(), Collections.emptyList(), path -> {
+            try (InputStream in = open(root, path)) {
+                return AssetSeed.sha256(in);
+            } catch (IOException e) {
+                // Same policy as runtime seeding: an unreadable file is skipped, not fatal
+                System.err.println("warning: cannot read " + path);
+                return null;
+            }
+        });
+
+        GpxReader gpx = new GpxReader(new KXmlParser());
+        List<MountainEntity> mountains = new ArrayList<>();
+        List<TrailEntity> trails = new ArrayList<>();
+        List<PoiEntity> pois = new ArrayList<>();
+        for (MountainConfig mountain : plan.mountains) {
+            mountains.add(AssetSeed.toEntity(mountain));
+        }
+        for (AssetSeed.TrackJob job : plan.tracks) {
+            try (InputStream in = open(root, job.track.file)) {
+                trails.addAll(AssetSeed.readTracks(gpx, in, job.mountainId, job.track.name));
+            }
+        }
+        for (AssetSeed.PoiJob job : plan.pois) {
+            try (InputStream in = open(root, job.path)) {
+                pois.addAll(AssetSeed.readPois(gpx, in, job.mountainId));
+            }
+        }
+        List<AssetManifestEntity> manifest = new ArrayList<>(plan.manifest.values());
+
+        write(output, mountains, trails, pois, manifest);
+        System.out.printf("Prebuilt %s: %d mountains, %d trails, %d POIs, %d bytes in %d ms%n",
+                output.getName(), mountains.size(), trails.size(), pois.size(), output.length(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static InputStream open(File root, String path) throws IOException {
+        return Files.newInputStream(new File(root, path).toPath());
+    }
+
+    static void write(File output, List<MountainEntity> mountains, List<TrailEntity> trails,
+            List<PoiEntity> pois, List<AssetManifestEntity> manifest) throws SQLException, IOException {
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        Files.deleteIfExists(output.toPath());
+
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:" + output.getAbsolutePath())) {
+            try (Statement statement = db.createStatement()) {
+                // Only takes effect before the first table; lets BreadcrumbMaintenance
+                // hand freed pages back with incremental_vacuum
+                statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+
+            db.setAutoCommit(false);
+            try (PreparedStatement insert = db.prepareStatement(
+                    "INSERT INTO trails (id, mountainId, name, geometry, difficulty, distance, elevationGain, "
+                            + "minLat, maxLat, minLng, maxLng) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (TrailEntity t : trails) {
+                    insert.setString(1, t.id);
+                    insert.setString(2, t.mountainId);
+                    insert.setString(3, t.name);
+                    insert.setBytes(4, t.geometry);
+                    insert.setInt(5, t.difficulty);
+                    insert.setDouble(6, t.distance);
+                    insert.setDouble(7, t.elevationGain);
+                    insert.setDouble(8, t.minLat);
+                    insert.setDouble(9, t.maxLat);
+                    insert.setDouble(10, t.minLng);
+                    insert.setDouble(11, t.maxLng);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement insert = db.prepareStatement(
+                    "INSERT INTO pois (id, mountainId, name, type, lat, lng, elevation) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                for (PoiEntity p : pois) {
+                    insert.setString(1, p.id);
+                    insert.setString(2, p.mountainId);
+                    insert.setString(3, p.name);
+                    insert.setString(4, p.type);
+                    insert.setDouble(5, p.lat);
+                    insert.setDouble(6, p.lng);
+                    insert.setDouble(7, p.elevation);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement insert = db.prepareStatement(
+                    "INSERT INTO mountain_regions (id, name, description, region, lat, lng, altitude, "
+                            + "is_downloaded, is_offline_available, local_map_path, boundary_json) "
+                            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (MountainEntity m : mountains) {
+                    insert.setString(1, m.id);
+                    insert.setString(2, m.name);
+                    insert.setString(3, m.description);
+                    insert.setString(4, m.region);
+                    insert.setDouble(5, m.lat);
+                    insert.setDouble(6, m.lng);
+                    insert.setDouble(7, m.altitude);
+                    insert.setInt(8, m.isDownloaded ? 1 : 0);
+                    insert.setInt(9, m.isOfflineAvailable ? 1 : 0);
+                    insert.setString(10, m.localMapPath);
+                    insert.setString(11, m.boundaryJson);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement insert = db.prepareStatement(
+                    "INSERT INTO asset_manifest (path, mountainId, hash) VALUES (?, ?, ?)")) {
+                for (AssetManifestEntity entry : manifest) {
+                    insert.setString(1, entry.path);
+                    insert.setString(2, entry.mountainId);
+                    insert.setString(3, entry.hash);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            db.commit();
+            db.setAutoCommit(true);
+
+            try (Statement statement = db.createStatement()) {
+                // Room reads the schema version from user_version when it copies the asset
+                statement.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+                statement.execute("VACUUM");
+            }
+        }
+    }
+}
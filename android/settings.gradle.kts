@@ -24,3 +24,5 @@ plugins {
 }
 
 include(":app")
+// Build-time tool that produces the prebuilt navigation database asset
+include(":prebuilt-db")
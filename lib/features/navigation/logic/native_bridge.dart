@@ -1,10 +1,13 @@
 import 'dart:async';
-import 'dart:convert';
+import 'dart:typed_data';
 import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
+import 'package:flutter/widgets.dart';
 import 'package:flutter_riverpod/flutter_riverpod.dart';
+import 'package:maplibre_gl/maplibre_gl.dart';
 import '../../../data/local/db/app_database.dart';
 import '../../../data/local/db/converters.dart';
+import 'navigation_update.dart';
 
 class NativeBridge {
   static const MethodChannel _commandChannel =
@@ -20,58 +23,113 @@ class NativeBridge {
     await _commandChannel.invokeMethod('stopService');
   }
 
+  /// The mountain's trails without geometry ([Trail.geometryJson] is empty);
+  /// fetch that per trail with [getTrailGeometry] when it is drawn.
   static Future<List<Trail>> getTrails(String mountainId) async {
     try {
-      final String jsonStr = await _commandChannel.invokeMethod('getTrails', {
+      final List<dynamic>? list =
+          await _commandChannel.invokeMethod('getTrails', {
         'mountainId': mountainId,
       });
-      return await compute(_parseTrailsList, jsonStr);
+      return (list ?? const []).map(_parseTrailSummary).toList();
     } catch (e) {
-      print('Error parsing native trails: $e');
+      print('Error reading native trails: $e');
       return [];
     }
   }
 
-  static Stream<Map<String, dynamic>> get navigationUpdates {
-    return _updateChannel.receiveBroadcastStream().map((event) {
-      if (event is Map) {
-        return Map<String, dynamic>.from(event);
-      }
-      if (event is String) {
-        try {
-          return jsonDecode(event) as Map<String, dynamic>;
-        } catch (_) {}
+  static final Map<String, Future<List<TrailPoint>>> _geometry = {};
+  static bool _listening = false;
+
+  /// One trail's points, fetched once and kept until the trail data is
+  /// reseeded. They come as a Float64List of lat, lng, ele per vertex, with
+  /// no JSON in between.
+  static Future<List<TrailPoint>> getTrailGeometry(String trailId) {
+    _listenForReseeds();
+    return _geometry.putIfAbsent(trailId, () async {
+      try {
+        final Float64List? points = await _commandChannel
+            .invokeMethod('getTrailGeometry', {'trailId': trailId});
+        return _toTrailPoints(points ?? Float64List(0));
+      } catch (e) {
+        _geometry.remove(trailId);
+        print('Error reading native trail geometry: $e');
+        return const [];
       }
-      return {};
     });
   }
-}
 
-// Top-level function to be run in isolate
-List<Trail> _parseTrailsList(String jsonStr) {
-  final List<dynamic> list = jsonDecode(jsonStr);
-  return list.map((e) => _parseNativeTrail(e)).toList();
-}
+  /// Drops cached geometry, e.g. after the trail data was reseeded.
+  static void clearTrailGeometry() => _geometry.clear();
 
-Trail _parseNativeTrail(dynamic rawJson) {
-  final Map<String, dynamic> json =
-      (rawJson is String) ? jsonDecode(rawJson) : rawJson;
+  // Native seeding reports each sync it finishes; nothing is cached before
+  // the first fetch, so the handler goes in then.
+  static void _listenForReseeds() {
+    if (_listening) return;
+    _listening = true;
+    _commandChannel.setMethodCallHandler((call) async {
+      if (call.method == 'trailDataChanged') clearTrailGeometry();
+    });
+  }
 
-  List<TrailPoint> geometry = [];
-  if (json['geometryJson'] != null) {
+  /// Shortest trail route between two points on the mountain's network, found
+  /// natively (A* over the whole network, off the UI isolate). Null when
+  /// either point is over a kilometre from a trail or nothing joins them.
+  static Future<List<LatLng>?> findRoute(
+      String mountainId, LatLng start, LatLng end) async {
     try {
-      final List<dynamic> rawPoints = jsonDecode(json['geometryJson']);
-      geometry = rawPoints.map((p) {
-        final lat = (p[1] as num).toDouble();
-        final lng = (p[0] as num).toDouble();
-        final ele = (p.length > 2 ? (p[2] as num).toDouble() : 0.0);
-        return TrailPoint(lat, lng, ele);
-      }).toList();
+      final Float64List? route =
+          await _commandChannel.invokeMethod('findRoute', {
+        'mountainId': mountainId,
+        'startLat': start.latitude,
+        'startLng': start.longitude,
+        'endLat': end.latitude,
+        'endLng': end.longitude,
+      });
+      if (route == null) return null;
+      return List<LatLng>.generate(
+          route.length ~/ 2, (i) => LatLng(route[i * 2], route[i * 2 + 1]),
+          growable: false);
     } catch (e) {
-      print("Error parsing geometry: $e");
+      print('Error finding native route: $e');
+      return null;
     }
   }
 
+  /// Fix-to-Dart latency of every update decoded so far.
+  static final UpdateLatency latency = UpdateLatency();
+
+  /// Updates one by one, oldest first, as [contract] asks; they arrive in
+  /// packed batches. Listen again to change the contract.
+  static Stream<NavigationUpdate> navigationUpdates(
+      [UpdateContract contract = UpdateContract.foreground]) {
+    return _updateChannel
+        .receiveBroadcastStream(contract.toArguments())
+        .expand((event) {
+      if (event is! Uint8List) return const <NavigationUpdate>[];
+      final updates = NavigationUpdate.decodeBatch(event);
+      final now = DateTime.now().millisecondsSinceEpoch;
+      for (final update in updates) {
+        latency.record(update, now);
+      }
+      if (kDebugMode && latency.count % 100 < updates.length) {
+        debugPrint('$latency');
+      }
+      return updates;
+    });
+  }
+}
+
+List<TrailPoint> _toTrailPoints(Float64List points) {
+  return List<TrailPoint>.generate(
+    points.length ~/ 3,
+    (i) => TrailPoint(points[i * 3], points[i * 3 + 1], points[i * 3 + 2]),
+    growable: false,
+  );
+}
+
+Trail _parseTrailSummary(dynamic raw) {
+  final Map<dynamic, dynamic> json = raw;
   return Trail(
     id: json['id'],
     mountainId: json['mountainId'],
@@ -79,7 +137,7 @@ Trail _parseNativeTrail(dynamic rawJson) {
     distance: (json['distance'] as num?)?.toDouble() ?? 0.0,
     elevationGain: (json['elevationGain'] as num?)?.toDouble() ?? 0.0,
     difficulty: (json['difficulty'] as num?)?.toInt() ?? 1,
-    geometryJson: geometry,
+    geometryJson: const [],
     minLat: (json['minLat'] as num?)?.toDouble() ?? 0,
     maxLat: (json['maxLat'] as num?)?.toDouble() ?? 0,
     minLng: (json['minLng'] as num?)?.toDouble() ?? 0,
@@ -89,6 +147,26 @@ Trail _parseNativeTrail(dynamic rawJson) {
   );
 }
 
-final nativeNavigationProvider = StreamProvider<Map<String, dynamic>>((ref) {
-  return NativeBridge.navigationUpdates;
+/// Whether the app is on screen; off screen the updates contract drops to
+/// what keeps the safety state current.
+class AppVisibleNotifier extends Notifier<bool> {
+  @override
+  bool build() {
+    final listener = AppLifecycleListener(
+      onStateChange: (lifecycle) => state =
+          lifecycle == AppLifecycleState.resumed ||
+              lifecycle == AppLifecycleState.inactive,
+    );
+    ref.onDispose(listener.dispose);
+    return true;
+  }
+}
+
+final appVisibleProvider =
+    NotifierProvider<AppVisibleNotifier, bool>(AppVisibleNotifier.new);
+
+final nativeNavigationProvider = StreamProvider<NavigationUpdate>((ref) {
+  final visible = ref.watch(appVisibleProvider);
+  return NativeBridge.navigationUpdates(
+      visible ? UpdateContract.foreground : UpdateContract.background);
 });
@@ -5,8 +5,8 @@ import '../../../data/local/db/app_database.dart';
 import '../../../data/local/db/converters.dart';
 import 'deviation_engine.dart';
 import 'gps_state_machine.dart';
+import 'native_bridge.dart';
 // import '../../../core/services/track_loader_service.dart';
-import 'routing/routing_engine.dart';
 
 // Database Provider
 final databaseProvider = Provider<AppDatabase>((ref) {
@@ -72,6 +72,11 @@ final activeTrailsProvider =
   final db = ref.watch(databaseProvider);
   return db.navigationDao.getTrailsForMountain(mountainId);
 });
+// Trail list for pickers: native summaries, no geometry (see NativeBridge.getTrails)
+final trailSummariesProvider =
+    FutureProvider.autoDispose.family<List<Trail>, String>((ref, mountainId) {
+  return NativeBridge.getTrails(mountainId);
+});
 final activePoisProvider = FutureProvider.family<List<PointOfInterest>, String>(
     (ref, mountainId) async {
   final db = ref.watch(databaseProvider);
@@ -122,22 +127,8 @@ final dangerZonesProvider = Provider<List<List<LatLng>>>((ref) {
   return [];
 });
 
-// --- ROUTING ENGINE ---
-
-/// Provides the RoutingEngine initialized with the active mountain's trails.
-/// Rebuilds automatically when [activeMountainIdProvider] changes.
-final routingEngineProvider = Provider<RoutingEngine>((ref) {
-  final engine = RoutingEngine();
-  final mountainId = ref.watch(activeMountainIdProvider);
-  final trailsAsync = ref.watch(activeTrailsProvider(mountainId));
-
-  // Initialize graph if trails are loaded
-  if (trailsAsync.value != null) {
-    engine.initializeGraph(trailsAsync.value!);
-  }
-
-  return engine;
-});
+// --- ROUTING ---
+// Routes are found natively, see NativeBridge.findRoute.
 
 /// Holds the currently calculated route path (if any).
 final routePathProvider = StateProvider<List<LatLng>?>((ref) => null);
@@ -0,0 +1,191 @@
+import 'dart:convert';
+import 'dart:typed_data';
+
+/// What the updates subscriber asks the native service for, sent as the
+/// listen arguments of `com.pandu.nav/updates`. Updates that moved less than
+/// [minMoveMeters] and turned less than [minHeadingDegrees] since the last
+/// one are not sent (0 leaves that delta out; both 0 send every update), and
+/// none come more often than [maxRateHz], only the newest waiting. A status
+/// change is always sent, a change to DANGER at once.
+class UpdateContract {
+  /// Field names as the service knows them; time, position and status always come.
+  static const List<String> allFields = [
+    'altitude',
+    'accuracy',
+    'bearing',
+    'speed',
+    'distance',
+    'trail',
+  ];
+
+  /// The map on screen.
+  static const foreground = UpdateContract(
+    maxRateHz: 2,
+    fields: allFields,
+    minMoveMeters: 1,
+    minHeadingDegrees: 5,
+  );
+
+  /// Screen off or app in the background: enough to keep the safety state current.
+  static const background = UpdateContract(
+    maxRateHz: 0.1,
+    fields: ['distance'],
+    minMoveMeters: 25,
+  );
+
+  /// 0: no limit.
+  final double maxRateHz;
+  final List<String> fields;
+  final double minMoveMeters;
+  final double minHeadingDegrees;
+
+  const UpdateContract({
+    this.maxRateHz = 0,
+    this.fields = allFields,
+    this.minMoveMeters = 0,
+    this.minHeadingDegrees = 0,
+  });
+
+  Map<String, dynamic> toArguments() => {
+        'maxRateHz': maxRateHz,
+        'fields': fields,
+        'minMoveMeters': minMoveMeters,
+        'minHeadingDegrees': minHeadingDegrees,
+      };
+}
+
+/// One navigation update from the native service.
+///
+/// Updates arrive on `com.pandu.nav/updates` as packed batches; the layout
+/// is documented on the Java side in `UpdateStream` and read here field by
+/// field at fixed offsets, without an intermediate map. Fields the contract
+/// left out are null.
+class NavigationUpdate {
+  static const int version = 2;
+  static const int headerBytes = 6;
+  static const int baseRecordBytes = 34;
+  static const int fieldAltitude = 1;
+  static const int fieldAccuracy = 1 << 1;
+  static const int fieldBearing = 1 << 2;
+  static const int fieldSpeed = 1 << 3;
+  static const int fieldDistance = 1 << 4;
+  static const int fieldTrail = 1 << 5;
+  static const int flagDeadReckoned = 1;
+  static const List<String> statuses = ['SAFE', 'WARNING', 'DANGER'];
+
+  /// Of the fix, or of the step window when dead reckoned; ms since epoch.
+  final int timeMs;
+
+  /// When the service had it, ms since epoch; latency is measured from here.
+  final int receivedMs;
+  final double lat;
+  final double lng;
+
+  /// SAFE, WARNING or DANGER.
+  final String status;
+  final bool deadReckoned;
+  final double? altitude;
+  final double? accuracy;
+  final double? bearing;
+  final double? speed;
+
+  /// Meters to the trail, negative when unknown.
+  final double? distance;
+  final String? trailId;
+  final int? segmentIndex;
+  final double? alongTrack;
+
+  const NavigationUpdate({
+    required this.timeMs,
+    required this.receivedMs,
+    required this.lat,
+    required this.lng,
+    required this.status,
+    required this.deadReckoned,
+    this.altitude,
+    this.accuracy,
+    this.bearing,
+    this.speed,
+    this.distance,
+    this.trailId,
+    this.segmentIndex,
+    this.alongTrack,
+  });
+
+  /// Decodes one batch, oldest update first.
+  static List<NavigationUpdate> decodeBatch(Uint8List bytes) {
+    final data = ByteData.sublistView(bytes);
+    if (data.getUint8(0) != version) {
+      throw FormatException('Unknown update batch version ${data.getUint8(0)}');
+    }
+    final size = data.getUint8(1);
+    final count = data.getUint16(2, Endian.little);
+    final fields = data.getUint16(4, Endian.little);
+    bool has(int field) => (fields & field) != 0;
+
+    var at = headerBytes + count * size;
+    final trails = !has(fieldTrail)
+        ? const <String>[]
+        : List<String>.generate(data.getUint8(at++), (_) {
+            final length = data.getUint16(at, Endian.little);
+            final id = utf8.decode(Uint8List.sublistView(bytes, at + 2, at + 2 + length));
+            at += 2 + length;
+            return id;
+          });
+
+    return List<NavigationUpdate>.generate(count, (i) {
+      final r = headerBytes + i * size;
+      var f = r + baseRecordBytes;
+      double? nextFloat(int field) {
+        if (!has(field)) return null;
+        f += 4;
+        return data.getFloat32(f - 4, Endian.little);
+      }
+
+      final status = data.getUint8(r + 32);
+      final altitude = nextFloat(fieldAltitude);
+      final accuracy = nextFloat(fieldAccuracy);
+      final bearing = nextFloat(fieldBearing);
+      final speed = nextFloat(fieldSpeed);
+      final distance = nextFloat(fieldDistance);
+      final trail = has(fieldTrail) ? data.getInt16(f + 12, Endian.little) : -1;
+      return NavigationUpdate(
+        timeMs: data.getInt64(r, Endian.little),
+        receivedMs: data.getInt64(r + 8, Endian.little),
+        lat: data.getFloat64(r + 16, Endian.little),
+        lng: data.getFloat64(r + 24, Endian.little),
+        status: status < statuses.length ? statuses[status] : 'SAFE',
+        deadReckoned: (data.getUint8(r + 33) & flagDeadReckoned) != 0,
+        altitude: altitude,
+        accuracy: accuracy,
+        bearing: bearing,
+        speed: speed,
+        distance: distance,
+        alongTrack: has(fieldTrail) ? data.getFloat64(f, Endian.little) : null,
+        segmentIndex: has(fieldTrail) ? data.getInt32(f + 8, Endian.little) : null,
+        trailId: trail >= 0 && trail < trails.length ? trails[trail] : null,
+      );
+    }, growable: false);
+  }
+}
+
+/// Fix-to-Dart latency of the updates seen so far, from the service
+/// receiving a fix to its update being decoded here.
+class UpdateLatency {
+  int count = 0;
+  int totalMs = 0;
+  int maxMs = 0;
+
+  void record(NavigationUpdate update, int nowMs) {
+    final latency = nowMs - update.receivedMs;
+    count++;
+    totalMs += latency;
+    if (latency > maxMs) maxMs = latency;
+  }
+
+  double get averageMs => count == 0 ? 0 : totalMs / count;
+
+  @override
+  String toString() =>
+      'Updates: $count, latency avg ${averageMs.toStringAsFixed(1)} ms, max $maxMs ms';
+}
@@ -13,6 +13,7 @@ import 'package:geolocator/geolocator.dart';
 import '../../../data/local/db/app_database.dart';
 // import '../../../../core/services/seeding_service.dart';
 import '../logic/navigation_providers.dart';
+import '../logic/native_bridge.dart';
 // import '../logic/haptic_compass_controller.dart';
 import '../logic/deviation_engine.dart';
 import '../logic/backtrack_engine.dart';
@@ -591,10 +592,10 @@ class _OfflineMapScreenState extends ConsumerState<OfflineMapScreen> {
       const SnackBar(content: Text('Calculating route...')),
     );
 
-    // Run in background / ensure it doesn't block too much
-    // Since RoutingEngine is synchronous (fast for <10k nodes), we can call directly.
-    final engine = ref.read(routingEngineProvider);
-    final path = engine.findRoute(start, destination);
+    // Routed natively on a background thread; the UI isolate only awaits
+    final path = await NativeBridge.findRoute(
+        ref.read(activeMountainIdProvider), start, destination);
+    if (!mounted) return;
 
     if (path != null) {
       ref.read(routePathProvider.notifier).state = path;
@@ -75,6 +75,8 @@ class _StitchMapScreenState extends ConsumerState<StitchMapScreen> {
     final status = await Permission.location.request();
 
     if (status.isGranted) {
+      // Optional: without it the service tracks on GPS alone
+      await Permission.activityRecognition.request();
       NativeBridge.startService(trailId: widget.trail?.id);
     } else if (status.isPermanentlyDenied) {
       if (mounted) {
@@ -111,18 +113,17 @@ class _StitchMapScreenState extends ConsumerState<StitchMapScreen> {
 
   @override
   Widget build(BuildContext context) {
-    final navState = ref.watch(nativeNavigationProvider).valueOrNull ?? {};
+    final navState = ref.watch(nativeNavigationProvider).valueOrNull;
 
     // Extract REAL navigation data from native bridge (show '--' if unavailable)
-    final double? altitude = (navState['altitude'] as num?)?.toDouble();
-    final double? accuracy = (navState['accuracy'] as num?)?.toDouble();
+    final double? altitude = navState?.altitude;
+    final double? accuracy = navState?.accuracy;
     final double bearing = _compassHeading; // Use real compass
 
-    final String statusRaw = navState['status'] ?? 'SAFE';
+    final String statusRaw = navState?.status ?? 'SAFE';
     final bool isDanger = statusRaw == 'DANGER';
     final bool isWarning = statusRaw == 'WARNING';
-    final double deviationDist =
-        (navState['distance'] as num?)?.toDouble() ?? 0.0;
+    final double deviationDist = navState?.distance ?? 0.0;
 
     // Trail info
     final String trailName = widget.trail?.name ?? 'Unknown Trail';
@@ -4,8 +4,10 @@ import 'package:go_router/go_router.dart';
 import '../../navigation/presentation/widgets/stitch/stitch_theme.dart';
 import '../../navigation/presentation/widgets/stitch/stitch_glass_panel.dart';
 import '../../navigation/presentation/widgets/stitch/stitch_typography.dart';
+import '../../navigation/logic/native_bridge.dart';
 import '../../navigation/logic/navigation_providers.dart';
 import '../../../data/local/db/app_database.dart';
+import '../../../data/local/db/converters.dart';
 
 /// Premium Track Selection Screen matching pandu_track_selection_merbabu design
 class StitchTrackSelectionScreen extends ConsumerWidget {
@@ -14,7 +16,7 @@ class StitchTrackSelectionScreen extends ConsumerWidget {
   @override
   Widget build(BuildContext context, WidgetRef ref) {
     final mountainId = ref.watch(activeMountainIdProvider);
-    final trailsAsync = ref.watch(activeTrailsProvider(mountainId));
+    final trailsAsync = ref.watch(trailSummariesProvider(mountainId));
 
     return Scaffold(
       backgroundColor: StitchTheme.backgroundDark,
@@ -208,21 +210,12 @@ class _StitchTrackCard extends StatelessWidget {
 
   @override
   Widget build(BuildContext context) {
-    final distanceKm = (trail.distance / 1000).toStringAsFixed(1);
-    final elevationM = trail.elevationGain.toInt();
-
-    // Extract surface info from first point (if available)
-    String surface = 'Unknown Surface';
-    if (trail.geometryJson.isNotEmpty) {
-      final firstPoint = trail.geometryJson.first;
-      if (firstPoint.surface != null) {
-        // Format: "unpaved" -> "Unpaved"
-        surface = firstPoint.surface!.substring(0, 1).toUpperCase() +
-            firstPoint.surface!.substring(1);
-        // Clean up common OSM tags
-        surface = surface.replaceAll('_', ' ');
-      }
-    }
+    // Both come from the GPX at seeding; trails seeded before that hold 0
+    final distance = trail.distance > 0
+        ? '${(trail.distance / 1000).toStringAsFixed(1)} km'
+        : '-- km';
+    final elevation =
+        trail.distance > 0 ? '+${trail.elevationGain.toInt()} m' : '-- m';
 
     return StitchGlassPanel(
       onTap: onTap,
@@ -264,9 +257,9 @@ class _StitchTrackCard extends StatelessWidget {
                     const SizedBox(height: 6),
                     Row(
                       children: [
-                        _buildStat(Icons.straighten, '$distanceKm km'),
+                        _buildStat(Icons.straighten, distance),
                         const SizedBox(width: 16),
-                        _buildStat(Icons.trending_up, '+$elevationM m'),
+                        _buildStat(Icons.trending_up, elevation),
                       ],
                     ),
                   ],
@@ -321,11 +314,11 @@ class _StitchTrackCard extends StatelessWidget {
                 ],
               ),
 
-              // Surface Type
+              // Trailhead elevation, from the geometry fetched when the card shows
               Column(
                 crossAxisAlignment: CrossAxisAlignment.end,
                 children: [
-                  Text('SURFACE',
+                  Text('TRAILHEAD',
                       style: StitchTypography.labelMicro
                           .copyWith(color: StitchTheme.textDim)),
                   const SizedBox(height: 4),
@@ -334,10 +327,18 @@ class _StitchTrackCard extends StatelessWidget {
                       Icon(Icons.terrain,
                           size: 12, color: StitchTheme.textMuted),
                       const SizedBox(width: 4),
-                      Text(
-                        surface,
-                        style: StitchTypography.labelTiny
-                            .copyWith(color: StitchTheme.textMuted),
+                      FutureBuilder<List<TrailPoint>>(
+                        future: NativeBridge.getTrailGeometry(trail.id),
+                        builder: (context, snapshot) {
+                          final points = snapshot.data;
+                          return Text(
+                            points == null || points.isEmpty
+                                ? '-- m'
+                                : '${points.first.elevation.toInt()} m',
+                            style: StitchTypography.labelTiny
+                                .copyWith(color: StitchTheme.textMuted),
+                          );
+                        },
                       ),
                     ],
                   ),
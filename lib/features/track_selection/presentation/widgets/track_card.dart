@@ -14,8 +14,13 @@ class TrackCard extends StatelessWidget {
 
   @override
   Widget build(BuildContext context) {
-    final distanceKm = (trail.distance / 1000).toStringAsFixed(1);
-    final elevationM = trail.elevationGain.toStringAsFixed(0);
+    // Both come from the GPX at seeding; trails seeded before that hold 0
+    final distance = trail.distance > 0
+        ? '${(trail.distance / 1000).toStringAsFixed(1)} km'
+        : '-- km';
+    final elevation = trail.distance > 0
+        ? '+${trail.elevationGain.toStringAsFixed(0)} m'
+        : '-- m';
 
     return GestureDetector(
       onTap: onTap,
@@ -65,9 +70,9 @@ class TrackCard extends StatelessWidget {
                     scrollDirection: Axis.horizontal,
                     child: Row(
                       children: [
-                        _buildStat(Icons.straighten, '$distanceKm km'),
+                        _buildStat(Icons.straighten, distance),
                         const SizedBox(width: 16),
-                        _buildStat(Icons.trending_up, '+$elevationM m'),
+                        _buildStat(Icons.trending_up, elevation),
                         const SizedBox(width: 16),
                         _buildDifficultyIndicator(trail.difficulty),
                       ],
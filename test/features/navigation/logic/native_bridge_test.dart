@@ -1,6 +1,7 @@
-import 'dart:convert';
+import 'dart:typed_data';
 import 'package:flutter/services.dart';
 import 'package:flutter_test/flutter_test.dart';
+import 'package:maplibre_gl/maplibre_gl.dart';
 import 'package:pandu_navigation/features/navigation/logic/native_bridge.dart';
 import 'package:pandu_navigation/data/local/db/app_database.dart';
 
@@ -9,47 +10,101 @@ void main() {
 
   const MethodChannel channel = MethodChannel('com.pandu.nav/commands');
 
-  test('getTrails parses JSON in background', () async {
-    // Generate test data
-    final trailsData = [
-      {
-        'id': 'trail_1',
-        'mountainId': 'mt_1',
-        'name': 'Trail 1',
-        'distance': 1000.0,
-        'elevationGain': 100.0,
-        'difficulty': 2,
-        'geometryJson': jsonEncode([
-          [110.0, -7.0, 1000.0],
-          [110.001, -7.001, 1010.0]
-        ]),
-        'minLat': -7.001,
-        'maxLat': -7.0,
-        'minLng': 110.0,
-        'maxLng': 110.001,
-      }
-    ];
-    final jsonStr = jsonEncode(trailsData);
+  tearDown(() {
+    NativeBridge.clearTrailGeometry();
+    TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+        .setMockMethodCallHandler(channel, null);
+  });
 
-    // Mock the method channel
+  test('getTrails returns summaries without geometry', () async {
     TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
         .setMockMethodCallHandler(channel, (MethodCall methodCall) async {
       if (methodCall.method == 'getTrails') {
-        return jsonStr;
+        return [
+          {
+            'id': 'trail_1',
+            'mountainId': 'mt_1',
+            'name': 'Trail 1',
+            'distance': 1000.0,
+            'elevationGain': 100.0,
+            'difficulty': 2,
+            'minLat': -7.001,
+            'maxLat': -7.0,
+            'minLng': 110.0,
+            'maxLng': 110.001,
+          }
+        ];
       }
       return null;
     });
 
-    // Call the method
     final trails = await NativeBridge.getTrails('mt_1');
 
-    // Verify results
     expect(trails, isA<List<Trail>>());
     expect(trails.length, 1);
     expect(trails.first.id, 'trail_1');
     expect(trails.first.name, 'Trail 1');
-    expect(trails.first.geometryJson.length, 2);
-    expect(trails.first.geometryJson[0].lat, -7.0);
-    expect(trails.first.geometryJson[0].lng, 110.0);
+    expect(trails.first.difficulty, 2);
+    expect(trails.first.minLat, -7.001);
+    expect(trails.first.geometryJson, isEmpty);
+  });
+
+  test('getTrailGeometry reads typed points once per trail', () async {
+    var calls = 0;
+    TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+        .setMockMethodCallHandler(channel, (MethodCall methodCall) async {
+      if (methodCall.method == 'getTrailGeometry') {
+        calls++;
+        expect(methodCall.arguments['trailId'], 'trail_1');
+        return Float64List.fromList([-7.0, 110.0, 1000.0, -7.001, 110.001, 1010.0]);
+      }
+      return null;
+    });
+
+    final points = await NativeBridge.getTrailGeometry('trail_1');
+    await NativeBridge.getTrailGeometry('trail_1');
+
+    expect(calls, 1);
+    expect(points.length, 2);
+    expect(points[0].lat, -7.0);
+    expect(points[0].lng, 110.0);
+    expect(points[1].elevation, 1010.0);
+  });
+
+  test('a failed geometry fetch is not cached', () async {
+    var calls = 0;
+    TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+        .setMockMethodCallHandler(channel, (MethodCall methodCall) async {
+      calls++;
+      throw PlatformException(code: 'NOT_FOUND');
+    });
+
+    expect(await NativeBridge.getTrailGeometry('missing'), isEmpty);
+    expect(await NativeBridge.getTrailGeometry('missing'), isEmpty);
+    expect(calls, 2);
+  });
+
+  test('findRoute turns the native lat/lng pairs into a path', () async {
+    TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+        .setMockMethodCallHandler(channel, (MethodCall methodCall) async {
+      if (methodCall.method == 'findRoute') {
+        expect(methodCall.arguments['mountainId'], 'mt_1');
+        expect(methodCall.arguments['endLng'], 110.002);
+        return methodCall.arguments['endLat'] > 0
+            ? null
+            : Float64List.fromList([-7.0, 110.0, -7.001, 110.001, -7.002, 110.002]);
+      }
+      return null;
+    });
+
+    final path = await NativeBridge.findRoute(
+        'mt_1', const LatLng(-7.0, 110.0), const LatLng(-7.002, 110.002));
+    final offNetwork = await NativeBridge.findRoute(
+        'mt_1', const LatLng(-7.0, 110.0), const LatLng(7.0, 110.002));
+
+    expect(path, hasLength(3));
+    expect(path![1].latitude, -7.001);
+    expect(path![2].longitude, 110.002);
+    expect(offNetwork, isNull);
   });
 }
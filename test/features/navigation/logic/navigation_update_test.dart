@@ -0,0 +1,164 @@
+import 'dart:convert';
+import 'dart:typed_data';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:pandu_navigation/features/navigation/logic/navigation_update.dart';
+
+const _allFields = 0x3f;
+
+int _recordBytes(int fields) {
+  const fieldBytes = [4, 4, 4, 4, 4, 14];
+  var bytes = NavigationUpdate.baseRecordBytes;
+  for (var i = 0; i < fieldBytes.length; i++) {
+    if (fields & (1 << i) != 0) bytes += fieldBytes[i];
+  }
+  return bytes;
+}
+
+/// Packs records the way UpdateStream does on the Java side.
+Uint8List _batch(List<Map<String, dynamic>> records, List<String> trails,
+    {int fields = _allFields}) {
+  final size = _recordBytes(fields);
+  final withTrails = fields & NavigationUpdate.fieldTrail != 0;
+  final ids = trails.map(utf8.encode).toList();
+  final tableBytes = withTrails
+      ? 1 + ids.fold<int>(0, (sum, id) => sum + 2 + id.length)
+      : 0;
+  final bytes = Uint8List(
+      NavigationUpdate.headerBytes + records.length * size + tableBytes);
+  final data = ByteData.sublistView(bytes);
+  data.setUint8(0, NavigationUpdate.version);
+  data.setUint8(1, size);
+  data.setUint16(2, records.length, Endian.little);
+  data.setUint16(4, fields, Endian.little);
+  for (var i = 0; i < records.length; i++) {
+    final r = NavigationUpdate.headerBytes + i * size;
+    final record = records[i];
+    data.setInt64(r, record['time'], Endian.little);
+    data.setInt64(r + 8, record['received'], Endian.little);
+    data.setFloat64(r + 16, record['lat'], Endian.little);
+    data.setFloat64(r + 24, record['lng'], Endian.little);
+    data.setUint8(r + 32, record['status']);
+    data.setUint8(r + 33, record['flags']);
+    var f = r + NavigationUpdate.baseRecordBytes;
+    for (final entry in [
+      [NavigationUpdate.fieldAltitude, 2100.5],
+      [NavigationUpdate.fieldAccuracy, 4.5],
+      [NavigationUpdate.fieldBearing, 90.0],
+      [NavigationUpdate.fieldSpeed, 1.25],
+      [NavigationUpdate.fieldDistance, record['distance']],
+    ]) {
+      if (fields & (entry[0] as int) != 0) {
+        data.setFloat32(f, entry[1] as double, Endian.little);
+        f += 4;
+      }
+    }
+    if (withTrails) {
+      data.setFloat64(f, 350.5, Endian.little);
+      data.setInt32(f + 8, record['trail'] >= 0 ? 7 : -1, Endian.little);
+      data.setInt16(f + 12, record['trail'], Endian.little);
+    }
+  }
+  if (withTrails) {
+    var at = NavigationUpdate.headerBytes + records.length * size;
+    data.setUint8(at++, ids.length);
+    for (final id in ids) {
+      data.setUint16(at, id.length, Endian.little);
+      bytes.setRange(at + 2, at + 2 + id.length, id);
+      at += 2 + id.length;
+    }
+  }
+  return bytes;
+}
+
+void main() {
+  test('decodes a packed batch oldest first', () {
+    final bytes = _batch([
+      {
+        'time': 1000, 'received': 1040, 'lat': -7.45, 'lng': 110.44,
+        'distance': 12.25, 'trail': 0, 'status': 1, 'flags': 0,
+      },
+      {
+        'time': 3000, 'received': 3010, 'lat': -7.4501, 'lng': 110.4401,
+        'distance': -1.0, 'trail': -1, 'status': 2, 'flags': 1,
+      },
+    ], [
+      'merbabu_selo'
+    ]);
+
+    final updates = NavigationUpdate.decodeBatch(bytes);
+
+    expect(updates.length, 2);
+    final first = updates[0];
+    expect(first.timeMs, 1000);
+    expect(first.receivedMs, 1040);
+    expect(first.lat, -7.45);
+    expect(first.lng, 110.44);
+    expect(first.altitude, 2100.5);
+    expect(first.accuracy, 4.5);
+    expect(first.bearing, 90.0);
+    expect(first.speed, 1.25);
+    expect(first.distance, 12.25);
+    expect(first.status, 'WARNING');
+    expect(first.trailId, 'merbabu_selo');
+    expect(first.segmentIndex, 7);
+    expect(first.alongTrack, 350.5);
+    expect(first.deadReckoned, isFalse);
+
+    final second = updates[1];
+    expect(second.status, 'DANGER');
+    expect(second.trailId, isNull);
+    expect(second.segmentIndex, -1);
+    expect(second.distance, -1.0);
+    expect(second.deadReckoned, isTrue);
+  });
+
+  test('fields left out of the contract decode as null', () {
+    final bytes = _batch([
+      {
+        'time': 1000, 'received': 1040, 'lat': -7.45, 'lng': 110.44,
+        'distance': 60.0, 'trail': -1, 'status': 2, 'flags': 0,
+      },
+    ], [], fields: NavigationUpdate.fieldDistance);
+
+    final update = NavigationUpdate.decodeBatch(bytes).single;
+
+    expect(update.status, 'DANGER');
+    expect(update.lat, -7.45);
+    expect(update.distance, 60.0);
+    expect(update.altitude, isNull);
+    expect(update.accuracy, isNull);
+    expect(update.trailId, isNull);
+    expect(update.alongTrack, isNull);
+  });
+
+  test('rejects an unknown batch version', () {
+    final bytes = _batch([], []);
+    bytes[0] = NavigationUpdate.version + 1;
+    expect(() => NavigationUpdate.decodeBatch(bytes), throwsFormatException);
+  });
+
+  test('contracts travel as listen arguments', () {
+    final arguments = UpdateContract.background.toArguments();
+    expect(arguments['maxRateHz'], 0.1);
+    expect(arguments['fields'], ['distance']);
+    expect(arguments['minMoveMeters'], 25);
+    expect(arguments['minHeadingDegrees'], 0);
+  });
+
+  test('latency runs from the service receiving the fix', () {
+    final update = NavigationUpdate.decodeBatch(_batch([
+      {
+        'time': 1000, 'received': 1040, 'lat': -7.45, 'lng': 110.44,
+        'distance': 0.0, 'trail': -1, 'status': 0, 'flags': 0,
+      },
+    ], []))
+        .single;
+    final latency = UpdateLatency()
+      ..record(update, 1052)
+      ..record(update, 1048);
+
+    expect(latency.count, 2);
+    expect(latency.maxMs, 12);
+    expect(latency.averageMs, 10);
+  });
+}